@@ -0,0 +1,76 @@
+package code.simulation;
+
+/**
+ * Merges colliding bodies of a kernel: the lighter body is absorbed by the
+ * heavier one, which takes over its mass and volume. An absorbed body keeps
+ * its slot with a radius and mass of 0, so it is no longer drawn nor tested.
+ *
+ * While an {@link NBodyPropagator} drives the kernel the merge also conserves
+ * momentum: the merged body moves from the centre of mass with the combined
+ * momentum and the absorbed one is carried along as a massless point. With
+ * kinematic orbits the absorbed body only disappears.
+ */
+public class Accretion implements CollisionListener {
+
+	private final SimulationKernel kernel;
+	private NBodyPropagator nBody = null;
+	private int merges = 0;
+
+	public Accretion(SimulationKernel kernel){
+		this.kernel = kernel;
+	}
+
+	@Override
+	public void collision(int a, int b, float overlap, boolean started){
+		// Either body may already have been absorbed by an earlier pair of the same detection
+		if( kernel.getRadius(a) <= 0.f || kernel.getRadius(b) <= 0.f ){
+			return;
+		}
+		float massA = kernel.getMass(a), massB = kernel.getMass(b);
+		int into = massB > massA ? b : a;
+		int gone = into == a ? b : a;
+		float mass = massA + massB;
+		float ra = kernel.getRadius(a), rb = kernel.getRadius(b);
+
+		NBodyState state = nBody != null ? nBody.getState() : null;
+		if( state != null ){
+			double mi = state.getMass(into), mg = state.getMass(gone), m = mi + mg;
+			if( m > 0.0 ){
+				state.setPosition(into,
+						(mi * state.getX(into) + mg * state.getX(gone)) / m,
+						(mi * state.getY(into) + mg * state.getY(gone)) / m,
+						(mi * state.getZ(into) + mg * state.getZ(gone)) / m);
+				state.setVelocity(into,
+						(mi * state.getVelocityX(into) + mg * state.getVelocityX(gone)) / m,
+						(mi * state.getVelocityY(into) + mg * state.getVelocityY(gone)) / m,
+						(mi * state.getVelocityZ(into) + mg * state.getVelocityZ(gone)) / m);
+			}
+			state.setMass(into, m);
+			state.setMass(gone, 0.0);
+			state.setPosition(gone, state.getX(into), state.getY(into), state.getZ(into));
+			state.setVelocity(gone, state.getVelocityX(into), state.getVelocityY(into), state.getVelocityZ(into));
+		}
+
+		kernel.setMass(into, mass);
+		kernel.setRadius(into, (float)Math.cbrt(ra * ra * ra + rb * rb * rb));
+		kernel.setMass(gone, 0.f);
+		kernel.setRadius(gone, 0.f);
+		merges++;
+	}
+
+	public NBodyPropagator getNBody() {
+		return nBody;
+	}
+
+	/**
+	 * @param nBody Propagator whose state is merged as well, or null for kinematic orbits.
+	 */
+	public void setNBody(NBodyPropagator nBody) {
+		this.nBody = nBody;
+	}
+
+	public int getMerges() {
+		return merges;
+	}
+
+}
@@ -0,0 +1,37 @@
+package code.simulation;
+
+/**
+ * Data-parallel part of a kernel step: advancing the angles of all bodies and
+ * taking the sine and cosine of their orbit angles. Every body is independent,
+ * bodies are processed in lanes over contiguous slots.
+ *
+ * The implementation is chosen once at startup with the system property
+ * {@value #PROPERTY}: "scalar" for the plain loops of {@link ScalarAngleKernel}
+ * using {@link Math}, anything else for {@link PolynomialAngleKernel}.
+ */
+public interface AngleKernel {
+
+	String PROPERTY = "solarsystem.angles";
+
+	/**
+	 * Adds speed times dT to every angle and wraps the result into [0, TWO_PI).
+	 */
+	void advance(float[] angle, float[] speed, float dT, int from, int to);
+
+	/**
+	 * Cosine and sine of every angle in [0, TWO_PI).
+	 */
+	void sinCos(float[] angle, float[] cos, float[] sin, int from, int to);
+
+	String getName();
+
+	/**
+	 * @return Kernel selected by the system property.
+	 */
+	static AngleKernel fromSystemProperty(){
+		if( "scalar".equals(System.getProperty(PROPERTY)) ){
+			return new ScalarAngleKernel();
+		}
+		return new PolynomialAngleKernel();
+	}
+}
@@ -0,0 +1,80 @@
+package code.simulation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Compares the angle kernels on a large headless system, run with
+ * "java code.simulation.AngleKernelBenchmark [bodies] [steps]".
+ *
+ * Reports bodies processed per nanosecond by the data-parallel part of a
+ * step alone and by a whole kernel step, and the largest difference of the
+ * sines and cosines to the scalar kernel.
+ */
+public class AngleKernelBenchmark {
+
+	public static void main(String[] args){
+		int bodies = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		SplittableRandom random = new SplittableRandom(42);
+		float[] angle = new float[bodies];
+		float[] speed = new float[bodies];
+		for( int i = 0; i < bodies; i++ ){
+			angle[i] = (float)(random.nextDouble() * SimulationKernel.TWO_PI);
+			speed[i] = (float)(random.nextDouble() * 20.0 - 10.0);
+		}
+		AngleKernel[] kernels = { new ScalarAngleKernel(), new PolynomialAngleKernel() };
+
+		System.out.println("Bodies: " + bodies + ", steps: " + steps);
+		float[] refCos = new float[bodies], refSin = new float[bodies];
+		kernels[0].sinCos(angle, refCos, refSin, 0, bodies);
+		for( AngleKernel kernel : kernels ){
+			float[] a = angle.clone();
+			float[] cos = new float[bodies], sin = new float[bodies];
+			// Warm up so that the measured loops are compiled
+			for( int s = 0; s < 20; s++ ){
+				kernel.advance(a, speed, 1.f / 240.f, 0, bodies);
+				kernel.sinCos(a, cos, sin, 0, bodies);
+			}
+			long start = System.nanoTime();
+			for( int s = 0; s < steps; s++ ){
+				kernel.advance(a, speed, 1.f / 240.f, 0, bodies);
+				kernel.sinCos(a, cos, sin, 0, bodies);
+			}
+			double lanes = (double)bodies * steps / (System.nanoTime() - start);
+
+			kernel.sinCos(angle, cos, sin, 0, bodies);
+			double error = 0.0;
+			for( int i = 0; i < bodies; i++ ){
+				error = Math.max(error, Math.max(Math.abs(cos[i] - refCos[i]), Math.abs(sin[i] - refSin[i])));
+			}
+			System.out.println(String.format("%-10s angles: %7.3f bodies/ns, kernel step: %7.3f bodies/ns, max error %.2e",
+					kernel.getName(), lanes, kernelStep(kernel, bodies, steps), error));
+		}
+	}
+
+	/**
+	 * Whole kernel steps on a flat system: one sun and all other bodies orbiting it.
+	 */
+	private static double kernelStep(AngleKernel angles, int bodies, int steps){
+		SimulationKernel kernel = new SimulationKernel(bodies);
+		SplittableRandom random = new SplittableRandom(7);
+		int sun = kernel.addBody();
+		for( int i = 1; i < bodies; i++ ){
+			int body = kernel.addBody(sun);
+			kernel.setOrbitRadius(body, (float)(random.nextDouble() * 1000.0));
+			kernel.setOrbitRotationSpeed(body, (float)random.nextDouble());
+			kernel.setAxisRotationSpeed(body, (float)random.nextDouble());
+		}
+		kernel.setAngleKernel(angles);
+		for( int s = 0; s < 20; s++ ){
+			kernel.step(1.f / 240.f);
+		}
+		long start = System.nanoTime();
+		for( int s = 0; s < steps; s++ ){
+			kernel.step(1.f / 240.f);
+		}
+		return (double)bodies * steps / (System.nanoTime() - start);
+	}
+
+}
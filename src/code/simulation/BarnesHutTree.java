@@ -0,0 +1,427 @@
+package code.simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Octree approximation of gravitational forces (Barnes-Hut).
+ *
+ * The tree is rebuilt from scratch for every force evaluation. Bodies are
+ * partitioned in place inside an index array, so every node covers a
+ * contiguous range of it and leaves hold up to LEAF_SIZE bodies. Subtrees
+ * with enough bodies are built in parallel and the force pass is split
+ * over ranges of bodies, both on a {@link ForkJoinPool}.
+ *
+ * Results do not depend on the number of threads: every body sums its
+ * contributions in the same traversal order.
+ */
+public class BarnesHutTree implements ForceModel {
+
+	static final int LEAF_SIZE = 8;
+	static final int MAX_DEPTH = 40;
+	// Ranges smaller than this are handled on the current thread
+	static final int PARALLEL_CUTOFF = 2048;
+
+	private final ForkJoinPool pool;
+
+	// Opening angle, cells smaller than theta times their distance are approximated
+	private double theta = 0.5;
+	// Plummer softening length
+	private double softening = 1.0;
+	private double gravity = 1.0;
+
+	// Bodies sorted by the octree, every node covers index[lo, hi)
+	int[] index = new int[0];
+	private int[] scratch = new int[0];
+
+	// Nodes
+	private final AtomicInteger nodeCount = new AtomicInteger();
+	private boolean overflow;
+	int capacity = 0;
+	double[] nodeMass;
+	double[] comX, comY, comZ;
+	double[] cellX, cellY, cellZ, cellHalf;
+	int[] child;
+	int[] lo, hi;
+	boolean[] leaf;
+
+	public BarnesHutTree(){
+		this(ForkJoinPool.commonPool());
+	}
+
+	public BarnesHutTree(ForkJoinPool pool){
+		this.pool = pool;
+	}
+
+	/**
+	 * Builds the tree and stores accelerations and potentials of all bodies in the state.
+	 */
+	@Override
+	public void computeForces(NBodyState state){
+		build(state);
+		pool.invoke(new ForceTask(state, 0, state.count));
+	}
+
+	/**
+	 * Rebuilds the octree over the current positions of the state.
+	 */
+	public void build(NBodyState state){
+		int n = state.count;
+		if( index.length != n ){
+			index = new int[n];
+			scratch = new int[n];
+		}
+		for( int i = 0; i < n; i++ ){
+			index[i] = i;
+		}
+		if( capacity < 2 * n + 1 ){
+			allocateNodes(2 * n + 1);
+		}
+
+		// Bounding cube of all bodies
+		double[] bounds = pool.invoke(new BoundsTask(state, 0, n));
+		double cx = (bounds[0] + bounds[3]) * 0.5;
+		double cy = (bounds[1] + bounds[4]) * 0.5;
+		double cz = (bounds[2] + bounds[5]) * 0.5;
+		double half = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2])) * 0.5;
+		half = half * 1.0001 + 1e-9;
+
+		while( true ){
+			nodeCount.set(1);
+			overflow = false;
+			pool.invoke(new BuildTask(state, 0, 0, n, cx, cy, cz, half, 0));
+			if( !overflow ){
+				break;
+			}
+			allocateNodes(capacity * 2);
+		}
+	}
+
+	/**
+	 * Adds the acceleration and potential of the whole tree on one body.
+	 * @param stack Scratch stack of at least 7 * MAX_DEPTH + 8 elements.
+	 */
+	void accumulate(NBodyState state, int body, int[] stack){
+		double px = state.x[body], py = state.y[body], pz = state.z[body];
+		double eps2 = softening * softening;
+		double theta2 = theta * theta;
+		double fx = 0, fy = 0, fz = 0, phi = 0;
+
+		int top = 0;
+		stack[top++] = 0;
+		while( top > 0 ){
+			int node = stack[--top];
+			if( leaf[node] ){
+				for( int k = lo[node]; k < hi[node]; k++ ){
+					int j = index[k];
+					if( j == body ){
+						continue;
+					}
+					double dx = state.x[j] - px, dy = state.y[j] - py, dz = state.z[j] - pz;
+					double r2 = dx * dx + dy * dy + dz * dz + eps2;
+					double inv = 1.0 / Math.sqrt(r2);
+					double m = state.mass[j] * inv;
+					phi -= m;
+					m *= inv * inv;
+					fx += m * dx;
+					fy += m * dy;
+					fz += m * dz;
+				}
+				continue;
+			}
+			double dx = comX[node] - px, dy = comY[node] - py, dz = comZ[node] - pz;
+			double d2 = dx * dx + dy * dy + dz * dz;
+			double size = 2.0 * cellHalf[node];
+			double half = cellHalf[node];
+			// A cell holding the body itself is always opened, its centre of mass can be far from the body yet include it
+			boolean inside = Math.abs(px - cellX[node]) <= half && Math.abs(py - cellY[node]) <= half
+					&& Math.abs(pz - cellZ[node]) <= half;
+			if( !inside && size * size < theta2 * d2 ){
+				// Far enough, the whole cell acts as one mass at its centre of mass
+				double r2 = d2 + eps2;
+				double inv = 1.0 / Math.sqrt(r2);
+				double m = nodeMass[node] * inv;
+				phi -= m;
+				m *= inv * inv;
+				fx += m * dx;
+				fy += m * dy;
+				fz += m * dz;
+			}else{
+				for( int c = 7; c >= 0; c-- ){
+					int ch = child[node * 8 + c];
+					if( ch >= 0 ){
+						stack[top++] = ch;
+					}
+				}
+			}
+		}
+		state.ax[body] = gravity * fx;
+		state.ay[body] = gravity * fy;
+		state.az[body] = gravity * fz;
+		state.potential[body] = gravity * phi;
+	}
+
+	private int allocateNode(){
+		int node = nodeCount.getAndIncrement();
+		if( node >= capacity ){
+			overflow = true;
+			return -1;
+		}
+		return node;
+	}
+
+	private void allocateNodes(int nodes){
+		capacity = nodes;
+		nodeMass = new double[nodes];
+		comX = new double[nodes];
+		comY = new double[nodes];
+		comZ = new double[nodes];
+		cellX = new double[nodes];
+		cellY = new double[nodes];
+		cellZ = new double[nodes];
+		cellHalf = new double[nodes];
+		child = new int[nodes * 8];
+		lo = new int[nodes];
+		hi = new int[nodes];
+		leaf = new boolean[nodes];
+	}
+
+	/**
+	 * Builds one node over index[from, to) and recursively its children.
+	 */
+	@SuppressWarnings("serial")
+	private class BuildTask extends RecursiveAction {
+		final NBodyState state;
+		final int node, from, to, depth;
+		final double cx, cy, cz, half;
+
+		BuildTask(NBodyState state, int node, int from, int to, double cx, double cy, double cz, double half, int depth){
+			this.state = state;
+			this.node = node;
+			this.from = from;
+			this.to = to;
+			this.cx = cx;
+			this.cy = cy;
+			this.cz = cz;
+			this.half = half;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute(){
+			lo[node] = from;
+			hi[node] = to;
+			cellX[node] = cx;
+			cellY[node] = cy;
+			cellZ[node] = cz;
+			cellHalf[node] = half;
+			for( int c = 0; c < 8; c++ ){
+				child[node * 8 + c] = -1;
+			}
+
+			if( to - from <= LEAF_SIZE || depth >= MAX_DEPTH ){
+				leaf[node] = true;
+				double m = 0, mx = 0, my = 0, mz = 0;
+				for( int k = from; k < to; k++ ){
+					int j = index[k];
+					double mj = state.mass[j];
+					m += mj;
+					mx += mj * state.x[j];
+					my += mj * state.y[j];
+					mz += mj * state.z[j];
+				}
+				setMass(m, mx, my, mz);
+				return;
+			}
+			leaf[node] = false;
+
+			// Partition the range into octants
+			int[] start = new int[9];
+			for( int k = from; k < to; k++ ){
+				start[octant(index[k]) + 1]++;
+			}
+			start[0] = from;
+			for( int c = 1; c <= 8; c++ ){
+				start[c] += start[c - 1];
+			}
+			int[] fill = new int[8];
+			System.arraycopy(start, 0, fill, 0, 8);
+			for( int k = from; k < to; k++ ){
+				int j = index[k];
+				scratch[fill[octant(j)]++] = j;
+			}
+			System.arraycopy(scratch, from, index, from, to - from);
+
+			BuildTask[] tasks = new BuildTask[8];
+			int forked = 0;
+			double h = half * 0.5;
+			for( int c = 0; c < 8; c++ ){
+				if( start[c + 1] == start[c] ){
+					continue;
+				}
+				int ch = allocateNode();
+				if( ch < 0 ){
+					// Out of nodes, the tree is rebuilt with more, but forked tasks still have to be joined
+					break;
+				}
+				child[node * 8 + c] = ch;
+				tasks[c] = new BuildTask(state, ch, start[c], start[c + 1],
+						cx + ((c & 1) != 0 ? h : -h),
+						cy + ((c & 2) != 0 ? h : -h),
+						cz + ((c & 4) != 0 ? h : -h), h, depth + 1);
+				if( start[c + 1] - start[c] >= PARALLEL_CUTOFF ){
+					tasks[c].fork();
+					forked |= 1 << c;
+				}
+			}
+			for( int c = 0; c < 8 && !overflow; c++ ){
+				if( tasks[c] != null && (forked & (1 << c)) == 0 ){
+					tasks[c].compute();
+				}
+			}
+			for( int c = 0; c < 8; c++ ){
+				if( (forked & (1 << c)) != 0 ){
+					tasks[c].join();
+				}
+			}
+			if( overflow ){
+				return;
+			}
+
+			// Children are complete, sum their masses in a fixed order
+			double m = 0, mx = 0, my = 0, mz = 0;
+			for( int c = 0; c < 8; c++ ){
+				int ch = child[node * 8 + c];
+				if( ch >= 0 ){
+					m += nodeMass[ch];
+					mx += nodeMass[ch] * comX[ch];
+					my += nodeMass[ch] * comY[ch];
+					mz += nodeMass[ch] * comZ[ch];
+				}
+			}
+			setMass(m, mx, my, mz);
+		}
+
+		private int octant(int j){
+			return (state.x[j] >= cx ? 1 : 0) | (state.y[j] >= cy ? 2 : 0) | (state.z[j] >= cz ? 4 : 0);
+		}
+
+		private void setMass(double m, double mx, double my, double mz){
+			nodeMass[node] = m;
+			if( m > 0 ){
+				comX[node] = mx / m;
+				comY[node] = my / m;
+				comZ[node] = mz / m;
+			}else{
+				comX[node] = cx;
+				comY[node] = cy;
+				comZ[node] = cz;
+			}
+		}
+	}
+
+	/**
+	 * Evaluates forces for the bodies in index[from, to), nearby bodies are processed together.
+	 */
+	@SuppressWarnings("serial")
+	private class ForceTask extends RecursiveAction {
+		final NBodyState state;
+		final int from, to;
+
+		ForceTask(NBodyState state, int from, int to){
+			this.state = state;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if( to - from > PARALLEL_CUTOFF ){
+				int mid = (from + to) >>> 1;
+				invokeAll(new ForceTask(state, from, mid), new ForceTask(state, mid, to));
+				return;
+			}
+			int[] stack = new int[7 * MAX_DEPTH + 8];
+			for( int k = from; k < to; k++ ){
+				accumulate(state, index[k], stack);
+			}
+		}
+	}
+
+	/**
+	 * Axis aligned bounds of a range of bodies as {minX, minY, minZ, maxX, maxY, maxZ}.
+	 */
+	@SuppressWarnings("serial")
+	private static class BoundsTask extends java.util.concurrent.RecursiveTask<double[]> {
+		final NBodyState state;
+		final int from, to;
+
+		BoundsTask(NBodyState state, int from, int to){
+			this.state = state;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected double[] compute(){
+			if( to - from > PARALLEL_CUTOFF * 8 ){
+				int mid = (from + to) >>> 1;
+				BoundsTask left = new BoundsTask(state, from, mid);
+				left.fork();
+				double[] b = new BoundsTask(state, mid, to).compute();
+				double[] a = left.join();
+				for( int k = 0; k < 3; k++ ){
+					b[k] = Math.min(a[k], b[k]);
+					b[k + 3] = Math.max(a[k + 3], b[k + 3]);
+				}
+				return b;
+			}
+			double[] b = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE,
+					-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+			if( from >= to ){
+				return new double[6];
+			}
+			for( int i = from; i < to; i++ ){
+				b[0] = Math.min(b[0], state.x[i]);
+				b[1] = Math.min(b[1], state.y[i]);
+				b[2] = Math.min(b[2], state.z[i]);
+				b[3] = Math.max(b[3], state.x[i]);
+				b[4] = Math.max(b[4], state.y[i]);
+				b[5] = Math.max(b[5], state.z[i]);
+			}
+			return b;
+		}
+	}
+
+	public double getTheta() {
+		return theta;
+	}
+
+	/**
+	 * @param theta Opening angle, 0 gives exact (all pairs) forces, usual values are 0.3 - 1.0.
+	 */
+	public void setTheta(double theta) {
+		this.theta = theta;
+	}
+
+	public double getSoftening() {
+		return softening;
+	}
+
+	public void setSoftening(double softening) {
+		this.softening = softening;
+	}
+
+	public double getGravity() {
+		return gravity;
+	}
+
+	/**
+	 * @param gravity Gravitational constant in simulation units.
+	 */
+	public void setGravity(double gravity) {
+		this.gravity = gravity;
+	}
+
+}
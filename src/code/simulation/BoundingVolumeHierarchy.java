@@ -0,0 +1,498 @@
+package code.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over the bounding spheres of many bodies, for
+ * ray picking, nearest body and radius queries.
+ *
+ * Nodes are axis aligned boxes in flat arrays, every parent stored before
+ * its children, and bodies are referenced in leaf ranges of an index array.
+ * The tree is built once by median splits along the widest axis; when the
+ * bodies move it is only refit, bottom-up in one reversed pass over the
+ * nodes. Once refitting has let the boxes grow to twice the total surface
+ * area they had when built, the tree is rebuilt.
+ *
+ * Bodies with a radius of 0 are kept in the tree but never found.
+ */
+public class BoundingVolumeHierarchy {
+
+	static final int LEAF_SIZE = 4;
+	// Refit boxes may grow to this multiple of the built surface area before a rebuild
+	static final float REBUILD_FACTOR = 2.f;
+
+	private int count = 0;
+	private float[] x = new float[0], y = new float[0], z = new float[0], r = new float[0];
+	private int[] index = new int[0];
+
+	private int nodeCount = 0;
+	private float[] minX = new float[0], minY = new float[0], minZ = new float[0];
+	private float[] maxX = new float[0], maxY = new float[0], maxZ = new float[0];
+	// Children of inner nodes, -1 for leaves, which use the range [start, end) of the index
+	private int[] left = new int[0], right = new int[0];
+	private int[] start = new int[0], end = new int[0];
+
+	private float builtArea = 0.f;
+	private int rebuilds = 0;
+
+	// Traversal stack and queues, reused between queries
+	private int[] stack = new int[64];
+	private float[] heapKey = new float[64];
+	private int[] heapValue = new int[64];
+	private float[] bestKey = new float[0];
+	private int[] bestValue = new int[0];
+
+	private float hitDistance = Float.POSITIVE_INFINITY;
+
+	/**
+	 * Refits the tree to the bodies as last placed by the world transforms,
+	 * rebuilding it when the number of bodies changed or it degraded too much.
+	 */
+	public void update(WorldTransforms transforms){
+		int n = transforms.getCount();
+		allocate(n);
+		for( int i = 0; i < n; i++ ){
+			x[i] = transforms.getX(i);
+			y[i] = transforms.getY(i);
+			z[i] = transforms.getZ(i);
+			r[i] = transforms.getRadius(i);
+		}
+		updated(n);
+	}
+
+	/**
+	 * Refits the tree to spheres given as arrays, the first n entries are used.
+	 */
+	public void update(float[] x, float[] y, float[] z, float[] r, int n){
+		allocate(n);
+		System.arraycopy(x, 0, this.x, 0, n);
+		System.arraycopy(y, 0, this.y, 0, n);
+		System.arraycopy(z, 0, this.z, 0, n);
+		System.arraycopy(r, 0, this.r, 0, n);
+		updated(n);
+	}
+
+	private void updated(int n){
+		if( n != count || nodeCount == 0 ){
+			count = n;
+			build();
+		}else if( refit() > REBUILD_FACTOR * builtArea ){
+			build();
+		}
+	}
+
+	/**
+	 * Builds the tree from scratch.
+	 */
+	public void build(){
+		for( int i = 0; i < count; i++ ){
+			index[i] = i;
+		}
+		// Median splits leave at least two bodies in every leaf
+		int maxNodes = Math.max(1, count);
+		if( minX.length < maxNodes ){
+			minX = new float[maxNodes]; minY = new float[maxNodes]; minZ = new float[maxNodes];
+			maxX = new float[maxNodes]; maxY = new float[maxNodes]; maxZ = new float[maxNodes];
+			left = new int[maxNodes]; right = new int[maxNodes];
+			start = new int[maxNodes]; end = new int[maxNodes];
+		}
+		nodeCount = 0;
+		buildNode(0, count);
+		rebuilds++;
+		builtArea = refit();
+	}
+
+	private int buildNode(int from, int to){
+		int node = nodeCount++;
+		start[node] = from;
+		end[node] = to;
+		if( to - from <= LEAF_SIZE ){
+			left[node] = right[node] = -1;
+			return node;
+		}
+		// Widest axis of the centres
+		float x0 = Float.POSITIVE_INFINITY, y0 = x0, z0 = x0, x1 = Float.NEGATIVE_INFINITY, y1 = x1, z1 = x1;
+		for( int k = from; k < to; k++ ){
+			int i = index[k];
+			x0 = Math.min(x0, x[i]); x1 = Math.max(x1, x[i]);
+			y0 = Math.min(y0, y[i]); y1 = Math.max(y1, y[i]);
+			z0 = Math.min(z0, z[i]); z1 = Math.max(z1, z[i]);
+		}
+		float[] key = x;
+		if( y1 - y0 > x1 - x0 && y1 - y0 >= z1 - z0 ){
+			key = y;
+		}else if( z1 - z0 > x1 - x0 ){
+			key = z;
+		}
+		int middle = (from + to) >>> 1;
+		select(key, from, to - 1, middle);
+		left[node] = buildNode(from, middle);
+		right[node] = buildNode(middle, to);
+		return node;
+	}
+
+	/**
+	 * Partially orders the index so that the body at position k has the k-th smallest key (quickselect).
+	 */
+	private void select(float[] key, int lo, int hi, int k){
+		while( hi > lo ){
+			float pivot = key[index[(lo + hi) >>> 1]];
+			int i = lo, j = hi;
+			while( i <= j ){
+				while( key[index[i]] < pivot ) i++;
+				while( key[index[j]] > pivot ) j--;
+				if( i <= j ){
+					int t = index[i]; index[i] = index[j]; index[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if( k <= j ){
+				hi = j;
+			}else if( k >= i ){
+				lo = i;
+			}else{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Recomputes all boxes, children come after their parents so a reversed pass is bottom-up.
+	 * @return Total surface area of the boxes (up to a constant factor).
+	 */
+	private float refit(){
+		float area = 0.f;
+		for( int node = nodeCount - 1; node >= 0; node-- ){
+			float x0, y0, z0, x1, y1, z1;
+			if( left[node] < 0 ){
+				x0 = y0 = z0 = Float.POSITIVE_INFINITY;
+				x1 = y1 = z1 = Float.NEGATIVE_INFINITY;
+				for( int k = start[node]; k < end[node]; k++ ){
+					int i = index[k];
+					float ri = r[i];
+					x0 = Math.min(x0, x[i] - ri); x1 = Math.max(x1, x[i] + ri);
+					y0 = Math.min(y0, y[i] - ri); y1 = Math.max(y1, y[i] + ri);
+					z0 = Math.min(z0, z[i] - ri); z1 = Math.max(z1, z[i] + ri);
+				}
+			}else{
+				int a = left[node], b = right[node];
+				x0 = Math.min(minX[a], minX[b]); x1 = Math.max(maxX[a], maxX[b]);
+				y0 = Math.min(minY[a], minY[b]); y1 = Math.max(maxY[a], maxY[b]);
+				z0 = Math.min(minZ[a], minZ[b]); z1 = Math.max(maxZ[a], maxZ[b]);
+			}
+			minX[node] = x0; minY[node] = y0; minZ[node] = z0;
+			maxX[node] = x1; maxY[node] = y1; maxZ[node] = z1;
+			float dx = x1 - x0, dy = y1 - y0, dz = z1 - z0;
+			if( dx >= 0.f ){
+				area += dx * dy + dy * dz + dz * dx;
+			}
+		}
+		return area;
+	}
+
+	/**
+	 * Finds the closest body hit by a ray.
+	 * @param ox Origin of the ray.
+	 * @param dx Direction of the ray, need not be normalised.
+	 * @return Index of the body or -1, the distance along the ray in units of the
+	 * direction is then available from {@link #getHitDistance()}.
+	 */
+	public int raycast(float ox, float oy, float oz, float dx, float dy, float dz){
+		hitDistance = Float.POSITIVE_INFINITY;
+		if( count == 0 ){
+			return -1;
+		}
+		float ix = 1.f / dx, iy = 1.f / dy, iz = 1.f / dz;
+		float dd = dx * dx + dy * dy + dz * dz;
+		int hit = -1;
+		int top = 0;
+		stack[top++] = 0;
+		while( top > 0 ){
+			int node = stack[--top];
+			if( slab(node, ox, oy, oz, ix, iy, iz) >= hitDistance ){
+				continue;
+			}
+			if( left[node] < 0 ){
+				for( int k = start[node]; k < end[node]; k++ ){
+					int i = index[k];
+					if( r[i] <= 0.f ){
+						continue;
+					}
+					// |o + t d - c|^2 = r^2, nearest t in front of the origin
+					float px = ox - x[i], py = oy - y[i], pz = oz - z[i];
+					float b = px * dx + py * dy + pz * dz;
+					float c = px * px + py * py + pz * pz - r[i] * r[i];
+					float disc = b * b - dd * c;
+					if( disc < 0.f ){
+						continue;
+					}
+					float root = (float)Math.sqrt(disc);
+					float t = (-b - root) / dd;
+					if( t < 0.f ){
+						t = (-b + root) / dd;
+					}
+					if( t >= 0.f && t < hitDistance ){
+						hitDistance = t;
+						hit = i;
+					}
+				}
+			}else{
+				// Nearer child on top of the stack, so that hits found there prune the other one
+				int a = left[node], b = right[node];
+				float ta = slab(a, ox, oy, oz, ix, iy, iz), tb = slab(b, ox, oy, oz, ix, iy, iz);
+				ensureStack(top + 2);
+				if( ta <= tb ){
+					stack[top++] = b;
+					stack[top++] = a;
+				}else{
+					stack[top++] = a;
+					stack[top++] = b;
+				}
+			}
+		}
+		return hit;
+	}
+
+	/**
+	 * @return Distance along the ray at which it enters a node box, infinite when it misses.
+	 */
+	private float slab(int node, float ox, float oy, float oz, float ix, float iy, float iz){
+		float t0x = (minX[node] - ox) * ix, t1x = (maxX[node] - ox) * ix;
+		float t0y = (minY[node] - oy) * iy, t1y = (maxY[node] - oy) * iy;
+		float t0z = (minZ[node] - oz) * iz, t1z = (maxZ[node] - oz) * iz;
+		float near = Math.max(Math.max(Math.min(t0x, t1x), Math.min(t0y, t1y)), Math.max(Math.min(t0z, t1z), 0.f));
+		float far = Math.min(Math.min(Math.max(t0x, t1x), Math.max(t0y, t1y)), Math.max(t0z, t1z));
+		// NaN from a zero direction component on the box plane counts as a hit
+		return near <= far || near != near || far != far ? near : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Finds the k bodies whose surfaces are closest to a point, nearest first.
+	 * @param out Receives up to k body indices.
+	 * @return Number of bodies written.
+	 */
+	public int nearest(float px, float py, float pz, int k, int[] out){
+		k = Math.min(k, out.length);
+		if( count == 0 || k <= 0 ){
+			return 0;
+		}
+		if( bestKey.length < k ){
+			bestKey = new float[k];
+			bestValue = new int[k];
+		}
+		int found = 0;
+		// Nodes ordered by their distance (min-heap), results by theirs (max-heap of size k)
+		int heap = 0;
+		heap = pushMin(heap, 0.f, 0);
+		while( heap > 0 ){
+			float d = heapKey[0];
+			int node = heapValue[0];
+			heap = popMin(heap);
+			if( found == k && d >= bestKey[0] ){
+				break;
+			}
+			if( left[node] < 0 ){
+				for( int s = start[node]; s < end[node]; s++ ){
+					int i = index[s];
+					if( r[i] <= 0.f ){
+						continue;
+					}
+					float dx = x[i] - px, dy = y[i] - py, dz = z[i] - pz;
+					float di = Math.max(0.f, (float)Math.sqrt(dx * dx + dy * dy + dz * dz) - r[i]);
+					if( found < k ){
+						pushMax(found++, di, i);
+					}else if( di < bestKey[0] ){
+						replaceMax(k, di, i);
+					}
+				}
+			}else{
+				int a = left[node], b = right[node];
+				heap = pushMin(heap, (float)Math.sqrt(boxDistance(a, px, py, pz)), a);
+				heap = pushMin(heap, (float)Math.sqrt(boxDistance(b, px, py, pz)), b);
+			}
+		}
+		// Popping the max-heap gives the farthest first
+		for( int n = found; n > 0; n-- ){
+			out[n - 1] = bestValue[0];
+			replaceMax(n - 1, bestKey[n - 1], bestValue[n - 1]);
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the bodies whose spheres intersect a ball.
+	 * @param out Receives the body indices, as many as fit.
+	 * @return Number of bodies found, may be more than were written.
+	 */
+	public int within(float px, float py, float pz, float radius, int[] out){
+		if( count == 0 ){
+			return 0;
+		}
+		int found = 0;
+		float radius2 = radius * radius;
+		int top = 0;
+		stack[top++] = 0;
+		while( top > 0 ){
+			int node = stack[--top];
+			float d = boxDistance(node, px, py, pz);
+			if( d > radius2 ){
+				continue;
+			}
+			if( left[node] < 0 ){
+				for( int s = start[node]; s < end[node]; s++ ){
+					int i = index[s];
+					if( r[i] <= 0.f ){
+						continue;
+					}
+					float dx = x[i] - px, dy = y[i] - py, dz = z[i] - pz;
+					float reach = radius + r[i];
+					if( dx * dx + dy * dy + dz * dz < reach * reach ){
+						if( found < out.length ){
+							out[found] = i;
+						}
+						found++;
+					}
+				}
+			}else{
+				ensureStack(top + 2);
+				stack[top++] = left[node];
+				stack[top++] = right[node];
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return Squared distance from a point to a node box, 0 inside.
+	 */
+	private float boxDistance(int node, float px, float py, float pz){
+		float dx = Math.max(0.f, Math.max(minX[node] - px, px - maxX[node]));
+		float dy = Math.max(0.f, Math.max(minY[node] - py, py - maxY[node]));
+		float dz = Math.max(0.f, Math.max(minZ[node] - pz, pz - maxZ[node]));
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private int pushMin(int size, float key, int value){
+		if( size == heapKey.length ){
+			heapKey = Arrays.copyOf(heapKey, size * 2);
+			heapValue = Arrays.copyOf(heapValue, size * 2);
+		}
+		int c = size;
+		while( c > 0 ){
+			int p = (c - 1) >>> 1;
+			if( heapKey[p] <= key ){
+				break;
+			}
+			heapKey[c] = heapKey[p];
+			heapValue[c] = heapValue[p];
+			c = p;
+		}
+		heapKey[c] = key;
+		heapValue[c] = value;
+		return size + 1;
+	}
+
+	private int popMin(int size){
+		size--;
+		float key = heapKey[size];
+		int value = heapValue[size];
+		int c = 0;
+		while( true ){
+			int child = 2 * c + 1;
+			if( child >= size ){
+				break;
+			}
+			if( child + 1 < size && heapKey[child + 1] < heapKey[child] ){
+				child++;
+			}
+			if( heapKey[child] >= key ){
+				break;
+			}
+			heapKey[c] = heapKey[child];
+			heapValue[c] = heapValue[child];
+			c = child;
+		}
+		heapKey[c] = key;
+		heapValue[c] = value;
+		return size;
+	}
+
+	private void pushMax(int size, float key, int value){
+		int c = size;
+		while( c > 0 ){
+			int p = (c - 1) >>> 1;
+			if( bestKey[p] >= key ){
+				break;
+			}
+			bestKey[c] = bestKey[p];
+			bestValue[c] = bestValue[p];
+			c = p;
+		}
+		bestKey[c] = key;
+		bestValue[c] = value;
+	}
+
+	/**
+	 * Replaces the largest entry of the max-heap and restores the order.
+	 */
+	private void replaceMax(int size, float key, int value){
+		int c = 0;
+		while( true ){
+			int child = 2 * c + 1;
+			if( child >= size ){
+				break;
+			}
+			if( child + 1 < size && bestKey[child + 1] > bestKey[child] ){
+				child++;
+			}
+			if( bestKey[child] <= key ){
+				break;
+			}
+			bestKey[c] = bestKey[child];
+			bestValue[c] = bestValue[child];
+			c = child;
+		}
+		bestKey[c] = key;
+		bestValue[c] = value;
+	}
+
+	private void ensureStack(int size){
+		if( size > stack.length ){
+			stack = Arrays.copyOf(stack, stack.length * 2);
+		}
+	}
+
+	private void allocate(int n){
+		if( x.length < n ){
+			x = new float[n];
+			y = new float[n];
+			z = new float[n];
+			r = new float[n];
+			index = new int[n];
+		}
+	}
+
+	public int getBodyCount() {
+		return count;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return Distance to the hit of the last {@link #raycast}, in units of the ray direction.
+	 */
+	public float getHitDistance() {
+		return hitDistance;
+	}
+
+	/**
+	 * @return Number of times the tree was built.
+	 */
+	public int getRebuilds() {
+		return rebuilds;
+	}
+
+}
@@ -0,0 +1,172 @@
+package code.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a checkpoint written by {@link CheckpointWriter}. Only the section
+ * headers are read when opening, sections are memory mapped on request and
+ * their arrays copied out in bulk, so restoring millions of bodies is
+ * bounded by memory bandwidth rather than by parsing.
+ */
+public class CheckpointReader {
+
+	private final Path file;
+	// Payload offset and length of every section by tag
+	private final Map<Integer, long[]> sections = new HashMap<Integer, long[]>();
+
+	public CheckpointReader(Path file) throws IOException {
+		this.file = file;
+		try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+			long size = channel.size();
+			ByteBuffer header = read(channel, 0, CheckpointWriter.HEADER_BYTES);
+			if( header.getInt() != CheckpointWriter.MAGIC ){
+				throw new IOException(file + " is not a checkpoint");
+			}
+			int version = header.getInt();
+			if( version != CheckpointWriter.VERSION ){
+				throw new IOException(file + " has unsupported version " + version);
+			}
+			long position = CheckpointWriter.HEADER_BYTES;
+			while( true ){
+				if( position + 4 > size ){
+					throw new IOException(file + " is truncated");
+				}
+				int tag = read(channel, position, 4).getInt();
+				if( tag == 0 ){
+					break;
+				}
+				long length = read(channel, position + 4, 8).getLong();
+				long start = position + CheckpointWriter.SECTION_HEADER_BYTES;
+				if( length < 0 || start + length > size ){
+					throw new IOException(file + " is truncated");
+				}
+				sections.put(tag, new long[]{ start, length });
+				position = start + length;
+			}
+		}
+	}
+
+	public boolean hasSection(int tag) {
+		return sections.containsKey(tag);
+	}
+
+	/**
+	 * Maps the payload of a section.
+	 */
+	public ByteBuffer section(int tag) throws IOException {
+		long[] section = sections.get(tag);
+		if( section == null ){
+			throw new IOException(file + " has no section " + name(tag));
+		}
+		if( section[1] > Integer.MAX_VALUE ){
+			throw new IOException("Section " + name(tag) + " of " + file + " is larger than 2 GB");
+		}
+		try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+			return channel.map(FileChannel.MapMode.READ_ONLY, section[0], section[1]);
+		}
+	}
+
+	public static String getString(ByteBuffer in){
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static void getInts(ByteBuffer in, int[] values, int count){
+		in.asIntBuffer().get(values, 0, count);
+		in.position(in.position() + 4 * count);
+	}
+
+	public static void getFloats(ByteBuffer in, float[] values, int count){
+		in.asFloatBuffer().get(values, 0, count);
+		in.position(in.position() + 4 * count);
+	}
+
+	public static void getLongs(ByteBuffer in, long[] values, int count){
+		in.asLongBuffer().get(values, 0, count);
+		in.position(in.position() + 8 * count);
+	}
+
+	public static void getBooleans(ByteBuffer in, boolean[] values, int count){
+		for( int i = 0; i < count; i++ ){
+			values[i] = in.get() != 0;
+		}
+	}
+
+	/**
+	 * Replaces all bodies of a kernel by those written with {@link CheckpointWriter#putKernel(SimulationKernel)}.
+	 */
+	public static void getKernel(ByteBuffer in, SimulationKernel kernel){
+		int n = in.getInt();
+		boolean worldDriven = in.getInt() != 0;
+		kernel.beginRestore(n, worldDriven);
+		for( int[] values : kernel.topologyArrays() ){
+			getInts(in, values, n);
+		}
+		for( float[] values : kernel.bodyArrays() ){
+			getFloats(in, values, n);
+		}
+		getBooleans(in, kernel.hasElements, n);
+	}
+
+	/**
+	 * @return Number of bodies of a kernel section, read without moving the buffer.
+	 */
+	public static int getKernelBodyCount(ByteBuffer in){
+		return in.getInt(in.position());
+	}
+
+	/**
+	 * Restores a state written with {@link CheckpointWriter#putState(Restorable)}, it must have the same size.
+	 */
+	public static void getState(ByteBuffer in, Restorable state) throws IOException {
+		restoreState(getStateWords(in), state);
+	}
+
+	/**
+	 * Reads a state written with {@link CheckpointWriter#putState(Restorable)}
+	 * without restoring it yet, see {@link #restoreState(long[], Restorable)}.
+	 */
+	public static long[] getStateWords(ByteBuffer in) throws IOException {
+		int n = in.getInt();
+		if( n < 0 || n > in.remaining() / 8 ){
+			throw new IOException("Saved state of " + n + " words does not fit its section");
+		}
+		long[] words = new long[n];
+		getLongs(in, words, n);
+		return words;
+	}
+
+	/**
+	 * Restores words read with {@link #getStateWords(ByteBuffer)}, they must be as many as the state has.
+	 */
+	public static void restoreState(long[] words, Restorable state) throws IOException {
+		if( words.length != state.getStateSize() ){
+			throw new IOException("Saved state has " + words.length + " words, the current one " + state.getStateSize());
+		}
+		state.restoreState(words, 0);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(bytes);
+		while( buffer.hasRemaining() ){
+			if( channel.read(buffer, position + buffer.position()) < 0 ){
+				throw new IOException("Unexpected end of checkpoint");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static String name(int tag){
+		return new String(new char[]{ (char)(tag >>> 24), (char)(tag >>> 16 & 0xFF), (char)(tag >>> 8 & 0xFF), (char)(tag & 0xFF) });
+	}
+
+}
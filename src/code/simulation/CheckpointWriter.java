@@ -0,0 +1,239 @@
+package code.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a checkpoint: the state of a running simulation in tagged sections,
+ * restored by {@link CheckpointReader}.
+ *
+ * Arrays go through a direct buffer into a file channel in large blocks.
+ * The checkpoint is written next to the target and moved over it on
+ * {@link #close()}, so an interrupted save leaves the previous one intact.
+ *
+ * Layout, big-endian:
+ * <pre>
+ * int magic, int version, int reserved
+ * per section: int tag, long payload bytes, payload padded to 8 bytes
+ * int 0 ends the file
+ * </pre>
+ */
+public class CheckpointWriter implements Closeable {
+
+	static final int MAGIC = 0x53534350;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 12;
+	static final int SECTION_HEADER_BYTES = 12;
+
+	private final Path file;
+	private final Path partial;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+	// File position the buffer starts at
+	private long position = 0;
+	// Start of the open section, -1 when none is open
+	private long sectionStart = -1;
+	private boolean complete = false;
+
+	public CheckpointWriter(Path file) throws IOException {
+		this.file = file;
+		this.partial = file.resolveSibling(file.getFileName() + ".partial");
+		channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(0);
+	}
+
+	/**
+	 * Builds a tag from four ASCII characters, e.g. "KERN".
+	 */
+	public static int tag(String name){
+		if( name.length() != 4 ){
+			throw new IllegalArgumentException("Tags have four characters: " + name);
+		}
+		return name.charAt(0) << 24 | name.charAt(1) << 16 | name.charAt(2) << 8 | name.charAt(3);
+	}
+
+	public void beginSection(int tag) throws IOException {
+		if( sectionStart >= 0 ){
+			throw new IllegalStateException("Section still open");
+		}
+		if( tag == 0 ){
+			throw new IllegalArgumentException("Tag 0 marks the end");
+		}
+		room(SECTION_HEADER_BYTES);
+		sectionStart = position + buffer.position();
+		buffer.putInt(tag).putLong(0L);
+	}
+
+	/**
+	 * Pads the open section and patches its length.
+	 */
+	public void endSection() throws IOException {
+		if( sectionStart < 0 ){
+			throw new IllegalStateException("No section open");
+		}
+		long length = position + buffer.position() - sectionStart - SECTION_HEADER_BYTES;
+		while( (length & 7) != 0 ){
+			putByte((byte)0);
+			length++;
+		}
+		long lengthAt = sectionStart + 4;
+		if( lengthAt >= position ){
+			buffer.putLong((int)(lengthAt - position), length);
+		}else{
+			ByteBuffer patch = ByteBuffer.allocate(8);
+			patch.putLong(length).flip();
+			while( patch.hasRemaining() ){
+				channel.write(patch, lengthAt + patch.position());
+			}
+		}
+		sectionStart = -1;
+	}
+
+	public void putByte(byte value) throws IOException {
+		room(1);
+		buffer.put(value);
+	}
+
+	public void putInt(int value) throws IOException {
+		room(4);
+		buffer.putInt(value);
+	}
+
+	public void putLong(long value) throws IOException {
+		room(8);
+		buffer.putLong(value);
+	}
+
+	public void putFloat(float value) throws IOException {
+		room(4);
+		buffer.putFloat(value);
+	}
+
+	public void putDouble(double value) throws IOException {
+		room(8);
+		buffer.putDouble(value);
+	}
+
+	public void putString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		for( byte b : bytes ){
+			putByte(b);
+		}
+	}
+
+	public void putInts(int[] values, int count) throws IOException {
+		for( int from = 0; from < count; ){
+			room(4);
+			int n = Math.min(count - from, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, from, n);
+			buffer.position(buffer.position() + 4 * n);
+			from += n;
+		}
+	}
+
+	public void putFloats(float[] values, int count) throws IOException {
+		for( int from = 0; from < count; ){
+			room(4);
+			int n = Math.min(count - from, buffer.remaining() / 4);
+			buffer.asFloatBuffer().put(values, from, n);
+			buffer.position(buffer.position() + 4 * n);
+			from += n;
+		}
+	}
+
+	public void putLongs(long[] values, int count) throws IOException {
+		for( int from = 0; from < count; ){
+			room(8);
+			int n = Math.min(count - from, buffer.remaining() / 8);
+			buffer.asLongBuffer().put(values, from, n);
+			buffer.position(buffer.position() + 8 * n);
+			from += n;
+		}
+	}
+
+	public void putBooleans(boolean[] values, int count) throws IOException {
+		for( int i = 0; i < count; i++ ){
+			putByte(values[i] ? (byte)1 : (byte)0);
+		}
+	}
+
+	/**
+	 * Writes all bodies of a kernel: topology, orbits, elements and world frames.
+	 */
+	public void putKernel(SimulationKernel kernel) throws IOException {
+		int n = kernel.count;
+		putInt(n);
+		putInt(kernel.worldDriven ? 1 : 0);
+		for( int[] values : kernel.topologyArrays() ){
+			putInts(values, n);
+		}
+		for( float[] values : kernel.bodyArrays() ){
+			putFloats(values, n);
+		}
+		putBooleans(kernel.hasElements, n);
+	}
+
+	/**
+	 * Writes the words of a restorable state, preceded by their number.
+	 */
+	public void putState(Restorable state) throws IOException {
+		int n = state.getStateSize();
+		long[] words = new long[n];
+		state.saveState(words, 0);
+		putInt(n);
+		putLongs(words, n);
+	}
+
+	/**
+	 * Makes sure the buffer has the given number of bytes free.
+	 */
+	private void room(int bytes) throws IOException {
+		if( buffer.remaining() < bytes ){
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while( buffer.hasRemaining() ){
+			position += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Marks the state as complete, only then does {@link #close()} replace the target file.
+	 */
+	public void finish() throws IOException {
+		if( sectionStart >= 0 ){
+			throw new IllegalStateException("Section still open");
+		}
+		putInt(0);
+		flush();
+		channel.force(false);
+		complete = true;
+	}
+
+	/**
+	 * Moves a finished checkpoint over the target, an unfinished one is deleted.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		if( complete ){
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}else{
+			Files.deleteIfExists(partial);
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package code.simulation;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Compares the {@link CollisionDetector} with testing all pairs, run with
+ * "java code.simulation.CollisionBenchmark [spheres] [trials]".
+ *
+ * Every trial scatters spheres of mixed sizes, most of them small and a few
+ * many cells across, so that large bodies take both paths of the broadphase.
+ * Reports the pairs found by both and the time per detection, and exits with
+ * an error when any trial finds different pairs.
+ */
+public class CollisionBenchmark {
+
+	public static void main(String[] args){
+		int spheres = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+		CollisionDetector detector = new CollisionDetector();
+		float[] x = new float[spheres], y = new float[spheres], z = new float[spheres], r = new float[spheres];
+		long gridNanos = 0, allNanos = 0;
+		int mismatches = 0;
+		System.out.println("Spheres: " + spheres + ", trials: " + trials);
+		for( int trial = 0; trial < trials; trial++ ){
+			SplittableRandom random = new SplittableRandom(trial);
+			for( int i = 0; i < spheres; i++ ){
+				x[i] = (float)(random.nextDouble() * 1000.0);
+				y[i] = (float)(random.nextDouble() * 100.0);
+				z[i] = (float)(random.nextDouble() * 1000.0);
+				double kind = random.nextDouble();
+				// Mostly small, some medium and a few far larger than a cell
+				r[i] = (float)(kind < 0.9 ? random.nextDouble() * 4.0
+						: kind < 0.99 ? 4.0 + random.nextDouble() * 20.0 : 50.0 + random.nextDouble() * 200.0);
+			}
+
+			long start = System.nanoTime();
+			int found = detector.detect(x, y, z, r, spheres);
+			gridNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long[] pairs = allPairs(x, y, z, r, spheres);
+			allNanos += System.nanoTime() - start;
+
+			boolean same = found == pairs.length;
+			for( int k = 0; same && k < found; k++ ){
+				same = detector.getPairA(k) == (int)(pairs[k] >>> 32) && detector.getPairB(k) == (int)pairs[k];
+			}
+			if( !same ){
+				mismatches++;
+				System.out.println("Trial " + trial + ": grid found " + found + " pairs, all pairs " + pairs.length);
+			}
+		}
+		System.out.println(String.format("grid %.3f ms, all pairs %.3f ms per detection, %d of %d trials differ",
+				gridNanos * 1e-6 / trials, allNanos * 1e-6 / trials, mismatches, trials));
+		if( mismatches > 0 ){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Overlapping pairs as (a << 32 | b) in increasing order, by testing every pair.
+	 */
+	private static long[] allPairs(float[] x, float[] y, float[] z, float[] r, int n){
+		long[] pairs = new long[16];
+		int count = 0;
+		for( int a = 0; a < n; a++ ){
+			if( r[a] <= 0.f ){
+				continue;
+			}
+			for( int b = a + 1; b < n; b++ ){
+				if( r[b] <= 0.f ){
+					continue;
+				}
+				float dx = x[a] - x[b], dy = y[a] - y[b], dz = z[a] - z[b];
+				float reach = r[a] + r[b];
+				if( dx * dx + dy * dy + dz * dz < reach * reach ){
+					if( count == pairs.length ){
+						pairs = Arrays.copyOf(pairs, 2 * count);
+					}
+					pairs[count++] = (long)a << 32 | b;
+				}
+			}
+		}
+		return Arrays.copyOf(pairs, count);
+	}
+
+}
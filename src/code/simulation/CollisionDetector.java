@@ -0,0 +1,317 @@
+package code.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Finds overlapping spheres among many bodies without testing all pairs.
+ *
+ * The broadphase is a hashed uniform grid. Small bodies, with a radius of
+ * at most half a cell, are counting-sorted into the cell of their centre, so
+ * an overlapping pair is always in the same or a neighbouring cell. Large
+ * bodies are tested against the small ones in the cells their bounds cover
+ * and against each other directly. Candidate pairs are confirmed by an exact
+ * sphere test. Everything is kept in reused primitive arrays, and the result
+ * does not depend on the order in which cells are visited.
+ */
+public class CollisionDetector {
+
+	// Edge of a grid cell, 0 to derive it from the radii on every detection
+	private float cellSize = 0.f;
+	private float usedCellSize = 0.f;
+
+	// Per body: cell coordinates and whether it is in the grid
+	private int[] cellX = new int[0], cellY = new int[0], cellZ = new int[0];
+	private boolean[] small = new boolean[0];
+	private int[] large = new int[0];
+	private int largeCount = 0;
+
+	// Bodies of the grid sorted by bucket, bucketStart has one extra entry
+	private int[] bucketStart = new int[1];
+	private int[] bucketBodies = new int[0];
+	private int bucketMask = 0;
+
+	// Overlapping pairs as (a << 32 | b), sorted, and those of the previous detection
+	private long[] pairs = new long[16];
+	private int pairCount = 0;
+	private long[] previous = new long[16];
+	private int previousCount = 0;
+
+	private float[] x, y, z, r;
+
+	// Offsets of the neighbouring cells after the own one in (x, y, z) order
+	private static final int[] HALF_NEIGHBOURS = halfNeighbours();
+
+	private final ArrayList<CollisionListener> listeners = new ArrayList<CollisionListener>();
+
+	/**
+	 * Detects overlaps between the bodies of a kernel at their current world positions.
+	 * Bodies with a radius of 0 are ignored.
+	 * @return Number of overlapping pairs.
+	 */
+	public int detect(SimulationKernel kernel){
+		return detect(kernel.worldX, kernel.worldY, kernel.worldZ, kernel.radius, kernel.count);
+	}
+
+	/**
+	 * Detects overlaps between spheres, then notifies the listeners.
+	 * Spheres with a radius of 0 or less are ignored.
+	 * @param n Number of spheres, the first n entries of the arrays.
+	 * @return Number of overlapping pairs.
+	 */
+	public int detect(float[] x, float[] y, float[] z, float[] r, int n){
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.r = r;
+
+		long[] swap = previous;
+		previous = pairs;
+		previousCount = pairCount;
+		pairs = swap;
+		pairCount = 0;
+
+		allocate(n);
+		usedCellSize = cellSize > 0.f ? cellSize : autoCellSize(n);
+		if( usedCellSize > 0.f ){
+			buildGrid(n);
+			findSmallPairs(n);
+			findLargePairs(n);
+			Arrays.sort(pairs, 0, pairCount);
+		}
+
+		for( int k = 0; k < pairCount; k++ ){
+			int a = getPairA(k), b = getPairB(k);
+			boolean started = Arrays.binarySearch(previous, 0, previousCount, pairs[k]) < 0;
+			float overlap = overlap(a, b);
+			for( int l = 0; l < listeners.size(); l++ ){
+				listeners.get(l).collision(a, b, overlap, started);
+			}
+		}
+		return pairCount;
+	}
+
+	/**
+	 * Four times the mean radius: most bodies are small, pairs of neighbouring cells stay few.
+	 */
+	private float autoCellSize(int n){
+		double sum = 0.0;
+		int bodies = 0;
+		for( int i = 0; i < n; i++ ){
+			if( r[i] > 0.f ){
+				sum += r[i];
+				bodies++;
+			}
+		}
+		return bodies == 0 ? 0.f : (float)(4.0 * sum / bodies);
+	}
+
+	private void buildGrid(int n){
+		float inv = 1.f / usedCellSize;
+		float half = 0.5f * usedCellSize;
+		int smallCount = 0;
+		largeCount = 0;
+		for( int i = 0; i < n; i++ ){
+			small[i] = false;
+			if( r[i] <= 0.f ){
+				continue;
+			}
+			if( r[i] > half ){
+				large[largeCount++] = i;
+				continue;
+			}
+			small[i] = true;
+			cellX[i] = (int)Math.floor(x[i] * inv);
+			cellY[i] = (int)Math.floor(y[i] * inv);
+			cellZ[i] = (int)Math.floor(z[i] * inv);
+			smallCount++;
+		}
+
+		// Table of at least twice as many buckets as bodies
+		int buckets = Integer.highestOneBit(Math.max(1, smallCount) * 2 - 1) << 1;
+		if( bucketStart.length < buckets + 1 ){
+			bucketStart = new int[buckets + 1];
+		}
+		bucketMask = buckets - 1;
+		Arrays.fill(bucketStart, 0, buckets + 1, 0);
+		for( int i = 0; i < n; i++ ){
+			if( small[i] ){
+				bucketStart[bucket(cellX[i], cellY[i], cellZ[i]) + 1]++;
+			}
+		}
+		for( int b = 0; b < buckets; b++ ){
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		// Stable counting sort, bodies of a bucket stay in increasing order
+		for( int i = 0; i < n; i++ ){
+			if( small[i] ){
+				int b = bucket(cellX[i], cellY[i], cellZ[i]);
+				bucketBodies[bucketStart[b]++] = i;
+			}
+		}
+		for( int b = buckets; b > 0; b-- ){
+			bucketStart[b] = bucketStart[b - 1];
+		}
+		bucketStart[0] = 0;
+	}
+
+	private static int[] halfNeighbours(){
+		int[] offsets = new int[13 * 3];
+		int n = 0;
+		for( int dx = -1; dx <= 1; dx++ ){
+			for( int dy = -1; dy <= 1; dy++ ){
+				for( int dz = -1; dz <= 1; dz++ ){
+					if( dx > 0 || (dx == 0 && (dy > 0 || (dy == 0 && dz > 0))) ){
+						offsets[n++] = dx;
+						offsets[n++] = dy;
+						offsets[n++] = dz;
+					}
+				}
+			}
+		}
+		return offsets;
+	}
+
+	private int bucket(int cx, int cy, int cz){
+		int h = cx * 73856093 ^ cy * 19349663 ^ cz * 83492791;
+		return (h ^ (h >>> 16)) & bucketMask;
+	}
+
+	/**
+	 * Small against small. The own cell is searched for higher bodies, then
+	 * the 13 neighbouring cells of one half-space for all bodies, so that
+	 * every pair is found exactly once.
+	 */
+	private void findSmallPairs(int n){
+		for( int i = 0; i < n; i++ ){
+			if( !small[i] ){
+				continue;
+			}
+			int ix = cellX[i], iy = cellY[i], iz = cellZ[i];
+			int b = bucket(ix, iy, iz);
+			for( int k = bucketStart[b], end = bucketStart[b + 1]; k < end; k++ ){
+				int j = bucketBodies[k];
+				if( j > i && cellX[j] == ix && cellY[j] == iy && cellZ[j] == iz ){
+					test(i, j);
+				}
+			}
+			for( int c = 0; c < HALF_NEIGHBOURS.length; c += 3 ){
+				int cx = ix + HALF_NEIGHBOURS[c], cy = iy + HALF_NEIGHBOURS[c + 1], cz = iz + HALF_NEIGHBOURS[c + 2];
+				b = bucket(cx, cy, cz);
+				for( int k = bucketStart[b], end = bucketStart[b + 1]; k < end; k++ ){
+					int j = bucketBodies[k];
+					if( cellX[j] == cx && cellY[j] == cy && cellZ[j] == cz ){
+						test(i, j);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Large against small in the cells the large bounds cover, and large against large.
+	 */
+	private void findLargePairs(int n){
+		float inv = 1.f / usedCellSize;
+		// A small body overlapping a large one has its centre within half a cell of the large bounds
+		float reach = 0.5f * usedCellSize;
+		for( int l = 0; l < largeCount; l++ ){
+			int i = large[l];
+			float extent = r[i] + reach;
+			int x0 = (int)Math.floor((x[i] - extent) * inv), x1 = (int)Math.floor((x[i] + extent) * inv);
+			int y0 = (int)Math.floor((y[i] - extent) * inv), y1 = (int)Math.floor((y[i] + extent) * inv);
+			int z0 = (int)Math.floor((z[i] - extent) * inv), z1 = (int)Math.floor((z[i] + extent) * inv);
+			long cells = (long)(x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+			if( cells > n ){
+				// Cheaper to go through the bodies than through the cells
+				for( int j = 0; j < n; j++ ){
+					if( small[j] ){
+						test(i, j);
+					}
+				}
+			}else{
+				for( int cx = x0; cx <= x1; cx++ ){
+					for( int cy = y0; cy <= y1; cy++ ){
+						for( int cz = z0; cz <= z1; cz++ ){
+							int b = bucket(cx, cy, cz);
+							for( int k = bucketStart[b], end = bucketStart[b + 1]; k < end; k++ ){
+								int j = bucketBodies[k];
+								if( cellX[j] == cx && cellY[j] == cy && cellZ[j] == cz ){
+									test(i, j);
+								}
+							}
+						}
+					}
+				}
+			}
+			for( int m = l + 1; m < largeCount; m++ ){
+				test(i, large[m]);
+			}
+		}
+	}
+
+	/**
+	 * Narrowphase, exact sphere test.
+	 */
+	private void test(int i, int j){
+		float dx = x[i] - x[j], dy = y[i] - y[j], dz = z[i] - z[j];
+		float reach = r[i] + r[j];
+		if( dx * dx + dy * dy + dz * dz >= reach * reach ){
+			return;
+		}
+		if( pairCount == pairs.length ){
+			pairs = Arrays.copyOf(pairs, pairs.length * 2);
+		}
+		int a = Math.min(i, j), b = Math.max(i, j);
+		pairs[pairCount++] = (long)a << 32 | b;
+	}
+
+	private float overlap(int a, int b){
+		float dx = x[a] - x[b], dy = y[a] - y[b], dz = z[a] - z[b];
+		return r[a] + r[b] - (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	private void allocate(int n){
+		if( small.length >= n ){
+			return;
+		}
+		cellX = new int[n];
+		cellY = new int[n];
+		cellZ = new int[n];
+		small = new boolean[n];
+		large = new int[n];
+		bucketBodies = new int[n];
+	}
+
+	public void addListener(CollisionListener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(CollisionListener listener){
+		listeners.remove(listener);
+	}
+
+	public int getPairCount() {
+		return pairCount;
+	}
+
+	public int getPairA(int pair) {
+		return (int)(pairs[pair] >>> 32);
+	}
+
+	public int getPairB(int pair) {
+		return (int)pairs[pair];
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @param cellSize Edge of a grid cell, 0 to use four times the mean radius.
+	 */
+	public void setCellSize(float cellSize) {
+		this.cellSize = cellSize;
+	}
+
+}
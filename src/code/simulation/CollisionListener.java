@@ -0,0 +1,16 @@
+package code.simulation;
+
+/**
+ * Receives the overlapping pairs found by a {@link CollisionDetector}.
+ */
+public interface CollisionListener {
+
+	/**
+	 * Called for every overlapping pair on every detection, in increasing order of the pairs.
+	 * @param a Lower index of the pair.
+	 * @param b Higher index of the pair.
+	 * @param overlap Sum of the radii minus the distance of the centres, positive.
+	 * @param started True if the pair did not overlap on the previous detection.
+	 */
+	void collision(int a, int b, float overlap, boolean started);
+}
@@ -0,0 +1,141 @@
+package code.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads single columns of a file written by {@link ColumnWriter}. Groups are
+ * visited one after the other and only the requested column is read from
+ * each. A file cut short, e.g. by a batch still running, is read up to its
+ * last complete group.
+ */
+public class ColumnReader {
+
+	private final Path file;
+	private final String[] names;
+	private final byte[] types;
+	// Offset of the first group
+	private final long dataStart;
+
+	public ColumnReader(Path file) throws IOException {
+		this.file = file;
+		try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+			ByteBuffer header = read(channel, 0, 12);
+			if( header == null || header.getInt() != ColumnWriter.MAGIC ){
+				throw new IOException(file + " is not a column file");
+			}
+			int version = header.getInt();
+			if( version != ColumnWriter.VERSION ){
+				throw new IOException(file + " has unsupported version " + version);
+			}
+			int columns = header.getInt();
+			names = new String[columns];
+			types = new byte[columns];
+			long position = 12;
+			for( int c = 0; c < columns; c++ ){
+				ByteBuffer entry = read(channel, position, 3);
+				if( entry == null ){
+					throw new IOException(file + " has a truncated header");
+				}
+				types[c] = entry.get();
+				int length = entry.getShort() & 0xFFFF;
+				ByteBuffer name = read(channel, position + 3, length);
+				if( name == null ){
+					throw new IOException(file + " has a truncated header");
+				}
+				names[c] = new String(name.array(), StandardCharsets.UTF_8);
+				position += 3 + length;
+			}
+			dataStart = position;
+		}
+	}
+
+	/**
+	 * @return Index of a column, -1 if there is none of that name.
+	 */
+	public int getColumn(String name) {
+		for( int c = 0; c < names.length; c++ ){
+			if( names[c].equals(name) ){
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	public double[] readDoubles(String name) throws IOException {
+		long[] bits = readColumn(name, ColumnWriter.DOUBLE);
+		double[] values = new double[bits.length];
+		for( int r = 0; r < bits.length; r++ ){
+			values[r] = Double.longBitsToDouble(bits[r]);
+		}
+		return values;
+	}
+
+	public long[] readLongs(String name) throws IOException {
+		return readColumn(name, ColumnWriter.LONG);
+	}
+
+	private long[] readColumn(String name, byte type) throws IOException {
+		int column = getColumn(name);
+		if( column < 0 ){
+			throw new IllegalArgumentException("No column " + name + " in " + file);
+		}
+		if( types[column] != type ){
+			throw new IllegalArgumentException("Column " + name + " is of type " + (char)types[column]);
+		}
+		long[] values = new long[64];
+		int count = 0;
+		try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+			long position = dataStart;
+			long size = channel.size();
+			while( true ){
+				ByteBuffer head = read(channel, position, 4);
+				int rows = head == null ? 0 : head.getInt();
+				long groupBytes = 4 + 8L * names.length * rows;
+				if( rows <= 0 || position + groupBytes > size ){
+					break;
+				}
+				ByteBuffer group = read(channel, position + 4 + 8L * column * rows, 8 * rows);
+				if( count + rows > values.length ){
+					values = Arrays.copyOf(values, Math.max(values.length * 2, count + rows));
+				}
+				for( int r = 0; r < rows; r++ ){
+					values[count++] = group.getLong();
+				}
+				position += groupBytes;
+			}
+		}
+		return Arrays.copyOf(values, count);
+	}
+
+	/**
+	 * @return Buffer holding the bytes, null when the file ends before.
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(bytes);
+		while( buffer.hasRemaining() ){
+			if( channel.read(buffer, position + buffer.position()) < 0 ){
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public String[] getColumnNames() {
+		return names.clone();
+	}
+
+	/**
+	 * @return Type of every column, 'D' for double or 'J' for long.
+	 */
+	public byte[] getColumnTypes() {
+		return types.clone();
+	}
+
+}
@@ -0,0 +1,161 @@
+package code.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams rows of numbers into a columnar file, e.g. one row of statistics
+ * per simulation run.
+ *
+ * Rows are buffered and written in groups, inside a group all values of a
+ * column follow each other. A reader interested in a few columns skips the
+ * others a group at a time, and groups already written stay readable if the
+ * writer never gets to {@link #close()}.
+ *
+ * Layout, big-endian:
+ * <pre>
+ * int magic, int version, int columns
+ * per column: byte type ('D' double, 'J' long), short name length, name in UTF-8
+ * per group:  int rows, then per column rows values of 8 bytes
+ * int 0 ends the file
+ * </pre>
+ */
+public class ColumnWriter implements Closeable {
+
+	static final int MAGIC = 0x434F4C31;
+	static final int VERSION = 1;
+	public static final byte DOUBLE = 'D';
+	public static final byte LONG = 'J';
+
+	private final FileChannel channel;
+	private final byte[] types;
+	private final int groupRows;
+
+	// Values of the current group as raw bits [column][row]
+	private final long[][] pending;
+	private int rows = 0;
+	private int column = 0;
+	private long written = 0;
+	private final ByteBuffer group;
+
+	/**
+	 * @param file File to create or overwrite.
+	 * @param names Name of every column.
+	 * @param types Type of every column, {@link #DOUBLE} or {@link #LONG}.
+	 * @param groupRows Rows buffered before a group is written.
+	 */
+	public ColumnWriter(Path file, String[] names, byte[] types, int groupRows) throws IOException {
+		if( names.length == 0 || names.length != types.length ){
+			throw new IllegalArgumentException(names.length + " column names for " + types.length + " types");
+		}
+		if( groupRows < 1 ){
+			throw new IllegalArgumentException("Groups need at least one row: " + groupRows);
+		}
+		for( byte type : types ){
+			if( type != DOUBLE && type != LONG ){
+				throw new IllegalArgumentException("Unknown column type: " + (char)type);
+			}
+		}
+		this.types = types.clone();
+		this.groupRows = groupRows;
+		this.pending = new long[types.length][groupRows];
+		this.group = ByteBuffer.allocate(4 + 8 * types.length * groupRows);
+
+		int headerBytes = 12;
+		byte[][] encoded = new byte[names.length][];
+		for( int c = 0; c < names.length; c++ ){
+			encoded[c] = names[c].getBytes(StandardCharsets.UTF_8);
+			headerBytes += 3 + encoded[c].length;
+		}
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(headerBytes);
+		header.putInt(MAGIC).putInt(VERSION).putInt(names.length);
+		for( int c = 0; c < names.length; c++ ){
+			header.put(types[c]).putShort((short)encoded[c].length).put(encoded[c]);
+		}
+		header.flip();
+		write(header);
+	}
+
+	/**
+	 * Adds the next value of the current row, columns are filled in order.
+	 */
+	public void add(double value) throws IOException {
+		if( types[column] != DOUBLE ){
+			throw new IllegalArgumentException("Column " + column + " holds longs");
+		}
+		put(Double.doubleToRawLongBits(value));
+	}
+
+	public void add(long value) throws IOException {
+		if( types[column] != LONG ){
+			throw new IllegalArgumentException("Column " + column + " holds doubles");
+		}
+		put(value);
+	}
+
+	private void put(long bits) throws IOException {
+		pending[column][rows] = bits;
+		if( ++column == types.length ){
+			column = 0;
+			written++;
+			if( ++rows == groupRows ){
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Writes the complete rows buffered so far as a group.
+	 */
+	public void flush() throws IOException {
+		if( rows == 0 ){
+			return;
+		}
+		group.clear();
+		group.putInt(rows);
+		for( long[] values : pending ){
+			for( int r = 0; r < rows; r++ ){
+				group.putLong(values[r]);
+			}
+		}
+		group.flip();
+		write(group);
+		rows = 0;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while( buffer.hasRemaining() ){
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @return Number of complete rows added.
+	 */
+	public long getRowCount() {
+		return written;
+	}
+
+	/**
+	 * Writes the remaining complete rows and the end marker, a partial row is dropped.
+	 */
+	@Override
+	public void close() throws IOException {
+		try{
+			flush();
+			ByteBuffer end = ByteBuffer.allocate(4);
+			end.putInt(0).flip();
+			write(end);
+		}finally{
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package code.simulation;
+
+/**
+ * Tracks how well an integrator conserves total energy and angular momentum.
+ *
+ * Both are measured after every step from the state alone: kinetic energy
+ * and angular momentum are sums over the bodies and the potential energy
+ * reuses the potentials stored by the last force evaluation, so recording
+ * a step costs O(n) and no extra force pass. Drifts are relative to the
+ * values measured on {@link #reset(NBodyState)}.
+ */
+public class ConservationDiagnostics {
+
+	private double initialEnergy;
+	private double initialMomentumX, initialMomentumY, initialMomentumZ;
+
+	private double energy;
+	private double momentumX, momentumY, momentumZ;
+
+	private double energyDrift = 0.0;
+	private double momentumDrift = 0.0;
+	private double maxEnergyDrift = 0.0;
+	private double maxMomentumDrift = 0.0;
+	// Change of energy during the last step, relative to the initial energy
+	private double stepEnergyChange = 0.0;
+
+	private long steps = 0;
+	private long forceEvaluations = 0;
+
+	/**
+	 * Starts measuring drifts from the current state.
+	 */
+	public void reset(NBodyState state){
+		measure(state);
+		initialEnergy = energy;
+		initialMomentumX = momentumX;
+		initialMomentumY = momentumY;
+		initialMomentumZ = momentumZ;
+		energyDrift = momentumDrift = 0.0;
+		maxEnergyDrift = maxMomentumDrift = 0.0;
+		stepEnergyChange = 0.0;
+		steps = 0;
+		forceEvaluations = 0;
+	}
+
+	/**
+	 * Measures the state after a step.
+	 * @param evaluations Force evaluations the step needed.
+	 */
+	public void record(NBodyState state, int evaluations){
+		double previous = energy;
+		measure(state);
+
+		double scale = Math.abs(initialEnergy) > 0.0 ? Math.abs(initialEnergy) : 1.0;
+		energyDrift = (energy - initialEnergy) / scale;
+		stepEnergyChange = (energy - previous) / scale;
+
+		double dx = momentumX - initialMomentumX;
+		double dy = momentumY - initialMomentumY;
+		double dz = momentumZ - initialMomentumZ;
+		double l0 = Math.sqrt(initialMomentumX * initialMomentumX + initialMomentumY * initialMomentumY + initialMomentumZ * initialMomentumZ);
+		momentumDrift = Math.sqrt(dx * dx + dy * dy + dz * dz) / (l0 > 0.0 ? l0 : 1.0);
+
+		maxEnergyDrift = Math.max(maxEnergyDrift, Math.abs(energyDrift));
+		maxMomentumDrift = Math.max(maxMomentumDrift, momentumDrift);
+		steps++;
+		forceEvaluations += evaluations;
+	}
+
+	private void measure(NBodyState state){
+		double kinetic = 0.0, potential = 0.0;
+		double lx = 0.0, ly = 0.0, lz = 0.0;
+		for( int i = 0; i < state.count; i++ ){
+			double m = state.mass[i];
+			double vx = state.vx[i], vy = state.vy[i], vz = state.vz[i];
+			kinetic += 0.5 * m * (vx * vx + vy * vy + vz * vz);
+			// Every pair is counted from both sides
+			potential += 0.5 * m * state.potential[i];
+			lx += m * (state.y[i] * vz - state.z[i] * vy);
+			ly += m * (state.z[i] * vx - state.x[i] * vz);
+			lz += m * (state.x[i] * vy - state.y[i] * vx);
+		}
+		energy = kinetic + potential;
+		momentumX = lx;
+		momentumY = ly;
+		momentumZ = lz;
+	}
+
+	public double getEnergy() {
+		return energy;
+	}
+
+	/**
+	 * @return Relative change of total energy since the reset.
+	 */
+	public double getEnergyDrift() {
+		return energyDrift;
+	}
+
+	/**
+	 * @return Relative change of the angular momentum vector since the reset.
+	 */
+	public double getMomentumDrift() {
+		return momentumDrift;
+	}
+
+	public double getMaxEnergyDrift() {
+		return maxEnergyDrift;
+	}
+
+	public double getMaxMomentumDrift() {
+		return maxMomentumDrift;
+	}
+
+	public double getStepEnergyChange() {
+		return stepEnergyChange;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public long getForceEvaluations() {
+		return forceEvaluations;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("steps %d, force evaluations %d, energy drift %.3e (max %.3e), angular momentum drift %.3e (max %.3e)",
+				steps, forceEvaluations, energyDrift, maxEnergyDrift, momentumDrift, maxMomentumDrift);
+	}
+
+}
@@ -0,0 +1,173 @@
+package code.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of an ephemeris file written by {@link EphemerisWriter}.
+ *
+ * Time is cut into segments of equal length. In every segment the position
+ * of a body relative to its parent is a Chebyshev series per axis. The file
+ * is memory-mapped, so opening it does not read it and a lookup is an index
+ * computation followed by a few multiply-adds on the mapped coefficients,
+ * without any heap allocation.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * int    magic, version, bodies, coefficients, segments, reserved
+ * double start time, segment length
+ * long   fingerprint of the recorded system, 0 if unknown
+ * int    parent of every body (-1 for roots)
+ * float  coefficients [segment][body][axis x, y, z][coefficient]
+ * </pre>
+ */
+public class Ephemeris {
+
+	static final int MAGIC = 0x45504831;	// "EPH1"
+	static final int VERSION = 2;
+	static final int HEADER_BYTES = 48;
+	// Largest mapping, files beyond it are mapped as several regions
+	static final long REGION_BYTES = 1L << 30;
+
+	private final int bodies;
+	private final int coefficients;
+	private final int segments;
+	private final double startTime;
+	private final double segmentLength;
+	private final long fingerprint;
+	private final int[] parent;
+
+	// Bytes of one body in one segment, and of a whole segment
+	private final int bodyBytes;
+	private final int segmentBytes;
+	private final int segmentsPerRegion;
+	private final ByteBuffer[] regions;
+
+	private Ephemeris(FileChannel channel) throws IOException {
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+		if( header.getInt(0) != MAGIC ){
+			throw new IOException("Not an ephemeris file");
+		}
+		if( header.getInt(4) != VERSION ){
+			throw new IOException("Unsupported ephemeris version " + header.getInt(4));
+		}
+		bodies = header.getInt(8);
+		coefficients = header.getInt(12);
+		segments = header.getInt(16);
+		startTime = header.getDouble(24);
+		segmentLength = header.getDouble(32);
+		fingerprint = header.getLong(40);
+		if( bodies < 1 || coefficients < 1 || segments < 1 || !(segmentLength > 0.0) ){
+			throw new IOException("Empty or corrupt ephemeris file");
+		}
+
+		ByteBuffer parents = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 4L * bodies);
+		parent = new int[bodies];
+		for( int i = 0; i < bodies; i++ ){
+			parent[i] = parents.getInt(4 * i);
+		}
+
+		bodyBytes = 3 * coefficients * 4;
+		segmentBytes = bodies * bodyBytes;
+		long dataOffset = HEADER_BYTES + 4L * bodies;
+		if( channel.size() < dataOffset + (long)segments * segmentBytes ){
+			throw new IOException("Truncated ephemeris file");
+		}
+		segmentsPerRegion = (int)Math.max(1, REGION_BYTES / segmentBytes);
+		regions = new ByteBuffer[(segments + segmentsPerRegion - 1) / segmentsPerRegion];
+		for( int r = 0; r < regions.length; r++ ){
+			int first = r * segmentsPerRegion;
+			int n = Math.min(segmentsPerRegion, segments - first);
+			regions[r] = channel.map(FileChannel.MapMode.READ_ONLY,
+					dataOffset + (long)first * segmentBytes, (long)n * segmentBytes);
+		}
+	}
+
+	/**
+	 * Maps an ephemeris file. The mapping stays valid after the channel is closed.
+	 */
+	public static Ephemeris open(Path file) throws IOException {
+		try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+			return new Ephemeris(channel);
+		}
+	}
+
+	/**
+	 * Position of a body relative to its parent. Times outside the covered
+	 * range are clamped to it.
+	 * @param out Receives x, y and z.
+	 */
+	public void position(int body, double t, float[] out){
+		double s = (t - startTime) / segmentLength;
+		int segment = (int)Math.floor(s);
+		if( segment < 0 ){
+			segment = 0;
+			s = 0.0;
+		}else if( segment >= segments ){
+			segment = segments - 1;
+			s = segments;
+		}
+		// Time within the segment mapped to [-1, 1]
+		double tau = 2.0 * (s - segment) - 1.0;
+
+		ByteBuffer region = regions[segment / segmentsPerRegion];
+		int base = (segment % segmentsPerRegion) * segmentBytes + body * bodyBytes;
+		out[0] = (float)clenshaw(region, base, tau);
+		out[1] = (float)clenshaw(region, base + coefficients * 4, tau);
+		out[2] = (float)clenshaw(region, base + 2 * coefficients * 4, tau);
+	}
+
+	/**
+	 * Sums a Chebyshev series with the recurrence of Clenshaw.
+	 */
+	private double clenshaw(ByteBuffer region, int offset, double tau){
+		double b1 = 0.0, b2 = 0.0;
+		double twoTau = 2.0 * tau;
+		for( int k = coefficients - 1; k > 0; k-- ){
+			double b = twoTau * b1 - b2 + region.getFloat(offset + 4 * k);
+			b2 = b1;
+			b1 = b;
+		}
+		return tau * b1 - b2 + region.getFloat(offset);
+	}
+
+	public int getBodyCount() {
+		return bodies;
+	}
+
+	public int getParent(int body) {
+		return parent[body];
+	}
+
+	public int getCoefficients() {
+		return coefficients;
+	}
+
+	public int getSegmentCount() {
+		return segments;
+	}
+
+	public double getSegmentLength() {
+		return segmentLength;
+	}
+
+	public double getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return Fingerprint of the system the ephemeris was recorded from, 0 if unknown.
+	 * @see EphemerisWriter#fingerprint(SimulationKernel)
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	public double getEndTime() {
+		return startTime + segments * segmentLength;
+	}
+
+}
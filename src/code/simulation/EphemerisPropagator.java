@@ -0,0 +1,146 @@
+package code.simulation;
+
+/**
+ * Replays an {@link Ephemeris}: bodies are placed from the mapped Chebyshev
+ * segments instead of being integrated. Starting is instant and the heap use
+ * does not depend on how much time the ephemeris covers.
+ *
+ * The first bodies of the kernel are driven by the ephemeris and must have
+ * the same parents as in it. Bodies beyond the ephemeris only follow their
+ * parent.
+ */
+public class EphemerisPropagator implements Propagator, Restorable {
+
+	private final Ephemeris ephemeris;
+
+	private double time;
+	private double timeWarp = 1.0;
+	// Starts over at the end instead of stopping
+	private boolean looping = true;
+
+	private final float[] relative = new float[3];
+
+	public EphemerisPropagator(Ephemeris ephemeris){
+		this.ephemeris = ephemeris;
+		this.time = ephemeris.getStartTime();
+	}
+
+	@Override
+	public void attach(SimulationKernel kernel){
+		int n = Math.min(ephemeris.getBodyCount(), kernel.getBodyCount());
+		for( int i = 0; i < n; i++ ){
+			if( kernel.getParent(i) != ephemeris.getParent(i) ){
+				throw new IllegalArgumentException("Body " + i + " orbits " + kernel.getParent(i)
+						+ " in the kernel but " + ephemeris.getParent(i) + " in the ephemeris");
+			}
+		}
+		kernel.setWorldDriven(true);
+		place(kernel);
+	}
+
+	@Override
+	public void advance(SimulationKernel kernel, float dT){
+		kernel.beginStep();
+		time += dT * timeWarp;
+		double start = ephemeris.getStartTime();
+		double end = ephemeris.getEndTime();
+		if( looping && (time >= end || time < start) ){
+			time = start + (time - start) - (end - start) * Math.floor((time - start) / (end - start));
+		}
+		place(kernel);
+		kernel.advanceAxes(dT);
+	}
+
+	@Override
+	public void detach(SimulationKernel kernel){
+		kernel.setWorldDriven(false);
+	}
+
+	/**
+	 * Places the bodies at the current time, parents first.
+	 */
+	public void place(SimulationKernel kernel){
+		if( kernel.topologyDirty ){
+			kernel.rebuildOrder();
+		}
+		int driven = ephemeris.getBodyCount();
+		for( int k = 0; k < kernel.count; k++ ){
+			int i = kernel.order[k];
+			int p = kernel.parent[i];
+			float x = 0.f, y = 0.f, z = 0.f;
+			if( p != SimulationKernel.NO_PARENT ){
+				x = kernel.worldX[p];
+				y = kernel.worldY[p];
+				z = kernel.worldZ[p];
+			}
+			if( i < driven ){
+				ephemeris.position(i, time, relative);
+				x += relative[0];
+				y += relative[1];
+				z += relative[2];
+			}else{
+				x += kernel.offsetX[i];
+				y += kernel.offsetY[i];
+				z += kernel.offsetZ[i];
+			}
+			kernel.worldX[i] = x;
+			kernel.worldY[i] = y;
+			kernel.worldZ[i] = z;
+		}
+	}
+
+	public Ephemeris getEphemeris() {
+		return ephemeris;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	@Override
+	public int getStateSize() {
+		return 1;
+	}
+
+	@Override
+	public void saveState(long[] words, int offset) {
+		words[offset] = Double.doubleToRawLongBits(time);
+	}
+
+	@Override
+	public void restoreState(long[] words, int offset) {
+		time = Double.longBitsToDouble(words[offset]);
+	}
+
+	/**
+	 * Jumps to any time covered by the ephemeris, applied on the next step.
+	 */
+	public void setTime(double time) {
+		this.time = time;
+	}
+
+	public double getTimeWarp() {
+		return timeWarp;
+	}
+
+	public void setTimeWarp(double timeWarp) {
+		this.timeWarp = timeWarp;
+	}
+
+	/**
+	 * True when not looping and the time has left the ephemeris, the bodies
+	 * then hold at its end.
+	 */
+	public boolean isFinished() {
+		return !looping && (time >= ephemeris.getEndTime() || time < ephemeris.getStartTime());
+	}
+
+	public boolean isLooping() {
+		return looping;
+	}
+
+	public void setLooping(boolean looping) {
+		this.looping = looping;
+	}
+
+}
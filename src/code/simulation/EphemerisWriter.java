@@ -0,0 +1,384 @@
+package code.simulation;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Fits Chebyshev segments to positions sampled at equal time steps and
+ * streams them into an ephemeris file, see {@link Ephemeris} for the layout.
+ *
+ * A segment spans a fixed number of samples, the last sample of a segment is
+ * also the first one of the next. Coefficients are a least-squares fit to the
+ * samples, so only the samples of the current segment are kept in memory.
+ * Samples which do not complete a segment are dropped on {@link #close()}.
+ *
+ * The ephemeris is written to a temporary file next to the target, which
+ * only replaces the target once {@link #finish()} was called. A file that is
+ * mapped for replay is therefore never truncated or overwritten in place.
+ */
+public class EphemerisWriter implements Closeable {
+
+	private final Path file;
+	private final Path partial;
+	private final FileChannel channel;
+	private boolean complete = false;
+	private final int bodies;
+	private final int samples;
+	private final int coefficients;
+	private int segments = 0;
+
+	// Maps the samples of a segment to coefficients [coefficient][sample]
+	private final double[][] fit;
+	// Samples of the current segment [body][axis][sample]
+	private final double[][][] pending;
+	private int filled = 0;
+	private final ByteBuffer segment;
+
+	/**
+	 * @param file File to create or overwrite.
+	 * @param parents Parent of every body, positions are relative to it.
+	 * @param startTime Time of the first sample.
+	 * @param segmentLength Time covered by a segment.
+	 * @param samplesPerSegment Samples fitted per segment, at least the number of coefficients.
+	 * @param coefficients Chebyshev coefficients per axis, the polynomial degree plus one.
+	 */
+	public EphemerisWriter(Path file, int[] parents, double startTime, double segmentLength,
+			int samplesPerSegment, int coefficients) throws IOException {
+		this(file, parents, startTime, segmentLength, samplesPerSegment, coefficients, 0L);
+	}
+
+	/**
+	 * @param fingerprint Fingerprint of the system the samples come from, 0 if unknown.
+	 * @see #fingerprint(SimulationKernel)
+	 */
+	public EphemerisWriter(Path file, int[] parents, double startTime, double segmentLength,
+			int samplesPerSegment, int coefficients, long fingerprint) throws IOException {
+		if( parents.length < 1 ){
+			throw new IllegalArgumentException("No bodies");
+		}
+		if( coefficients < 1 || samplesPerSegment < Math.max(2, coefficients) ){
+			throw new IllegalArgumentException("Need at least " + Math.max(2, coefficients) + " samples per segment: " + samplesPerSegment);
+		}
+		if( !(segmentLength > 0.0) ){
+			throw new IllegalArgumentException("Segment length must be positive: " + segmentLength);
+		}
+		this.bodies = parents.length;
+		this.samples = samplesPerSegment;
+		this.coefficients = coefficients;
+		this.fit = fitMatrix(samplesPerSegment, coefficients);
+		this.pending = new double[bodies][3][samplesPerSegment];
+		this.segment = ByteBuffer.allocate(bodies * 3 * coefficients * 4);
+
+		this.file = file;
+		this.partial = file.resolveSibling(file.getFileName() + ".partial");
+		channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(Ephemeris.HEADER_BYTES + 4 * bodies);
+		header.putInt(Ephemeris.MAGIC).putInt(Ephemeris.VERSION).putInt(bodies).putInt(coefficients);
+		header.putInt(0).putInt(0);
+		header.putDouble(startTime).putDouble(segmentLength);
+		header.putLong(fingerprint);
+		for( int p : parents ){
+			header.putInt(p);
+		}
+		header.flip();
+		while( header.hasRemaining() ){
+			channel.write(header);
+		}
+	}
+
+	/**
+	 * Adds the positions of all bodies, relative to their parents, at the next sample time.
+	 */
+	public void addSample(float[] x, float[] y, float[] z) throws IOException {
+		for( int b = 0; b < bodies; b++ ){
+			pending[b][0][filled] = x[b];
+			pending[b][1][filled] = y[b];
+			pending[b][2][filled] = z[b];
+		}
+		if( ++filled == samples ){
+			writeSegment();
+			// The last sample starts the next segment
+			for( int b = 0; b < bodies; b++ ){
+				for( int axis = 0; axis < 3; axis++ ){
+					pending[b][axis][0] = pending[b][axis][samples - 1];
+				}
+			}
+			filled = 1;
+		}
+	}
+
+	private void writeSegment() throws IOException {
+		segment.clear();
+		for( int b = 0; b < bodies; b++ ){
+			for( int axis = 0; axis < 3; axis++ ){
+				double[] values = pending[b][axis];
+				for( int k = 0; k < coefficients; k++ ){
+					double[] row = fit[k];
+					double c = 0.0;
+					for( int j = 0; j < samples; j++ ){
+						c += row[j] * values[j];
+					}
+					segment.putFloat((float)c);
+				}
+			}
+		}
+		segment.flip();
+		while( segment.hasRemaining() ){
+			channel.write(segment);
+		}
+		segments++;
+	}
+
+	/**
+	 * Writes the number of segments into the header, only then does
+	 * {@link #close()} replace the target file.
+	 */
+	public void finish() throws IOException {
+		ByteBuffer count = ByteBuffer.allocate(4);
+		count.putInt(0, segments);
+		channel.write(count, 16);
+		channel.force(false);
+		complete = true;
+	}
+
+	/**
+	 * Moves a finished ephemeris over the target, an unfinished one is deleted.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		if( complete ){
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}else{
+			Files.deleteIfExists(partial);
+		}
+	}
+
+	public int getSegmentCount() {
+		return segments;
+	}
+
+	/**
+	 * Least-squares fit of Chebyshev polynomials to equally spaced samples on
+	 * [-1, 1], solved once through the normal equations: (A^T A) F = A^T.
+	 */
+	static double[][] fitMatrix(int samples, int coefficients){
+		double[][] a = new double[samples][coefficients];
+		for( int j = 0; j < samples; j++ ){
+			double tau = -1.0 + 2.0 * j / (samples - 1);
+			a[j][0] = 1.0;
+			if( coefficients > 1 ){
+				a[j][1] = tau;
+			}
+			for( int k = 2; k < coefficients; k++ ){
+				a[j][k] = 2.0 * tau * a[j][k - 1] - a[j][k - 2];
+			}
+		}
+		double[][] n = new double[coefficients][coefficients];
+		double[][] f = new double[coefficients][samples];
+		for( int k = 0; k < coefficients; k++ ){
+			for( int l = 0; l < coefficients; l++ ){
+				for( int j = 0; j < samples; j++ ){
+					n[k][l] += a[j][k] * a[j][l];
+				}
+			}
+			for( int j = 0; j < samples; j++ ){
+				f[k][j] = a[j][k];
+			}
+		}
+		// Gauss-Jordan elimination with partial pivoting, applied to all right hand sides
+		for( int c = 0; c < coefficients; c++ ){
+			int pivot = c;
+			for( int r = c + 1; r < coefficients; r++ ){
+				if( Math.abs(n[r][c]) > Math.abs(n[pivot][c]) ){
+					pivot = r;
+				}
+			}
+			double[] t = n[c]; n[c] = n[pivot]; n[pivot] = t;
+			t = f[c]; f[c] = f[pivot]; f[pivot] = t;
+			for( int r = 0; r < coefficients; r++ ){
+				if( r == c ){
+					continue;
+				}
+				double factor = n[r][c] / n[c][c];
+				for( int l = c; l < coefficients; l++ ){
+					n[r][l] -= factor * n[c][l];
+				}
+				for( int j = 0; j < samples; j++ ){
+					f[r][j] -= factor * f[c][j];
+				}
+			}
+		}
+		for( int c = 0; c < coefficients; c++ ){
+			for( int j = 0; j < samples; j++ ){
+				f[c][j] /= n[c][c];
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Hash of everything the kinematic orbits of a kernel follow from: the
+	 * hierarchy, orbit radii, offsets, speeds and the current orbit angles.
+	 * An ephemeris recorded from a kernel with the same fingerprint replays
+	 * the same motion, starting from the same state.
+	 */
+	public static long fingerprint(SimulationKernel kernel){
+		long h = 0xcbf29ce484222325L;
+		h = mix(h, kernel.count);
+		for( int i = 0; i < kernel.count; i++ ){
+			h = mix(h, kernel.parent[i]);
+			h = mix(h, Float.floatToIntBits(kernel.orbitRadius[i]));
+			h = mix(h, Float.floatToIntBits(kernel.offsetX[i]));
+			h = mix(h, Float.floatToIntBits(kernel.offsetY[i]));
+			h = mix(h, Float.floatToIntBits(kernel.offsetZ[i]));
+			h = mix(h, Float.floatToIntBits(kernel.orbitRotation[i]));
+			h = mix(h, Float.floatToIntBits(kernel.orbitRotationSpeed[i]));
+		}
+		// 0 stands for an unknown system
+		return h == 0L ? 1L : h;
+	}
+
+	private static long mix(long h, int value){
+		h ^= value & 0xffffffffL;
+		h *= 0x100000001b3L;
+		return h ^ (h >>> 29);
+	}
+
+	/**
+	 * Records an ephemeris by simulating ahead on a copy of the kernel, the
+	 * kernel itself is not changed. The ephemeris starts from the current
+	 * state of the kernel and holds its {@link #fingerprint(SimulationKernel)}.
+	 * @param propagator Propagator to drive the copy (not attached anywhere else) or null for kinematic orbits.
+	 * @param duration Time to cover, rounded up to whole segments.
+	 */
+	public static void record(SimulationKernel kernel, Propagator propagator, Path file, double duration,
+			double segmentLength, int samplesPerSegment, int coefficients) throws IOException {
+		long fingerprint = fingerprint(kernel);
+		SimulationKernel copy = new SimulationKernel(kernel);
+		int n = copy.getBodyCount();
+		int[] parents = new int[n];
+		for( int i = 0; i < n; i++ ){
+			parents[i] = copy.getParent(i);
+		}
+		if( propagator != null ){
+			propagator.attach(copy);
+		}else{
+			copy.setWorldDriven(false);
+			copy.updateWorld();
+		}
+
+		int segmentCount = (int)Math.ceil(duration / segmentLength);
+		long sampleCount = (long)segmentCount * (samplesPerSegment - 1) + 1;
+		float step = (float)(segmentLength / (samplesPerSegment - 1));
+		float[] x = new float[n], y = new float[n], z = new float[n];
+		try( EphemerisWriter writer = new EphemerisWriter(file, parents, 0.0, segmentLength, samplesPerSegment, coefficients, fingerprint) ){
+			for( long s = 0; s < sampleCount; s++ ){
+				if( s > 0 ){
+					if( propagator != null ){
+						propagator.advance(copy, step);
+					}else{
+						copy.step(step);
+					}
+				}
+				for( int i = 0; i < n; i++ ){
+					int p = parents[i];
+					x[i] = copy.worldX[i] - (p == SimulationKernel.NO_PARENT ? 0.f : copy.worldX[p]);
+					y[i] = copy.worldY[i] - (p == SimulationKernel.NO_PARENT ? 0.f : copy.worldY[p]);
+					z[i] = copy.worldZ[i] - (p == SimulationKernel.NO_PARENT ? 0.f : copy.worldZ[p]);
+				}
+				writer.addSample(x, y, z);
+			}
+			writer.finish();
+		}
+		if( propagator != null ){
+			propagator.detach(copy);
+		}
+	}
+
+	/**
+	 * Fits an ephemeris to a plain-text table, streamed line by line. Empty
+	 * lines and lines starting with # are ignored. Bodies are declared first
+	 * with "body &lt;index&gt; &lt;parent&gt;" lines (parent -1 for roots), in
+	 * index order. Every following line holds a time and the x, y and z of
+	 * every body relative to its parent, times equally spaced.
+	 * @param samplesPerSegment Table rows fitted per segment.
+	 */
+	public static void fromTable(BufferedReader in, Path file, int samplesPerSegment, int coefficients) throws IOException {
+		int[] parents = new int[0];
+		EphemerisWriter writer = null;
+		double firstTime = 0.0;
+		float[] x = null, y = null, z = null;
+		float[] fx = null, fy = null, fz = null;
+		int rows = 0;
+		int lineNumber = 0;
+		try{
+			String line;
+			while( (line = in.readLine()) != null ){
+				lineNumber++;
+				line = line.trim();
+				if( line.isEmpty() || line.startsWith("#") ){
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if( fields[0].equals("body") ){
+					if( rows > 0 || fields.length != 3 || Integer.parseInt(fields[1]) != parents.length ){
+						throw new IOException("Line " + lineNumber + ": bodies must be declared in order before the data");
+					}
+					parents = Arrays.copyOf(parents, parents.length + 1);
+					parents[parents.length - 1] = Integer.parseInt(fields[2]);
+					continue;
+				}
+				int n = parents.length;
+				if( n == 0 || fields.length != 1 + 3 * n ){
+					throw new IOException("Line " + lineNumber + ": expected a time and " + (3 * n) + " coordinates");
+				}
+				if( x == null ){
+					x = new float[n]; y = new float[n]; z = new float[n];
+				}
+				double time = Double.parseDouble(fields[0]);
+				for( int b = 0; b < n; b++ ){
+					x[b] = Float.parseFloat(fields[1 + 3 * b]);
+					y[b] = Float.parseFloat(fields[2 + 3 * b]);
+					z[b] = Float.parseFloat(fields[3 + 3 * b]);
+				}
+				if( rows == 0 ){
+					// The step is only known from the second row
+					firstTime = time;
+					fx = x.clone(); fy = y.clone(); fz = z.clone();
+				}else{
+					if( rows == 1 ){
+						double step = time - firstTime;
+						if( !(step > 0.0) ){
+							throw new IOException("Line " + lineNumber + ": times must increase");
+						}
+						writer = new EphemerisWriter(file, parents, firstTime, step * (samplesPerSegment - 1), samplesPerSegment, coefficients);
+						writer.addSample(fx, fy, fz);
+					}
+					writer.addSample(x, y, z);
+				}
+				rows++;
+			}
+			if( writer == null || writer.getSegmentCount() == 0 ){
+				throw new IOException("Table has fewer rows than a segment needs (" + samplesPerSegment + ")");
+			}
+			writer.finish();
+		}catch( NumberFormatException e ){
+			throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+		}finally{
+			if( writer != null ){
+				writer.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+package code.simulation;
+
+/**
+ * Explicit (forward) Euler integration. First order and not symplectic, the
+ * energy of orbits keeps growing, but it needs only one force evaluation per step.
+ */
+public class EulerIntegrator implements Integrator {
+
+	@Override
+	public void step(NBodyState state, ForceModel forces, double dt){
+		for( int i = 0; i < state.count; i++ ){
+			state.x[i] += dt * state.vx[i];
+			state.y[i] += dt * state.vy[i];
+			state.z[i] += dt * state.vz[i];
+			state.vx[i] += dt * state.ax[i];
+			state.vy[i] += dt * state.ay[i];
+			state.vz[i] += dt * state.az[i];
+		}
+		forces.computeForces(state);
+	}
+
+	@Override
+	public int getForceEvaluations(){
+		return 1;
+	}
+
+	@Override
+	public String getName(){
+		return "Euler";
+	}
+
+}
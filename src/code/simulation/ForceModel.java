@@ -0,0 +1,13 @@
+package code.simulation;
+
+/**
+ * Source of accelerations for an {@link NBodyState}.
+ */
+public interface ForceModel {
+	
+	/**
+	 * Stores acceleration and potential (per unit mass) of every body, evaluated
+	 * at the current positions of the state.
+	 */
+	void computeForces(NBodyState state);
+}
@@ -0,0 +1,25 @@
+package code.simulation;
+
+/**
+ * Time integration of an {@link NBodyState}.
+ *
+ * On entry accelerations of the state are those of its current positions,
+ * and so they must be on exit, so that diagnostics and the next step can use them.
+ */
+public interface Integrator {
+	
+	/**
+	 * Advances positions and velocities of the state.
+	 * @param state State to advance, with current accelerations.
+	 * @param forces Force model evaluated on intermediate positions.
+	 * @param dt Length of the step.
+	 */
+	void step(NBodyState state, ForceModel forces, double dt);
+	
+	/**
+	 * @return Number of force evaluations performed by the last step.
+	 */
+	int getForceEvaluations();
+	
+	String getName();
+}
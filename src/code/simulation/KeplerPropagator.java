@@ -0,0 +1,238 @@
+package code.simulation;
+
+/**
+ * Places bodies analytically on Keplerian orbits around their parents.
+ *
+ * Positions are a closed form function of time, so any time can be reached
+ * at constant cost and large time warps do not accumulate errors. Bodies
+ * with elements set in the kernel use them. The others get a circular orbit
+ * matching their kinematic one: radius of the orbit, current (accumulated)
+ * angle and the angular speed it is seen to move with.
+ *
+ * Kepler's equation is solved with a fixed number of Newton iterations in
+ * separate passes over primitive arrays, without per-body branches, so the
+ * loops stay simple enough for the JIT to vectorise. Offsets of orbit
+ * centres turn with the frame of the parent, as in the kinematic kernel: the
+ * frame of a body turns with the direction from its parent.
+ *
+ * Axes turn in simulated time as well. On detaching, the propagated phases
+ * are written back into the orbit and axis angles of the kernel, so that the
+ * kinematic orbits continue from where the bodies are.
+ */
+public class KeplerPropagator implements Propagator, Restorable {
+
+	static final int NEWTON_ITERATIONS = 6;
+	private static final double TWO_PI = Math.PI * 2.0;
+
+	// Simulated time in seconds and its speed relative to real time
+	private double time = 0.0;
+	private double timeWarp = 1.0;
+
+	private int count = 0;
+	// Elements of the attached kernel, orientation folded into the periapsis (P) and semi-latus (Q) axes
+	private double[] eccentricity, meanAnomaly, meanMotion;
+	private double[] px, py, pz, qx, qy, qz;
+
+	// Axis rotation at time zero
+	private double[] axisPhase;
+
+	// Mean and eccentric anomaly of the bodies in kernel order
+	private double[] m, ecc;
+
+	@Override
+	public void attach(SimulationKernel kernel){
+		kernel.updateWorld();
+		count = kernel.getBodyCount();
+		eccentricity = new double[count];
+		meanAnomaly = new double[count];
+		meanMotion = new double[count];
+		px = new double[count];
+		py = new double[count];
+		pz = new double[count];
+		qx = new double[count];
+		qy = new double[count];
+		qz = new double[count];
+		axisPhase = new double[count];
+		m = new double[count];
+		ecc = new double[count];
+
+		// Angular speed of the frame every body is drawn in, accumulated from the root
+		double[] frameSpeed = new double[count];
+		for( int k = 0; k < count; k++ ){
+			int i = kernel.order[k];
+			int p = kernel.parent[i];
+			frameSpeed[i] = (p == SimulationKernel.NO_PARENT ? 0.0 : frameSpeed[p]) + kernel.orbitRotationSpeed[i];
+			axisPhase[i] = kernel.axisRotation[i] - (double)kernel.axisRotationSpeed[i] * time;
+
+			if( kernel.hasElements[i] ){
+				setElements(i, kernel.semiMajorAxis[i], kernel.eccentricity[i], kernel.inclination[i],
+						kernel.ascendingNode[i], kernel.periapsis[i], kernel.meanAnomaly[i], kernel.meanMotion[i]);
+			}else{
+				double angle = Math.atan2(kernel.worldSin[i], kernel.worldCos[i]);
+				setElements(i, kernel.orbitRadius[i], 0.0, 0.0, 0.0, 0.0, angle - frameSpeed[i] * time, frameSpeed[i]);
+			}
+		}
+		kernel.setWorldDriven(true);
+		propagate(kernel);
+	}
+
+	@Override
+	public void advance(SimulationKernel kernel, float dT){
+		kernel.beginStep();
+		time += dT * timeWarp;
+		propagate(kernel);
+	}
+
+	@Override
+	public void detach(SimulationKernel kernel){
+		// Frame angle of every body in the world, orbit angles of the kernel are relative to the parent frame
+		double[] frame = new double[count];
+		for( int k = 0; k < count; k++ ){
+			int i = kernel.order[k];
+			int p = kernel.parent[i];
+			// Circular orbits derived from kinematic ones have no periapsis offset, their phase is the mean anomaly
+			frame[i] = kernel.hasElements[i] ? Math.atan2(kernel.worldSin[i], kernel.worldCos[i]) : m[k];
+			double angle = frame[i] - (p == SimulationKernel.NO_PARENT ? 0.0 : frame[p]);
+			angle -= TWO_PI * Math.floor(angle / TWO_PI);
+			kernel.orbitRotation[i] = SimulationKernel.wrapAngle((float)angle);
+			kernel.prevOrbitRotation[i] = kernel.orbitRotation[i];
+		}
+		kernel.revision++;
+		kernel.setWorldDriven(false);
+	}
+
+	/**
+	 * Places all bodies at the current time.
+	 */
+	public void propagate(SimulationKernel kernel){
+		if( kernel.topologyDirty ){
+			kernel.rebuildOrder();
+		}
+		int n = count;
+		int[] order = kernel.order;
+		double t = time;
+
+		// Mean anomaly reduced to [0, 2PI) and the starting guess of Danby
+		for( int k = 0; k < n; k++ ){
+			int i = order[k];
+			double mk = meanAnomaly[i] + meanMotion[i] * t;
+			mk -= TWO_PI * Math.floor(mk / TWO_PI);
+			m[k] = mk;
+			ecc[k] = mk + 0.85 * eccentricity[i] * Math.signum(Math.sin(mk));
+		}
+		// Newton iterations on E - e sin(E) = M
+		for( int iteration = 0; iteration < NEWTON_ITERATIONS; iteration++ ){
+			for( int k = 0; k < n; k++ ){
+				int i = order[k];
+				double e = eccentricity[i];
+				double ek = ecc[k];
+				ecc[k] = ek - (ek - e * Math.sin(ek) - m[k]) / (1.0 - e * Math.cos(ek));
+			}
+		}
+		// Position relative to the parent, then to the world in kernel order
+		for( int k = 0; k < n; k++ ){
+			int i = order[k];
+			double e = eccentricity[i];
+			double cosE = Math.cos(ecc[k]) - e;
+			double sinE = Math.sin(ecc[k]) * Math.sqrt(1.0 - e * e);
+			float rx = (float)(px[i] * cosE + qx[i] * sinE);
+			float ry = (float)(py[i] * cosE + qy[i] * sinE);
+			float rz = (float)(pz[i] * cosE + qz[i] * sinE);
+
+			double axis = axisPhase[i] + kernel.axisRotationSpeed[i] * t;
+			axis -= TWO_PI * Math.floor(axis / TWO_PI);
+			kernel.axisRotation[i] = SimulationKernel.wrapAngle((float)axis);
+
+			int p = kernel.parent[i];
+			float wx = 0.f, wy = 0.f, wz = 0.f, pc = 1.f, ps = 0.f;
+			if( p != SimulationKernel.NO_PARENT ){
+				wx = kernel.worldX[p];
+				wy = kernel.worldY[p];
+				wz = kernel.worldZ[p];
+				pc = kernel.worldCos[p];
+				ps = kernel.worldSin[p];
+			}
+			// Offset rotated by the parent frame, like SimulationKernel.placeBody
+			kernel.worldX[i] = wx + pc * kernel.offsetX[i] + ps * kernel.offsetZ[i] + rx;
+			kernel.worldY[i] = wy + kernel.offsetY[i] + ry;
+			kernel.worldZ[i] = wz - ps * kernel.offsetX[i] + pc * kernel.offsetZ[i] + rz;
+
+			// Frame along the direction from the parent, kinematic orbits are at (-cos, sin) * radius
+			float d = (float)Math.sqrt(rx * rx + rz * rz);
+			if( d > 0.f ){
+				kernel.worldCos[i] = -rx / d;
+				kernel.worldSin[i] = rz / d;
+			}else{
+				kernel.worldCos[i] = (float)Math.cos(m[k]);
+				kernel.worldSin[i] = (float)Math.sin(m[k]);
+			}
+		}
+	}
+
+	/**
+	 * Orientation of the orbit as periapsis (P) and semi-latus (Q) axes scaled by the
+	 * semi-major and semi-minor axis. The orbit plane is XY with Z up in the usual
+	 * convention, it maps to XZ of the scene (Y down) the way kinematic orbits do:
+	 * scene = (-X, -Z, Y).
+	 */
+	private void setElements(int body, double a, double e, double i, double node, double w, double m0, double n){
+		double cosO = Math.cos(node), sinO = Math.sin(node);
+		double cosW = Math.cos(w), sinW = Math.sin(w);
+		double cosI = Math.cos(i), sinI = Math.sin(i);
+
+		double pX = cosO * cosW - sinO * sinW * cosI;
+		double pY = sinO * cosW + cosO * sinW * cosI;
+		double pZ = sinW * sinI;
+		double qX = -cosO * sinW - sinO * cosW * cosI;
+		double qY = -sinO * sinW + cosO * cosW * cosI;
+		double qZ = cosW * sinI;
+
+		eccentricity[body] = e;
+		meanAnomaly[body] = m0;
+		meanMotion[body] = n;
+		px[body] = -a * pX;
+		py[body] = -a * pZ;
+		pz[body] = a * pY;
+		qx[body] = -a * qX;
+		qy[body] = -a * qZ;
+		qz[body] = a * qY;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	@Override
+	public int getStateSize() {
+		return 1;
+	}
+
+	@Override
+	public void saveState(long[] words, int offset) {
+		words[offset] = Double.doubleToRawLongBits(time);
+	}
+
+	@Override
+	public void restoreState(long[] words, int offset) {
+		time = Double.longBitsToDouble(words[offset]);
+	}
+
+	/**
+	 * Jumps to any time, the kernel is placed on the next {@link #propagate(SimulationKernel)}.
+	 */
+	public void setTime(double time) {
+		this.time = time;
+	}
+
+	public double getTimeWarp() {
+		return timeWarp;
+	}
+
+	/**
+	 * @param timeWarp Simulated seconds per real second.
+	 */
+	public void setTimeWarp(double timeWarp) {
+		this.timeWarp = timeWarp;
+	}
+
+}
@@ -0,0 +1,46 @@
+package code.simulation;
+
+/**
+ * Velocity Verlet / leapfrog integration in kick-drift-kick form. Second order
+ * and symplectic, energy errors stay bounded over long runs. One force
+ * evaluation per step, since the last kick reuses the forces of the next step.
+ */
+public class LeapfrogIntegrator implements Integrator {
+
+	@Override
+	public void step(NBodyState state, ForceModel forces, double dt){
+		kickDriftKick(state, forces, dt);
+	}
+
+	/**
+	 * One leapfrog step, also used as the building block of higher order compositions.
+	 */
+	static void kickDriftKick(NBodyState state, ForceModel forces, double dt){
+		double half = 0.5 * dt;
+		for( int i = 0; i < state.count; i++ ){
+			state.vx[i] += half * state.ax[i];
+			state.vy[i] += half * state.ay[i];
+			state.vz[i] += half * state.az[i];
+			state.x[i] += dt * state.vx[i];
+			state.y[i] += dt * state.vy[i];
+			state.z[i] += dt * state.vz[i];
+		}
+		forces.computeForces(state);
+		for( int i = 0; i < state.count; i++ ){
+			state.vx[i] += half * state.ax[i];
+			state.vy[i] += half * state.ay[i];
+			state.vz[i] += half * state.az[i];
+		}
+	}
+
+	@Override
+	public int getForceEvaluations(){
+		return 1;
+	}
+
+	@Override
+	public String getName(){
+		return "Leapfrog";
+	}
+
+}
@@ -0,0 +1,448 @@
+package code.simulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many randomised variants of a system under N-body gravity, without
+ * any window, and streams statistics of every run to a {@link ColumnWriter}.
+ *
+ * Every run copies a template kernel and varies its initial orbit angles,
+ * directions, radii and, once the N-body velocities are set, the orbital
+ * speeds from its own {@link SplittableRandom}. The seeds of
+ * all runs are drawn in order from one batch seed before anything runs, so
+ * a run gives the same result whichever thread it ends up on and can be
+ * repeated alone from the seed written next to its statistics.
+ *
+ * Runs are split over a {@link ForkJoinPool}, rows are written in the order
+ * the runs complete. Collisions and close approaches are found with a
+ * {@link CollisionDetector} on every step instead of testing all pairs.
+ */
+public class MonteCarloRunner {
+
+	private final SimulationKernel template;
+	// Body ejections are measured from, usually the sun
+	private final int root;
+	// Simulated seconds per year
+	private final double yearLength;
+
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private double years = 10.0;
+	private float step = 1.f / 60.f;
+
+	// Variation of the initial state
+	private float speedFactor = 0.12f;
+	private boolean sameDirection = true;
+	private float radiusJitter = 0.f;
+	private float speedJitter = 0.05f;
+
+	// Bodies further than this from the root count as ejected
+	private double ejectionDistance;
+	// Closest approaches are only tracked between surfaces closer than this
+	private float approachDistance;
+	private int groupRows = 256;
+
+	private final AtomicInteger completed = new AtomicInteger();
+
+	/**
+	 * @param template System varied by every run, it is not modified.
+	 * @param root Body ejections are measured from.
+	 * @param yearLength Simulated seconds per year.
+	 */
+	public MonteCarloRunner(SimulationKernel template, int root, double yearLength){
+		if( root < 0 || root >= template.getBodyCount() ){
+			throw new IllegalArgumentException("No body " + root + " in a kernel of " + template.getBodyCount());
+		}
+		if( !(yearLength > 0.0) ){
+			throw new IllegalArgumentException("Year length must be positive: " + yearLength);
+		}
+		this.template = new SimulationKernel(template);
+		this.template.setPool(null);
+		this.root = root;
+		this.yearLength = yearLength;
+
+		// Twice the extent of the system
+		this.template.updateWorld();
+		double extent = 0.0;
+		for( int i = 0; i < this.template.getBodyCount(); i++ ){
+			extent = Math.max(extent, distance(this.template, i, root) + this.template.getRadius(i));
+		}
+		ejectionDistance = 2.0 * extent;
+		// The largest body
+		float largest = 0.f;
+		for( int i = 0; i < this.template.getBodyCount(); i++ ){
+			largest = Math.max(largest, this.template.getRadius(i));
+		}
+		approachDistance = 2.f * largest;
+	}
+
+	/**
+	 * Seeds of consecutive runs of a batch.
+	 */
+	public static long[] seeds(long batchSeed, int runs){
+		SplittableRandom random = new SplittableRandom(batchSeed);
+		long[] seeds = new long[runs];
+		for( int r = 0; r < runs; r++ ){
+			seeds[r] = random.nextLong();
+		}
+		return seeds;
+	}
+
+	/**
+	 * Runs a whole batch.
+	 * @param output Column file to create, one row per run.
+	 * @return Number of runs written.
+	 */
+	public long run(long batchSeed, int runs, Path output) throws IOException {
+		if( runs < 1 ){
+			throw new IllegalArgumentException("Need at least one run: " + runs);
+		}
+		long[] seeds = seeds(batchSeed, runs);
+		completed.set(0);
+		try( ColumnWriter writer = new ColumnWriter(output, RunStatistics.COLUMNS, RunStatistics.TYPES, groupRows) ){
+			try{
+				pool.invoke(new RunTask(seeds, writer, 0, runs));
+			}catch( UncheckedIOException e ){
+				throw e.getCause();
+			}
+			return writer.getRowCount();
+		}
+	}
+
+	/**
+	 * Runs a single variant.
+	 * @param run Number of the run, only recorded.
+	 * @param seed Seed the initial state is varied with.
+	 */
+	public RunStatistics run(int run, long seed){
+		SimulationKernel kernel = new SimulationKernel(template);
+		SplittableRandom random = new SplittableRandom(seed);
+		vary(kernel, random);
+		NBodyPropagator nBody = new NBodyPropagator(new BarnesHutTree(pool));
+		nBody.setMaxStep(step);
+		nBody.attach(kernel);
+		varySpeeds(kernel, nBody.getState(), random);
+
+		final RunStatistics statistics = new RunStatistics(run, seed);
+		NBodyState state = nBody.getState();
+		int n = state.getBodyCount();
+		boolean[] ejected = new boolean[n];
+
+		// Pairs starting to overlap are collisions
+		CollisionDetector collisions = new CollisionDetector();
+		collisions.addListener(new CollisionListener(){
+			@Override
+			public void collision(int a, int b, float overlap, boolean started){
+				if( started ){
+					statistics.collisions++;
+				}
+			}
+		});
+		// Spheres grown by half the approach distance overlap when the surfaces come that close
+		float[] reach = new float[n];
+		for( int i = 0; i < n; i++ ){
+			reach[i] = kernel.getRadius(i) + 0.5f * approachDistance;
+		}
+		CollisionDetector approaches = new CollisionDetector();
+
+		long steps = (long)Math.ceil(years * yearLength / step);
+		for( long s = 1; s <= steps; s++ ){
+			nBody.advance(kernel, step);
+			double time = s * step / yearLength;
+			for( int a = 0; a < n; a++ ){
+				if( !ejected[a] && a != root && distance(state, a, root) > ejectionDistance ){
+					ejected[a] = true;
+					if( statistics.ejections++ == 0 ){
+						statistics.firstEjection = time;
+					}
+				}
+			}
+			collisions.detect(kernel);
+			approaches.detect(kernel.worldX, kernel.worldY, kernel.worldZ, reach, n);
+			for( int k = 0; k < approaches.getPairCount(); k++ ){
+				int a = approaches.getPairA(k), b = approaches.getPairB(k);
+				double gap = distance(state, a, b) - kernel.getRadius(a) - kernel.getRadius(b);
+				// A moon is always close to its planet, only bodies on independent orbits count
+				if( kernel.getParent(a) != b && kernel.getParent(b) != a && gap < statistics.closestApproach ){
+					statistics.closestApproach = gap;
+					statistics.closestA = a;
+					statistics.closestB = b;
+					statistics.closestTime = time;
+				}
+			}
+		}
+		statistics.maxEnergyDrift = nBody.getDiagnostics().getMaxEnergyDrift();
+		completed.incrementAndGet();
+		return statistics;
+	}
+
+	/**
+	 * Randomises the initial state of all bodies: orbit and axis angles, the
+	 * spin speeds the way {@code hierarchyRandomSpeed} sets them, the orbit
+	 * directions and optionally the orbit radii. Orbital speeds follow from
+	 * gravity, see {@link #varySpeeds(SimulationKernel, NBodyState, SplittableRandom)}.
+	 */
+	public void vary(SimulationKernel kernel, SplittableRandom random){
+		for( int i = 0; i < kernel.getBodyCount(); i++ ){
+			kernel.setOrbitRotation(i, (float)(random.nextDouble() * SimulationKernel.TWO_PI));
+			kernel.setAxisRotation(i, (float)(random.nextDouble() * SimulationKernel.TWO_PI));
+			double orbitSpeed = sameDirection ? random.nextDouble() : (random.nextDouble() - 0.5) * 2.0;
+			double axisSpeed = sameDirection ? random.nextDouble() : (random.nextDouble() - 0.5) * 2.0;
+			// Only the sign is used by the N-body propagator, it picks the orbit direction
+			kernel.setOrbitRotationSpeed(i, (float)(orbitSpeed * Math.PI * speedFactor));
+			kernel.setAxisRotationSpeed(i, (float)(axisSpeed * Math.PI * speedFactor));
+			if( radiusJitter > 0.f ){
+				float scale = 1.f + radiusJitter * (float)(random.nextDouble() * 2.0 - 1.0);
+				kernel.setOrbitRadius(i, kernel.getOrbitRadius(i) * scale);
+			}
+		}
+	}
+
+	/**
+	 * Scales the velocity of every body relative to its parent by up to
+	 * speedJitter in either direction, turning circular orbits into
+	 * eccentric ones. Parents come first, so moons keep moving with them.
+	 * @param state State of an N-body propagator just attached to the kernel.
+	 */
+	public void varySpeeds(SimulationKernel kernel, NBodyState state, SplittableRandom random){
+		if( speedJitter <= 0.f ){
+			return;
+		}
+		int n = state.getBodyCount();
+		double[] vx = state.vx.clone(), vy = state.vy.clone(), vz = state.vz.clone();
+		for( int k = 0; k < n; k++ ){
+			int i = kernel.order[k];
+			int p = kernel.parent[i];
+			if( p == SimulationKernel.NO_PARENT ){
+				continue;
+			}
+			double scale = 1.0 + speedJitter * (random.nextDouble() * 2.0 - 1.0);
+			state.setVelocity(i,
+					state.vx[p] + (vx[i] - vx[p]) * scale,
+					state.vy[p] + (vy[i] - vy[p]) * scale,
+					state.vz[p] + (vz[i] - vz[p]) * scale);
+		}
+	}
+
+	private static double distance(SimulationKernel kernel, int a, int b){
+		double dx = kernel.getWorldX(a) - kernel.getWorldX(b);
+		double dy = kernel.getWorldY(a) - kernel.getWorldY(b);
+		double dz = kernel.getWorldZ(a) - kernel.getWorldZ(b);
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	private static double distance(NBodyState state, int a, int b){
+		double dx = state.x[a] - state.x[b];
+		double dy = state.y[a] - state.y[b];
+		double dz = state.z[a] - state.z[b];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/**
+	 * Period of a circular orbit of a body around its parent under the gravity of the N-body propagator.
+	 */
+	public static double orbitalPeriod(SimulationKernel kernel, int body){
+		int p = kernel.getParent(body);
+		if( p == SimulationKernel.NO_PARENT ){
+			throw new IllegalArgumentException("Body " + body + " does not orbit anything");
+		}
+		double g = new NBodyPropagator().getTree().getGravity();
+		double r = kernel.getOrbitRadius(body);
+		return 2.0 * Math.PI * Math.sqrt(r * r * r / (g * (kernel.getMass(p) + kernel.getMass(body))));
+	}
+
+	/**
+	 * Splits runs in halves down to single runs.
+	 */
+	private class RunTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final long[] seeds;
+		final ColumnWriter writer;
+		final int from, to;
+
+		RunTask(long[] seeds, ColumnWriter writer, int from, int to){
+			this.seeds = seeds;
+			this.writer = writer;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if( to - from > 1 ){
+				int middle = (from + to) >>> 1;
+				invokeAll(new RunTask(seeds, writer, from, middle), new RunTask(seeds, writer, middle, to));
+				return;
+			}
+			RunStatistics statistics = run(from, seeds[from]);
+			synchronized( writer ){
+				try{
+					statistics.write(writer);
+				}catch( IOException e ){
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public double getYears() {
+		return years;
+	}
+
+	/**
+	 * @param years Simulated years per run.
+	 */
+	public void setYears(double years) {
+		if( !(years > 0.0) ){
+			throw new IllegalArgumentException("Years must be positive: " + years);
+		}
+		this.years = years;
+	}
+
+	public double getYearLength() {
+		return yearLength;
+	}
+
+	public float getStep() {
+		return step;
+	}
+
+	/**
+	 * @param step Simulated seconds per integrator step.
+	 */
+	public void setStep(float step) {
+		if( !(step > 0.f) ){
+			throw new IllegalArgumentException("Step must be positive: " + step);
+		}
+		this.step = step;
+	}
+
+	public float getSpeedFactor() {
+		return speedFactor;
+	}
+
+	/**
+	 * @param speedFactor Largest spin speed in half turns per second, orbital speeds come from gravity.
+	 */
+	public void setSpeedFactor(float speedFactor) {
+		this.speedFactor = speedFactor;
+	}
+
+	public float getSpeedJitter() {
+		return speedJitter;
+	}
+
+	/**
+	 * @param speedJitter Largest relative change of an orbital speed, 0 keeps circular orbits.
+	 */
+	public void setSpeedJitter(float speedJitter) {
+		this.speedJitter = speedJitter;
+	}
+
+	public boolean isSameDirection() {
+		return sameDirection;
+	}
+
+	/**
+	 * @param sameDirection If false, bodies may also orbit in the opposite direction.
+	 */
+	public void setSameDirection(boolean sameDirection) {
+		this.sameDirection = sameDirection;
+	}
+
+	public float getRadiusJitter() {
+		return radiusJitter;
+	}
+
+	/**
+	 * @param radiusJitter Largest relative change of an orbit radius, 0 keeps them.
+	 */
+	public void setRadiusJitter(float radiusJitter) {
+		this.radiusJitter = radiusJitter;
+	}
+
+	public double getEjectionDistance() {
+		return ejectionDistance;
+	}
+
+	public void setEjectionDistance(double ejectionDistance) {
+		this.ejectionDistance = ejectionDistance;
+	}
+
+	public float getApproachDistance() {
+		return approachDistance;
+	}
+
+	/**
+	 * @param approachDistance Gap between surfaces below which approaches are tracked, twice the largest radius by default.
+	 */
+	public void setApproachDistance(float approachDistance) {
+		if( !(approachDistance >= 0.f) ){
+			throw new IllegalArgumentException("Approach distance must not be negative: " + approachDistance);
+		}
+		this.approachDistance = approachDistance;
+	}
+
+	public int getGroupRows() {
+		return groupRows;
+	}
+
+	/**
+	 * @param groupRows Runs buffered before they are written as a group.
+	 */
+	public void setGroupRows(int groupRows) {
+		this.groupRows = groupRows;
+	}
+
+	/**
+	 * @return Runs finished since the current batch started.
+	 */
+	public int getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Batch of variants of the solar system, years counted in orbits of the earth.
+	 * Arguments: runs, years, batch seed, output file, radius jitter.
+	 */
+	public static void main(String[] args) throws IOException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		double years = args.length > 1 ? Double.parseDouble(args[1]) : 10.0;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1L;
+		Path output = Paths.get(args.length > 3 ? args[3] : "montecarlo.col");
+		float jitter = args.length > 4 ? Float.parseFloat(args[4]) : 0.f;
+
+		SimulationKernel system = SolarSystemLayout.create();
+		int earth = SolarSystemLayout.indexOf("earth");
+		MonteCarloRunner runner = new MonteCarloRunner(system, 0, orbitalPeriod(system, earth));
+		runner.setYears(years);
+		runner.setRadiusJitter(jitter);
+
+		long start = System.nanoTime();
+		long written = runner.run(seed, runs, output);
+		double seconds = (System.nanoTime() - start) * 1e-9;
+		System.out.println(written + " runs of " + years + " years in " + seconds + " s, written to " + output);
+
+		long[] stable = new ColumnReader(output).readLongs("stable");
+		int count = 0;
+		for( long s : stable ){
+			count += (int)s;
+		}
+		System.out.println(count + " of " + stable.length + " runs stable");
+	}
+
+}
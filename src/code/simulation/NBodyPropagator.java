@@ -0,0 +1,173 @@
+package code.simulation;
+
+/**
+ * Propagates the bodies of a kernel physically, under their mutual gravity.
+ *
+ * When attached, every kernel body becomes a point mass at its current world
+ * position. Bodies with a parent start on a circular orbit around it, in the
+ * direction of their kinematic orbit, on top of the velocity of the parent.
+ * Forces come from a {@link BarnesHutTree} rebuilt on every step and the
+ * state is advanced by a pluggable {@link Integrator}, leapfrog by default.
+ * Energy and angular momentum drifts are recorded after every step.
+ */
+public class NBodyPropagator implements Propagator, Restorable {
+
+	private final BarnesHutTree tree;
+	private NBodyState state = null;
+	private Integrator integrator = new LeapfrogIntegrator();
+	private final ConservationDiagnostics diagnostics = new ConservationDiagnostics();
+
+	// Longest step taken at once, longer frames are split into sub-steps
+	private float maxStep = 1.f / 240.f;
+
+	public NBodyPropagator(){
+		this(new BarnesHutTree());
+	}
+
+	public NBodyPropagator(BarnesHutTree tree){
+		this.tree = tree;
+		tree.setGravity(10.0);
+	}
+
+	@Override
+	public void attach(SimulationKernel kernel){
+		kernel.updateWorld();
+		int n = kernel.getBodyCount();
+		state = new NBodyState(n);
+		for( int i = 0; i < n; i++ ){
+			state.setMass(i, kernel.getMass(i));
+			state.setPosition(i, kernel.worldX[i], kernel.worldY[i], kernel.worldZ[i]);
+		}
+
+		// Parents come first in the kernel order, so their velocity is already known
+		double g = tree.getGravity();
+		for( int k = 0; k < n; k++ ){
+			int i = kernel.order[k];
+			int p = kernel.parent[i];
+			if( p == SimulationKernel.NO_PARENT ){
+				continue;
+			}
+			double dx = state.x[i] - state.x[p];
+			double dz = state.z[i] - state.z[p];
+			double r = Math.sqrt(dx * dx + dz * dz);
+			if( r <= 0.0 ){
+				state.setVelocity(i, state.vx[p], state.vy[p], state.vz[p]);
+				continue;
+			}
+			double v = Math.sqrt(g * (state.mass[p] + state.mass[i]) / r);
+			// Positive rotation along Y moves a body from +X towards -Z
+			double sign = kernel.orbitRotationSpeed[i] < 0.f ? -1.0 : 1.0;
+			state.setVelocity(i,
+					state.vx[p] + sign * v * dz / r,
+					state.vy[p],
+					state.vz[p] - sign * v * dx / r);
+		}
+
+		tree.computeForces(state);
+		diagnostics.reset(state);
+		kernel.setWorldDriven(true);
+	}
+
+	/**
+	 * Integrator steps of at most maxStep seconds.
+	 */
+	@Override
+	public void advance(SimulationKernel kernel, float dT){
+		kernel.beginStep();
+		int substeps = Math.max(1, (int)Math.ceil(dT / maxStep));
+		double h = (double)dT / substeps;
+		for( int s = 0; s < substeps; s++ ){
+			integrator.step(state, tree, h);
+			diagnostics.record(state, integrator.getForceEvaluations());
+		}
+
+		int n = state.count;
+		// Moving the bodies is part of the step, not a change of the kernel's revision
+		for( int i = 0; i < n; i++ ){
+			kernel.worldX[i] = (float)state.x[i];
+			kernel.worldY[i] = (float)state.y[i];
+			kernel.worldZ[i] = (float)state.z[i];
+		}
+		kernel.advanceAxes(dT);
+	}
+
+	@Override
+	public void detach(SimulationKernel kernel){
+		kernel.setWorldDriven(false);
+		state = null;
+	}
+
+	public BarnesHutTree getTree() {
+		return tree;
+	}
+
+	public NBodyState getState() {
+		return state;
+	}
+
+	/**
+	 * Masses, positions, velocities and the last accelerations of all bodies,
+	 * nothing while detached. The step size an adaptive integrator settled on
+	 * is not part of the state.
+	 */
+	@Override
+	public int getStateSize() {
+		return state == null ? 0 : stateArrays().length * state.count;
+	}
+
+	@Override
+	public void saveState(long[] words, int offset) {
+		if( state == null ){
+			return;
+		}
+		for( double[] values : stateArrays() ){
+			for( int i = 0; i < state.count; i++ ){
+				words[offset++] = Double.doubleToRawLongBits(values[i]);
+			}
+		}
+	}
+
+	@Override
+	public void restoreState(long[] words, int offset) {
+		if( state == null ){
+			return;
+		}
+		for( double[] values : stateArrays() ){
+			for( int i = 0; i < state.count; i++ ){
+				values[i] = Double.longBitsToDouble(words[offset++]);
+			}
+		}
+	}
+
+	private double[][] stateArrays(){
+		return new double[][]{ state.mass, state.x, state.y, state.z, state.vx, state.vy, state.vz,
+				state.ax, state.ay, state.az, state.potential };
+	}
+
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+
+	/**
+	 * Changes the integrator, drifts are measured again from the current state.
+	 */
+	public void setIntegrator(Integrator integrator) {
+		this.integrator = integrator;
+		if( state != null ){
+			diagnostics.reset(state);
+		}
+	}
+
+	public ConservationDiagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	public float getMaxStep() {
+		return maxStep;
+	}
+
+	public void setMaxStep(float maxStep) {
+		this.maxStep = maxStep;
+	}
+
+}
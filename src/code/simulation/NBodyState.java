@@ -0,0 +1,91 @@
+package code.simulation;
+
+/**
+ * Physical state of a set of point masses, kept in flat arrays. Positions
+ * and velocities are in double precision since they are integrated over
+ * long periods of time.
+ */
+public class NBodyState {
+
+	final int count;
+
+	final double[] mass;
+
+	final double[] x;
+	final double[] y;
+	final double[] z;
+
+	final double[] vx;
+	final double[] vy;
+	final double[] vz;
+
+	// Acceleration and potential (per unit mass) from the last force evaluation
+	final double[] ax;
+	final double[] ay;
+	final double[] az;
+	final double[] potential;
+
+	public NBodyState(int count){
+		this.count = count;
+		mass = new double[count];
+		x = new double[count];
+		y = new double[count];
+		z = new double[count];
+		vx = new double[count];
+		vy = new double[count];
+		vz = new double[count];
+		ax = new double[count];
+		ay = new double[count];
+		az = new double[count];
+		potential = new double[count];
+	}
+
+	public int getBodyCount() {
+		return count;
+	}
+
+	public double getMass(int body) {
+		return mass[body];
+	}
+
+	public void setMass(int body, double mass) {
+		this.mass[body] = mass;
+	}
+
+	public void setPosition(int body, double x, double y, double z) {
+		this.x[body] = x;
+		this.y[body] = y;
+		this.z[body] = z;
+	}
+
+	public void setVelocity(int body, double vx, double vy, double vz) {
+		this.vx[body] = vx;
+		this.vy[body] = vy;
+		this.vz[body] = vz;
+	}
+
+	public double getX(int body) {
+		return x[body];
+	}
+
+	public double getY(int body) {
+		return y[body];
+	}
+
+	public double getZ(int body) {
+		return z[body];
+	}
+
+	public double getVelocityX(int body) {
+		return vx[body];
+	}
+
+	public double getVelocityY(int body) {
+		return vy[body];
+	}
+
+	public double getVelocityZ(int body) {
+		return vz[body];
+	}
+
+}
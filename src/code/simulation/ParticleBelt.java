@@ -0,0 +1,276 @@
+package code.simulation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Ring of many small bodies (asteroids, Kuiper belt objects) on circular,
+ * slightly inclined orbits around a common centre.
+ *
+ * Particles have no identity beyond their index in flat float arrays. The
+ * direction of every particle is advanced by rotating it with its own step
+ * rotation, cached while the step length does not change, so a step is a
+ * few multiply-adds per particle in plain loops the JIT can vectorise. The
+ * rounding this accumulates is removed by recomputing the directions from
+ * the exact angles every {@link #RESYNC_STEPS} steps.
+ */
+public class ParticleBelt implements Restorable {
+
+	static final int RESYNC_STEPS = 1024;
+
+	private final int count;
+
+	// Orbit of every particle: radius, amplitude of the vertical motion, angle at time 0 and angular speed
+	private final float[] radius;
+	private final float[] height;
+	private final float[] angle;
+	private final float[] speed;
+	// Phase of the vertical motion relative to the orbit angle
+	private final float[] phaseCos;
+	private final float[] phaseSin;
+
+	// Current direction from the centre
+	private final float[] dirCos;
+	private final float[] dirSin;
+	// Rotation of the direction per step of length stepLength
+	private final float[] stepCos;
+	private final float[] stepSin;
+	private float stepLength = 0.f;
+
+	// Position relative to the centre, in the frame of the body the belt orbits
+	private final float[] x;
+	private final float[] y;
+	private final float[] z;
+
+	private double time = 0.0;
+	// Time before the last step, drawing interpolates from it
+	private double previousTime = 0.0;
+	private int stepsSinceResync = 0;
+
+	// Distance from the centre no particle ever exceeds, negative until computed
+	private float boundingRadius = -1.f;
+
+	public ParticleBelt(int count){
+		if( count < 0 ){
+			throw new IllegalArgumentException("Negative particle count: " + count);
+		}
+		this.count = count;
+		radius = new float[count];
+		height = new float[count];
+		angle = new float[count];
+		speed = new float[count];
+		phaseCos = new float[count];
+		phaseSin = new float[count];
+		dirCos = new float[count];
+		dirSin = new float[count];
+		stepCos = new float[count];
+		stepSin = new float[count];
+		x = new float[count];
+		y = new float[count];
+		z = new float[count];
+	}
+
+	/**
+	 * Spreads the particles uniformly over an annulus. Angular speeds follow
+	 * Kepler's third law, falling with the radius to the power of 1.5.
+	 * @param innerRadius Inner edge of the belt.
+	 * @param outerRadius Outer edge of the belt.
+	 * @param thickness Largest distance above or below the orbit plane.
+	 * @param innerSpeed Angular speed at the inner edge, radians per second.
+	 * @param seed Seed of the generator, the same seed gives the same belt.
+	 */
+	public void generate(float innerRadius, float outerRadius, float thickness, float innerSpeed, long seed){
+		SplittableRandom random = new SplittableRandom(seed);
+		double inner2 = innerRadius * innerRadius, outer2 = outerRadius * outerRadius;
+		for( int i = 0; i < count; i++ ){
+			// Uniform over the area, not the radius
+			float r = (float)Math.sqrt(inner2 + random.nextDouble() * (outer2 - inner2));
+			double phase = random.nextDouble() * SimulationKernel.TWO_PI;
+			radius[i] = r;
+			height[i] = (float)(random.nextDouble() * thickness);
+			angle[i] = (float)(random.nextDouble() * SimulationKernel.TWO_PI);
+			speed[i] = (float)(innerSpeed * Math.pow(innerRadius / r, 1.5));
+			phaseCos[i] = (float)Math.cos(phase);
+			phaseSin[i] = (float)Math.sin(phase);
+		}
+		boundingRadius = -1.f;
+		setTime(0.0);
+	}
+
+	/**
+	 * Sets one particle explicitly.
+	 * @param angle Angle along the orbit at time 0.
+	 * @param speed Angular speed in radians per second.
+	 * @param height Amplitude of the motion above and below the orbit plane.
+	 * @param phase Angle at which the particle is highest.
+	 */
+	public void setParticle(int i, float radius, float angle, float speed, float height, float phase){
+		this.radius[i] = radius;
+		this.angle[i] = angle;
+		this.speed[i] = speed;
+		this.height[i] = height;
+		phaseCos[i] = (float)Math.cos(phase);
+		phaseSin[i] = (float)Math.sin(phase);
+		boundingRadius = -1.f;
+		resync(i);
+		place(i, i + 1);
+	}
+
+	/**
+	 * Advances all particles.
+	 * @param dT Time step in seconds.
+	 */
+	public void step(float dT){
+		previousTime = time;
+		time += dT;
+		if( ++stepsSinceResync >= RESYNC_STEPS ){
+			resync();
+			return;
+		}
+		if( dT != stepLength ){
+			stepLength = dT;
+			for( int i = 0; i < count; i++ ){
+				stepCos[i] = (float)Math.cos(speed[i] * dT);
+				stepSin[i] = (float)Math.sin(speed[i] * dT);
+			}
+		}
+		float[] dc = dirCos, ds = dirSin, sc = stepCos, ss = stepSin;
+		for( int i = 0; i < count; i++ ){
+			float c = dc[i], s = ds[i];
+			dc[i] = c * sc[i] - s * ss[i];
+			ds[i] = s * sc[i] + c * ss[i];
+		}
+		place(0, count);
+	}
+
+	/**
+	 * Jumps to any time, directions are computed exactly from the angles.
+	 */
+	public void setTime(double time){
+		this.time = time;
+		previousTime = time;
+		resync();
+	}
+
+	/**
+	 * Nothing moved since the last step, there is nothing to interpolate.
+	 */
+	public void hold(){
+		previousTime = time;
+	}
+
+	private void resync(){
+		for( int i = 0; i < count; i++ ){
+			resync(i);
+		}
+		stepsSinceResync = 0;
+		place(0, count);
+	}
+
+	private void resync(int i){
+		double a = angle[i] + speed[i] * time;
+		dirCos[i] = (float)Math.cos(a);
+		dirSin[i] = (float)Math.sin(a);
+	}
+
+	/**
+	 * Positions from directions, on the orbit convention of the kernel (-radius on X at angle 0).
+	 */
+	private void place(int from, int to){
+		for( int i = from; i < to; i++ ){
+			float c = dirCos[i], s = dirSin[i];
+			x[i] = -radius[i] * c;
+			z[i] = radius[i] * s;
+			// sin(angle + phase)
+			y[i] = height[i] * (s * phaseCos[i] + c * phaseSin[i]);
+		}
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * @param alpha Fraction of the last step, 0 for the time before it and 1 for the current time.
+	 */
+	public double getTime(float alpha) {
+		return previousTime + alpha * (time - previousTime);
+	}
+
+	/**
+	 * Particles are placed exactly from the time, it is all the state there is.
+	 */
+	@Override
+	public int getStateSize() {
+		return 1;
+	}
+
+	@Override
+	public void saveState(long[] words, int offset) {
+		words[offset] = Double.doubleToRawLongBits(time);
+	}
+
+	@Override
+	public void restoreState(long[] words, int offset) {
+		setTime(Double.longBitsToDouble(words[offset]));
+	}
+
+	public float getX(int i) {
+		return x[i];
+	}
+
+	public float getY(int i) {
+		return y[i];
+	}
+
+	public float getZ(int i) {
+		return z[i];
+	}
+
+	public float getRadius(int i) {
+		return radius[i];
+	}
+
+	/**
+	 * @return Radius of a sphere around the centre that holds every particle at any time.
+	 */
+	public float getBoundingRadius() {
+		if( boundingRadius < 0.f ){
+			float r2 = 0.f;
+			for( int i = 0; i < count; i++ ){
+				r2 = Math.max(r2, radius[i] * radius[i] + height[i] * height[i]);
+			}
+			boundingRadius = (float)Math.sqrt(r2);
+		}
+		return boundingRadius;
+	}
+
+	public float getSpeed(int i) {
+		return speed[i];
+	}
+
+	/**
+	 * @return Angle along the orbit at time 0.
+	 */
+	public float getAngle(int i) {
+		return angle[i];
+	}
+
+	/**
+	 * @return Amplitude of the motion above and below the orbit plane.
+	 */
+	public float getHeight(int i) {
+		return height[i];
+	}
+
+	/**
+	 * @return Angle at which the particle is highest.
+	 */
+	public float getPhase(int i) {
+		return (float)Math.atan2(phaseSin[i], phaseCos[i]);
+	}
+
+}
@@ -0,0 +1,73 @@
+package code.simulation;
+
+/**
+ * Branch-free float arithmetic only, so that the loops can be compiled to
+ * SIMD lanes: no calls, no conditions, no double precision.
+ *
+ * Wrapping uses a floor built from a truncating conversion and the sign bit
+ * of the remainder, sign bits also correct the rounding of the result. Sine
+ * and cosine are reduced to a quarter turn around the nearest multiple of
+ * PI/2 and evaluated with the minimax polynomials of Cephes, the quadrant
+ * then selects and signs them arithmetically. Results are within a few float
+ * ulps of {@link ScalarAngleKernel}.
+ */
+public class PolynomialAngleKernel implements AngleKernel {
+
+	private static final float TWO_PI = SimulationKernel.TWO_PI;
+	private static final float INV_TWO_PI = (float)(1.0 / (Math.PI * 2.0));
+	private static final float TWO_OVER_PI = (float)(2.0 / Math.PI);
+	// PI/2 split in two so that the reduction keeps full float precision
+	private static final float HALF_PI_HI = 1.5707963705062866f;
+	private static final float HALF_PI_LO = -4.371139000186243e-8f;
+
+	private static final float S1 = -1.6666654611e-1f;
+	private static final float S2 = 8.3321608736e-3f;
+	private static final float S3 = -1.9515295891e-4f;
+	private static final float C1 = 4.166664568298827e-2f;
+	private static final float C2 = -1.388731625493765e-3f;
+	private static final float C3 = 2.443315711809948e-5f;
+
+	@Override
+	public void advance(float[] angle, float[] speed, float dT, int from, int to){
+		for( int i = from; i < to; i++ ){
+			float a = angle[i] + speed[i] * dT;
+			float v = a * INV_TWO_PI;
+			int t = (int)v;
+			// Truncation rounds negative values up, the sign of the remainder corrects it to floor
+			int k = t - (Float.floatToRawIntBits(v - t) >>> 31);
+			float r = a - k * TWO_PI;
+			// Rounding can leave the result just below 0 or at TWO_PI, corrected in that order
+			// since a tiny negative value plus TWO_PI rounds to TWO_PI (+ 0 turns -0 into 0)
+			r += TWO_PI * (Float.floatToRawIntBits(r + 0.f) >>> 31);
+			r -= TWO_PI * (1 - (Float.floatToRawIntBits(r - TWO_PI) >>> 31));
+			angle[i] = r;
+		}
+	}
+
+	@Override
+	public void sinCos(float[] angle, float[] cos, float[] sin, int from, int to){
+		for( int i = from; i < to; i++ ){
+			float x = angle[i];
+			// Nearest quadrant, angles are not negative
+			int q = (int)(x * TWO_OVER_PI + 0.5f);
+			float r = (x - q * HALF_PI_HI) - q * HALF_PI_LO;
+			float z = r * r;
+
+			float s = r + r * z * (S1 + z * (S2 + z * S3));
+			float c = 1.f - 0.5f * z + z * z * (C1 + z * (C2 + z * C3));
+
+			// Odd quadrants swap sine and cosine, quadrants 2 and 3 negate the sine, 1 and 2 the cosine
+			float odd = q & 1;
+			float sinSign = 1 - ((q & 2));
+			float cosSign = 1 - (((q + 1) & 2));
+			sin[i] = sinSign * (s + odd * (c - s));
+			cos[i] = cosSign * (c + odd * (s - c));
+		}
+	}
+
+	@Override
+	public String getName(){
+		return "polynomial";
+	}
+
+}
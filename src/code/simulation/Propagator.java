@@ -0,0 +1,29 @@
+package code.simulation;
+
+/**
+ * Alternative way of advancing a {@link SimulationKernel}. While attached, a
+ * propagator is responsible for the world positions of all bodies instead
+ * of the kinematic orbits of the kernel.
+ */
+public interface Propagator {
+	
+	/**
+	 * Takes over the kernel, initial state is taken from its current world positions.
+	 * @param kernel Kernel to drive.
+	 */
+	void attach(SimulationKernel kernel);
+	
+	/**
+	 * Advances the attached kernel. Implementations call {@link SimulationKernel#beginStep()}
+	 * before moving the bodies so that display can interpolate between steps.
+	 * @param kernel Kernel previously passed to {@link #attach(SimulationKernel)}.
+	 * @param dT Time step in seconds.
+	 */
+	void advance(SimulationKernel kernel, float dT);
+	
+	/**
+	 * Gives the kernel back to its kinematic orbits.
+	 * @param kernel Kernel previously passed to {@link #attach(SimulationKernel)}.
+	 */
+	void detach(SimulationKernel kernel);
+}
@@ -0,0 +1,205 @@
+package code.simulation;
+
+/**
+ * Adaptive Runge-Kutta integration with the Dormand-Prince 5(4) pair.
+ *
+ * A step is covered by as many sub-steps as the error estimate requires,
+ * the sub-step length is carried over between calls. Not symplectic, but
+ * the error can be bounded by the tolerance. Six force evaluations per
+ * accepted sub-step since the last stage is reused as the first one of the next.
+ */
+public class RK45Integrator implements Integrator {
+
+	private static final double[][] A = {
+		{},
+		{ 1.0 / 5.0 },
+		{ 3.0 / 40.0, 9.0 / 40.0 },
+		{ 44.0 / 45.0, -56.0 / 15.0, 32.0 / 9.0 },
+		{ 19372.0 / 6561.0, -25360.0 / 2187.0, 64448.0 / 6561.0, -212.0 / 729.0 },
+		{ 9017.0 / 3168.0, -355.0 / 33.0, 46732.0 / 5247.0, 49.0 / 176.0, -5103.0 / 18656.0 },
+		{ 35.0 / 384.0, 0.0, 500.0 / 1113.0, 125.0 / 192.0, -2187.0 / 6784.0, 11.0 / 84.0 }
+	};
+	// Difference between the fifth and fourth order weights
+	private static final double[] E = {
+		35.0 / 384.0 - 5179.0 / 57600.0,
+		0.0,
+		500.0 / 1113.0 - 7571.0 / 16695.0,
+		125.0 / 192.0 - 393.0 / 640.0,
+		-2187.0 / 6784.0 + 92097.0 / 339200.0,
+		11.0 / 84.0 - 187.0 / 2100.0,
+		-1.0 / 40.0
+	};
+	private static final int STAGES = 7;
+
+	// Relative (and absolute, for values close to 0) error allowed per sub-step
+	private double tolerance = 1e-7;
+	private double minStep = 1e-9;
+	// Length of the next sub-step, 0 until the first step
+	private double h = 0.0;
+
+	private int evaluations = 0;
+	private int rejected = 0;
+
+	private NBodyState stage = null;
+	// Stage derivatives [stage][body], velocities and accelerations
+	private double[][] kx, ky, kz, kvx, kvy, kvz;
+
+	@Override
+	public void step(NBodyState state, ForceModel forces, double dt){
+		evaluations = 0;
+		rejected = 0;
+		allocate(state);
+		System.arraycopy(state.mass, 0, stage.mass, 0, state.count);
+
+		double t = 0.0;
+		if( h <= 0.0 || h > dt ){
+			h = dt;
+		}
+		while( t < dt ){
+			double sub = Math.min(h, dt - t);
+			double err = attempt(state, forces, sub);
+			boolean accept = err <= 1.0 || sub <= minStep;
+			if( accept ){
+				// Last stage is the new state, including forces at the new positions
+				int n = state.count;
+				System.arraycopy(stage.x, 0, state.x, 0, n);
+				System.arraycopy(stage.y, 0, state.y, 0, n);
+				System.arraycopy(stage.z, 0, state.z, 0, n);
+				System.arraycopy(stage.vx, 0, state.vx, 0, n);
+				System.arraycopy(stage.vy, 0, state.vy, 0, n);
+				System.arraycopy(stage.vz, 0, state.vz, 0, n);
+				System.arraycopy(stage.ax, 0, state.ax, 0, n);
+				System.arraycopy(stage.ay, 0, state.ay, 0, n);
+				System.arraycopy(stage.az, 0, state.az, 0, n);
+				System.arraycopy(stage.potential, 0, state.potential, 0, n);
+				t += sub;
+			}else{
+				rejected++;
+			}
+			double factor = err > 0.0 ? 0.9 * Math.pow(err, -0.2) : 5.0;
+			double next = sub * Math.max(0.2, Math.min(5.0, factor));
+			// A sub-step cut short by the end of the step does not shorten the next one
+			if( accept && sub < h ){
+				next = Math.max(next, h);
+			}
+			h = Math.max(minStep, next);
+		}
+	}
+
+	/**
+	 * Computes all stages of one sub-step, leaving the fifth order solution in the stage state.
+	 * @return Scaled error norm, a sub-step is acceptable below 1.
+	 */
+	private double attempt(NBodyState state, ForceModel forces, double sub){
+		int n = state.count;
+		System.arraycopy(state.vx, 0, kx[0], 0, n);
+		System.arraycopy(state.vy, 0, ky[0], 0, n);
+		System.arraycopy(state.vz, 0, kz[0], 0, n);
+		System.arraycopy(state.ax, 0, kvx[0], 0, n);
+		System.arraycopy(state.ay, 0, kvy[0], 0, n);
+		System.arraycopy(state.az, 0, kvz[0], 0, n);
+
+		for( int s = 1; s < STAGES; s++ ){
+			double[] a = A[s];
+			for( int i = 0; i < n; i++ ){
+				double dx = 0, dy = 0, dz = 0, dvx = 0, dvy = 0, dvz = 0;
+				for( int l = 0; l < s; l++ ){
+					double w = a[l];
+					dx += w * kx[l][i];
+					dy += w * ky[l][i];
+					dz += w * kz[l][i];
+					dvx += w * kvx[l][i];
+					dvy += w * kvy[l][i];
+					dvz += w * kvz[l][i];
+				}
+				stage.x[i] = state.x[i] + sub * dx;
+				stage.y[i] = state.y[i] + sub * dy;
+				stage.z[i] = state.z[i] + sub * dz;
+				stage.vx[i] = state.vx[i] + sub * dvx;
+				stage.vy[i] = state.vy[i] + sub * dvy;
+				stage.vz[i] = state.vz[i] + sub * dvz;
+			}
+			forces.computeForces(stage);
+			evaluations++;
+			System.arraycopy(stage.vx, 0, kx[s], 0, n);
+			System.arraycopy(stage.vy, 0, ky[s], 0, n);
+			System.arraycopy(stage.vz, 0, kz[s], 0, n);
+			System.arraycopy(stage.ax, 0, kvx[s], 0, n);
+			System.arraycopy(stage.ay, 0, kvy[s], 0, n);
+			System.arraycopy(stage.az, 0, kvz[s], 0, n);
+		}
+
+		double err = 0.0;
+		for( int i = 0; i < n; i++ ){
+			double ex = 0, ey = 0, ez = 0, evx = 0, evy = 0, evz = 0;
+			for( int l = 0; l < STAGES; l++ ){
+				double w = E[l];
+				ex += w * kx[l][i];
+				ey += w * ky[l][i];
+				ez += w * kz[l][i];
+				evx += w * kvx[l][i];
+				evy += w * kvy[l][i];
+				evz += w * kvz[l][i];
+			}
+			err = Math.max(err, scaled(sub * ex, stage.x[i]));
+			err = Math.max(err, scaled(sub * ey, stage.y[i]));
+			err = Math.max(err, scaled(sub * ez, stage.z[i]));
+			err = Math.max(err, scaled(sub * evx, stage.vx[i]));
+			err = Math.max(err, scaled(sub * evy, stage.vy[i]));
+			err = Math.max(err, scaled(sub * evz, stage.vz[i]));
+		}
+		return err;
+	}
+
+	private double scaled(double error, double value){
+		return Math.abs(error) / (tolerance * (1.0 + Math.abs(value)));
+	}
+
+	private void allocate(NBodyState state){
+		int n = state.count;
+		if( stage != null && stage.count == n ){
+			return;
+		}
+		stage = new NBodyState(n);
+		kx = new double[STAGES][n];
+		ky = new double[STAGES][n];
+		kz = new double[STAGES][n];
+		kvx = new double[STAGES][n];
+		kvy = new double[STAGES][n];
+		kvz = new double[STAGES][n];
+	}
+
+	@Override
+	public int getForceEvaluations(){
+		return evaluations;
+	}
+
+	/**
+	 * @return Number of sub-steps rejected by the error control during the last step.
+	 */
+	public int getRejectedSteps(){
+		return rejected;
+	}
+
+	@Override
+	public String getName(){
+		return "RK45";
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public double getMinStep() {
+		return minStep;
+	}
+
+	public void setMinStep(double minStep) {
+		this.minStep = minStep;
+	}
+
+}
@@ -0,0 +1,29 @@
+package code.simulation;
+
+/**
+ * Simulation state which can be saved into and restored from a flat array
+ * of 64-bit words, see {@link SimulationHistory}.
+ *
+ * Floats are stored as their raw bits in the low half of a word, doubles as
+ * their raw bits, so a restored state continues exactly as the saved one
+ * did. The number of words only changes with the structure of the state,
+ * e.g. when bodies are added.
+ */
+public interface Restorable {
+
+	/**
+	 * @return Number of words the state currently takes.
+	 */
+	int getStateSize();
+
+	/**
+	 * Writes {@link #getStateSize()} words starting at offset.
+	 */
+	void saveState(long[] words, int offset);
+
+	/**
+	 * Reads back a state written by {@link #saveState(long[], int)} while the structure was the same.
+	 */
+	void restoreState(long[] words, int offset);
+
+}
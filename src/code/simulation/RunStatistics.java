@@ -0,0 +1,117 @@
+package code.simulation;
+
+import java.io.IOException;
+
+/**
+ * Outcome of one run of a {@link MonteCarloRunner}, one row of its output.
+ */
+public class RunStatistics {
+
+	static final String[] COLUMNS = {
+		"run", "seed", "stable", "ejections", "firstEjection", "collisions",
+		"closestApproach", "closestA", "closestB", "closestTime", "maxEnergyDrift"
+	};
+	static final byte[] TYPES = {
+		ColumnWriter.LONG, ColumnWriter.LONG, ColumnWriter.LONG, ColumnWriter.LONG, ColumnWriter.DOUBLE, ColumnWriter.LONG,
+		ColumnWriter.DOUBLE, ColumnWriter.LONG, ColumnWriter.LONG, ColumnWriter.DOUBLE, ColumnWriter.DOUBLE
+	};
+
+	int run;
+	long seed;
+	int ejections = 0;
+	// Times are in years
+	double firstEjection = Double.NaN;
+	int collisions = 0;
+	// Smallest distance between the surfaces of two bodies which do not orbit one another,
+	// infinite if none came closer than the approach distance of the runner
+	double closestApproach = Double.POSITIVE_INFINITY;
+	int closestA = -1;
+	int closestB = -1;
+	double closestTime = Double.NaN;
+	double maxEnergyDrift = 0.0;
+
+	RunStatistics(int run, long seed){
+		this.run = run;
+		this.seed = seed;
+	}
+
+	/**
+	 * Adds this run as the next row.
+	 */
+	void write(ColumnWriter writer) throws IOException {
+		writer.add((long)run);
+		writer.add(seed);
+		writer.add(isStable() ? 1L : 0L);
+		writer.add((long)ejections);
+		writer.add(firstEjection);
+		writer.add((long)collisions);
+		writer.add(closestApproach);
+		writer.add((long)closestA);
+		writer.add((long)closestB);
+		writer.add(closestTime);
+		writer.add(maxEnergyDrift);
+	}
+
+	public int getRun() {
+		return run;
+	}
+
+	/**
+	 * @return Seed the run was varied with, passing it to {@link MonteCarloRunner#run(int, long)} repeats the run.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return True if no body was ejected and none collided.
+	 */
+	public boolean isStable() {
+		return ejections == 0 && collisions == 0;
+	}
+
+	public int getEjections() {
+		return ejections;
+	}
+
+	/**
+	 * @return Time of the first ejection in years, NaN if there was none.
+	 */
+	public double getFirstEjection() {
+		return firstEjection;
+	}
+
+	/**
+	 * @return Number of times two bodies started to overlap.
+	 */
+	public int getCollisions() {
+		return collisions;
+	}
+
+	public double getClosestApproach() {
+		return closestApproach;
+	}
+
+	public int getClosestA() {
+		return closestA;
+	}
+
+	public int getClosestB() {
+		return closestB;
+	}
+
+	public double getClosestTime() {
+		return closestTime;
+	}
+
+	public double getMaxEnergyDrift() {
+		return maxEnergyDrift;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("run %d (seed %d): %s, %d ejections, %d collisions, closest %.3g between %d and %d, energy drift %.3g",
+				run, seed, isStable() ? "stable" : "unstable", ejections, collisions, closestApproach, closestA, closestB, maxEnergyDrift);
+	}
+
+}
@@ -0,0 +1,29 @@
+package code.simulation;
+
+/**
+ * Body by body with {@link Math#sin(double)} and {@link Math#cos(double)}, the
+ * reference other angle kernels are compared to.
+ */
+public class ScalarAngleKernel implements AngleKernel {
+
+	@Override
+	public void advance(float[] angle, float[] speed, float dT, int from, int to){
+		for( int i = from; i < to; i++ ){
+			angle[i] = SimulationKernel.wrapAngle(angle[i] + speed[i] * dT);
+		}
+	}
+
+	@Override
+	public void sinCos(float[] angle, float[] cos, float[] sin, int from, int to){
+		for( int i = from; i < to; i++ ){
+			cos[i] = (float)Math.cos(angle[i]);
+			sin[i] = (float)Math.sin(angle[i]);
+		}
+	}
+
+	@Override
+	public String getName(){
+		return "scalar";
+	}
+
+}
@@ -0,0 +1,414 @@
+package code.simulation;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recent history of a simulation for rewinding and scrubbing, kept as
+ * snapshots in a ring buffer of fixed size outside of the heap.
+ *
+ * A snapshot is the state of a set of {@link Restorable}s taken every
+ * {@link #getInterval()} steps. Every {@link #getKeyframeInterval()}-th one
+ * is a keyframe holding the raw words, the snapshots in between hold every
+ * word XOR the keyframe word as a variable length integer, which leaves a
+ * few bytes for values that changed little. Restoring a snapshot decodes at
+ * most two of them. When the buffer is full the oldest snapshots are
+ * overwritten, a keyframe together with the snapshots depending on it.
+ *
+ * Taking a snapshot only copies the words on the calling thread, encoding
+ * runs on a background thread. A snapshot falling due while the previous one
+ * is still being encoded is skipped instead of waiting for it.
+ *
+ * Recording a step at or before the newest snapshot starts a new timeline:
+ * the snapshots from that step on are dropped first.
+ *
+ * Record layout: int bytes, byte keyframe, int words, long step, payload.
+ */
+public class SimulationHistory {
+
+	static final int HEADER_BYTES = 17;
+	// Longest variable length encoding of a word
+	static final int MAX_VARINT_BYTES = 10;
+
+	private final ByteBuffer ring;
+	private final int capacity;
+	private final int interval;
+	private final int keyframeInterval;
+
+	// Records oldest to newest in a circular index, record k is at slot (head + k) % maxRecords
+	private final int maxRecords;
+	private final long[] steps;
+	private final int[] positions;
+	private final int[] lengths;
+	private final boolean[] keyframes;
+	private int head = 0;
+	private int size = 0;
+	private int writePosition = 0;
+
+	// Keyframe the next snapshots are encoded against
+	private long[] keyWords = new long[0];
+	private int keyWordCount = -1;
+	private boolean keyValid = false;
+	private int sinceKeyframe = 0;
+
+	// Words captured on the calling thread, read by the encoder
+	private long[] staging = new long[0];
+	private long[] decoded = new long[0];
+
+	private final ExecutorService encoder;
+	private Future<?> pending = null;
+	private final AtomicLong skipped = new AtomicLong();
+
+	/**
+	 * @param capacity Bytes of the ring buffer, the history never uses more.
+	 * @param interval Steps between snapshots.
+	 * @param keyframeInterval Snapshots per keyframe, 1 makes every snapshot a keyframe.
+	 */
+	public SimulationHistory(int capacity, int interval, int keyframeInterval){
+		if( capacity < HEADER_BYTES ){
+			throw new IllegalArgumentException("History of " + capacity + " bytes cannot hold a snapshot");
+		}
+		if( interval < 1 || keyframeInterval < 1 ){
+			throw new IllegalArgumentException("Intervals must be positive: " + interval + ", " + keyframeInterval);
+		}
+		this.capacity = capacity;
+		this.interval = interval;
+		this.keyframeInterval = keyframeInterval;
+		this.ring = ByteBuffer.allocateDirect(capacity);
+		this.maxRecords = capacity / HEADER_BYTES;
+		this.steps = new long[maxRecords];
+		this.positions = new int[maxRecords];
+		this.lengths = new int[maxRecords];
+		this.keyframes = new boolean[maxRecords];
+		this.encoder = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r){
+				Thread thread = new Thread(r, "history encoder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Takes a snapshot if one is due at this step.
+	 * @param step Step the state belongs to.
+	 * @param parts State to save, restored later in the same order.
+	 * @return True if a snapshot was taken.
+	 */
+	public boolean record(long step, Restorable... parts){
+		if( step % interval != 0 ){
+			return false;
+		}
+		if( pending != null ){
+			if( !pending.isDone() ){
+				skipped.incrementAndGet();
+				return false;
+			}
+			finish();
+		}
+		int words = 0;
+		for( Restorable part : parts ){
+			words += part.getStateSize();
+		}
+		if( staging.length < words ){
+			staging = new long[words];
+		}
+		int offset = 0;
+		for( Restorable part : parts ){
+			part.saveState(staging, offset);
+			offset += part.getStateSize();
+		}
+		final long snapshotStep = step;
+		final int snapshotWords = words;
+		pending = encoder.submit(new Runnable(){
+			@Override
+			public void run(){
+				encode(snapshotStep, snapshotWords);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Restores the newest snapshot at or before a step. The caller then
+	 * simulates forward from the returned step to reach the target.
+	 * @return Step of the restored snapshot, -1 if there is none that old.
+	 */
+	public long restore(long step, Restorable... parts){
+		finish();
+		int k = find(step);
+		if( k < 0 ){
+			return -1;
+		}
+		int slot = slot(k);
+		int words = 0;
+		for( Restorable part : parts ){
+			words += part.getStateSize();
+		}
+		int recorded = ring.getInt(positions[slot] + 5);
+		if( recorded != words ){
+			throw new IllegalStateException("Snapshot of step " + steps[slot] + " has " + recorded + " words, the state " + words);
+		}
+		if( decoded.length < words ){
+			decoded = new long[words];
+		}
+		if( keyframes[slot] ){
+			readKeyframe(slot, decoded);
+		}else{
+			int key = k;
+			while( !keyframes[slot(key)] ){
+				key--;
+			}
+			readKeyframe(slot(key), decoded);
+			int p = positions[slot] + HEADER_BYTES;
+			for( int w = 0; w < words; w++ ){
+				long v = 0;
+				int shift = 0;
+				byte b;
+				do{
+					b = ring.get(p++);
+					v |= (long)(b & 0x7F) << shift;
+					shift += 7;
+				}while( b < 0 );
+				decoded[w] ^= v;
+			}
+		}
+		int offset = 0;
+		for( Restorable part : parts ){
+			part.restoreState(decoded, offset);
+			offset += part.getStateSize();
+		}
+		return steps[slot];
+	}
+
+	/**
+	 * @return Step of the snapshot {@link #restore(long, Restorable...)} would go back to, -1 for none.
+	 */
+	public long findStep(long step){
+		finish();
+		int k = find(step);
+		return k < 0 ? -1 : steps[slot(k)];
+	}
+
+	/**
+	 * Drops all snapshots, e.g. when the structure of the state changed.
+	 */
+	public void clear(){
+		finish();
+		head = size = writePosition = 0;
+		keyValid = false;
+	}
+
+	/**
+	 * Waits for the snapshot being encoded.
+	 */
+	private void finish(){
+		if( pending == null ){
+			return;
+		}
+		try{
+			pending.get();
+		}catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+		}catch( ExecutionException e ){
+			throw new IllegalStateException("Encoding a snapshot failed", e.getCause());
+		}
+		pending = null;
+	}
+
+	/**
+	 * Writes the staged words as the newest record, runs on the encoder thread.
+	 */
+	private void encode(long step, int words){
+		while( size > 0 && steps[slot(size - 1)] >= step ){
+			dropNewest();
+		}
+		boolean key = !keyValid || words != keyWordCount || sinceKeyframe + 1 >= keyframeInterval;
+		long maxBytes = HEADER_BYTES + (long)words * (key ? 8 : MAX_VARINT_BYTES);
+		if( maxBytes > capacity ){
+			key = true;
+			maxBytes = HEADER_BYTES + 8L * words;
+			if( maxBytes > capacity ){
+				skipped.incrementAndGet();
+				return;
+			}
+		}
+		int p = writePosition;
+		if( p + maxBytes > capacity ){
+			// Records left at the end are the oldest, free them before starting over at the front
+			while( size > 0 && positions[head] >= p ){
+				evictOldest();
+			}
+			p = 0;
+		}
+		while( size > 0 && positions[head] < p + maxBytes && positions[head] + lengths[head] > p ){
+			evictOldest();
+		}
+		if( size == maxRecords ){
+			evictOldest();
+		}
+		if( !keyValid ){
+			key = true;
+		}
+
+		int q = p + HEADER_BYTES;
+		if( key ){
+			if( keyWords.length < words ){
+				keyWords = new long[words];
+			}
+			for( int w = 0; w < words; w++ ){
+				ring.putLong(q, staging[w]);
+				q += 8;
+			}
+			System.arraycopy(staging, 0, keyWords, 0, words);
+			keyWordCount = words;
+			keyValid = true;
+			sinceKeyframe = 0;
+		}else{
+			for( int w = 0; w < words; w++ ){
+				long v = staging[w] ^ keyWords[w];
+				while( (v & ~0x7FL) != 0 ){
+					ring.put(q++, (byte)((v & 0x7F) | 0x80));
+					v >>>= 7;
+				}
+				ring.put(q++, (byte)v);
+			}
+			sinceKeyframe++;
+		}
+		int length = q - p;
+		ring.putInt(p, length);
+		ring.put(p + 4, (byte)(key ? 1 : 0));
+		ring.putInt(p + 5, words);
+		ring.putLong(p + 9, step);
+
+		int slot = slot(size++);
+		steps[slot] = step;
+		positions[slot] = p;
+		lengths[slot] = length;
+		keyframes[slot] = key;
+		writePosition = p + length;
+	}
+
+	/**
+	 * Removes the oldest record, and when it is a keyframe also the records encoded against it.
+	 */
+	private void evictOldest(){
+		do{
+			if( keyframes[head] && size == countFromNewestKeyframe() ){
+				keyValid = false;
+			}
+			head = (head + 1) % maxRecords;
+			size--;
+		}while( size > 0 && !keyframes[head] );
+	}
+
+	/**
+	 * @return Number of records from the newest keyframe to the end.
+	 */
+	private int countFromNewestKeyframe(){
+		int k = size - 1;
+		while( k > 0 && !keyframes[slot(k)] ){
+			k--;
+		}
+		return size - k;
+	}
+
+	private void dropNewest(){
+		int slot = slot(--size);
+		writePosition = positions[slot];
+		if( keyframes[slot] ){
+			keyValid = false;
+		}else{
+			sinceKeyframe = Math.max(0, sinceKeyframe - 1);
+		}
+	}
+
+	private void readKeyframe(int slot, long[] out){
+		int words = ring.getInt(positions[slot] + 5);
+		int p = positions[slot] + HEADER_BYTES;
+		for( int w = 0; w < words; w++ ){
+			out[w] = ring.getLong(p);
+			p += 8;
+		}
+	}
+
+	/**
+	 * @return Record index of the newest record at or before a step, -1 for none.
+	 */
+	private int find(long step){
+		int lo = 0, hi = size - 1, found = -1;
+		while( lo <= hi ){
+			int mid = (lo + hi) >>> 1;
+			if( steps[slot(mid)] <= step ){
+				found = mid;
+				lo = mid + 1;
+			}else{
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	private int slot(int k){
+		return (head + k) % maxRecords;
+	}
+
+	/**
+	 * @return Step of the oldest snapshot, -1 when there is none.
+	 */
+	public long getOldestStep() {
+		finish();
+		return size == 0 ? -1 : steps[head];
+	}
+
+	/**
+	 * @return Step of the newest snapshot, -1 when there is none.
+	 */
+	public long getNewestStep() {
+		finish();
+		return size == 0 ? -1 : steps[slot(size - 1)];
+	}
+
+	public int getSnapshotCount() {
+		finish();
+		return size;
+	}
+
+	/**
+	 * @return Bytes held by the snapshots.
+	 */
+	public long getUsedBytes() {
+		finish();
+		long used = 0;
+		for( int k = 0; k < size; k++ ){
+			used += lengths[slot(k)];
+		}
+		return used;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	/**
+	 * @return Snapshots skipped because the previous one was still being encoded or did not fit.
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+}
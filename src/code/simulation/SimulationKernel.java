@@ -0,0 +1,963 @@
+package code.simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless simulation state of a hierarchy of orbiting bodies.
+ *
+ * Every body occupies one slot and all of its state is kept in flat primitive
+ * arrays indexed by that slot, so the whole system is advanced in one loop
+ * without a Scene, a PApplet or any per-body objects.
+ *
+ * A body is placed the same way CelestialObject draws it: offset by its local
+ * position in the frame of its parent, rotated along the orbit axis (Y) and
+ * moved out by the orbit radius. Rotations accumulate down the hierarchy.
+ *
+ * Subtrees only depend on their root, so a step can run in parallel on a
+ * {@link ForkJoinPool}: the hierarchy is split into work units of whole
+ * subtrees, balanced by their number of bodies. Every body is computed the
+ * same way as in the serial loop, the result does not depend on the pool.
+ *
+ * A step first advances the angles of all bodies in slot order with an
+ * {@link AngleKernel}, then places them parent first with multiply-adds only.
+ */
+public class SimulationKernel implements Restorable {
+
+	public static final int NO_PARENT = -1;
+
+	static final float TWO_PI = (float)(Math.PI * 2.0);
+
+	// Number of used slots
+	int count = 0;
+
+	// Topology, parent slot or NO_PARENT for roots
+	int[] parent;
+	// Children as linked lists, kept in insertion order
+	int[] firstChild;
+	int[] lastChild;
+	int[] nextSibling;
+
+	// Bounding radius of the body itself
+	float[] radius;
+	// Mass used by physical propagators, 0 means derived from the radius
+	float[] mass;
+
+	// Local displacement in the frame of the parent
+	float[] offsetX;
+	float[] offsetY;
+	float[] offsetZ;
+
+	// Orbit around the parent frame
+	float[] orbitRadius;
+	float[] orbitRotation;
+	float[] orbitRotationSpeed;
+
+	// Rotation along own axis
+	float[] axisRotation;
+	float[] axisRotationSpeed;
+
+	// Keplerian elements around the parent, used by KeplerPropagator
+	boolean[] hasElements;
+	float[] semiMajorAxis;
+	float[] eccentricity;
+	float[] inclination;
+	float[] ascendingNode;
+	float[] periapsis;
+	// Mean anomaly at time 0 and mean motion (radians per second)
+	float[] meanAnomaly;
+	float[] meanMotion;
+
+	// World (hierarchy root) frame of every body, computed in step
+	float[] worldX;
+	float[] worldY;
+	float[] worldZ;
+	float[] worldCos;
+	float[] worldSin;
+
+	// State at the beginning of the last step, used to interpolate between steps
+	float[] prevOrbitRotation;
+	float[] prevAxisRotation;
+	float[] prevWorldX;
+	float[] prevWorldY;
+	float[] prevWorldZ;
+	boolean hasPrevious = false;
+
+	// Pre-order traversal of the hierarchy, a parent always comes before its children
+	// and every subtree is a contiguous range of the order.
+	int[] order;
+	int[] subtreeSize;
+	boolean topologyDirty = false;
+
+	// When set, world positions are written by a propagator instead of being derived from orbits
+	boolean worldDriven = false;
+
+	// Counts changes made through the setters and steps begun, lets caches tell what is stale
+	int revision = 0;
+	long stepCount = 0;
+
+	// Sine and cosine of the orbit rotations, computed for all bodies before they are placed
+	float[] orbitCos;
+	float[] orbitSin;
+
+	// Implementation of the data-parallel part of a step
+	static final AngleKernel DEFAULT_ANGLES = AngleKernel.fromSystemProperty();
+	private AngleKernel angles = DEFAULT_ANGLES;
+
+	// Pool for parallel steps, null to step serially
+	private ForkJoinPool pool = null;
+	// Work units with fewer bodies are stepped serially
+	private int sequentialCutoff = 2048;
+
+	public SimulationKernel(){
+		this(64);
+	}
+
+	public SimulationKernel(int initialCapacity){
+		allocate(Math.max(1, initialCapacity));
+	}
+
+	/**
+	 * Independent copy of another kernel, e.g. to simulate ahead without touching it.
+	 */
+	public SimulationKernel(SimulationKernel other){
+		count = other.count;
+		parent = other.parent.clone();
+		firstChild = other.firstChild.clone();
+		lastChild = other.lastChild.clone();
+		nextSibling = other.nextSibling.clone();
+		radius = other.radius.clone();
+		mass = other.mass.clone();
+		offsetX = other.offsetX.clone();
+		offsetY = other.offsetY.clone();
+		offsetZ = other.offsetZ.clone();
+		orbitRadius = other.orbitRadius.clone();
+		orbitRotation = other.orbitRotation.clone();
+		orbitRotationSpeed = other.orbitRotationSpeed.clone();
+		axisRotation = other.axisRotation.clone();
+		axisRotationSpeed = other.axisRotationSpeed.clone();
+		hasElements = other.hasElements.clone();
+		semiMajorAxis = other.semiMajorAxis.clone();
+		eccentricity = other.eccentricity.clone();
+		inclination = other.inclination.clone();
+		ascendingNode = other.ascendingNode.clone();
+		periapsis = other.periapsis.clone();
+		meanAnomaly = other.meanAnomaly.clone();
+		meanMotion = other.meanMotion.clone();
+		worldX = other.worldX.clone();
+		worldY = other.worldY.clone();
+		worldZ = other.worldZ.clone();
+		worldCos = other.worldCos.clone();
+		worldSin = other.worldSin.clone();
+		orbitCos = other.orbitCos.clone();
+		orbitSin = other.orbitSin.clone();
+		prevOrbitRotation = other.prevOrbitRotation.clone();
+		prevAxisRotation = other.prevAxisRotation.clone();
+		prevWorldX = other.prevWorldX.clone();
+		prevWorldY = other.prevWorldY.clone();
+		prevWorldZ = other.prevWorldZ.clone();
+		hasPrevious = other.hasPrevious;
+		order = other.order.clone();
+		subtreeSize = other.subtreeSize.clone();
+		topologyDirty = other.topologyDirty;
+		worldDriven = other.worldDriven;
+		revision = other.revision;
+		stepCount = other.stepCount;
+		angles = other.angles;
+		pool = other.pool;
+		sequentialCutoff = other.sequentialCutoff;
+	}
+
+	/**
+	 * Adds a body at the root of the hierarchy.
+	 * @return The slot of the new body.
+	 */
+	public int addBody(){
+		return addBody(NO_PARENT);
+	}
+
+	/**
+	 * Adds a body orbiting in the frame of the given parent.
+	 * @param parentBody Slot of the parent or NO_PARENT.
+	 * @return The slot of the new body.
+	 */
+	public int addBody(int parentBody){
+		if( count == parent.length ){
+			ensureCapacity(count * 2);
+		}
+		int body = count++;
+		parent[body] = NO_PARENT;
+		firstChild[body] = NO_PARENT;
+		lastChild[body] = NO_PARENT;
+		nextSibling[body] = NO_PARENT;
+		worldCos[body] = 1.f;
+		topologyDirty = true;
+		revision++;
+		if( parentBody != NO_PARENT ){
+			setParent(body, parentBody);
+		}
+		return body;
+	}
+
+	/**
+	 * Moves a body (together with its subtree) under a new parent.
+	 * @param body Slot of the body.
+	 * @param parentBody Slot of the new parent or NO_PARENT.
+	 */
+	public void setParent(int body, int parentBody){
+		checkBody(body);
+		if( parentBody != NO_PARENT ){
+			checkBody(parentBody);
+			for( int p = parentBody; p != NO_PARENT; p = parent[p] ){
+				if( p == body ){
+					throw new IllegalArgumentException("Body " + body + " cannot orbit its own descendant " + parentBody);
+				}
+			}
+		}
+		detach(body);
+		parent[body] = parentBody;
+		if( parentBody != NO_PARENT ){
+			if( lastChild[parentBody] == NO_PARENT ){
+				firstChild[parentBody] = body;
+			}else{
+				nextSibling[lastChild[parentBody]] = body;
+			}
+			lastChild[parentBody] = body;
+		}
+		topologyDirty = true;
+		revision++;
+	}
+
+	/**
+	 * Grows all arrays so that at least the given number of bodies fits.
+	 */
+	public void ensureCapacity(int capacity){
+		if( capacity <= parent.length ){
+			return;
+		}
+		parent = Arrays.copyOf(parent, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		lastChild = Arrays.copyOf(lastChild, capacity);
+		nextSibling = Arrays.copyOf(nextSibling, capacity);
+		radius = Arrays.copyOf(radius, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		offsetX = Arrays.copyOf(offsetX, capacity);
+		offsetY = Arrays.copyOf(offsetY, capacity);
+		offsetZ = Arrays.copyOf(offsetZ, capacity);
+		orbitRadius = Arrays.copyOf(orbitRadius, capacity);
+		orbitRotation = Arrays.copyOf(orbitRotation, capacity);
+		orbitRotationSpeed = Arrays.copyOf(orbitRotationSpeed, capacity);
+		axisRotation = Arrays.copyOf(axisRotation, capacity);
+		axisRotationSpeed = Arrays.copyOf(axisRotationSpeed, capacity);
+		hasElements = Arrays.copyOf(hasElements, capacity);
+		semiMajorAxis = Arrays.copyOf(semiMajorAxis, capacity);
+		eccentricity = Arrays.copyOf(eccentricity, capacity);
+		inclination = Arrays.copyOf(inclination, capacity);
+		ascendingNode = Arrays.copyOf(ascendingNode, capacity);
+		periapsis = Arrays.copyOf(periapsis, capacity);
+		meanAnomaly = Arrays.copyOf(meanAnomaly, capacity);
+		meanMotion = Arrays.copyOf(meanMotion, capacity);
+		worldX = Arrays.copyOf(worldX, capacity);
+		worldY = Arrays.copyOf(worldY, capacity);
+		worldZ = Arrays.copyOf(worldZ, capacity);
+		worldCos = Arrays.copyOf(worldCos, capacity);
+		worldSin = Arrays.copyOf(worldSin, capacity);
+		orbitCos = Arrays.copyOf(orbitCos, capacity);
+		orbitSin = Arrays.copyOf(orbitSin, capacity);
+		prevOrbitRotation = Arrays.copyOf(prevOrbitRotation, capacity);
+		prevAxisRotation = Arrays.copyOf(prevAxisRotation, capacity);
+		prevWorldX = Arrays.copyOf(prevWorldX, capacity);
+		prevWorldY = Arrays.copyOf(prevWorldY, capacity);
+		prevWorldZ = Arrays.copyOf(prevWorldZ, capacity);
+		order = Arrays.copyOf(order, capacity);
+		subtreeSize = Arrays.copyOf(subtreeSize, capacity);
+	}
+
+	/**
+	 * Advances orbit and axis rotations of all bodies and recomputes
+	 * their world frames.
+	 * @param dT Time step in seconds.
+	 */
+	public void step(float dT){
+		if( topologyDirty ){
+			rebuildOrder();
+		}
+		beginStep();
+		if( pool != null && count > sequentialCutoff ){
+			pool.invoke(new AngleTask(dT, 0, count));
+			pool.invoke(new StepTask(0, count));
+		}else{
+			advanceAngles(dT, 0, count);
+			placeRange(0, count);
+		}
+	}
+
+	/**
+	 * Data-parallel half of a step over a range of slots: angles and the
+	 * sine and cosine of the orbit angles, independent of the hierarchy.
+	 */
+	private void advanceAngles(float dT, int from, int to){
+		angles.advance(axisRotation, axisRotationSpeed, dT, from, to);
+		angles.advance(orbitRotation, orbitRotationSpeed, dT, from, to);
+		angles.sinCos(orbitRotation, orbitCos, orbitSin, from, to);
+	}
+
+	/**
+	 * Places a range of the order made of whole subtrees, after {@link #advanceAngles(float, int, int)}.
+	 */
+	private void placeRange(int from, int to){
+		for( int k = from; k < to; k++ ){
+			int i = order[k];
+			placeBody(i, orbitCos[i], orbitSin[i]);
+		}
+	}
+
+	/**
+	 * Advances the angles of a range of slots, split in halves down to the cutoff.
+	 */
+	private class AngleTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final float dT;
+		final int from, to;
+
+		AngleTask(float dT, int from, int to){
+			this.dT = dT;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if( to - from > sequentialCutoff ){
+				int half = (from + to) >>> 1;
+				AngleTask left = new AngleTask(dT, from, half);
+				left.fork();
+				new AngleTask(dT, half, to).compute();
+				left.join();
+			}else{
+				advanceAngles(dT, from, to);
+			}
+		}
+	}
+
+	/**
+	 * Places a forest of subtrees, a contiguous range of the order. A single
+	 * subtree is split below its root, several are split in two halves of
+	 * about the same number of bodies.
+	 */
+	private class StepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final int from, to;
+
+		StepTask(int from, int to){
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			int start = from;
+			while( to - start > sequentialCutoff ){
+				int root = order[start];
+				if( start + subtreeSize[root] == to ){
+					// Only one subtree, its root has to be placed before the children
+					placeRange(start, start + 1);
+					start++;
+					continue;
+				}
+				// Split between subtrees, closest to half of the bodies
+				int half = start + (to - start) / 2;
+				int split = start + subtreeSize[root];
+				while( split + subtreeSize[order[split]] <= half ){
+					split += subtreeSize[order[split]];
+				}
+				StepTask left = new StepTask(start, split);
+				left.fork();
+				new StepTask(split, to).compute();
+				left.join();
+				return;
+			}
+			placeRange(start, to);
+		}
+	}
+
+	/**
+	 * Remembers the current state as the previous one, interpolation then
+	 * goes from here to the state after the step. Called by {@link #step(float)},
+	 * propagators have to call it before they move the bodies.
+	 */
+	public void beginStep(){
+		System.arraycopy(orbitRotation, 0, prevOrbitRotation, 0, count);
+		System.arraycopy(axisRotation, 0, prevAxisRotation, 0, count);
+		System.arraycopy(worldX, 0, prevWorldX, 0, count);
+		System.arraycopy(worldY, 0, prevWorldY, 0, count);
+		System.arraycopy(worldZ, 0, prevWorldZ, 0, count);
+		hasPrevious = true;
+		stepCount++;
+	}
+
+	/**
+	 * Advances only the rotation of bodies along their own axis. Used by
+	 * propagators which place the bodies themselves.
+	 */
+	public void advanceAxes(float dT){
+		angles.advance(axisRotation, axisRotationSpeed, dT, 0, count);
+	}
+
+	/**
+	 * Advances only the orbit angles, for kinematic orbits to continue from
+	 * where a propagator replaying them left off.
+	 */
+	public void advanceOrbits(float dT){
+		angles.advance(orbitRotation, orbitRotationSpeed, dT, 0, count);
+		angles.sinCos(orbitRotation, orbitCos, orbitSin, 0, count);
+		revision++;
+	}
+
+	/**
+	 * Recomputes world frames from the current state without advancing time.
+	 */
+	public void updateWorld(){
+		if( topologyDirty ){
+			rebuildOrder();
+		}
+		for( int k = 0; k < count; k++ ){
+			placeBody(order[k]);
+		}
+	}
+
+	/**
+	 * Computes the world frame of a body, its parent must already be placed.
+	 */
+	final void placeBody(int i){
+		placeBody(i, (float)Math.cos(orbitRotation[i]), (float)Math.sin(orbitRotation[i]));
+	}
+
+	/**
+	 * @param c Cosine of the orbit rotation of the body.
+	 * @param s Sine of the orbit rotation of the body.
+	 */
+	private void placeBody(int i, float c, float s){
+		int p = parent[i];
+		float px = 0.f, py = 0.f, pz = 0.f, pc = 1.f, ps = 0.f;
+		if( p != NO_PARENT ){
+			px = worldX[p];
+			py = worldY[p];
+			pz = worldZ[p];
+			pc = worldCos[p];
+			ps = worldSin[p];
+		}
+
+		// Frame rotation of this body is the parent rotation plus own orbit rotation
+		float wc = pc * c - ps * s;
+		float ws = ps * c + pc * s;
+
+		// Local offset rotated by the parent frame, then moved out along the orbit (-radius on X)
+		float r = orbitRadius[i];
+		worldX[i] = px + pc * offsetX[i] + ps * offsetZ[i] - wc * r;
+		worldY[i] = py + offsetY[i];
+		worldZ[i] = pz - ps * offsetX[i] + pc * offsetZ[i] + ws * r;
+		worldCos[i] = wc;
+		worldSin[i] = ws;
+	}
+
+	/**
+	 * Rebuilds the pre-order traversal used by the update loop.
+	 */
+	void rebuildOrder(){
+		int n = 0;
+		int[] stack = new int[Math.max(1, count)];
+		for( int root = 0; root < count; root++ ){
+			if( parent[root] != NO_PARENT ){
+				continue;
+			}
+			int top = 0;
+			stack[top++] = root;
+			while( top > 0 ){
+				int body = stack[--top];
+				order[n++] = body;
+				// Push children in reverse so that they come out in insertion order
+				int mark = top;
+				for( int c = firstChild[body]; c != NO_PARENT; c = nextSibling[c] ){
+					stack[top++] = c;
+				}
+				reverse(stack, mark, top);
+			}
+		}
+		// Subtree sizes, accumulated bottom-up over the reversed order
+		for( int k = n - 1; k >= 0; k-- ){
+			int body = order[k];
+			subtreeSize[body] = 1;
+			for( int c = firstChild[body]; c != NO_PARENT; c = nextSibling[c] ){
+				subtreeSize[body] += subtreeSize[c];
+			}
+		}
+		topologyDirty = false;
+	}
+
+	private void detach(int body){
+		int p = parent[body];
+		if( p == NO_PARENT ){
+			return;
+		}
+		int prev = NO_PARENT;
+		for( int c = firstChild[p]; c != NO_PARENT; prev = c, c = nextSibling[c] ){
+			if( c == body ){
+				if( prev == NO_PARENT ){
+					firstChild[p] = nextSibling[c];
+				}else{
+					nextSibling[prev] = nextSibling[c];
+				}
+				if( lastChild[p] == body ){
+					lastChild[p] = prev;
+				}
+				break;
+			}
+		}
+		nextSibling[body] = NO_PARENT;
+		parent[body] = NO_PARENT;
+	}
+
+	private void allocate(int capacity){
+		parent = new int[capacity];
+		firstChild = new int[capacity];
+		lastChild = new int[capacity];
+		nextSibling = new int[capacity];
+		radius = new float[capacity];
+		mass = new float[capacity];
+		offsetX = new float[capacity];
+		offsetY = new float[capacity];
+		offsetZ = new float[capacity];
+		orbitRadius = new float[capacity];
+		orbitRotation = new float[capacity];
+		orbitRotationSpeed = new float[capacity];
+		axisRotation = new float[capacity];
+		axisRotationSpeed = new float[capacity];
+		hasElements = new boolean[capacity];
+		semiMajorAxis = new float[capacity];
+		eccentricity = new float[capacity];
+		inclination = new float[capacity];
+		ascendingNode = new float[capacity];
+		periapsis = new float[capacity];
+		meanAnomaly = new float[capacity];
+		meanMotion = new float[capacity];
+		worldX = new float[capacity];
+		worldY = new float[capacity];
+		worldZ = new float[capacity];
+		worldCos = new float[capacity];
+		worldSin = new float[capacity];
+		orbitCos = new float[capacity];
+		orbitSin = new float[capacity];
+		prevOrbitRotation = new float[capacity];
+		prevAxisRotation = new float[capacity];
+		prevWorldX = new float[capacity];
+		prevWorldY = new float[capacity];
+		prevWorldZ = new float[capacity];
+		order = new int[capacity];
+		subtreeSize = new int[capacity];
+	}
+
+	private void checkBody(int body){
+		if( body < 0 || body >= count ){
+			throw new IndexOutOfBoundsException("No body in slot " + body);
+		}
+	}
+
+	private static void reverse(int[] a, int from, int to){
+		for( int i = from, j = to - 1; i < j; i++, j-- ){
+			int t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+	}
+
+	/**
+	 * Interpolates along the shorter arc between two angles.
+	 */
+	static float lerpAngle(float from, float to, float alpha){
+		float d = to - from;
+		if( d > Math.PI ){
+			d -= TWO_PI;
+		}else if( d < -Math.PI ){
+			d += TWO_PI;
+		}
+		return from + d * alpha;
+	}
+
+	/**
+	 * Wraps an angle into [0, TWO_PI).
+	 */
+	static float wrapAngle(float angle){
+		if( angle >= TWO_PI || angle < 0.f ){
+			angle -= TWO_PI * (float)Math.floor(angle / TWO_PI);
+			// Rounding can land exactly on TWO_PI
+			if( angle >= TWO_PI ){
+				angle = 0.f;
+			}
+		}
+		return angle;
+	}
+
+	public AngleKernel getAngleKernel() {
+		return angles;
+	}
+
+	/**
+	 * @param angles Implementation of the data-parallel part of a step, by default
+	 * the one selected by {@link AngleKernel#fromSystemProperty()}.
+	 */
+	public void setAngleKernel(AngleKernel angles) {
+		this.angles = angles;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @param pool Pool to step in parallel on or null to step serially.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public int getSequentialCutoff() {
+		return sequentialCutoff;
+	}
+
+	/**
+	 * @param sequentialCutoff Number of bodies below which a work unit is not split further.
+	 */
+	public void setSequentialCutoff(int sequentialCutoff) {
+		if( sequentialCutoff < 1 ){
+			throw new IllegalArgumentException("Cutoff must be positive: " + sequentialCutoff);
+		}
+		this.sequentialCutoff = sequentialCutoff;
+	}
+
+	/**
+	 * @return Counter increased by every change made through a setter or to the hierarchy.
+	 */
+	public int getRevision() {
+		return revision;
+	}
+
+	/**
+	 * @return Number of steps begun, by the kernel itself or by a propagator.
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	public int getBodyCount() {
+		return count;
+	}
+
+	public int getParent(int body) {
+		return parent[body];
+	}
+
+	public float getRadius(int body) {
+		return radius[body];
+	}
+
+	public void setRadius(int body, float radius) {
+		revision++;
+		this.radius[body] = radius;
+	}
+
+	/**
+	 * @return Mass of the body, when not set it is the cube of its radius (unit density).
+	 */
+	public float getMass(int body) {
+		float m = mass[body];
+		if( m > 0.f ){
+			return m;
+		}
+		float r = radius[body];
+		return r * r * r;
+	}
+
+	public void setMass(int body, float mass) {
+		revision++;
+		this.mass[body] = mass;
+	}
+
+	public float getOffsetX(int body) {
+		return offsetX[body];
+	}
+
+	public float getOffsetY(int body) {
+		return offsetY[body];
+	}
+
+	public float getOffsetZ(int body) {
+		return offsetZ[body];
+	}
+
+	public void setOffset(int body, float x, float y, float z) {
+		revision++;
+		offsetX[body] = x;
+		offsetY[body] = y;
+		offsetZ[body] = z;
+	}
+
+	public float getOrbitRadius(int body) {
+		return orbitRadius[body];
+	}
+
+	public void setOrbitRadius(int body, float orbitRadius) {
+		revision++;
+		this.orbitRadius[body] = orbitRadius;
+	}
+
+	public float getOrbitRotation(int body) {
+		return orbitRotation[body];
+	}
+
+	public void setOrbitRotation(int body, float orbitRotation) {
+		revision++;
+		this.orbitRotation[body] = orbitRotation;
+	}
+
+	/**
+	 * @param alpha Position between the previous (0) and the current (1) step.
+	 */
+	public float getOrbitRotation(int body, float alpha) {
+		return hasPrevious ? lerpAngle(prevOrbitRotation[body], orbitRotation[body], alpha) : orbitRotation[body];
+	}
+
+	public float getOrbitRotationSpeed(int body) {
+		return orbitRotationSpeed[body];
+	}
+
+	public void setOrbitRotationSpeed(int body, float orbitRotationSpeed) {
+		revision++;
+		this.orbitRotationSpeed[body] = orbitRotationSpeed;
+	}
+
+	public float getAxisRotation(int body) {
+		return axisRotation[body];
+	}
+
+	public void setAxisRotation(int body, float axisRotation) {
+		revision++;
+		this.axisRotation[body] = axisRotation;
+	}
+
+	/**
+	 * @param alpha Position between the previous (0) and the current (1) step.
+	 */
+	public float getAxisRotation(int body, float alpha) {
+		return hasPrevious ? lerpAngle(prevAxisRotation[body], axisRotation[body], alpha) : axisRotation[body];
+	}
+
+	public float getAxisRotationSpeed(int body) {
+		return axisRotationSpeed[body];
+	}
+
+	public void setAxisRotationSpeed(int body, float axisRotationSpeed) {
+		revision++;
+		this.axisRotationSpeed[body] = axisRotationSpeed;
+	}
+
+	/**
+	 * Sets the Keplerian orbit of a body around its parent.
+	 * @param a Semi-major axis.
+	 * @param e Eccentricity, [0, 1).
+	 * @param i Inclination to the orbit plane (XZ) in radians.
+	 * @param node Longitude of the ascending node in radians.
+	 * @param w Argument of periapsis in radians.
+	 * @param m0 Mean anomaly at time 0 in radians.
+	 * @param n Mean motion in radians per second.
+	 */
+	public void setKeplerElements(int body, float a, float e, float i, float node, float w, float m0, float n) {
+		if( e < 0.f || e >= 1.f ){
+			throw new IllegalArgumentException("Only closed orbits are supported, eccentricity " + e);
+		}
+		revision++;
+		hasElements[body] = true;
+		semiMajorAxis[body] = a;
+		eccentricity[body] = e;
+		inclination[body] = i;
+		ascendingNode[body] = node;
+		periapsis[body] = w;
+		meanAnomaly[body] = m0;
+		meanMotion[body] = n;
+	}
+
+	public boolean hasKeplerElements(int body) {
+		return hasElements[body];
+	}
+
+	public float getSemiMajorAxis(int body) {
+		return semiMajorAxis[body];
+	}
+
+	public float getEccentricity(int body) {
+		return eccentricity[body];
+	}
+
+	public float getInclination(int body) {
+		return inclination[body];
+	}
+
+	public float getAscendingNode(int body) {
+		return ascendingNode[body];
+	}
+
+	public float getPeriapsis(int body) {
+		return periapsis[body];
+	}
+
+	public float getMeanAnomaly(int body) {
+		return meanAnomaly[body];
+	}
+
+	public float getMeanMotion(int body) {
+		return meanMotion[body];
+	}
+
+	public float getWorldX(int body) {
+		return worldX[body];
+	}
+
+	public float getWorldY(int body) {
+		return worldY[body];
+	}
+
+	public float getWorldZ(int body) {
+		return worldZ[body];
+	}
+
+	/**
+	 * World position interpolated between the previous (alpha 0) and the current (alpha 1) step.
+	 */
+	public float getWorldX(int body, float alpha) {
+		return hasPrevious ? prevWorldX[body] + (worldX[body] - prevWorldX[body]) * alpha : worldX[body];
+	}
+
+	public float getWorldY(int body, float alpha) {
+		return hasPrevious ? prevWorldY[body] + (worldY[body] - prevWorldY[body]) * alpha : worldY[body];
+	}
+
+	public float getWorldZ(int body, float alpha) {
+		return hasPrevious ? prevWorldZ[body] + (worldZ[body] - prevWorldZ[body]) * alpha : worldZ[body];
+	}
+
+	/**
+	 * Sets the world position of a body. Only meaningful while the kernel is
+	 * world driven, otherwise the next step recomputes it from the orbit.
+	 */
+	public void setWorldPosition(int body, float x, float y, float z) {
+		revision++;
+		worldX[body] = x;
+		worldY[body] = y;
+		worldZ[body] = z;
+	}
+
+	public boolean isWorldDriven() {
+		return worldDriven;
+	}
+
+	/**
+	 * @param worldDriven True while a propagator places the bodies, orbit frames are then
+	 * no longer accumulated down the hierarchy.
+	 */
+	public void setWorldDriven(boolean worldDriven) {
+		revision++;
+		this.worldDriven = worldDriven;
+		if( worldDriven ){
+			for( int i = 0; i < count; i++ ){
+				worldCos[i] = 1.f;
+				worldSin[i] = 0.f;
+			}
+		}else{
+			updateWorld();
+		}
+	}
+
+	/**
+	 * Words per body saved by {@link #saveState(long[], int)}: orbit and axis rotation
+	 * and speed, radius, mass and world frame.
+	 */
+	static final int STATE_WORDS = 11;
+
+	@Override
+	public int getStateSize() {
+		return STATE_WORDS * count;
+	}
+
+	@Override
+	public void saveState(long[] words, int offset) {
+		float[][] arrays = stateArrays();
+		for( float[] values : arrays ){
+			for( int i = 0; i < count; i++ ){
+				words[offset++] = Float.floatToRawIntBits(values[i]) & 0xFFFFFFFFL;
+			}
+		}
+	}
+
+	/**
+	 * Restores the state of all bodies, there is nothing to interpolate from
+	 * until the next step.
+	 */
+	@Override
+	public void restoreState(long[] words, int offset) {
+		float[][] arrays = stateArrays();
+		for( float[] values : arrays ){
+			for( int i = 0; i < count; i++ ){
+				values[i] = Float.intBitsToFloat((int)words[offset++]);
+			}
+		}
+		hasPrevious = false;
+		revision++;
+	}
+
+	/**
+	 * Topology as saved in checkpoints, the pre-order is derived from it.
+	 */
+	int[][] topologyArrays(){
+		return new int[][]{ parent, firstChild, lastChild, nextSibling };
+	}
+
+	/**
+	 * Per body values saved in checkpoints besides the topology and {@link #hasElements}.
+	 */
+	float[][] bodyArrays(){
+		return new float[][]{ radius, mass, offsetX, offsetY, offsetZ,
+				orbitRadius, orbitRotation, orbitRotationSpeed, axisRotation, axisRotationSpeed,
+				semiMajorAxis, eccentricity, inclination, ascendingNode, periapsis, meanAnomaly, meanMotion,
+				worldX, worldY, worldZ, worldCos, worldSin };
+	}
+
+	/**
+	 * Replaces all bodies by ones read from a checkpoint: grows the arrays for
+	 * count bodies, after which the caller fills {@link #topologyArrays()},
+	 * {@link #bodyArrays()} and {@link #hasElements}.
+	 */
+	void beginRestore(int count, boolean worldDriven){
+		ensureCapacity(count);
+		this.count = count;
+		this.worldDriven = worldDriven;
+		topologyDirty = true;
+		hasPrevious = false;
+		revision++;
+	}
+
+	private float[][] stateArrays(){
+		return new float[][]{ orbitRotation, axisRotation, orbitRotationSpeed, axisRotationSpeed,
+				radius, mass, worldX, worldY, worldZ, worldCos, worldSin };
+	}
+
+	/**
+	 * @return Accumulated rotation along Y of the frame the body is drawn in.
+	 */
+	public float getWorldRotation(int body) {
+		return (float)Math.atan2(worldSin[body], worldCos[body]);
+	}
+
+}
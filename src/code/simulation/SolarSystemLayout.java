@@ -0,0 +1,79 @@
+package code.simulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Bodies of the displayed solar system without any of their assets, so the
+ * system can be simulated where nothing is drawn, e.g. in batch runs.
+ *
+ * Bodies come from the same catalog as the celestial objects of the
+ * interactive system, slots of both kernels refer to the same bodies.
+ */
+public final class SolarSystemLayout {
+
+	public static final Path CATALOG_FILE = Paths.get("data", "solarsystem.csv");
+
+	private static SystemCatalog catalog = null;
+
+	private SolarSystemLayout(){
+	}
+
+	/**
+	 * @return The catalog, read on first use.
+	 * @throws UncheckedIOException If the catalog cannot be read.
+	 */
+	public static synchronized SystemCatalog catalog(){
+		if( catalog == null ){
+			try{
+				catalog = SystemCatalog.read(CATALOG_FILE);
+			}catch( IOException e ){
+				throw new UncheckedIOException(e);
+			}
+		}
+		return catalog;
+	}
+
+	/**
+	 * Adds all bodies to a kernel, at rest with their orbit angles at 0.
+	 * @return Slot of the sun, the root of the added bodies.
+	 */
+	public static int populate(SimulationKernel kernel){
+		return catalog().populate(kernel);
+	}
+
+	public static SimulationKernel create(){
+		SimulationKernel kernel = new SimulationKernel(getBodyCount());
+		populate(kernel);
+		return kernel;
+	}
+
+	public static int getBodyCount(){
+		return catalog().getBodyCount();
+	}
+
+	public static String getName(int body){
+		return catalog().getName(body);
+	}
+
+	/**
+	 * @return Slot of a body by name relative to the sun, -1 if there is none.
+	 */
+	public static int indexOf(String name){
+		return catalog().indexOf(name);
+	}
+
+	/**
+	 * @return Radius of every body.
+	 */
+	public static float[] radii(){
+		float[] radii = new float[getBodyCount()];
+		for( int i = 0; i < radii.length; i++ ){
+			radii[i] = catalog().getRadius(i);
+		}
+		return radii;
+	}
+
+}
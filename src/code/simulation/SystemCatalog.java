@@ -0,0 +1,658 @@
+package code.simulation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Bodies of a system read from a catalog file, kept in one array per
+ * column so catalogs of millions of bodies load without an object per row.
+ * Names of models and textures are only kept, binding them to loaded assets
+ * is left to whoever displays the bodies.
+ *
+ * The catalog is CSV. Lines starting with # are comments, the first other
+ * line names the columns, in any order; unknown columns are ignored and
+ * missing ones take their defaults:
+ * <pre>
+ * name       unique name of the body
+ * parent     name of a body on an earlier line, empty for a root
+ * orbit      orbit radius around the parent (0)
+ * radius     radius of the body (0)
+ * colour     #rrggbb of an untextured body and of its orbit (#ffffff)
+ * asset      name of the model and texture files, several bodies may share one (the name)
+ * flags      words separated by spaces: unlit, rings
+ * x, y, z    offset of the orbit centre from the parent (0)
+ * a, e, i, node, periapsis, anomaly, motion
+ *            Keplerian elements, only used when a is given
+ * </pre>
+ * Fields may be quoted with double quotes when they contain commas.
+ */
+public class SystemCatalog {
+
+	// Flags of a body
+	public static final int UNLIT = 1;
+	public static final int RINGS = 2;
+
+	static final String[] COLUMNS = {
+		"name", "parent", "orbit", "radius", "colour", "asset", "flags", "x", "y", "z",
+		"a", "e", "i", "node", "periapsis", "anomaly", "motion"
+	};
+	static final int NAME = 0, PARENT = 1, ORBIT = 2, RADIUS = 3, COLOUR = 4, ASSET = 5, FLAGS = 6, X = 7;
+	static final int ELEMENTS = 10, ELEMENT_COUNT = 7;
+	static final int WHITE = 0xFFFFFFFF;
+	// Exact powers of ten as doubles
+	static final double[] POWERS_OF_TEN = new double[23];
+	static{
+		POWERS_OF_TEN[0] = 1.0;
+		for( int k = 1; k < POWERS_OF_TEN.length; k++ ){
+			POWERS_OF_TEN[k] = 10.0 * POWERS_OF_TEN[k - 1];
+		}
+	}
+
+	private int count = 0;
+	int[] parent = new int[0];
+	float[] orbitRadius = new float[0];
+	float[] radius = new float[0];
+	int[] colour = new int[0];
+	int[] flags = new int[0];
+	int[] asset = new int[0];
+	float[] offsetX = new float[0];
+	float[] offsetY = new float[0];
+	float[] offsetZ = new float[0];
+	// Keplerian elements a, e, i, node, periapsis, anomaly, motion, null when the catalog has none
+	float[][] elements = null;
+	boolean[] hasElements = null;
+
+	private final NameTable names = new NameTable();
+	private final NameTable assets = new NameTable();
+
+	/**
+	 * Reads a catalog file.
+	 * @throws IOException If the file cannot be read or a line is malformed, the message names the line.
+	 */
+	public static SystemCatalog read(Path file) throws IOException {
+		try( InputStream in = Files.newInputStream(file) ){
+			SystemCatalog catalog = new SystemCatalog();
+			catalog.parse(in, file.toString());
+			return catalog;
+		}
+	}
+
+	/**
+	 * Reads a catalog from a stream, which is not closed.
+	 * @param source Name of the stream in error messages.
+	 */
+	public static SystemCatalog read(InputStream in, String source) throws IOException {
+		SystemCatalog catalog = new SystemCatalog();
+		catalog.parse(in, source);
+		return catalog;
+	}
+
+	/**
+	 * Splits the stream in lines and the lines in fields in place, nothing
+	 * but the columns and the name tables is allocated per row.
+	 */
+	private void parse(InputStream in, String source) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		byte[] line = new byte[256];
+		int length = 0;
+		int lineNumber = 0;
+		int[] columns = null;
+		int[] from = new int[COLUMNS.length + 8];
+		int[] to = new int[COLUMNS.length + 8];
+		boolean end = false;
+		while( !end ){
+			int read = in.read(buffer);
+			end = read < 0;
+			for( int p = 0; p < read || (end && p == 0); p++ ){
+				byte b = end ? (byte)'\n' : buffer[p];
+				if( b != '\n' ){
+					if( length == line.length ){
+						line = Arrays.copyOf(line, length * 2);
+					}
+					line[length++] = b;
+					continue;
+				}
+				lineNumber++;
+				if( length > 0 && line[length - 1] == '\r' ){
+					length--;
+				}
+				int fields = split(line, length, from, to);
+				if( fields > from.length ){
+					from = new int[fields];
+					to = new int[fields];
+					split(line, length, from, to);
+				}
+				if( length == 0 || line[0] == '#' || (fields == 1 && from[0] == to[0]) ){
+					length = 0;
+					continue;
+				}
+				if( columns == null ){
+					columns = header(line, fields, from, to, source);
+				}else{
+					row(line, fields, from, to, columns, source, lineNumber);
+				}
+				length = 0;
+			}
+		}
+		if( columns == null ){
+			throw new IOException(source + " has no header line");
+		}
+	}
+
+	/**
+	 * Finds the fields of a line, quotes are excluded from them.
+	 * @return Number of fields, may exceed the arrays which then only hold the first ones.
+	 */
+	private static int split(byte[] line, int length, int[] from, int[] to){
+		int fields = 0;
+		int p = 0;
+		while( true ){
+			int start = p, stop;
+			if( p < length && line[p] == '"' ){
+				start = ++p;
+				while( p < length && line[p] != '"' ){
+					p++;
+				}
+				stop = p;
+				while( p < length && line[p] != ',' ){
+					p++;
+				}
+			}else{
+				while( p < length && line[p] != ',' ){
+					p++;
+				}
+				stop = p;
+			}
+			while( start < stop && line[start] == ' ' ){
+				start++;
+			}
+			while( stop > start && line[stop - 1] == ' ' ){
+				stop--;
+			}
+			if( fields < from.length ){
+				from[fields] = start;
+				to[fields] = stop;
+			}
+			fields++;
+			if( p >= length ){
+				return fields;
+			}
+			p++;
+		}
+	}
+
+	/**
+	 * @return Known column of every field, -1 for unknown ones.
+	 */
+	private int[] header(byte[] line, int fields, int[] from, int[] to, String source) throws IOException {
+		int[] columns = new int[fields];
+		boolean named = false;
+		for( int f = 0; f < fields; f++ ){
+			String column = new String(line, from[f], to[f] - from[f], StandardCharsets.UTF_8).toLowerCase();
+			columns[f] = Arrays.asList(COLUMNS).indexOf(column);
+			named |= columns[f] == NAME;
+			if( columns[f] >= ELEMENTS && elements == null ){
+				elements = new float[ELEMENT_COUNT][0];
+				hasElements = new boolean[0];
+			}
+		}
+		if( !named ){
+			throw new IOException(source + " has no name column");
+		}
+		return columns;
+	}
+
+	private void row(byte[] line, int fields, int[] from, int[] to, int[] columns, String source, int lineNumber)
+			throws IOException {
+		int i = count;
+		if( i == parent.length ){
+			grow(Math.max(1024, 2 * i));
+		}
+		parent[i] = SimulationKernel.NO_PARENT;
+		orbitRadius[i] = radius[i] = 0.f;
+		offsetX[i] = offsetY[i] = offsetZ[i] = 0.f;
+		colour[i] = WHITE;
+		flags[i] = 0;
+		asset[i] = -1;
+		if( elements != null ){
+			hasElements[i] = false;
+			for( float[] element : elements ){
+				element[i] = 0.f;
+			}
+		}
+		int name = -1;
+		for( int f = 0; f < Math.min(fields, columns.length); f++ ){
+			int start = from[f], stop = to[f];
+			int column = columns[f];
+			if( column < 0 || (start == stop && column != NAME) ){
+				continue;
+			}
+			try{
+				switch( column ){
+				case NAME:
+					if( start == stop ){
+						throw new IOException("empty name");
+					}
+					if( names.find(line, start, stop) >= 0 ){
+						throw new IOException("name " + new String(line, start, stop - start, StandardCharsets.UTF_8)
+								+ " is already on an earlier line");
+					}
+					name = names.add(line, start, stop);
+					break;
+				case PARENT:
+					parent[i] = names.find(line, start, stop);
+					if( parent[i] < 0 ){
+						throw new IOException("parent " + new String(line, start, stop - start, StandardCharsets.UTF_8)
+								+ " is not on an earlier line");
+					}
+					break;
+				case ORBIT:
+					orbitRadius[i] = parseFloat(line, start, stop);
+					break;
+				case RADIUS:
+					radius[i] = parseFloat(line, start, stop);
+					break;
+				case COLOUR:
+					colour[i] = parseColour(line, start, stop);
+					break;
+				case ASSET:
+					asset[i] = assets.find(line, start, stop);
+					if( asset[i] < 0 ){
+						asset[i] = assets.add(line, start, stop);
+					}
+					break;
+				case FLAGS:
+					flags[i] = parseFlags(line, start, stop);
+					break;
+				case X:
+					offsetX[i] = parseFloat(line, start, stop);
+					break;
+				case X + 1:
+					offsetY[i] = parseFloat(line, start, stop);
+					break;
+				case X + 2:
+					offsetZ[i] = parseFloat(line, start, stop);
+					break;
+				default:
+					elements[column - ELEMENTS][i] = parseFloat(line, start, stop);
+					hasElements[i] |= column == ELEMENTS;
+				}
+			}catch( NumberFormatException e ){
+				throw new IOException(source + ":" + lineNumber + ": " + COLUMNS[column] + " is not a number");
+			}catch( IOException e ){
+				throw new IOException(source + ":" + lineNumber + ": " + e.getMessage());
+			}
+		}
+		if( name < 0 ){
+			throw new IOException(source + ":" + lineNumber + ": no name");
+		}
+		if( parent[i] == name ){
+			throw new IOException(source + ":" + lineNumber + ": body orbits itself");
+		}
+		if( asset[i] < 0 ){
+			int start = names.start(name);
+			asset[i] = assets.find(names.pool, start, start + names.length(name));
+			if( asset[i] < 0 ){
+				asset[i] = assets.add(names.pool, start, start + names.length(name));
+			}
+		}
+		count++;
+	}
+
+	private void grow(int capacity){
+		parent = Arrays.copyOf(parent, capacity);
+		orbitRadius = Arrays.copyOf(orbitRadius, capacity);
+		radius = Arrays.copyOf(radius, capacity);
+		colour = Arrays.copyOf(colour, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		asset = Arrays.copyOf(asset, capacity);
+		offsetX = Arrays.copyOf(offsetX, capacity);
+		offsetY = Arrays.copyOf(offsetY, capacity);
+		offsetZ = Arrays.copyOf(offsetZ, capacity);
+		if( elements != null ){
+			for( int k = 0; k < ELEMENT_COUNT; k++ ){
+				elements[k] = Arrays.copyOf(elements[k], capacity);
+			}
+			hasElements = Arrays.copyOf(hasElements, capacity);
+		}
+	}
+
+	/**
+	 * Decimal number with an optional sign, fraction and exponent. Numbers
+	 * too large for a float are rejected like malformed ones, too small ones
+	 * become 0.
+	 */
+	static float parseFloat(byte[] line, int start, int stop){
+		int p = start;
+		boolean negative = false;
+		if( p < stop && (line[p] == '-' || line[p] == '+') ){
+			negative = line[p++] == '-';
+		}
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean point = false;
+		for( ; p < stop; p++ ){
+			byte c = line[p];
+			if( c >= '0' && c <= '9' ){
+				if( mantissa < 100000000000000000L ){
+					mantissa = 10 * mantissa + (c - '0');
+					if( point ){
+						exponent--;
+					}
+				}else if( !point ){
+					exponent++;
+				}
+				digits++;
+			}else if( c == '.' && !point ){
+				point = true;
+			}else{
+				break;
+			}
+		}
+		if( digits == 0 ){
+			throw new NumberFormatException();
+		}
+		if( p < stop && (line[p] == 'e' || line[p] == 'E') ){
+			p++;
+			boolean negativeExponent = false;
+			if( p < stop && (line[p] == '-' || line[p] == '+') ){
+				negativeExponent = line[p++] == '-';
+			}
+			int e = 0;
+			if( p == stop ){
+				throw new NumberFormatException();
+			}
+			for( ; p < stop && line[p] >= '0' && line[p] <= '9'; p++ ){
+				e = Math.min(10 * e + (line[p] - '0'), 1000);
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if( p != stop ){
+			throw new NumberFormatException();
+		}
+		if( mantissa == 0 ){
+			// Whatever the exponent, its power of ten may not be finite
+			return negative ? -0.f : 0.f;
+		}
+		double scale = Math.abs(exponent) < POWERS_OF_TEN.length ? POWERS_OF_TEN[Math.abs(exponent)] : Math.pow(10, Math.abs(exponent));
+		double value = exponent < 0 ? mantissa / scale : mantissa * scale;
+		float result = (float)(negative ? -value : value);
+		if( Float.isInfinite(result) ){
+			throw new NumberFormatException();
+		}
+		return result;
+	}
+
+	/**
+	 * #rrggbb or rrggbb, opaque.
+	 */
+	static int parseColour(byte[] line, int start, int stop) throws IOException {
+		if( line[start] == '#' ){
+			start++;
+		}
+		if( stop - start != 6 ){
+			throw new IOException("colour is not #rrggbb");
+		}
+		int rgb = 0;
+		for( int p = start; p < stop; p++ ){
+			int digit = Character.digit(line[p], 16);
+			if( digit < 0 ){
+				throw new IOException("colour is not #rrggbb");
+			}
+			rgb = rgb << 4 | digit;
+		}
+		return 0xFF000000 | rgb;
+	}
+
+	static int parseFlags(byte[] line, int start, int stop) throws IOException {
+		int flags = 0;
+		int p = start;
+		while( p < stop ){
+			while( p < stop && line[p] == ' ' ){
+				p++;
+			}
+			int word = p;
+			while( p < stop && line[p] != ' ' ){
+				p++;
+			}
+			if( matches(line, word, p, "unlit") ){
+				flags |= UNLIT;
+			}else if( matches(line, word, p, "rings") ){
+				flags |= RINGS;
+			}else if( p > word ){
+				throw new IOException("unknown flag " + new String(line, word, p - word, StandardCharsets.UTF_8));
+			}
+		}
+		return flags;
+	}
+
+	private static boolean matches(byte[] line, int start, int stop, String word){
+		if( stop - start != word.length() ){
+			return false;
+		}
+		for( int k = 0; k < word.length(); k++ ){
+			if( Character.toLowerCase(line[start + k]) != word.charAt(k) ){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Names in one byte pool, looked up through an open addressing hash table.
+	 */
+	private static class NameTable {
+		byte[] pool = new byte[1 << 12];
+		int used = 0;
+		int[] starts = new int[64];
+		int size = 0;
+		// Index + 1 of the name in every slot, 0 for free slots
+		int[] table = new int[128];
+
+		int add(byte[] bytes, int start, int stop){
+			int length = stop - start;
+			if( used + length > pool.length ){
+				pool = Arrays.copyOf(pool, Math.max(2 * pool.length, used + length));
+			}
+			System.arraycopy(bytes, start, pool, used, length);
+			if( size + 1 >= starts.length ){
+				starts = Arrays.copyOf(starts, 2 * starts.length);
+			}
+			starts[size] = used;
+			used += length;
+			starts[size + 1] = used;
+			if( 2 * (size + 1) > table.length ){
+				rehash(2 * table.length);
+			}
+			insert(size, hash(pool, starts[size], used));
+			return size++;
+		}
+
+		/**
+		 * @return Index of the name equal to the bytes, -1 for none.
+		 */
+		int find(byte[] bytes, int start, int stop){
+			int mask = table.length - 1;
+			for( int s = hash(bytes, start, stop) & mask; table[s] != 0; s = (s + 1) & mask ){
+				int index = table[s] - 1;
+				if( equal(bytes, start, stop, index) ){
+					return index;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Linear probing, names are added at most once.
+		 */
+		private void insert(int index, int hash){
+			int mask = table.length - 1;
+			int s = hash & mask;
+			while( table[s] != 0 ){
+				s = (s + 1) & mask;
+			}
+			table[s] = index + 1;
+		}
+
+		private void rehash(int capacity){
+			table = new int[capacity];
+			for( int k = 0; k < size; k++ ){
+				insert(k, hash(pool, starts[k], starts[k + 1]));
+			}
+		}
+
+		private boolean equal(byte[] bytes, int start, int stop, int index){
+			int from = starts[index];
+			if( starts[index + 1] - from != stop - start ){
+				return false;
+			}
+			for( int k = 0; k < stop - start; k++ ){
+				if( pool[from + k] != bytes[start + k] ){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static int hash(byte[] bytes, int start, int stop){
+			int h = 0x811C9DC5;
+			for( int p = start; p < stop; p++ ){
+				h = (h ^ bytes[p]) * 0x01000193;
+			}
+			return h ^ (h >>> 16);
+		}
+
+		int start(int index){
+			return starts[index];
+		}
+
+		int length(int index){
+			return starts[index + 1] - starts[index];
+		}
+
+		String get(int index){
+			return new String(pool, starts[index], length(index), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Adds all bodies to a kernel, at rest with their orbit angles at 0.
+	 * @return Slot of the first body, slots follow the order of the catalog.
+	 */
+	public int populate(SimulationKernel kernel){
+		int first = kernel.getBodyCount();
+		kernel.ensureCapacity(first + count);
+		for( int i = 0; i < count; i++ ){
+			int slot = parent[i] < 0 ? kernel.addBody() : kernel.addBody(first + parent[i]);
+			kernel.setOrbitRadius(slot, orbitRadius[i]);
+			kernel.setRadius(slot, radius[i]);
+			if( offsetX[i] != 0.f || offsetY[i] != 0.f || offsetZ[i] != 0.f ){
+				kernel.setOffset(slot, offsetX[i], offsetY[i], offsetZ[i]);
+			}
+			if( hasElements != null && hasElements[i] ){
+				kernel.setKeplerElements(slot, elements[0][i], elements[1][i], elements[2][i], elements[3][i],
+						elements[4][i], elements[5][i], elements[6][i]);
+			}
+		}
+		return first;
+	}
+
+	public int getBodyCount() {
+		return count;
+	}
+
+	/**
+	 * @return Index of the body with the name, -1 for none.
+	 */
+	public int indexOf(String name){
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		return names.find(bytes, 0, bytes.length);
+	}
+
+	public String getName(int body) {
+		return names.get(body);
+	}
+
+	/**
+	 * @return Index of the parent, {@link SimulationKernel#NO_PARENT} for roots.
+	 */
+	public int getParent(int body) {
+		return parent[body];
+	}
+
+	public float getOrbitRadius(int body) {
+		return orbitRadius[body];
+	}
+
+	public float getRadius(int body) {
+		return radius[body];
+	}
+
+	/**
+	 * @return Opaque ARGB colour.
+	 */
+	public int getColour(int body) {
+		return colour[body];
+	}
+
+	public boolean isLighted(int body) {
+		return (flags[body] & UNLIT) == 0;
+	}
+
+	public boolean hasRings(int body) {
+		return (flags[body] & RINGS) != 0;
+	}
+
+	/**
+	 * @return Name of the model and texture files of a body.
+	 */
+	public String getAsset(int body) {
+		return assets.get(asset[body]);
+	}
+
+	/**
+	 * @return Index of the asset of a body, bodies sharing files share it.
+	 */
+	public int getAssetIndex(int body) {
+		return asset[body];
+	}
+
+	public int getAssetCount() {
+		return assets.size;
+	}
+
+	public String getAssetName(int index) {
+		return assets.get(index);
+	}
+
+	public float getOffsetX(int body) {
+		return offsetX[body];
+	}
+
+	public float getOffsetY(int body) {
+		return offsetY[body];
+	}
+
+	public float getOffsetZ(int body) {
+		return offsetZ[body];
+	}
+
+	public boolean hasKeplerElements(int body) {
+		return hasElements != null && hasElements[body];
+	}
+
+	/**
+	 * @param out Receives a, e, i, node, periapsis, anomaly and motion.
+	 */
+	public void getKeplerElements(int body, float[] out) {
+		for( int k = 0; k < ELEMENT_COUNT; k++ ){
+			out[k] = elements == null ? 0.f : elements[k][body];
+		}
+	}
+
+}
@@ -0,0 +1,340 @@
+package code.simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only view of a trajectory file written by {@link TrajectoryRecorder}.
+ *
+ * The file is memory-mapped and only the chunk headers are visited when it
+ * is opened. Chunks are inflated and decoded on demand, the bounding boxes
+ * in their headers are available without decoding. A file whose recorder
+ * never closed it is readable up to its last complete chunk, and so is a
+ * file whose chunks stop following each other without a gap.
+ *
+ * {@link #decodeChunk(int, float[])} may be called from several threads at
+ * once, {@link #position(int, double, float[])} keeps the last decoded chunk
+ * and may not.
+ */
+public class Trajectory {
+
+	// Largest mapping, files beyond it are mapped as several regions
+	static final long REGION_BYTES = 1L << 30;
+
+	private final int kernelBodies;
+	private final int[] bodies;
+	private final int framesPerChunk;
+	private final float step;
+	private final float quantum;
+
+	private final ByteBuffer[] regions;
+	private final int chunks;
+	private final int[] chunkRegion;
+	private final int[] chunkOffset;
+	private final int[] chunkBytes;
+	private final int[] chunkFrames;
+	private final long[] chunkFirst;
+	private final long frames;
+
+	// Chunk last decoded by position(), frame-major
+	private int cachedChunk = -1;
+	private float[] cached;
+
+	private Trajectory(FileChannel channel) throws IOException {
+		long size = channel.size();
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, TrajectoryRecorder.HEADER_BYTES));
+		if( size < TrajectoryRecorder.HEADER_BYTES || header.getInt(0) != TrajectoryRecorder.MAGIC ){
+			throw new IOException("Not a trajectory file");
+		}
+		if( header.getInt(4) != TrajectoryRecorder.VERSION ){
+			throw new IOException("Unsupported trajectory version " + header.getInt(4));
+		}
+		kernelBodies = header.getInt(8);
+		int n = header.getInt(12);
+		framesPerChunk = header.getInt(16);
+		step = header.getFloat(20);
+		quantum = header.getFloat(24);
+		long dataOffset = TrajectoryRecorder.HEADER_BYTES + 4L * n;
+		if( n < 1 || framesPerChunk < 1 || size < dataOffset ){
+			throw new IOException("Empty or corrupt trajectory file");
+		}
+		bodies = new int[n];
+		ByteBuffer slots = channel.map(FileChannel.MapMode.READ_ONLY, TrajectoryRecorder.HEADER_BYTES, 4L * n);
+		for( int b = 0; b < n; b++ ){
+			bodies[b] = slots.getInt(4 * b);
+		}
+
+		// Walk the chunk headers, cutting regions at chunk boundaries
+		int boundsBytes = 24 * n;
+		long[] offsets = new long[16];
+		int[] lengths = new int[16];
+		int[] counts = new int[16];
+		long[] firsts = new long[16];
+		int found = 0;
+		long position = dataOffset;
+		long total = 0;
+		ByteBuffer chunkHeader = ByteBuffer.allocate(TrajectoryRecorder.CHUNK_HEADER_BYTES);
+		while( position + TrajectoryRecorder.CHUNK_HEADER_BYTES + boundsBytes <= size ){
+			chunkHeader.clear();
+			while( chunkHeader.hasRemaining() ){
+				channel.read(chunkHeader, position + chunkHeader.position());
+			}
+			int payload = chunkHeader.getInt(0);
+			int count = chunkHeader.getInt(4);
+			long first = chunkHeader.getLong(8);
+			long bytes = TrajectoryRecorder.CHUNK_HEADER_BYTES + boundsBytes + (long)payload;
+			if( payload < 0 || count < 1 || count > framesPerChunk || position + bytes > size || bytes > REGION_BYTES ){
+				break;
+			}
+			// Frame numbers are times, a chunk that does not continue the last one would shift them
+			if( first != total ){
+				break;
+			}
+			if( found == offsets.length ){
+				offsets = Arrays.copyOf(offsets, found * 2);
+				lengths = Arrays.copyOf(lengths, found * 2);
+				counts = Arrays.copyOf(counts, found * 2);
+				firsts = Arrays.copyOf(firsts, found * 2);
+			}
+			offsets[found] = position;
+			lengths[found] = (int)bytes;
+			counts[found] = count;
+			firsts[found] = first;
+			found++;
+			total += count;
+			position += bytes;
+		}
+		chunks = found;
+		frames = total;
+		chunkBytes = lengths;
+		chunkFrames = counts;
+		chunkFirst = firsts;
+		chunkRegion = new int[found];
+		chunkOffset = new int[found];
+
+		ByteBuffer[] mapped = new ByteBuffer[Math.max(1, found)];
+		int regionCount = 0;
+		long regionStart = -1;
+		for( int c = 0; c < found; c++ ){
+			if( regionStart < 0 || offsets[c] + lengths[c] - regionStart > REGION_BYTES ){
+				if( regionStart >= 0 ){
+					mapped[regionCount++] = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, offsets[c] - regionStart);
+				}
+				regionStart = offsets[c];
+			}
+			chunkRegion[c] = regionCount;
+			chunkOffset[c] = (int)(offsets[c] - regionStart);
+		}
+		if( found > 0 ){
+			mapped[regionCount++] = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, position - regionStart);
+		}
+		regions = Arrays.copyOf(mapped, regionCount);
+	}
+
+	public static Trajectory open(Path file) throws IOException {
+		try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ){
+			return new Trajectory(channel);
+		}
+	}
+
+	/**
+	 * Bounding box of a body over the frames of a chunk, read from its header.
+	 * @param out Receives min x, y, z and max x, y, z.
+	 */
+	public void getChunkBounds(int chunk, int body, float[] out){
+		ByteBuffer region = regions[chunkRegion[chunk]];
+		int p = chunkOffset[chunk] + TrajectoryRecorder.CHUNK_HEADER_BYTES + 24 * body;
+		for( int k = 0; k < 6; k++ ){
+			out[k] = region.getFloat(p + 4 * k);
+		}
+	}
+
+	/**
+	 * Decodes all positions of a chunk.
+	 * @param out Array to fill, a new one is created when null or too short.
+	 * @return Positions, frame-major: [frame][body][x, y, z].
+	 */
+	public float[] decodeChunk(int chunk, float[] out){
+		int n = bodies.length;
+		int count = chunkFrames[chunk];
+		if( out == null || out.length < 3 * n * count ){
+			out = new float[3 * n * framesPerChunk];
+		}
+		int boundsBytes = 24 * n;
+		int payload = chunkBytes[chunk] - TrajectoryRecorder.CHUNK_HEADER_BYTES - boundsBytes;
+		ByteBuffer source = regions[chunkRegion[chunk]].duplicate();
+		source.position(chunkOffset[chunk] + TrajectoryRecorder.CHUNK_HEADER_BYTES + boundsBytes);
+		byte[] packed = new byte[payload];
+		source.get(packed);
+
+		byte[] raw = new byte[3 * n * count * 5];
+		Inflater inflater = new Inflater();
+		int length = 0;
+		try{
+			inflater.setInput(packed);
+			while( !inflater.finished() && length < raw.length ){
+				int k = inflater.inflate(raw, length, raw.length - length);
+				if( k == 0 && (inflater.needsInput() || inflater.needsDictionary()) ){
+					break;
+				}
+				length += k;
+			}
+		}catch( DataFormatException e ){
+			throw new IllegalStateException("Chunk " + chunk + " is corrupt", e);
+		}finally{
+			inflater.end();
+		}
+
+		int p = 0;
+		for( int v = 0; v < 3 * n; v++ ){
+			int previous = 0, delta = 0;
+			for( int f = 0; f < count; f++ ){
+				int shift = 0, bits = 0;
+				byte b;
+				do{
+					b = raw[p++];
+					bits |= (b & 0x7F) << shift;
+					shift += 7;
+				}while( b < 0 );
+				int d = (bits >>> 1) ^ -(bits & 1);
+				int value;
+				if( f == 0 ){
+					value = d;
+				}else if( f == 1 ){
+					delta = d;
+					value = previous + delta;
+				}else{
+					delta += d;
+					value = previous + delta;
+				}
+				previous = value;
+				out[3 * n * f + v] = value * quantum;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Position of a recorded body, linearly interpolated between frames and
+	 * clamped to the recorded range.
+	 * @param body Index among the recorded bodies.
+	 * @param frame Frame number, may be fractional.
+	 */
+	public void position(int body, double frame, float[] out){
+		if( chunks == 0 ){
+			throw new IllegalStateException("Trajectory has no frames");
+		}
+		frame = Math.max(0.0, Math.min(frame, frames - 1));
+		long f0 = (long)frame;
+		float t = (float)(frame - f0);
+		long f1 = Math.min(f0 + 1, frames - 1);
+		int i0 = frameIndex(f0);
+		float x = cached[i0 + 3 * body], y = cached[i0 + 3 * body + 1], z = cached[i0 + 3 * body + 2];
+		if( t > 0.f && f1 != f0 ){
+			int i1 = frameIndex(f1);
+			x += (cached[i1 + 3 * body] - x) * t;
+			y += (cached[i1 + 3 * body + 1] - y) * t;
+			z += (cached[i1 + 3 * body + 2] - z) * t;
+		}
+		out[0] = x;
+		out[1] = y;
+		out[2] = z;
+	}
+
+	/**
+	 * Decodes the chunk of a frame into the cache if needed.
+	 * @return Offset of the frame in the cache.
+	 */
+	private int frameIndex(long frame){
+		int c = findChunk(frame);
+		if( c != cachedChunk ){
+			cached = decodeChunk(c, cached);
+			cachedChunk = c;
+		}
+		return 3 * bodies.length * (int)(frame - chunkFirst[c]);
+	}
+
+	/**
+	 * @return Chunk holding a frame.
+	 */
+	public int findChunk(long frame){
+		int lo = 0, hi = chunks - 1;
+		while( lo < hi ){
+			int mid = (lo + hi + 1) >>> 1;
+			if( chunkFirst[mid] <= frame ){
+				lo = mid;
+			}else{
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return Index among the recorded bodies of a kernel slot, -1 if it was not recorded.
+	 */
+	public int indexOf(int slot){
+		for( int b = 0; b < bodies.length; b++ ){
+			if( bodies[b] == slot ){
+				return b;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Number of bodies of the kernel the trajectory was recorded from.
+	 */
+	public int getKernelBodyCount() {
+		return kernelBodies;
+	}
+
+	public int getBodyCount() {
+		return bodies.length;
+	}
+
+	/**
+	 * @return Kernel slot of a recorded body.
+	 */
+	public int getBody(int body) {
+		return bodies[body];
+	}
+
+	public long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * @return Simulated seconds between frames.
+	 */
+	public float getStep() {
+		return step;
+	}
+
+	public float getQuantum() {
+		return quantum;
+	}
+
+	public int getChunkCount() {
+		return chunks;
+	}
+
+	public int getFramesPerChunk() {
+		return framesPerChunk;
+	}
+
+	public int getChunkFrames(int chunk) {
+		return chunkFrames[chunk];
+	}
+
+	public long getChunkFirstFrame(int chunk) {
+		return chunkFirst[chunk];
+	}
+
+}
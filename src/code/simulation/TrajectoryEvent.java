@@ -0,0 +1,88 @@
+package code.simulation;
+
+/**
+ * Interval of a {@link Trajectory} found by a {@link TrajectorySearch}, e.g.
+ * the time two bodies spend within a distance of each other. Bodies are
+ * kernel slots, times are simulated seconds from the first frame.
+ */
+public class TrajectoryEvent {
+
+	// Two bodies closer than a distance
+	public static final int CLOSE_APPROACH = 0;
+	// Two bodies closer than an angle as seen from an observer
+	public static final int CONJUNCTION = 1;
+	// The disc of body A covers part of the disc of the farther body B as seen from the observer
+	public static final int OCCULTATION = 2;
+	// Occultation of a light source B by body A as seen from the observer, which is eclipsed
+	public static final int ECLIPSE = 3;
+
+	static final String[] TYPE_NAMES = { "close approach", "conjunction", "occultation", "eclipse" };
+
+	final int type;
+	final int observer;
+	final int bodyA;
+	final int bodyB;
+	final double start;
+	final double peak;
+	final double end;
+	final double value;
+
+	TrajectoryEvent(int type, int observer, int bodyA, int bodyB, double start, double peak, double end, double value){
+		this.type = type;
+		this.observer = observer;
+		this.bodyA = bodyA;
+		this.bodyB = bodyB;
+		this.start = start;
+		this.peak = peak;
+		this.end = end;
+		this.value = value;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return Body the angles are seen from, -1 for close approaches.
+	 */
+	public int getObserver() {
+		return observer;
+	}
+
+	public int getBodyA() {
+		return bodyA;
+	}
+
+	public int getBodyB() {
+		return bodyB;
+	}
+
+	public double getStart() {
+		return start;
+	}
+
+	/**
+	 * @return Time the bodies are closest.
+	 */
+	public double getPeak() {
+		return peak;
+	}
+
+	public double getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return Distance at the peak for close approaches, angle between the bodies in radians for the others.
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("%s of %d and %d%s from %.3f to %.3f s, closest %.4g at %.3f s",
+				TYPE_NAMES[type], bodyA, bodyB, observer < 0 ? "" : " seen from " + observer, start, end, value, peak);
+	}
+
+}
@@ -0,0 +1,149 @@
+package code.simulation;
+
+/**
+ * Plays back a {@link Trajectory}: recorded bodies are placed at their
+ * recorded world positions, interpolated between frames. Bodies that were
+ * not recorded only follow their parent.
+ *
+ * The kernel must have as many bodies as the one the trajectory was
+ * recorded from.
+ */
+public class TrajectoryPropagator implements Propagator, Restorable {
+
+	private final Trajectory trajectory;
+	// Recorded body of every kernel slot, -1 for none
+	private int[] recorded = new int[0];
+
+	private double time = 0.0;
+	private double timeWarp = 1.0;
+	// Starts over at the end instead of stopping
+	private boolean looping = true;
+
+	private final float[] position = new float[3];
+
+	public TrajectoryPropagator(Trajectory trajectory){
+		if( trajectory.getFrameCount() == 0 ){
+			throw new IllegalArgumentException("Trajectory has no frames");
+		}
+		this.trajectory = trajectory;
+	}
+
+	@Override
+	public void attach(SimulationKernel kernel){
+		if( kernel.getBodyCount() != trajectory.getKernelBodyCount() ){
+			throw new IllegalArgumentException("Trajectory was recorded from " + trajectory.getKernelBodyCount()
+					+ " bodies, the kernel has " + kernel.getBodyCount());
+		}
+		recorded = new int[kernel.getBodyCount()];
+		for( int i = 0; i < recorded.length; i++ ){
+			recorded[i] = -1;
+		}
+		for( int b = 0; b < trajectory.getBodyCount(); b++ ){
+			recorded[trajectory.getBody(b)] = b;
+		}
+		kernel.setWorldDriven(true);
+		place(kernel);
+	}
+
+	@Override
+	public void advance(SimulationKernel kernel, float dT){
+		kernel.beginStep();
+		time += dT * timeWarp;
+		double end = getDuration();
+		if( looping && end > 0.0 && (time >= end || time < 0.0) ){
+			time -= end * Math.floor(time / end);
+		}
+		place(kernel);
+		kernel.advanceAxes(dT);
+	}
+
+	@Override
+	public void detach(SimulationKernel kernel){
+		kernel.setWorldDriven(false);
+	}
+
+	/**
+	 * Places the bodies at the current time, parents first.
+	 */
+	public void place(SimulationKernel kernel){
+		if( kernel.topologyDirty ){
+			kernel.rebuildOrder();
+		}
+		double frame = time / trajectory.getStep();
+		for( int k = 0; k < kernel.count; k++ ){
+			int i = kernel.order[k];
+			int b = i < recorded.length ? recorded[i] : -1;
+			if( b >= 0 ){
+				trajectory.position(b, frame, position);
+				kernel.worldX[i] = position[0];
+				kernel.worldY[i] = position[1];
+				kernel.worldZ[i] = position[2];
+				continue;
+			}
+			int p = kernel.parent[i];
+			float x = kernel.offsetX[i], y = kernel.offsetY[i], z = kernel.offsetZ[i];
+			if( p != SimulationKernel.NO_PARENT ){
+				x += kernel.worldX[p];
+				y += kernel.worldY[p];
+				z += kernel.worldZ[p];
+			}
+			kernel.worldX[i] = x;
+			kernel.worldY[i] = y;
+			kernel.worldZ[i] = z;
+		}
+	}
+
+	public Trajectory getTrajectory() {
+		return trajectory;
+	}
+
+	/**
+	 * @return Simulated seconds from the first to the last frame.
+	 */
+	public double getDuration() {
+		return (trajectory.getFrameCount() - 1) * (double)trajectory.getStep();
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * Jumps to any recorded time, applied on the next step.
+	 */
+	public void setTime(double time) {
+		this.time = time;
+	}
+
+	@Override
+	public int getStateSize() {
+		return 1;
+	}
+
+	@Override
+	public void saveState(long[] words, int offset) {
+		words[offset] = Double.doubleToRawLongBits(time);
+	}
+
+	@Override
+	public void restoreState(long[] words, int offset) {
+		time = Double.longBitsToDouble(words[offset]);
+	}
+
+	public double getTimeWarp() {
+		return timeWarp;
+	}
+
+	public void setTimeWarp(double timeWarp) {
+		this.timeWarp = timeWarp;
+	}
+
+	public boolean isLooping() {
+		return looping;
+	}
+
+	public void setLooping(boolean looping) {
+		this.looping = looping;
+	}
+
+}
@@ -0,0 +1,331 @@
+package code.simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+/**
+ * Records the world positions of bodies after every step into a trajectory
+ * file, read back by {@link Trajectory}.
+ *
+ * {@link #record(SimulationKernel)} only copies the positions into a pooled
+ * frame and hands it to a writer thread through a lock-free queue, so the
+ * thread stepping the simulation does not wait for the disk while the
+ * writer keeps up. Frames waiting for the writer are bounded by their size,
+ * once the bound is reached recording waits for the writer, as a dropped
+ * frame would shift the time of all later ones. Frames are only dropped
+ * once the writer failed, the file then ends with the last written chunk.
+ *
+ * The writer quantizes positions to a fixed resolution and collects them in
+ * chunks of frames. Inside a chunk every coordinate is stored as its first
+ * value followed by second differences (change of the change between
+ * frames), which are small for smooth orbits, as variable length integers,
+ * and the chunk is then deflated. Every chunk starts with the bounding box
+ * of every body over its frames, so searches can skip chunks without
+ * decoding them.
+ *
+ * File layout, big-endian:
+ * <pre>
+ * int   magic, version, kernel bodies, recorded bodies, frames per chunk
+ * float step, quantum
+ * int   reserved
+ * int   kernel slot of every recorded body
+ * per chunk: int payload bytes, int frames, long first frame (frames before it in the file),
+ *            float min x, y, z, max x, y, z of every body, deflated payload
+ * </pre>
+ */
+public class TrajectoryRecorder implements Closeable {
+
+	static final int MAGIC = 0x54524A31;	// "TRJ1"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+	static final int CHUNK_HEADER_BYTES = 16;
+	// Bytes of frames waiting for the writer before recording waits for it
+	static final long MAX_PENDING_BYTES = 64L << 20;
+	// Frames waiting for the writer, whatever their size
+	static final int MIN_PENDING = 2;
+
+	private final int[] bodies;
+	private final int framesPerChunk;
+	// Frames that may be waiting for the writer, from the pending bytes bound
+	private final int maxPending;
+	private final float quantum;
+
+	// Frames travel from the recording thread to the writer and back to the pool
+	private final ConcurrentLinkedQueue<float[]> queue = new ConcurrentLinkedQueue<float[]>();
+	private final ConcurrentLinkedQueue<float[]> pool = new ConcurrentLinkedQueue<float[]>();
+	private int allocated = 0;
+	private long recorded = 0;
+	private long dropped = 0;
+	private long waits = 0;
+
+	private final Thread writer;
+	private volatile boolean closing = false;
+	private volatile IOException failure = null;
+
+	// Writer thread state: channel, quantized chunk [value][frame] and encoding buffers
+	private final FileChannel channel;
+	private final int[][] chunk;
+	private final float[] bounds;
+	private int chunkFrames = 0;
+	private long written = 0;
+	private byte[] raw = new byte[0];
+	private byte[] packed = new byte[0];
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	/**
+	 * @param file File to create or overwrite.
+	 * @param kernel Kernel the bodies belong to.
+	 * @param bodies Slots of the bodies to record, null for all.
+	 * @param step Simulated seconds between frames.
+	 * @param quantum Resolution positions are rounded to.
+	 * @param framesPerChunk Frames compressed and bounded together.
+	 */
+	public TrajectoryRecorder(Path file, SimulationKernel kernel, int[] bodies, float step, float quantum,
+			int framesPerChunk) throws IOException {
+		if( bodies == null ){
+			bodies = new int[kernel.getBodyCount()];
+			for( int i = 0; i < bodies.length; i++ ){
+				bodies[i] = i;
+			}
+		}
+		for( int body : bodies ){
+			if( body < 0 || body >= kernel.getBodyCount() ){
+				throw new IllegalArgumentException("No body " + body + " in a kernel of " + kernel.getBodyCount());
+			}
+		}
+		if( bodies.length == 0 ){
+			throw new IllegalArgumentException("No bodies to record");
+		}
+		if( !(step > 0.f) || !(quantum > 0.f) || framesPerChunk < 3 ){
+			throw new IllegalArgumentException("Invalid step " + step + ", quantum " + quantum
+					+ " or frames per chunk " + framesPerChunk);
+		}
+		this.bodies = bodies.clone();
+		this.framesPerChunk = framesPerChunk;
+		this.maxPending = (int)Math.max(MIN_PENDING, Math.min(Integer.MAX_VALUE, MAX_PENDING_BYTES / (12L * bodies.length)));
+		this.quantum = quantum;
+		this.chunk = new int[3 * bodies.length][framesPerChunk];
+		this.bounds = new float[6 * bodies.length];
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 4 * bodies.length);
+		header.putInt(MAGIC).putInt(VERSION).putInt(kernel.getBodyCount()).putInt(bodies.length).putInt(framesPerChunk);
+		header.putFloat(step).putFloat(quantum).putInt(0);
+		for( int body : bodies ){
+			header.putInt(body);
+		}
+		header.flip();
+		write(header);
+
+		writer = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				drain();
+			}
+		}, "trajectory writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues the current world positions of the recorded bodies as the next
+	 * frame, waits for the writer when too many frames are pending.
+	 * @return False if the frame was dropped because the writer failed.
+	 */
+	public boolean record(SimulationKernel kernel){
+		float[] frame = pool.poll();
+		if( frame == null && allocated < maxPending ){
+			frame = new float[3 * bodies.length];
+			allocated++;
+		}
+		if( frame == null ){
+			waits++;
+			while( (frame = pool.poll()) == null && failure == null ){
+				LockSupport.unpark(writer);
+				LockSupport.parkNanos(this, 100000L);
+			}
+		}
+		if( failure != null ){
+			if( frame != null ){
+				pool.offer(frame);
+			}
+			dropped++;
+			return false;
+		}
+		for( int b = 0, v = 0; b < bodies.length; b++ ){
+			int i = bodies[b];
+			frame[v++] = kernel.worldX[i];
+			frame[v++] = kernel.worldY[i];
+			frame[v++] = kernel.worldZ[i];
+		}
+		queue.offer(frame);
+		recorded++;
+		LockSupport.unpark(writer);
+		return true;
+	}
+
+	/**
+	 * Writer thread: takes frames until closed and the queue is empty.
+	 */
+	private void drain(){
+		try{
+			while( true ){
+				float[] frame = queue.poll();
+				if( frame == null && closing ){
+					// A frame may have been queued between the poll and closing, stop only when there is none
+					frame = queue.poll();
+					if( frame == null ){
+						break;
+					}
+				}
+				if( frame == null ){
+					LockSupport.parkNanos(this, 1000000L);
+					continue;
+				}
+				add(frame);
+				pool.offer(frame);
+			}
+			flushChunk();
+		}catch( IOException e ){
+			failure = e;
+		}
+	}
+
+	private void add(float[] frame) throws IOException {
+		for( int v = 0; v < frame.length; v++ ){
+			chunk[v][chunkFrames] = Math.round(frame[v] / quantum);
+		}
+		if( ++chunkFrames == framesPerChunk ){
+			flushChunk();
+		}
+	}
+
+	/**
+	 * Encodes, compresses and writes the collected frames.
+	 */
+	private void flushChunk() throws IOException {
+		int frames = chunkFrames;
+		if( frames == 0 ){
+			return;
+		}
+		int values = chunk.length;
+		int rawBytes = values * frames * 5;
+		if( raw.length < rawBytes ){
+			raw = new byte[rawBytes];
+			packed = new byte[rawBytes + rawBytes / 1000 + 64];
+		}
+		int p = 0;
+		for( int v = 0; v < values; v++ ){
+			int[] series = chunk[v];
+			int lo = series[0], hi = series[0];
+			p = putVarint(raw, p, series[0]);
+			if( frames > 1 ){
+				p = putVarint(raw, p, series[1] - series[0]);
+			}
+			for( int f = 2; f < frames; f++ ){
+				p = putVarint(raw, p, series[f] - 2 * series[f - 1] + series[f - 2]);
+			}
+			for( int f = 1; f < frames; f++ ){
+				lo = Math.min(lo, series[f]);
+				hi = Math.max(hi, series[f]);
+			}
+			int body = v / 3, axis = v % 3;
+			bounds[6 * body + axis] = lo * quantum;
+			bounds[6 * body + 3 + axis] = hi * quantum;
+		}
+		deflater.reset();
+		deflater.setInput(raw, 0, p);
+		deflater.finish();
+		int length = 0;
+		while( !deflater.finished() ){
+			if( length == packed.length ){
+				packed = Arrays.copyOf(packed, packed.length * 2);
+			}
+			length += deflater.deflate(packed, length, packed.length - length);
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(CHUNK_HEADER_BYTES + 4 * bounds.length + length);
+		out.putInt(length).putInt(frames).putLong(written);
+		for( float bound : bounds ){
+			out.putFloat(bound);
+		}
+		out.put(packed, 0, length);
+		out.flip();
+		write(out);
+		written += frames;
+		chunkFrames = 0;
+	}
+
+	/**
+	 * Zigzag variable length integer, small magnitudes of either sign take few bytes.
+	 */
+	private static int putVarint(byte[] out, int p, int value){
+		int v = (value << 1) ^ (value >> 31);
+		while( (v & ~0x7F) != 0 ){
+			out[p++] = (byte)((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out[p++] = (byte)v;
+		return p;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while( buffer.hasRemaining() ){
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @return Frames queued so far, dropped ones not included.
+	 */
+	public long getRecordedFrames() {
+		return recorded;
+	}
+
+	/**
+	 * @return Frames dropped because the writer failed.
+	 */
+	public long getDroppedFrames() {
+		return dropped;
+	}
+
+	/**
+	 * @return Number of frames that had to wait for the writer to catch up.
+	 */
+	public long getWaitCount() {
+		return waits;
+	}
+
+	public int getBodyCount() {
+		return bodies.length;
+	}
+
+	/**
+	 * Waits for the writer to write all queued frames and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		closing = true;
+		LockSupport.unpark(writer);
+		try{
+			writer.join();
+		}catch( InterruptedException e ){
+			Thread.currentThread().interrupt();
+		}
+		deflater.end();
+		channel.close();
+		if( failure != null ){
+			throw failure;
+		}
+	}
+
+}
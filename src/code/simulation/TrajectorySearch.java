@@ -0,0 +1,697 @@
+package code.simulation;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds close approaches, conjunctions, occultations and eclipses in a
+ * {@link Trajectory}.
+ *
+ * Between frames bodies move in straight lines, as when the trajectory is
+ * played back. The chunks of the trajectory are searched in parallel. For
+ * every chunk the bounding boxes in its header rule out most bodies or
+ * combinations of bodies without decoding it, only the remaining ones are
+ * evaluated at every frame. Where an event starts or ends between two
+ * frames its time is refined by bisection, its peak by golden section
+ * search, and events shorter than a frame are found from the slope of the
+ * distance or angle at both ends of every segment.
+ *
+ * An event belongs to the chunk it starts in and is followed into later
+ * chunks, so events crossing chunk boundaries are reported once.
+ */
+public class TrajectorySearch {
+
+	// Chunks searched sequentially by one task
+	static final int CHUNKS_PER_TASK = 2;
+	// Precision of event times in frames
+	static final double TOLERANCE = 1e-6;
+	// Step used to find the slope at the ends of a segment, in frames
+	static final double SLOPE_STEP = 1e-3;
+	static final double GOLDEN = 0.6180339887498949;
+
+	private final Trajectory trajectory;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	public TrajectorySearch(Trajectory trajectory){
+		this.trajectory = trajectory;
+	}
+
+	/**
+	 * Every time a body of one set comes closer to a body of the other set than a distance.
+	 * @param a Kernel slots of the first set, null for all recorded bodies.
+	 * @param b Kernel slots of the second set, null for all recorded bodies.
+	 * @param distance Largest distance between the centres.
+	 */
+	public List<TrajectoryEvent> closeApproaches(int[] a, int[] b, float distance){
+		if( !(distance > 0.f) ){
+			throw new IllegalArgumentException("Distance must be positive: " + distance);
+		}
+		return search(new ApproachQuery(recorded(a), recorded(b), distance));
+	}
+
+	/**
+	 * Every time two bodies are closer than an angle as seen from an observer.
+	 * @param bodies Kernel slots of the bodies, null for all recorded bodies but the observer.
+	 * @param angle Largest angle between the bodies in radians.
+	 */
+	public List<TrajectoryEvent> conjunctions(int observer, int[] bodies, float angle){
+		if( !(angle > 0.f) ){
+			throw new IllegalArgumentException("Angle must be positive: " + angle);
+		}
+		int o = recorded(observer);
+		int[] set = recorded(bodies);
+		AlignmentQuery query = new AlignmentQuery(TrajectoryEvent.CONJUNCTION, angle, null);
+		for( int i = 0; i < set.length; i++ ){
+			for( int j = i + 1; j < set.length; j++ ){
+				query.add(o, set[i], set[j]);
+			}
+		}
+		return search(query);
+	}
+
+	/**
+	 * Every time the disc of a nearer body covers part of the disc of a farther one as seen from an observer.
+	 * @param near Kernel slots of the occulting bodies, null for all recorded bodies.
+	 * @param far Kernel slots of the occulted bodies, null for all recorded bodies.
+	 * @param radii Radius of every kernel slot.
+	 */
+	public List<TrajectoryEvent> occultations(int observer, int[] near, int[] far, float[] radii){
+		int o = recorded(observer);
+		AlignmentQuery query = new AlignmentQuery(TrajectoryEvent.OCCULTATION, 0.f, radii);
+		for( int a : recorded(near) ){
+			for( int b : recorded(far) ){
+				query.add(o, a, b);
+			}
+		}
+		return search(query);
+	}
+
+	/**
+	 * Every time a body is in the shadow, partial or full, of another one, i.e. the
+	 * light source is occulted as seen from the eclipsed body.
+	 * @param light Kernel slot of the light source.
+	 * @param occluders Kernel slots of the bodies casting shadows, null for all recorded bodies.
+	 * @param targets Kernel slots of the bodies the shadows fall on, null for all recorded bodies.
+	 * @param radii Radius of every kernel slot.
+	 */
+	public List<TrajectoryEvent> eclipses(int light, int[] occluders, int[] targets, float[] radii){
+		int l = recorded(light);
+		AlignmentQuery query = new AlignmentQuery(TrajectoryEvent.ECLIPSE, 0.f, radii);
+		for( int target : recorded(targets) ){
+			for( int occluder : recorded(occluders) ){
+				query.add(target, occluder, l);
+			}
+		}
+		return search(query);
+	}
+
+	private List<TrajectoryEvent> search(Query query){
+		List<TrajectoryEvent> events = new ArrayList<TrajectoryEvent>();
+		if( query.involved.length > 0 && trajectory.getChunkCount() > 0 ){
+			pool.invoke(new SearchTask(query, 0, trajectory.getChunkCount(), events));
+		}
+		Collections.sort(events, new Comparator<TrajectoryEvent>(){
+			@Override
+			public int compare(TrajectoryEvent e1, TrajectoryEvent e2){
+				int c = Double.compare(e1.start, e2.start);
+				if( c == 0 ){
+					c = Integer.compare(e1.bodyA, e2.bodyA);
+				}
+				return c != 0 ? c : Integer.compare(e1.bodyB, e2.bodyB);
+			}
+		});
+		return events;
+	}
+
+	/**
+	 * @return Recorded index of a kernel slot.
+	 */
+	private int recorded(int slot){
+		int b = trajectory.indexOf(slot);
+		if( b < 0 ){
+			throw new IllegalArgumentException("Body " + slot + " was not recorded");
+		}
+		return b;
+	}
+
+	/**
+	 * @return Recorded indices of kernel slots, all of them for null.
+	 */
+	private int[] recorded(int[] slots){
+		if( slots == null ){
+			int[] all = new int[trajectory.getBodyCount()];
+			for( int b = 0; b < all.length; b++ ){
+				all[b] = b;
+			}
+			return all;
+		}
+		int[] indices = new int[slots.length];
+		for( int i = 0; i < slots.length; i++ ){
+			indices[i] = recorded(slots[i]);
+		}
+		return indices;
+	}
+
+	/**
+	 * What to look for: which combinations of bodies (observer, a, b) can
+	 * have an event within given bounds, and a function of their positions
+	 * that is below zero during an event.
+	 */
+	private abstract static class Query {
+		final int type;
+		// Recorded bodies the query needs the bounds of
+		int[] involved = new int[0];
+
+		Query(int type){
+			this.type = type;
+		}
+
+		/**
+		 * Adds the combinations whose bounds allow an event.
+		 * @param bounds Min x, y, z, max x, y, z of every recorded body, only those involved are set.
+		 */
+		abstract void candidates(float[] bounds, SearchTask out);
+
+		abstract double metric(int o, int a, int b, float[] po, float[] pa, float[] pb);
+
+		/**
+		 * @return Value reported for an event, at its peak.
+		 */
+		abstract double value(int o, int a, int b, float[] po, float[] pa, float[] pb);
+	}
+
+	private static class ApproachQuery extends Query {
+		final float distance;
+		final boolean[] inA, inB;
+
+		ApproachQuery(int[] a, int[] b, float distance){
+			super(TrajectoryEvent.CLOSE_APPROACH);
+			this.distance = distance;
+			int n = 0;
+			for( int i : a ){
+				n = Math.max(n, i + 1);
+			}
+			for( int i : b ){
+				n = Math.max(n, i + 1);
+			}
+			inA = new boolean[n];
+			inB = new boolean[n];
+			for( int i : a ){
+				inA[i] = true;
+			}
+			for( int i : b ){
+				inB[i] = true;
+			}
+			int count = 0;
+			involved = new int[n];
+			for( int i = 0; i < n; i++ ){
+				if( inA[i] || inB[i] ){
+					involved[count++] = i;
+				}
+			}
+			involved = Arrays.copyOf(involved, count);
+		}
+
+		/**
+		 * Sweep along x over the boxes sorted by their lower end.
+		 */
+		@Override
+		void candidates(float[] bounds, SearchTask out){
+			int n = involved.length;
+			long[] sorted = out.sortKeys(n);
+			for( int k = 0; k < n; k++ ){
+				int bits = Float.floatToIntBits(bounds[6 * involved[k]]);
+				bits ^= (bits >> 31) & 0x7FFFFFFF;
+				sorted[k] = (long)bits << 32 | k;
+			}
+			Arrays.sort(sorted, 0, n);
+			for( int k = 0; k < n; k++ ){
+				int i = involved[(int)sorted[k]];
+				float reach = bounds[6 * i + 3] + distance;
+				for( int l = k + 1; l < n; l++ ){
+					int j = involved[(int)sorted[l]];
+					if( bounds[6 * j] > reach ){
+						break;
+					}
+					boolean ab = inA[i] && inB[j], ba = inA[j] && inB[i];
+					if( !ab && !ba ){
+						continue;
+					}
+					double gap = 0.0;
+					for( int axis = 0; axis < 3; axis++ ){
+						double d = Math.max(0.0, Math.max(bounds[6 * j + axis] - bounds[6 * i + 3 + axis],
+								bounds[6 * i + axis] - bounds[6 * j + 3 + axis]));
+						gap += d * d;
+					}
+					if( gap <= (double)distance * distance ){
+						if( ab ){
+							out.add(-1, i, j);
+						}else{
+							out.add(-1, j, i);
+						}
+					}
+				}
+			}
+		}
+
+		@Override
+		double metric(int o, int a, int b, float[] po, float[] pa, float[] pb){
+			return value(o, a, b, po, pa, pb) - distance;
+		}
+
+		@Override
+		double value(int o, int a, int b, float[] po, float[] pa, float[] pb){
+			double dx = pa[0] - pb[0], dy = pa[1] - pb[1], dz = pa[2] - pb[2];
+			return Math.sqrt(dx * dx + dy * dy + dz * dz);
+		}
+	}
+
+	private class AlignmentQuery extends Query {
+		// Fixed angle for conjunctions, the discs of radii otherwise
+		final float angle;
+		final float[] radius;
+		int[] triples = new int[48];
+		int tripleCount = 0;
+		final boolean[] uses;
+
+		AlignmentQuery(int type, float angle, float[] radii){
+			super(type);
+			this.angle = angle;
+			if( radii != null ){
+				if( radii.length < trajectory.getKernelBodyCount() ){
+					throw new IllegalArgumentException("Radii of " + radii.length + " bodies for a trajectory of "
+							+ trajectory.getKernelBodyCount());
+				}
+				radius = new float[trajectory.getBodyCount()];
+				for( int b = 0; b < radius.length; b++ ){
+					radius[b] = radii[trajectory.getBody(b)];
+				}
+			}else{
+				radius = null;
+			}
+			uses = new boolean[trajectory.getBodyCount()];
+		}
+
+		void add(int o, int a, int b){
+			if( o == a || o == b || a == b ){
+				return;
+			}
+			if( 3 * tripleCount == triples.length ){
+				triples = Arrays.copyOf(triples, triples.length * 2);
+			}
+			triples[3 * tripleCount] = o;
+			triples[3 * tripleCount + 1] = a;
+			triples[3 * tripleCount + 2] = b;
+			tripleCount++;
+			for( int k = 0; k < 3; k++ ){
+				int body = triples[3 * tripleCount - 3 + k];
+				if( !uses[body] ){
+					uses[body] = true;
+					involved = Arrays.copyOf(involved, involved.length + 1);
+					involved[involved.length - 1] = body;
+				}
+			}
+		}
+
+		/**
+		 * Bounds a body as seen from the observer by a cone around the
+		 * centre of its box relative to the box of the observer.
+		 */
+		@Override
+		void candidates(float[] bounds, SearchTask out){
+			for( int t = 0; t < tripleCount; t++ ){
+				int o = triples[3 * t], a = triples[3 * t + 1], b = triples[3 * t + 2];
+				double ax = centre(bounds, a, 0) - centre(bounds, o, 0);
+				double ay = centre(bounds, a, 1) - centre(bounds, o, 1);
+				double az = centre(bounds, a, 2) - centre(bounds, o, 2);
+				double bx = centre(bounds, b, 0) - centre(bounds, o, 0);
+				double by = centre(bounds, b, 1) - centre(bounds, o, 1);
+				double bz = centre(bounds, b, 2) - centre(bounds, o, 2);
+				double da = Math.sqrt(ax * ax + ay * ay + az * az);
+				double db = Math.sqrt(bx * bx + by * by + bz * bz);
+				double ra = halfDiagonal(bounds, a) + halfDiagonal(bounds, o);
+				double rb = halfDiagonal(bounds, b) + halfDiagonal(bounds, o);
+				if( da <= ra || db <= rb ){
+					out.add(o, a, b);
+					continue;
+				}
+				double limit = angle;
+				if( radius != null ){
+					// The near body is never farther than the far one during an occultation
+					if( da - ra > db + rb ){
+						continue;
+					}
+					if( da - ra <= radius[a] || db - rb <= radius[b] ){
+						out.add(o, a, b);
+						continue;
+					}
+					limit = Math.asin(radius[a] / (da - ra)) + Math.asin(radius[b] / (db - rb));
+				}
+				double separation = separation(ax, ay, az, bx, by, bz) - Math.asin(ra / da) - Math.asin(rb / db);
+				if( separation <= limit ){
+					out.add(o, a, b);
+				}
+			}
+		}
+
+		@Override
+		double metric(int o, int a, int b, float[] po, float[] pa, float[] pb){
+			double separation = value(o, a, b, po, pa, pb);
+			if( radius == null ){
+				return separation - angle;
+			}
+			double ax = pa[0] - po[0], ay = pa[1] - po[1], az = pa[2] - po[2];
+			double bx = pb[0] - po[0], by = pb[1] - po[1], bz = pb[2] - po[2];
+			double da = Math.sqrt(ax * ax + ay * ay + az * az);
+			double db = Math.sqrt(bx * bx + by * by + bz * bz);
+			if( da >= db ){
+				return Math.PI;
+			}
+			return separation - Math.asin(Math.min(1.0, radius[a] / da)) - Math.asin(Math.min(1.0, radius[b] / db));
+		}
+
+		@Override
+		double value(int o, int a, int b, float[] po, float[] pa, float[] pb){
+			return separation(pa[0] - po[0], pa[1] - po[1], pa[2] - po[2], pb[0] - po[0], pb[1] - po[1], pb[2] - po[2]);
+		}
+	}
+
+	private static double centre(float[] bounds, int body, int axis){
+		return 0.5 * ((double)bounds[6 * body + axis] + bounds[6 * body + 3 + axis]);
+	}
+
+	private static double halfDiagonal(float[] bounds, int body){
+		double dx = bounds[6 * body + 3] - bounds[6 * body];
+		double dy = bounds[6 * body + 4] - bounds[6 * body + 1];
+		double dz = bounds[6 * body + 5] - bounds[6 * body + 2];
+		return 0.5 * Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/**
+	 * @return Angle between two directions, accurate for small angles too.
+	 */
+	private static double separation(double ax, double ay, double az, double bx, double by, double bz){
+		double cx = ay * bz - az * by, cy = az * bx - ax * bz, cz = ax * by - ay * bx;
+		return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ax * bx + ay * by + az * bz);
+	}
+
+	/**
+	 * Searches a range of chunks, split in halves down to {@link #CHUNKS_PER_TASK}.
+	 */
+	private class SearchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final Query query;
+		final int from, to;
+		final List<TrajectoryEvent> events;
+
+		// Leaf state: candidates of the current chunk, decoded chunks and positions
+		int[] tuples = new int[48];
+		int tupleCount = 0;
+		long[] keys = new long[0];
+		final int[] decodedChunk = { -1, -1, -1 };
+		final float[][] decoded = new float[3][];
+		int nextSlot = 0;
+		float[] current;
+		long currentFirst = 0;
+		int currentFrames = 0;
+		final float[] po = new float[3], pa = new float[3], pb = new float[3];
+		final float[] chunkBounds = new float[6];
+
+		SearchTask(Query query, int from, int to, List<TrajectoryEvent> events){
+			this.query = query;
+			this.from = from;
+			this.to = to;
+			this.events = events;
+		}
+
+		@Override
+		protected void compute(){
+			if( to - from > CHUNKS_PER_TASK ){
+				int half = (from + to) >>> 1;
+				SearchTask left = new SearchTask(query, from, half, events);
+				left.fork();
+				new SearchTask(query, half, to, events).compute();
+				left.join();
+				return;
+			}
+			List<TrajectoryEvent> found = new ArrayList<TrajectoryEvent>();
+			float[] bounds = new float[6 * trajectory.getBodyCount()];
+			for( int c = from; c < to; c++ ){
+				chunkBounds(c, bounds);
+				tupleCount = 0;
+				query.candidates(bounds, this);
+				for( int t = 0; t < tupleCount; t++ ){
+					scan(c, tuples[3 * t], tuples[3 * t + 1], tuples[3 * t + 2], found);
+				}
+			}
+			synchronized( events ){
+				events.addAll(found);
+			}
+		}
+
+		/**
+		 * Bounds of the involved bodies over the segments starting in a chunk,
+		 * which end in the first frame of the next one.
+		 */
+		void chunkBounds(int c, float[] bounds){
+			for( int b : query.involved ){
+				trajectory.getChunkBounds(c, b, chunkBounds);
+				System.arraycopy(chunkBounds, 0, bounds, 6 * b, 6);
+				if( c + 1 < trajectory.getChunkCount() ){
+					trajectory.getChunkBounds(c + 1, b, chunkBounds);
+					for( int k = 0; k < 3; k++ ){
+						bounds[6 * b + k] = Math.min(bounds[6 * b + k], chunkBounds[k]);
+						bounds[6 * b + 3 + k] = Math.max(bounds[6 * b + 3 + k], chunkBounds[3 + k]);
+					}
+				}
+			}
+		}
+
+		void add(int o, int a, int b){
+			if( 3 * tupleCount == tuples.length ){
+				tuples = Arrays.copyOf(tuples, tuples.length * 2);
+			}
+			tuples[3 * tupleCount] = o;
+			tuples[3 * tupleCount + 1] = a;
+			tuples[3 * tupleCount + 2] = b;
+			tupleCount++;
+		}
+
+		long[] sortKeys(int n){
+			if( keys.length < n ){
+				keys = new long[n];
+			}
+			return keys;
+		}
+
+		/**
+		 * Looks for events of a combination starting in the segments from the frames of a chunk.
+		 */
+		void scan(int c, int o, int a, int b, List<TrajectoryEvent> found){
+			long first = trajectory.getChunkFirstFrame(c);
+			long last = first + trajectory.getChunkFrames(c);
+			long frames = trajectory.getFrameCount();
+			double m0 = metric(o, a, b, first);
+			if( first == 0 && m0 < 0.0 ){
+				follow(o, a, b, 0.0, 0, m0, found);
+			}
+			for( long f = first; f < last && f + 1 < frames; f++ ){
+				double m1 = metric(o, a, b, f + 1);
+				if( m0 >= 0.0 && m1 < 0.0 ){
+					follow(o, a, b, root(o, a, b, f, f + 1), f + 1, m1, found);
+				}else if( m0 >= 0.0 && m1 >= 0.0
+						&& metric(o, a, b, f + SLOPE_STEP) < m0 && metric(o, a, b, f + 1 - SLOPE_STEP) < m1 ){
+					// Falls and rises again inside the segment, the event may be shorter than a frame
+					double peak = minimum(o, a, b, f, f + 1);
+					if( metric(o, a, b, peak) < 0.0 ){
+						found.add(event(o, a, b, root(o, a, b, f, peak), peak, root(o, a, b, f + 1, peak)));
+					}
+				}
+				m0 = m1;
+			}
+		}
+
+		/**
+		 * Follows an event from a frame inside it to its end, possibly in later chunks.
+		 */
+		void follow(int o, int a, int b, double start, long frame, double value, List<TrajectoryEvent> found){
+			long frames = trajectory.getFrameCount();
+			long lowest = frame;
+			double lowestValue = value;
+			double end = frames - 1;
+			for( long f = frame; f + 1 < frames; f++ ){
+				double next = metric(o, a, b, f + 1);
+				if( next >= 0.0 ){
+					end = root(o, a, b, f + 1, f);
+					break;
+				}
+				if( next < lowestValue ){
+					lowestValue = next;
+					lowest = f + 1;
+				}
+			}
+			double peak = minimum(o, a, b, Math.max(start, lowest - 1), Math.min(end, lowest + 1));
+			if( metric(o, a, b, peak) > lowestValue ){
+				// Noise in the quantized positions can mislead the search
+				peak = lowest;
+			}
+			found.add(event(o, a, b, start, peak, end));
+		}
+
+		TrajectoryEvent event(int o, int a, int b, double start, double peak, double end){
+			positions(o, a, b, peak);
+			double step = trajectory.getStep();
+			return new TrajectoryEvent(query.type, o < 0 ? -1 : trajectory.getBody(o), trajectory.getBody(a),
+					trajectory.getBody(b), start * step, peak * step, end * step, query.value(o, a, b, po, pa, pb));
+		}
+
+		/**
+		 * Bisection for the time the metric changes sign between two frames.
+		 * @param outside Frame at or above zero.
+		 * @param inside Frame below zero.
+		 */
+		double root(int o, int a, int b, double outside, double inside){
+			while( Math.abs(inside - outside) > TOLERANCE ){
+				double middle = 0.5 * (outside + inside);
+				if( metric(o, a, b, middle) < 0.0 ){
+					inside = middle;
+				}else{
+					outside = middle;
+				}
+			}
+			return 0.5 * (outside + inside);
+		}
+
+		/**
+		 * Golden section search for the lowest metric between two frames.
+		 */
+		double minimum(int o, int a, int b, double lo, double hi){
+			double x1 = hi - GOLDEN * (hi - lo), x2 = lo + GOLDEN * (hi - lo);
+			double m1 = metric(o, a, b, x1), m2 = metric(o, a, b, x2);
+			while( hi - lo > TOLERANCE ){
+				if( m1 < m2 ){
+					hi = x2;
+					x2 = x1;
+					m2 = m1;
+					x1 = hi - GOLDEN * (hi - lo);
+					m1 = metric(o, a, b, x1);
+				}else{
+					lo = x1;
+					x1 = x2;
+					m1 = m2;
+					x2 = lo + GOLDEN * (hi - lo);
+					m2 = metric(o, a, b, x2);
+				}
+			}
+			return 0.5 * (lo + hi);
+		}
+
+		double metric(int o, int a, int b, double frame){
+			positions(o, a, b, frame);
+			return query.metric(o, a, b, po, pa, pb);
+		}
+
+		void positions(int o, int a, int b, double frame){
+			if( o >= 0 ){
+				position(o, frame, po);
+			}
+			position(a, frame, pa);
+			position(b, frame, pb);
+		}
+
+		/**
+		 * Position of a recorded body between frames, decoding chunks as needed.
+		 */
+		void position(int body, double frame, float[] out){
+			long frames = trajectory.getFrameCount();
+			frame = Math.max(0.0, Math.min(frame, frames - 1));
+			long f0 = (long)frame;
+			float t = (float)(frame - f0);
+			int i = offset(f0) + 3 * body;
+			float x = current[i], y = current[i + 1], z = current[i + 2];
+			if( t > 0.f && f0 + 1 < frames ){
+				i = offset(f0 + 1) + 3 * body;
+				x += (current[i] - x) * t;
+				y += (current[i + 1] - y) * t;
+				z += (current[i + 2] - z) * t;
+			}
+			out[0] = x;
+			out[1] = y;
+			out[2] = z;
+		}
+
+		/**
+		 * Makes the decoded chunk holding a frame current, the last three decoded are kept.
+		 * @return Offset of the frame in the current chunk.
+		 */
+		int offset(long frame){
+			if( frame < currentFirst || frame >= currentFirst + currentFrames ){
+				int c = trajectory.findChunk(frame);
+				int k = 0;
+				while( k < decodedChunk.length && decodedChunk[k] != c ){
+					k++;
+				}
+				if( k == decodedChunk.length ){
+					k = nextSlot;
+					nextSlot = (nextSlot + 1) % decodedChunk.length;
+					decoded[k] = trajectory.decodeChunk(c, decoded[k]);
+					decodedChunk[k] = c;
+				}
+				current = decoded[k];
+				currentFirst = trajectory.getChunkFirstFrame(c);
+				currentFrames = trajectory.getChunkFrames(c);
+			}
+			return 3 * trajectory.getBodyCount() * (int)(frame - currentFirst);
+		}
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Searches a trajectory of the solar system layout from the command line:
+	 * approach &lt;distance&gt;, conjunction &lt;degrees&gt; (seen from the earth) or eclipse.
+	 */
+	public static void main(String[] args) throws IOException {
+		if( args.length < 2 ){
+			System.err.println("Usage: TrajectorySearch <file> approach <distance> | conjunction <degrees> | eclipse");
+			return;
+		}
+		Trajectory trajectory = Trajectory.open(Paths.get(args[0]));
+		if( trajectory.getKernelBodyCount() != SolarSystemLayout.getBodyCount() ){
+			throw new IllegalArgumentException(args[0] + " was not recorded from the solar system layout");
+		}
+		TrajectorySearch search = new TrajectorySearch(trajectory);
+		long start = System.nanoTime();
+		List<TrajectoryEvent> events;
+		if( args[1].equals("approach") ){
+			events = search.closeApproaches(null, null, Float.parseFloat(args[2]));
+		}else if( args[1].equals("conjunction") ){
+			float angle = (float)Math.toRadians(Double.parseDouble(args[2]));
+			events = search.conjunctions(SolarSystemLayout.indexOf("earth"), null, angle);
+		}else if( args[1].equals("eclipse") ){
+			events = search.eclipses(0, null, null, SolarSystemLayout.radii());
+		}else{
+			throw new IllegalArgumentException("Unknown search " + args[1]);
+		}
+		double seconds = (System.nanoTime() - start) * 1e-9;
+		for( TrajectoryEvent event : events ){
+			System.out.println(event);
+		}
+		System.out.println(events.size() + " events in " + trajectory.getFrameCount() + " frames, searched in " + seconds + " s");
+	}
+
+}
@@ -0,0 +1,290 @@
+package code.simulation;
+
+/**
+ * World placement of every body of a kernel as it is displayed: between the
+ * last two steps, offset by the origin of the hierarchy.
+ *
+ * Computed once per frame by {@link #update(SimulationKernel, float, float, float, float)}
+ * into flat arrays indexed by slot, walking the hierarchy in its pre-order
+ * so that parents are always placed first. Later updates with the same
+ * kernel state, alpha and origin return immediately. Subtrees which cannot
+ * move (no orbit or axis speed anywhere in them) keep their placement from
+ * the last update until the kernel is changed.
+ *
+ * Every body has two frames rotated along Y: the orbit frame its children
+ * are placed in, and the body frame which adds the rotation along its own
+ * axis. Culling, picking and the like read the results through the getters
+ * instead of recomputing them.
+ */
+public class WorldTransforms {
+
+	private int count = 0;
+	// Pre-order of the hierarchy and parents, as in the kernel at the last update
+	private int[] order = new int[0];
+	private int[] parent = new int[0];
+	private int[] subtreeSize = new int[0];
+
+	private float[] x = new float[0], y = new float[0], z = new float[0];
+	private float[] frameCos = new float[0], frameSin = new float[0];
+	private float[] bodyCos = new float[0], bodySin = new float[0];
+	private float[] radius = new float[0];
+	private float[] orbit = new float[0];
+
+	// Body does not move by itself, and neither does any body of its subtree
+	private boolean[] fixed = new boolean[0];
+	private boolean[] fixedSubtree = new boolean[0];
+
+	// What the current results were computed from
+	private SimulationKernel source = null;
+	private int revision = -1;
+	private long stepCount = -1;
+	private float alpha = Float.NaN;
+	private float originX, originY, originZ;
+
+	private int updated = 0;
+	private boolean worldDriven = false;
+	// Changes whenever a body was placed
+	private long version = 0;
+
+	/**
+	 * Places all bodies which may have moved since the last update.
+	 * @param alpha Position between the previous (0) and the current (1) step.
+	 * @param originX Position of the hierarchy root frame in the world.
+	 */
+	public void update(SimulationKernel kernel, float alpha, float originX, float originY, float originZ){
+		boolean sameParameters = kernel == source && kernel.revision == revision && !kernel.topologyDirty;
+		boolean sameOrigin = originX == this.originX && originY == this.originY && originZ == this.originZ;
+		if( sameParameters && sameOrigin && kernel.stepCount == stepCount && alpha == this.alpha ){
+			updated = 0;
+			return;
+		}
+		// Static subtrees keep their placement only while nothing but time changed
+		boolean skipFixed = sameParameters && sameOrigin;
+		if( !sameParameters ){
+			rebuild(kernel);
+		}
+		source = kernel;
+		revision = kernel.revision;
+		stepCount = kernel.stepCount;
+		this.alpha = alpha;
+		this.originX = originX;
+		this.originY = originY;
+		this.originZ = originZ;
+
+		updated = 0;
+		worldDriven = kernel.worldDriven;
+		for( int k = 0; k < count; ){
+			int i = order[k];
+			if( skipFixed && fixedSubtree[i] ){
+				k += subtreeSize[i];
+				continue;
+			}
+			if( !(skipFixed && fixed[i]) ){
+				place(kernel, i, worldDriven);
+				updated++;
+			}
+			k++;
+		}
+		if( updated > 0 ){
+			version++;
+		}
+	}
+
+	private void place(SimulationKernel kernel, int i, boolean worldDriven){
+		int p = parent[i];
+		float axis = kernel.getAxisRotation(i, alpha) * 2.f;
+		if( worldDriven ){
+			// Propagators place bodies directly, frames are not rotated along the hierarchy
+			x[i] = originX + kernel.getWorldX(i, alpha);
+			y[i] = originY + kernel.getWorldY(i, alpha);
+			z[i] = originZ + kernel.getWorldZ(i, alpha);
+			frameCos[i] = 1.f;
+			frameSin[i] = 0.f;
+		}else{
+			float px = originX, py = originY, pz = originZ, pc = 1.f, ps = 0.f;
+			if( p != SimulationKernel.NO_PARENT ){
+				px = x[p];
+				py = y[p];
+				pz = z[p];
+				pc = frameCos[p];
+				ps = frameSin[p];
+			}
+			float angle = kernel.getOrbitRotation(i, alpha);
+			float c = (float)Math.cos(angle), s = (float)Math.sin(angle);
+			float wc = pc * c - ps * s;
+			float ws = ps * c + pc * s;
+			float r = kernel.orbitRadius[i];
+			float ox = kernel.offsetX[i], oy = kernel.offsetY[i], oz = kernel.offsetZ[i];
+			x[i] = px + pc * ox + ps * oz - wc * r;
+			y[i] = py + oy;
+			z[i] = pz - ps * ox + pc * oz + ws * r;
+			frameCos[i] = wc;
+			frameSin[i] = ws;
+		}
+		float ac = (float)Math.cos(axis), as = (float)Math.sin(axis);
+		bodyCos[i] = frameCos[i] * ac - frameSin[i] * as;
+		bodySin[i] = frameSin[i] * ac + frameCos[i] * as;
+		radius[i] = kernel.radius[i];
+		orbit[i] = kernel.orbitRadius[i];
+	}
+
+	/**
+	 * Copies the hierarchy and finds the subtrees which do not move.
+	 */
+	private void rebuild(SimulationKernel kernel){
+		if( kernel.topologyDirty ){
+			kernel.rebuildOrder();
+		}
+		count = kernel.count;
+		if( order.length < count ){
+			order = new int[count];
+			parent = new int[count];
+			subtreeSize = new int[count];
+			x = new float[count];
+			y = new float[count];
+			z = new float[count];
+			frameCos = new float[count];
+			frameSin = new float[count];
+			bodyCos = new float[count];
+			bodySin = new float[count];
+			radius = new float[count];
+			orbit = new float[count];
+			fixed = new boolean[count];
+			fixedSubtree = new boolean[count];
+		}
+		System.arraycopy(kernel.order, 0, order, 0, count);
+		System.arraycopy(kernel.parent, 0, parent, 0, count);
+		System.arraycopy(kernel.subtreeSize, 0, subtreeSize, 0, count);
+
+		for( int k = 0; k < count; k++ ){
+			int i = order[k];
+			int p = parent[i];
+			fixed[i] = !kernel.worldDriven && kernel.orbitRotationSpeed[i] == 0.f && kernel.axisRotationSpeed[i] == 0.f
+					&& (p == SimulationKernel.NO_PARENT || fixed[p]);
+			fixedSubtree[i] = fixed[i];
+		}
+		// Children come after their parent, going backwards every subtree is complete when its root is reached
+		for( int k = count - 1; k >= 0; k-- ){
+			int i = order[k];
+			int p = parent[i];
+			if( p != SimulationKernel.NO_PARENT && !fixedSubtree[i] ){
+				fixedSubtree[p] = false;
+			}
+		}
+	}
+
+	/**
+	 * @return True if the bodies were placed by a propagator rather than along their orbits.
+	 */
+	public boolean isWorldDriven() {
+		return worldDriven;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Body at the given position of the pre-order, parents come before their children.
+	 */
+	public int getOrder(int k) {
+		return order[k];
+	}
+
+	public int getParent(int body) {
+		return parent[body];
+	}
+
+	/**
+	 * @return Number of bodies in the subtree of a body, itself included. The subtree
+	 * follows the body in the pre-order.
+	 */
+	public int getSubtreeSize(int body) {
+		return subtreeSize[body];
+	}
+
+	public float getX(int body) {
+		return x[body];
+	}
+
+	public float getY(int body) {
+		return y[body];
+	}
+
+	public float getZ(int body) {
+		return z[body];
+	}
+
+	public float getRadius(int body) {
+		return radius[body];
+	}
+
+	public float getOrbitRadius(int body) {
+		return orbit[body];
+	}
+
+	/**
+	 * @return Centre of the orbit circle of a body, in the plane of its parent frame.
+	 * Only meaningful while the kernel is not world-driven.
+	 */
+	public float getOrbitX(int body) {
+		return x[body] + frameCos[body] * orbit[body];
+	}
+
+	public float getOrbitY(int body) {
+		return y[body];
+	}
+
+	public float getOrbitZ(int body) {
+		return z[body] - frameSin[body] * orbit[body];
+	}
+
+	/**
+	 * @return Cosine of the rotation along Y of the frame the children of the body are placed in.
+	 */
+	public float getFrameCos(int body) {
+		return frameCos[body];
+	}
+
+	public float getFrameSin(int body) {
+		return frameSin[body];
+	}
+
+	/**
+	 * @return Cosine of the rotation along Y of the body itself, frame and own axis.
+	 */
+	public float getBodyCos(int body) {
+		return bodyCos[body];
+	}
+
+	public float getBodySin(int body) {
+		return bodySin[body];
+	}
+
+	/**
+	 * Body to world matrix without scale, rotation along Y then translation.
+	 * @param out Receives 12 values, row-major 3x4.
+	 */
+	public void getMatrix(int body, float[] out) {
+		float c = bodyCos[body], s = bodySin[body];
+		out[0] = c;    out[1] = 0.f; out[2] = s;   out[3] = x[body];
+		out[4] = 0.f;  out[5] = 1.f; out[6] = 0.f; out[7] = y[body];
+		out[8] = -s;   out[9] = 0.f; out[10] = c;  out[11] = z[body];
+	}
+
+	/**
+	 * @return Number of bodies placed by the last update, the others were still valid.
+	 */
+	public int getUpdatedCount() {
+		return updated;
+	}
+
+	/**
+	 * @return Number that changes whenever an update placed any body, so that
+	 * results derived from the placement know when to recompute.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+}
@@ -0,0 +1,31 @@
+package code.simulation;
+
+/**
+ * Fourth order symplectic integration (Yoshida 1990), a composition of three
+ * leapfrog steps of lengths w1, w0 and w1 times the step. Costs three force
+ * evaluations per step.
+ */
+public class YoshidaIntegrator implements Integrator {
+
+	private static final double CBRT2 = Math.cbrt(2.0);
+	static final double W1 = 1.0 / (2.0 - CBRT2);
+	static final double W0 = -CBRT2 / (2.0 - CBRT2);
+
+	@Override
+	public void step(NBodyState state, ForceModel forces, double dt){
+		LeapfrogIntegrator.kickDriftKick(state, forces, W1 * dt);
+		LeapfrogIntegrator.kickDriftKick(state, forces, W0 * dt);
+		LeapfrogIntegrator.kickDriftKick(state, forces, W1 * dt);
+	}
+
+	@Override
+	public int getForceEvaluations(){
+		return 3;
+	}
+
+	@Override
+	public String getName(){
+		return "Yoshida4";
+	}
+
+}
@@ -0,0 +1,6 @@
+/**
+ * Headless simulation of celestial systems. Classes in this package do not
+ * depend on a {@linkplain framework.engine.Scene Scene} and can be run without a window.
+ * @see code.solarsystem
+ */
+package code.simulation;
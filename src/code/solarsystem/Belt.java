@@ -0,0 +1,154 @@
+package code.solarsystem;
+
+import code.simulation.ParticleBelt;
+import framework.engine.Scene;
+import processing.core.PShape;
+import processing.opengl.PShader;
+
+/**
+ * Belt of small bodies around a celestial object, e.g. the asteroid belt
+ * between Mars and Jupiter. Added to a celestial object like a moon, the
+ * belt then moves with it.
+ *
+ * Rocks are not celestial objects: their state is kept in a {@link ParticleBelt}
+ * and all of them are drawn with one retained shape in a single draw call.
+ * The shape never changes, every rock is a small quad holding its orbit and
+ * the vertex shader places it at the time of the frame. Only the time and
+ * the size of a rock on the screen are sent every frame.
+ */
+public class Belt extends CelestialHierarchy {
+
+	// Simulated seconds after which orbit angles are taken again from the
+	// particles, the time sent to the shader stays small enough for floats
+	static final double EPOCH_LENGTH = 1024.0;
+
+	static final String[] VERTEX_SHADER = {
+		"#define PROCESSING_POLYGON_SHADER",
+		"uniform mat4 transformMatrix;",
+		"uniform float time;",
+		// Half a rock in clip space per unit of w
+		"uniform vec2 pixel;",
+		// Corner of the quad in x and y
+		"attribute vec4 position;",
+		"attribute vec4 color;",
+		// Radius, angle at the epoch, angular speed, height
+		"attribute vec4 orbit;",
+		"attribute float phase;",
+		"varying vec4 vertColor;",
+		"void main(){",
+		// Placed like ParticleBelt does, -radius on X at angle 0
+		"  float a = orbit.y + orbit.z * time;",
+		"  vec4 p = vec4(-orbit.x * cos(a), orbit.w * sin(a + phase), orbit.x * sin(a), 1.0);",
+		"  gl_Position = transformMatrix * p;",
+		"  gl_Position.xy += position.xy * pixel * gl_Position.w;",
+		"  vertColor = color;",
+		"}"
+	};
+	static final String[] FRAGMENT_SHADER = {
+		"#ifdef GL_ES",
+		"precision mediump float;",
+		"#endif",
+		"varying vec4 vertColor;",
+		"void main(){",
+		"  gl_FragColor = vertColor;",
+		"}"
+	};
+
+	ParticleBelt particles;
+
+	// All rocks as quads, built again for every epoch
+	PShape rocks = null;
+	PShader shader = null;
+	double epoch = 0.0;
+	int colour;
+	float pointSize = 1.5f;
+
+	/**
+	 * @param count Number of rocks.
+	 * @param innerRadius Inner edge of the belt.
+	 * @param outerRadius Outer edge of the belt.
+	 * @param thickness Largest distance of a rock above or below the orbit plane.
+	 * @param innerSpeed Angular speed at the inner edge.
+	 * @param seed Same seed gives the same belt.
+	 */
+	public Belt(Scene parent, int count, float innerRadius, float outerRadius, float thickness, float innerSpeed, long seed) {
+		super(parent);
+		particles = new ParticleBelt(count);
+		particles.generate(innerRadius, outerRadius, thickness, innerSpeed, seed);
+		colour = parent.color(160, 150, 140);
+	}
+
+	@Override
+	public void update(float dT) {
+		particles.step(dT);
+		super.update(dT);
+	}
+
+	/**
+	 * Draws all rocks in the frame of the object the belt orbits, unless the
+	 * whole belt is out of view. Rocks are placed in between the last two
+	 * steps, like the bodies.
+	 */
+	@Override
+	protected void hierarchicalDisplay() {
+		float x = parent.modelX(0.f, 0.f, 0.f), y = parent.modelY(0.f, 0.f, 0.f), z = parent.modelZ(0.f, 0.f, 0.f);
+		if( particles.getCount() == 0 || !parent.getFrustum().isVisible(x, y, z, particles.getBoundingRadius()) ){
+			super.hierarchicalDisplay();
+			return;
+		}
+		double time = particles.getTime(parent.getInterpolationAlpha());
+		if( rocks == null || Math.abs(time - epoch) > EPOCH_LENGTH ){
+			epoch = time;
+			rocks = createRocks();
+		}
+		if( shader == null ){
+			shader = new PShader(parent, VERTEX_SHADER, FRAGMENT_SHADER);
+		}
+		shader.set("time", (float)(time - epoch));
+		shader.set("pixel", pointSize / parent.width, pointSize / parent.height);
+		parent.shader(shader);
+		parent.shape(rocks);
+		parent.resetShader();
+
+		super.hierarchicalDisplay();
+	}
+
+	/**
+	 * Quads of all rocks with their orbits, angles advanced to the epoch.
+	 */
+	private PShape createRocks(){
+		PShape shape = parent.createShape();
+		shape.beginShape(Scene.QUADS);
+		shape.noStroke();
+		shape.fill(colour);
+		for( int i = 0; i < particles.getCount(); i++ ){
+			double angle = particles.getAngle(i) + particles.getSpeed(i) * epoch;
+			angle -= 2.0 * Math.PI * Math.floor(angle / (2.0 * Math.PI));
+			for( int corner = 0; corner < 4; corner++ ){
+				shape.attrib("orbit", particles.getRadius(i), (float)angle, particles.getSpeed(i), particles.getHeight(i));
+				shape.attrib("phase", particles.getPhase(i));
+				shape.vertex(corner == 0 || corner == 3 ? -1.f : 1.f, corner < 2 ? -1.f : 1.f, 0.f);
+			}
+		}
+		shape.endShape();
+		return shape;
+	}
+
+	public ParticleBelt getParticles() {
+		return particles;
+	}
+
+	public void setColour(int r, int g, int b) {
+		colour = parent.color(r, g, b);
+		// Built again with the colour when next drawn
+		rocks = null;
+	}
+
+	/**
+	 * @param pointSize Size of a rock on the screen, in pixels.
+	 */
+	public void setPointSize(float pointSize) {
+		this.pointSize = pointSize;
+	}
+
+}
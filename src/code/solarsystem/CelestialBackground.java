@@ -15,17 +15,26 @@ public class CelestialBackground extends CelestialObject {
 	}
 
 	/**
-	 * Grabs the current camera from what is assumed is MyScene
-	 * and adjusts position accordingly.
+	 * Nothing moves between frames, the background follows the camera once
+	 * per frame in {@link #display()}.
 	 */
 	@Override
 	public void update(float dT) {
+	}
+
+	/**
+	 * Grabs the current camera from what is assumed is MyScene
+	 * and adjusts position accordingly before drawing.
+	 */
+	@Override
+	public void display() {
 		// TODO Scene class should be refactored to accommodate this.
 		Camera camera = ((SolarSystemScene)parent).getCamera();
 		if( camera != null ){
 			PVector camPos = camera.getEye();
 			this.position(camPos.x, camPos.y, camPos.z);	
 		}
+		super.display();
 	}
 
 }
@@ -1,35 +1,41 @@
 package code.solarsystem;
 
+import java.util.SplittableRandom;
+
+import code.simulation.SimulationKernel;
+import framework.engine.AssetCache;
 import framework.engine.Scene;
-import processing.core.PApplet;
 import processing.core.PImage;
 import processing.core.PShape;
+import processing.core.PVector;
 
 /**
  * Represents a visible celestial object, e.g. a sun or a planet.
  * Has options for displaying the object with its ring or to display
  * its orbit.
  * Some objects emmit light so it is easier not to use lighing on them.
+ * 
+ * Orbit and axis state is not kept here but in one slot of a {@link SimulationKernel},
+ * this object is only a view over that slot.
  */
 public class CelestialObject extends CelestialHierarchy {
 	
-	// The actual 3D object representing the celestial object
-	PShape sphere = null;
+	// Model of the celestial object, lends its texture or colour to the sphere that is drawn
+	AssetCache.Model model = null;
 	
-	// Name, determines image/object file names
+	// Name of the body
 	String name = "";
+	// Name of the model and texture files, several objects may share them
+	String asset = "";
+	// Assets are loaded by bindAssets(), not when the object is created
+	boolean assetsBound = false;
 	
-	// Distance from the centre of the hierarchy
-	float orbitRadius;	
-	// Current angle of rotation along the orbit axis (Y)
-	float orbitRotation;
-	// Speed of orbiting
-	float orbitRotationSpeed;
-	
-	// Current angle of rotation along own axis
-	float axisRotation;
-	// Speed of rotation
-	float axisRotationSpeed;
+	// Simulation state holding orbit radius, orbit/axis angles and their speeds
+	final SimulationKernel kernel;
+	// Slot of this object in the kernel
+	final int slot;
+	// True when the kernel was created for this object alone and is advanced by it
+	final boolean ownsKernel;
 	
 	// Colour of an untextured sphere and of the orbit, default is white
 	int colour;
@@ -39,46 +45,144 @@ public class CelestialObject extends CelestialHierarchy {
 	
 	// Used for planets that have rings, used for Saturn
 	boolean hasRings = false;
-	// Texture is loaded using the celestial object name member
+	// Texture is loaded using the celestial object asset member
 	PImage ringTexture = null;
+	String ringFile = null;
 	
 	// Toggles simple orbit drawing
 	boolean drawOrbit = false;
-	// A shared ellipsis shape used to draw orbits
-	static PShape orbit = null;
+	// Orbits of the children of this object, drawn together in its frame
+	OrbitBatch childOrbits = null;
+	// Orbit of this object when no parent in its kernel draws it
+	OrbitBatch ownOrbit = null;
+	
+	// Selected objects are marked with a white ring around them, relative to their radius
+	static final float MARKER_SCALE = 1.5f;
+	static final int MARKER_COLOUR = 0xFFFFFFFF;
+	boolean selected = false;
+	OrbitBatch marker = null;
 	
+	// Decides per frame what of this object is in view, everything is drawn without it
+	ViewCulling culling = null;
+	// Level of detail of the sphere, kept between frames for hysteresis
+	int sphereLevel = -1;
+	
+	/**
+	 * Creates an object with its own simulation kernel.
+	 */
 	public CelestialObject(Scene parent, float orbitRadius, float size, String name){
+		this(parent, new SimulationKernel(1), true, orbitRadius, size, name, name);
+		bindAssets();
+	}
+	
+	/**
+	 * Creates an object in a shared simulation kernel. The kernel has to be
+	 * advanced by its owner, e.g. the {@link SolarSystem}.
+	 */
+	public CelestialObject(Scene parent, SimulationKernel kernel, float orbitRadius, float size, String name){
+		this(parent, kernel, false, orbitRadius, size, name, name);
+		bindAssets();
+	}
+	
+	/**
+	 * Creates an object in a shared simulation kernel without loading its
+	 * assets yet, they are loaded by {@link #bindAssets()}.
+	 * @param asset Name of the model and texture files.
+	 */
+	public CelestialObject(Scene parent, SimulationKernel kernel, float orbitRadius, float size, String name, String asset){
+		this(parent, kernel, false, orbitRadius, size, name, asset);
+	}
+	
+	private CelestialObject(Scene parent, SimulationKernel kernel, boolean ownsKernel, float orbitRadius, float size,
+			String name, String asset){
 		super(parent);
+		this.kernel = kernel;
+		this.slot = kernel.addBody();
+		this.ownsKernel = ownsKernel;
 		setOrbitRadius(orbitRadius);
 		size(size);
 		this.name = name;
+		this.asset = asset;
 		setColour(255, 255, 255);
-		
-		// Try loading the object. Path is absolute due to errors
-		// in loading material files when relative.
+	}
+	
+	/**
+	 * Takes the model, and the ring texture when the object has rings, from
+	 * the asset cache of the scene. Bodies with the same geometry share one
+	 * mesh and bodies with the same asset share their texture.
+	 */
+	public void bindAssets(){
+		releaseAssets();
 		try{
-			sphere = parent.loadShape("data/"+name+".obj");
+			model = parent.getAssets().acquireModel("data/"+asset+".obj");
 		}catch(Exception e){
-			sphere = null;
+			model = null;
 		}
-		
-		// Initial setup of the static member
-		if( orbit == null ){
-			orbit = createOrbitRing(parent);
+		assetsBound = true;
+		setHasRings(hasRings);
+	}
+	
+	/**
+	 * Returns the model and textures to the asset cache, the object is
+	 * drawn as a plain sphere until its assets are bound again.
+	 */
+	public void releaseAssets(){
+		if( model != null ){
+			parent.getAssets().release(model);
+			model = null;
 		}
+		assetsBound = false;
+		setHasRings(hasRings);
+	}
+	
+	/**
+	 * Children sharing the kernel are also linked in the kernel hierarchy.
+	 */
+	@Override
+	public void addCelestialObject( CelestialHierarchy cHierarchy ){
+		super.addCelestialObject(cHierarchy);
+		if( isKernelChild(cHierarchy) ){
+			kernel.setParent(((CelestialObject)cHierarchy).slot, slot);
+		}
+	}
+	
+	/**
+	 * @return True if the element is advanced together with this object by the shared kernel.
+	 */
+	private boolean isKernelChild( CelestialHierarchy cHierarchy ){
+		return cHierarchy instanceof CelestialObject && ((CelestialObject)cHierarchy).kernel == kernel;
 	}
 	
 	/**
 	 * When rings are activated, celestial object will try to load
-	 * the ring texture (not before).
+	 * the ring texture (not before, nor before its assets are bound).
 	 */
 	public void setHasRings( boolean hasRings ){
 		this.hasRings = hasRings;
-		if( hasRings ){
-			ringTexture = parent.loadImage("data/" + name + "_rings.png");
-		}else{
+		if( hasRings && assetsBound ){
+			if( ringFile == null ){
+				ringFile = "data/" + asset + "_rings.png";
+				ringTexture = parent.getAssets().acquireTexture(ringFile);
+				if( ringTexture == null ){
+					ringFile = null;
+				}
+			}
+		}else if( ringFile != null ){
+			parent.getAssets().releaseTexture(ringFile);
+			ringFile = null;
 			ringTexture = null;
 		}
+		if( culling != null ){
+			culling.setExtent(slot, ringTexture != null ? ViewCulling.RING_EXTENT : 1.f);
+		}
+	}
+	
+	/**
+	 * Lets a culling pass over the kernel decide what of this object is drawn.
+	 */
+	void setCulling( ViewCulling culling ){
+		this.culling = culling;
+		setHasRings(hasRings);
 	}
 	
 	/**
@@ -101,12 +205,31 @@ public class CelestialObject extends CelestialHierarchy {
 		return drawOrbit;
 	}
 	
+	public boolean isSelected(){
+		return selected;
+	}
+	
+	/**
+	 * @param selected If true, a ring is drawn around the object.
+	 */
+	public void setSelected( boolean selected ){
+		this.selected = selected;
+	}
+	
 	/**
 	 * Setup orbit/axis angles with random values. To make it more interesting.
 	 */
 	public void randomiseInitialAngles(){
-		setOrbitRotation( (float)(Math.random() * Math.PI * 2.0f) );
-		setAxisRotation( (float)(Math.random() * Math.PI * 2.0f) );
+		randomiseInitialAngles(new SplittableRandom());
+	}
+	
+	/**
+	 * Setup orbit/axis angles with values drawn from the given generator,
+	 * the same seed gives the same angles.
+	 */
+	public void randomiseInitialAngles( SplittableRandom random ){
+		setOrbitRotation( (float)(random.nextDouble() * Math.PI * 2.0f) );
+		setAxisRotation( (float)(random.nextDouble() * Math.PI * 2.0f) );
 	}
 	
 	/**
@@ -121,9 +244,18 @@ public class CelestialObject extends CelestialHierarchy {
 	 * @param factor PI angular speed factor.
 	 * @param sameDirection If true, all speeds will be generated positive.
 	 */
-	public void randomiseInitialSpeeds( float factor, boolean sameDirection ){		
-		double randomOne = sameDirection ? Math.random() : ((Math.random()-0.5f) * 2.0f);
-		double randomTwo = sameDirection ? Math.random() : ((Math.random()-0.5f) * 2.0f);
+	public void randomiseInitialSpeeds( float factor, boolean sameDirection ){
+		randomiseInitialSpeeds(factor, sameDirection, new SplittableRandom());
+	}
+	
+	/**
+	 * Will setup orbiting and rotating speeds with values drawn from the given generator.
+	 * @param factor PI angular speed factor.
+	 * @param sameDirection If true, all speeds will be generated positive.
+	 */
+	public void randomiseInitialSpeeds( float factor, boolean sameDirection, SplittableRandom random ){		
+		double randomOne = sameDirection ? random.nextDouble() : ((random.nextDouble()-0.5f) * 2.0f);
+		double randomTwo = sameDirection ? random.nextDouble() : ((random.nextDouble()-0.5f) * 2.0f);
 		
 		setOrbitRotationSpeed( (float)(randomOne * Math.PI * factor) );
 		setAxisRotationSpeed( (float)(randomTwo * Math.PI * factor) );
@@ -142,25 +274,36 @@ public class CelestialObject extends CelestialHierarchy {
 	 * @param sameDirection Parameter for randomiseInitialSpeeds.
 	 */
 	public void hierarchyRandomSpeed( float factor, boolean sameDirection ){
-		randomiseInitialSpeeds(factor, sameDirection);
+		hierarchyRandomSpeed(factor, sameDirection, new SplittableRandom());
+	}
+	
+	/**
+	 * Setup random speeds in the whole hierarchy, drawn in hierarchy order
+	 * from one generator so that a seed always gives the same system.
+	 */
+	public void hierarchyRandomSpeed( float factor, boolean sameDirection, SplittableRandom random ){
+		randomiseInitialSpeeds(factor, sameDirection, random);
 		for( CelestialHierarchy cHierarchy : system ){
 			if( cHierarchy instanceof CelestialObject ){
-				((CelestialObject)cHierarchy).hierarchyRandomSpeed(factor, sameDirection);
+				((CelestialObject)cHierarchy).hierarchyRandomSpeed(factor, sameDirection, random);
 			}
 		}
 	}
 	
+	/**
+	 * Advances the kernel if this object owns it. Elements of the hierarchy
+	 * that are not part of the kernel are updated as usual.
+	 */
 	@Override
 	public void update(float dT) {
-		super.update(dT);	
-		
-		axisRotation += axisRotationSpeed*dT;
-		if (axisRotation > Scene.TWO_PI)
-			axisRotation -= Scene.TWO_PI;
-		
-		orbitRotation += orbitRotationSpeed*dT;
-		if (orbitRotation > Scene.TWO_PI)
-			axisRotation -= Scene.TWO_PI;
+		if( ownsKernel ){
+			kernel.step(dT);
+		}
+		for( CelestialHierarchy cHierarchy : system ){
+			if( !isKernelChild(cHierarchy) ){
+				cHierarchy.update(dT);
+			}
+		}
 	}
 	
 	@Override
@@ -175,86 +318,107 @@ public class CelestialObject extends CelestialHierarchy {
 	 * Displays rings if needed.
 	 */
 	protected void hierarchicalDisplay(){	
+		// Display in between the last two simulation steps
+		float alpha = parent.getInterpolationAlpha();
+		float orbitRadius = getOrbitRadius();
+		float offsetX = kernel.getOffsetX(slot);
+		float offsetY = kernel.getOffsetY(slot);
+		float offsetZ = kernel.getOffsetZ(slot);
+		int visible = culling == null ? ViewCulling.ALL : culling.getFlags(slot);
 
-		if( drawOrbit ){
-			parent.pushMatrix();
-			
-			// Position on the location of the planet
-			parent.translate(pos.x,pos.y,pos.z);
-			parent.translate(-orbitRadius, 0.f, -orbitRadius);
-
-			// The generated ellipsis is rotated along the X-axis
-			parent.rotateX(Scene.HALF_PI);
-			// Scale to the orbit size
-			parent.scale(orbitRadius * 2);
-			orbit.setStroke(colour);
-			parent.shape(orbit);
-			
-			parent.popMatrix();
+		// Orbits only make sense while bodies follow them, the parent draws them unless there is none
+		if( !kernel.isWorldDriven() && kernel.getParent(slot) == SimulationKernel.NO_PARENT ){
+			if( ownOrbit == null ){
+				ownOrbit = new OrbitBatch();
+			}
+			ownOrbit.begin();
+			queueOrbits(ownOrbit, addOrbit(ownOrbit));
 		}
 				
 		parent.pushMatrix();
 		parent.pushStyle();
 			
-			// Translate the system in its position
-			parent.translate(pos.x,pos.y,pos.z);
-			parent.rotateY(orbitRotation);
-			parent.translate(-orbitRadius, 0.f, 0.0f);
+			if( kernel.isWorldDriven() ){
+				// Bodies are placed by a propagator, move from the parent to the world position
+				int parentSlot = kernel.getParent(slot);
+				float x = kernel.getWorldX(slot, alpha), y = kernel.getWorldY(slot, alpha), z = kernel.getWorldZ(slot, alpha);
+				if( parentSlot != SimulationKernel.NO_PARENT ){
+					x -= kernel.getWorldX(parentSlot, alpha);
+					y -= kernel.getWorldY(parentSlot, alpha);
+					z -= kernel.getWorldZ(parentSlot, alpha);
+				}
+				parent.translate(x, y, z);
+			}else{
+				// Translate the system in its position
+				parent.translate(offsetX,offsetY,offsetZ);
+				parent.rotateY(kernel.getOrbitRotation(slot, alpha));
+				parent.translate(-orbitRadius, 0.f, 0.0f);
+			}
 			
 			// Display remainder of the hierarchy before we draw the planet/sun sphere
-			super.hierarchicalDisplay();
+			if( (visible & ViewCulling.SUBTREE) != 0 ){
+				if( !kernel.isWorldDriven() ){
+					displayChildOrbits();
+				}
+				super.hierarchicalDisplay();
+			}else{
+				// Only bodies of the kernel are within the culled bounds
+				for( CelestialHierarchy cHierarchy : system ){
+					if( !isKernelChild(cHierarchy) ){
+						cHierarchy.hierarchicalDisplay();
+					}
+				}
+			}
+
+			// Radius in the kernel grows when bodies merge and is 0 once absorbed
+			float radius = kernel.getRadius(slot);
+			float scaleRadius = Math.max(scale.x, Math.max(scale.y, scale.z));
+			float grow = scaleRadius > 0.f ? radius / scaleRadius : 0.f;
+			if( grow <= 0.f || (visible & (ViewCulling.BODY | ViewCulling.POINT)) == 0 ){
+				parent.popStyle();
+				parent.popMatrix();
+				return;
+			}
+			if( selected ){
+				displayMarker(radius);
+			}
+			if( (visible & ViewCulling.BODY) == 0 ){
+				// Less than a pixel on the screen, a point is all that shows
+				parent.stroke(colour);
+				parent.strokeWeight(2.f);
+				parent.point(0.f, 0.f, 0.f);
+				parent.popStyle();
+				parent.popMatrix();
+				return;
+			}
 
-			// Turn off lighting for unlighted celestial objects
-			if( !isLighted ){
-				parent.noLights();
-			}		
 			parent.pushMatrix();
 			
 			// Apply axis rotations
-			parent.rotateY(axisRotation * 2);
-			parent.scale(scale.x,scale.y,scale.z);
+			parent.rotateY(kernel.getAxisRotation(slot, alpha) * 2);
+			parent.scale(scale.x * grow,scale.y * grow,scale.z * grow);
 			
-			// Draw either the loaded 3D object or use the default sphere drawing
-			if( sphere != null ){
-				parent.shape(sphere);
+			// Bodies are spheres as detailed as their size on the screen needs,
+			// with the material of the loaded model or in their colour without one.
+			// They are queued, unlighted ones are drawn together once all lit ones are
+			float pixels = culling == null ? Float.POSITIVE_INFINITY : culling.getScreenRadius(slot);
+			sphereLevel = AssetCache.sphereLevel(pixels, sphereLevel);
+			if( model != null ){
+				parent.getRenderQueue().add(parent.getAssets().sphere(sphereLevel, model), model.getTexture(), isLighted);
 			}else{
-				// Default sphere drawing does not support texturing!
-				parent.fill(colour);
-				parent.noStroke();
-				parent.sphereDetail(10, 10);
-				parent.sphere(1);
+				parent.getRenderQueue().add(parent.getAssets().sphere(sphereLevel, colour), null, isLighted);
 			}
 			parent.popMatrix();
 			
-			// Turn on the lights again for other systems
-			if( !isLighted ){
-				parent.lights();
-			}
-			
 			// Draw rings when needed and when the texture exists
 			if( hasRings && ringTexture != null ){
-				// Rings are a 2D texture, lighting seems to mess things up not sure why
-				if( isLighted ){
-					parent.noLights();
-				}
-				// Ring is a properly aligned, textured quad
-				parent.beginShape(Scene.QUADS);
-				{
-					parent.texture(ringTexture);
-					float width = size().x * 2;
-
-					parent.noStroke();
-					parent.normal(0.f,0.f,0.f);
-					
-					parent.vertex(width, 0.f, width, 1.0f, 1.0f);    // Vertex coordinate of the top left of the quad
-					parent.vertex(width, 0.f, -width, 1.0f, 0.0f);       // Vertex coordinate of the bottom left of the quad
-					parent.vertex(-width, 0.f, -width, 0.0f, 0.0f);        // Vertex coordinate of the bottom right of the quad			
-					parent.vertex(-width, 0.f, width, 0.0f, 1.0f);     // Vertex coordinate of the top right of the quad
-				}			
-				parent.endShape();
-				if( isLighted ){
-					parent.lights();
-				}
+				// Ring is a properly aligned, textured quad. Rings are a 2D texture,
+				// lighting seems to mess things up not sure why
+				float width = size().x * grow * 2;
+				parent.pushMatrix();
+				parent.scale(width, 1.f, width);
+				parent.getRenderQueue().add(parent.getAssets().quad(ringTexture), ringTexture, false);
+				parent.popMatrix();
 			}
 			
 		parent.popStyle();
@@ -263,47 +427,163 @@ public class CelestialObject extends CelestialHierarchy {
 	}
 	
 	/**
-	 * Will create a simple unit circle.
-	 * @param parent A scene object needed to create the ellipse.
-	 * @return The Circle shape.
+	 * Draws the orbits of all children in the kernel with one shape, in the
+	 * frame of this object they lie in. The shape is drawn when any of them
+	 * may be in view.
 	 */
-	static private PShape createOrbitRing( Scene parent ){
-		parent.sphereDetail(100);
-		PShape orbitRing = parent.createShape(PApplet.ELLIPSE, 0.5f, 0.5f, 1.f, 1.f );
-		orbitRing.setFill(false);
-		orbitRing.setStroke( parent.color(230, 230, 230));
-		orbitRing.setStrokeWeight(1f);
-		orbitRing.set3D(true);
-		return orbitRing;
+	private void displayChildOrbits(){
+		if( childOrbits == null ){
+			childOrbits = new OrbitBatch();
+		}
+		childOrbits.begin();
+		boolean visible = false;
+		for( CelestialHierarchy cHierarchy : system ){
+			if( isKernelChild(cHierarchy) ){
+				visible |= ((CelestialObject)cHierarchy).addOrbit(childOrbits);
+			}
+		}
+		queueOrbits(childOrbits, visible);
+	}
+
+	/**
+	 * Adds the orbit of this object, a circle around its offset, when it is drawn.
+	 * @return True if the orbit may be in view this frame.
+	 */
+	private boolean addOrbit( OrbitBatch batch ){
+		float orbitRadius = getOrbitRadius();
+		if( !drawOrbit || orbitRadius <= 0.f ){
+			return false;
+		}
+		batch.add(kernel.getOffsetX(slot), kernel.getOffsetY(slot), kernel.getOffsetZ(slot), orbitRadius, colour);
+		int visible = culling == null ? ViewCulling.ALL : culling.getFlags(slot);
+		return (visible & ViewCulling.ORBIT) != 0;
+	}
+
+	/**
+	 * Ring around the body in the plane of its orbit, at the current position.
+	 */
+	private void displayMarker( float radius ){
+		if( marker == null ){
+			marker = new OrbitBatch();
+		}
+		marker.begin();
+		marker.add(0.f, 0.f, 0.f, MARKER_SCALE * radius, MARKER_COLOUR);
+		queueOrbits(marker, true);
+	}
+
+	private void queueOrbits( OrbitBatch batch, boolean visible ){
+		PShape shape = batch.end(parent);
+		if( shape != null && visible ){
+			// Lines are never lit, they go with the lit draws
+			parent.getRenderQueue().add(shape, null, true);
+		}
 	}
 		
+	/**
+	 * Position is kept in the kernel as the local offset of this object.
+	 */
+	@Override
+	public void position(float x, float y, float z) {
+		super.position(x, y, z);
+		kernel.setOffset(slot, x, y, z);
+	}
+	
+	@Override
+	public PVector position() {
+		pos.set(kernel.getOffsetX(slot), kernel.getOffsetY(slot), kernel.getOffsetZ(slot));
+		return pos;
+	}
+	
+	/**
+	 * Size also sets the bounding radius of the object in the kernel.
+	 */
+	@Override
+	public void size(float sx, float sy, float sz) {
+		super.size(sx, sy, sz);
+		kernel.setRadius(slot, Math.max(sx, Math.max(sy, sz)));
+	}
+	
+	public SimulationKernel getKernel() {
+		return kernel;
+	}
+	
+	public int getSlot() {
+		return slot;
+	}
+	
+	public float getOrbitRadius() {
+		return kernel.getOrbitRadius(slot);
+	}
+	
 	public void setOrbitRadius(float r) { 
-		this.orbitRadius = r; 
+		kernel.setOrbitRadius(slot, r); 
+	}
+
+	/**
+	 * Sets a Keplerian orbit around the parent, used when the system is
+	 * propagated analytically. Angles are in radians.
+	 * @see code.simulation.KeplerPropagator
+	 */
+	public void setKeplerElements(float semiMajorAxis, float eccentricity, float inclination,
+			float ascendingNode, float periapsis, float meanAnomaly, float meanMotion) {
+		kernel.setKeplerElements(slot, semiMajorAxis, eccentricity, inclination,
+				ascendingNode, periapsis, meanAnomaly, meanMotion);
 	}
 
 	public void setLighted(boolean isLighted) {
 		this.isLighted = isLighted;
 	}
 
+	public float getAxisRotation() {
+		return kernel.getAxisRotation(slot);
+	}
+
 	public void setAxisRotation(float axisRotation) {
-		this.axisRotation = axisRotation;
+		kernel.setAxisRotation(slot, axisRotation);
+	}
+
+	public float getOrbitRotation() {
+		return kernel.getOrbitRotation(slot);
 	}
 
 	public void setOrbitRotation(float orbitRotation) {
-		this.orbitRotation = orbitRotation;
+		kernel.setOrbitRotation(slot, orbitRotation);
+	}
+
+	public float getAxisRotationSpeed() {
+		return kernel.getAxisRotationSpeed(slot);
 	}
 
 	public void setAxisRotationSpeed(float axisRotationSpeed) {
-		this.axisRotationSpeed = axisRotationSpeed;
+		kernel.setAxisRotationSpeed(slot, axisRotationSpeed);
+	}
+
+	public float getOrbitRotationSpeed() {
+		return kernel.getOrbitRotationSpeed(slot);
 	}
 
 	public void setOrbitRotationSpeed(float orbitRotationSpeed) {
-		this.orbitRotationSpeed = orbitRotationSpeed;
+		kernel.setOrbitRotationSpeed(slot, orbitRotationSpeed);
 	}
 	
 	public void setColour(int r, int g, int b) { 
 		this.colour = parent.color(r,g,b); 
 	}
+	
+	/**
+	 * @param colour Opaque ARGB colour.
+	 */
+	public void setColour(int colour) { 
+		this.colour = colour; 
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String getAsset() {
+		return asset;
+	}
 
 
 }
@@ -0,0 +1,104 @@
+package code.solarsystem;
+
+import java.util.Arrays;
+
+import framework.engine.Scene;
+import processing.core.PShape;
+
+/**
+ * Orbit circles that share a frame, e.g. the orbits of all moons of a
+ * planet, drawn as one retained line shape.
+ *
+ * Every orbit lies in the XZ plane around its centre and keeps its own
+ * colour in its vertices. Orbits are added again every frame, the shape is
+ * only built again when one of them changed, so it stays on the GPU while
+ * the frame it is drawn in moves.
+ */
+class OrbitBatch {
+
+	// Line segments of a circle
+	static final int SEGMENTS = 128;
+	// Centre x, y, z and radius of an orbit
+	private static final int STRIDE = 4;
+
+	private PShape shape = null;
+	// Orbits added since begin()
+	private float[] orbits = new float[0];
+	private int[] colours = new int[0];
+	private int count = 0;
+	// Orbits the shape was built from
+	private float[] builtOrbits = new float[0];
+	private int[] builtColours = new int[0];
+	private int builtCount = 0;
+
+	void begin(){
+		count = 0;
+	}
+
+	void add(float x, float y, float z, float radius, int colour){
+		if( count == colours.length ){
+			int length = Math.max(4, 2 * count);
+			orbits = Arrays.copyOf(orbits, STRIDE * length);
+			colours = Arrays.copyOf(colours, length);
+		}
+		int o = STRIDE * count;
+		orbits[o] = x;
+		orbits[o + 1] = y;
+		orbits[o + 2] = z;
+		orbits[o + 3] = radius;
+		colours[count++] = colour;
+	}
+
+	/**
+	 * @return Shape with the orbits added since {@link #begin()}, null if there are none.
+	 */
+	PShape end(Scene parent){
+		if( count == 0 ){
+			return null;
+		}
+		if( shape == null || !isBuiltFrom() ){
+			shape = build(parent);
+			builtOrbits = Arrays.copyOf(orbits, STRIDE * count);
+			builtColours = Arrays.copyOf(colours, count);
+			builtCount = count;
+		}
+		return shape;
+	}
+
+	private boolean isBuiltFrom(){
+		if( count != builtCount ){
+			return false;
+		}
+		for( int i = 0; i < count; i++ ){
+			if( colours[i] != builtColours[i] ){
+				return false;
+			}
+		}
+		for( int i = 0; i < STRIDE * count; i++ ){
+			if( orbits[i] != builtOrbits[i] ){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private PShape build(Scene parent){
+		PShape lines = parent.createShape();
+		lines.beginShape(Scene.LINES);
+		lines.noFill();
+		lines.strokeWeight(1.f);
+		for( int i = 0; i < count; i++ ){
+			int o = STRIDE * i;
+			float x = orbits[o], y = orbits[o + 1], z = orbits[o + 2], radius = orbits[o + 3];
+			lines.stroke(colours[i]);
+			for( int s = 0; s < SEGMENTS; s++ ){
+				double a = 2.0 * Math.PI * s / SEGMENTS, b = 2.0 * Math.PI * (s + 1) / SEGMENTS;
+				lines.vertex(x + radius * (float)Math.cos(a), y, z + radius * (float)Math.sin(a));
+				lines.vertex(x + radius * (float)Math.cos(b), y, z + radius * (float)Math.sin(b));
+			}
+		}
+		lines.endShape();
+		return lines;
+	}
+
+}
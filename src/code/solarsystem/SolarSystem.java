@@ -1,14 +1,56 @@
 package code.solarsystem;
 
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import code.simulation.Accretion;
+import code.simulation.BoundingVolumeHierarchy;
+import code.simulation.CheckpointReader;
+import code.simulation.CheckpointWriter;
+import code.simulation.CollisionDetector;
+import code.simulation.Ephemeris;
+import code.simulation.EphemerisPropagator;
+import code.simulation.EphemerisWriter;
+import code.simulation.EulerIntegrator;
+import code.simulation.Integrator;
+import code.simulation.KeplerPropagator;
+import code.simulation.LeapfrogIntegrator;
+import code.simulation.NBodyPropagator;
+import code.simulation.RK45Integrator;
+import code.simulation.YoshidaIntegrator;
+import code.simulation.Propagator;
+import code.simulation.Restorable;
+import code.simulation.SimulationHistory;
+import code.simulation.SimulationKernel;
+import code.simulation.SolarSystemLayout;
+import code.simulation.SystemCatalog;
+import code.simulation.Trajectory;
+import code.simulation.TrajectoryPropagator;
+import code.simulation.TrajectoryRecorder;
+import code.simulation.WorldTransforms;
 import framework.engine.Scene;
+import framework.interfaces.Bounded;
 import framework.interfaces.Input;
+import processing.core.PMatrix3D;
 import processing.core.PVector;
+import processing.opengl.PGraphicsOpenGL;
 
 /**
  * Special celestial hierarchy that represents a big portion of our solar
  * system. Contains all planets (+ Pluto) and major moons. Saturn has a ring.
+ * 
+ * All bodies share one {@link SimulationKernel} which is advanced in a single
+ * loop instead of recursively through the hierarchy. The kernel either follows
+ * its kinematic orbits or is driven by a {@link Propagator}, e.g. N-body gravity.
  */
-public class SolarSystem extends CelestialHierarchy implements Input {
+public class SolarSystem extends CelestialHierarchy implements Input, Bounded {
 
 	CelestialObject sun = null;
 	CelestialObject mercury = null;
@@ -21,11 +63,64 @@ public class SolarSystem extends CelestialHierarchy implements Input {
 	CelestialObject uranus = null;
 	CelestialObject neptune = null;
 	CelestialObject pluto = null;
+	Belt asteroidBelt = null;
+	Belt kuiperBelt = null;
+	
+	// State of all celestial objects of the system
+	SimulationKernel kernel = new SimulationKernel(32);
+	// Drives the kernel instead of its kinematic orbits when set
+	Propagator propagator = null;
+	
+	// World placement of all bodies as displayed, computed once per frame
+	WorldTransforms transforms = new WorldTransforms();
+	
+	// What of every body is in view, decided once per frame before anything is drawn
+	ViewCulling culling = new ViewCulling();
+	
+	// Bounding spheres of all bodies for picking, refit whenever the transforms change
+	BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy();
+	// Celestial object of every kernel slot
+	CelestialObject[] objects = null;
+	CelestialObject selected = null;
+	// Where the left button went down, a click only picks when the camera was not dragged
+	int pressX, pressY;
+	
+	// Overlapping bodies are found after every step, merged only when accretion is on
+	CollisionDetector collisions = new CollisionDetector();
+	Accretion accretion = new Accretion(kernel);
+	boolean merging = false;
 	
 	boolean paused = false;
 	
+	// Steps simulated so far, the timeline the history is recorded on
+	long step = 0;
+	// Snapshots every 24 steps in 16 MB, rewound with [ and scrubbed forward with ]
+	SimulationHistory history = new SimulationHistory(16 << 20, 24, 32);
+	float seekSeconds = 1.f;
+	
+	// Whole scene saved with c/C and restored with l/L
+	Path checkpointFile = Paths.get("data", "solarsystem.ckpt");
+	
+	// Random speeds are drawn from this seed, the same seed gives the same system
+	final long seed;
+	
+	// Ephemeris cache replayed with e/E, recorded from the current kinematic orbits unless it starts from them
+	Path ephemerisFile = Paths.get("data", "solarsystem.eph");
+	double ephemerisDuration = 600.0;
+	
+	// Trajectories recorded with r/R and played back with t/T, positions rounded to the quantum
+	Path trajectoryFile = Paths.get("data", "solarsystem.trj");
+	float trajectoryQuantum = 1.f / 1024;
+	int trajectoryChunkFrames = 256;
+	TrajectoryRecorder recorder = null;
+	
 	public SolarSystem(Scene parent) {
+		this(parent, new SplittableRandom().nextLong());
+	}
+	
+	public SolarSystem(Scene parent, long seed) {
 		super(parent);
+		this.seed = seed;
 		// Create planets
 		populateSolarSystem();
 		
@@ -35,10 +130,15 @@ public class SolarSystem extends CelestialHierarchy implements Input {
 		// Reset the sun rotations to a bit more easier pace
 		sun.setAxisRotationSpeed(0.05f);
 		sun.setOrbitRotation(0.0f);
+		
+		// Large generated systems split their subtrees over all cores, small ones stay serial
+		kernel.setPool(ForkJoinPool.commonPool());
+		kernel.updateWorld();
 	}
 	
 	/**
-	 * Create all planets and their moons. Sets things in their proper hierarchies.
+	 * Create all planets and their moons from the catalog, in its order and
+	 * hierarchy. Models and textures are loaded once the hierarchy is complete.
 	 */
 	private void populateSolarSystem(){	
 		if( !(sun == null && system.isEmpty()) ){
@@ -46,105 +146,69 @@ public class SolarSystem extends CelestialHierarchy implements Input {
 		}
 		
 		float distanceStep = 110.0f;
-				
-		sun = new CelestialObject(parent, 0.f, 50.f, "sun");
-		sun.setColour(255, 255, 0);
-		sun.position(0.f, 150.f, 0.f);
-		sun.setAxisRotationSpeed(0.f);
-		// Suns lights are within it so lighting would actually get ignored on it.
-		// Sun looks quite good with texturing only... try and find out what is wrong with the other textured planets
-		sun.setLighted(false);
-		addCelestialObject(sun);
-				
-		mercury = new CelestialObject(parent, distanceStep, 6.2f, "mercury");
-		//mercury.setColour(200,50,0);
-		sun.addCelestialObject(mercury);
-		
-		venus = new CelestialObject(parent, 2.0f * distanceStep, 9.5f, "venus");
-		//venus.setColour(200,200,50);
-		sun.addCelestialObject(venus);
-		
-		earth = new CelestialObject(parent, 3.f * distanceStep, 10.f, "earth");
-		//earth.setColour(0,50,255);
-		sun.addCelestialObject(earth);
-		
-			moon = new CelestialObject(parent, 30.f, 5.f, "moon");
-			moon.setColour(255,255,255);
-			earth.addCelestialObject(moon);
-		
-		mars = new CelestialObject(parent, 4.f * distanceStep, 7.3f, "mars");
-		//mars.setColour(255,0,0);
-		sun.addCelestialObject(mars);
-		
-			// Note, all moons share the same texture/object since they are too small to be seen		
-			CelestialObject phobos = new CelestialObject(parent, 12.f, 1.f, "moon");
-			phobos.setColour(200, 170, 170);
-			mars.addCelestialObject(phobos);
-			
-			CelestialObject deimos = new CelestialObject(parent, 15.f, 1.7f, "moon");
-			deimos.setColour(250, 200, 20);
-			mars.addCelestialObject(deimos);
 		
-		jupiter = new CelestialObject(parent, 5.f * distanceStep, 31.f, "jupiter");
-		//jupiter.setColour(200,180,50);
-		sun.addCelestialObject(jupiter);
-		
-			CelestialObject europa = new CelestialObject(parent, 35.f, 2.f, "moon");
-			europa.setColour(200, 100, 100);
-			jupiter.addCelestialObject(europa);
-			
-			CelestialObject ganymede = new CelestialObject(parent, 40.f, 1.7f, "moon");
-			ganymede.setColour(250, 100, 100);
-			jupiter.addCelestialObject(ganymede);
-			
-			CelestialObject calisto = new CelestialObject(parent, 43.f, 2.1f, "moon");
-			calisto.setColour(200, 200, 200);
-			jupiter.addCelestialObject(calisto);
-			
-			CelestialObject io = new CelestialObject(parent, 46.f, 1.5f, "moon");
-			io.setColour(10, 250, 250);
-			jupiter.addCelestialObject(io);				
-		
-		saturn = new CelestialObject(parent, 6.f * distanceStep, 30.f, "saturn");
-		saturn.setHasRings(true);	// Important not to forget the ring
-		//saturn.setColour(200,18,200);
-		sun.addCelestialObject(saturn);
+		SystemCatalog catalog = SolarSystemLayout.catalog();
+		CelestialObject[] created = new CelestialObject[catalog.getBodyCount()];
+		float[] elements = new float[7];
+		kernel.ensureCapacity(kernel.getBodyCount() + created.length);
+		for( int i = 0; i < created.length; i++ ){
+			CelestialObject object = new CelestialObject(parent, kernel, catalog.getOrbitRadius(i), catalog.getRadius(i),
+					catalog.getName(i), catalog.getAsset(i));
+			object.setColour(catalog.getColour(i));
+			// Suns lights are within it so lighting would actually get ignored on it.
+			object.setLighted(catalog.isLighted(i));
+			object.setHasRings(catalog.hasRings(i));
+			if( catalog.getOffsetX(i) != 0.f || catalog.getOffsetY(i) != 0.f || catalog.getOffsetZ(i) != 0.f ){
+				object.position(catalog.getOffsetX(i), catalog.getOffsetY(i), catalog.getOffsetZ(i));
+			}
+			if( catalog.hasKeplerElements(i) ){
+				catalog.getKeplerElements(i, elements);
+				object.setKeplerElements(elements[0], elements[1], elements[2], elements[3], elements[4], elements[5], elements[6]);
+			}
+			int parentBody = catalog.getParent(i);
+			if( parentBody == SimulationKernel.NO_PARENT ){
+				addCelestialObject(object);
+			}else{
+				created[parentBody].addCelestialObject(object);
+			}
+			created[i] = object;
+		}
+		if( created.length == 0 ){
+			throw new IllegalStateException(SolarSystemLayout.CATALOG_FILE + " has no bodies");
+		}
 		
-			CelestialObject titan = new CelestialObject(parent, 78.f, 3.1f, "moon");
-			titan.setColour(50, 250, 50);
-			saturn.addCelestialObject(titan);	
-			
-			CelestialObject enceladus = new CelestialObject(parent, 72.f, 2.8f, "moon");
-			enceladus.setColour(200, 250, 200);
-			saturn.addCelestialObject(enceladus);	
-			
-			CelestialObject iapetus = new CelestialObject(parent, 78.f, 2.3f, "moon");
-			iapetus.setColour(100, 250, 200);
-			saturn.addCelestialObject(iapetus);	
+		sun = created[0];
+		mercury = named(catalog, created, "mercury");
+		venus = named(catalog, created, "venus");
+		earth = named(catalog, created, "earth");
+		moon = named(catalog, created, "moon");
+		mars = named(catalog, created, "mars");
+		jupiter = named(catalog, created, "jupiter");
+		saturn = named(catalog, created, "saturn");
+		uranus = named(catalog, created, "uranus");
+		neptune = named(catalog, created, "neptune");
+		pluto = named(catalog, created, "pluto");
 		
-		uranus = new CelestialObject(parent, 7.f * distanceStep, 19.8f, "uranus");
-		//uranus.setColour(50,50,200);
-		sun.addCelestialObject(uranus);		
+		for( CelestialObject object : created ){
+			object.bindAssets();
+			object.setCulling(culling);
+		}
 		
-			CelestialObject titania = new CelestialObject(parent, 25.f, 3.1f, "moon");
-			titania.setColour(200, 250, 200);
-			uranus.addCelestialObject(titania);	
-			
-			CelestialObject miranda = new CelestialObject(parent, 30.f, 2.8f, "moon");
-			miranda.setColour(200, 250, 200);
-			uranus.addCelestialObject(miranda);	
-
-		neptune = new CelestialObject(parent, 8.f * distanceStep, 19.4f, "neptune");
-		//neptune.setColour(30,30,250);
-		sun.addCelestialObject(neptune);
-			
-			CelestialObject triton = new CelestialObject(parent, 25.f, 2.8f, "moon");
-			triton.setColour(200, 250, 200);
-			neptune.addCelestialObject(triton);	
+		// Rocks are particles, not celestial objects
+		asteroidBelt = new Belt(parent, 20000, 4.3f * distanceStep, 4.7f * distanceStep, 6.f, 0.05f, 1L);
+		sun.addCelestialObject(asteroidBelt);
 		
-		pluto = new CelestialObject(parent, 9.f * distanceStep, 4.2f, "pluto");
-		//pluto.setColour(200,200,200);
-		sun.addCelestialObject(pluto);
+		kuiperBelt = new Belt(parent, 40000, 9.4f * distanceStep, 11.5f * distanceStep, 25.f, 0.012f, 2L);
+		kuiperBelt.setColour(120, 130, 160);
+		sun.addCelestialObject(kuiperBelt);
+	}
+	
+	/**
+	 * @return Object of the catalog body with the name, null if there is none.
+	 */
+	private static CelestialObject named( SystemCatalog catalog, CelestialObject[] objects, String name ){
+		int body = catalog.indexOf(name);
+		return body < 0 ? null : objects[body];
 	}
 	
 	/**
@@ -189,12 +253,502 @@ public class SolarSystem extends CelestialHierarchy implements Input {
 	 * Hierarchy random speeds.
 	 */
 	private void almostRealisticSpeeds(){
-		sun.hierarchyRandomSpeed(.12f, true);	
-		moon.setOrbitRotationSpeed((float)(Math.PI * 1.5f));
+		sun.hierarchyRandomSpeed(.12f, true, new SplittableRandom(seed));
+		if( moon != null ){
+			moon.setOrbitRotationSpeed((float)(Math.PI * 1.5f));
+		}
 	}
 	
 	public PVector getSunPosition(){
-		return sun.position().add(position());
+		return getSunPosition(null);
+	}
+	
+	/**
+	 * Position of the sun as displayed, read from the world transforms.
+	 * @param target Vector to fill in, a new one is created when null.
+	 */
+	public PVector getSunPosition( PVector target ){
+		if( target == null ){
+			target = new PVector();
+		}
+		updateTransforms();
+		int slot = sun.getSlot();
+		target.set(transforms.getX(slot), transforms.getY(slot), transforms.getZ(slot));
+		return target;
+	}
+	
+	/**
+	 * Brings the world transforms up to date, only does work once per frame.
+	 */
+	private void updateTransforms(){
+		transforms.update(kernel, parent.getInterpolationAlpha(), pos.x, pos.y, pos.z);
+		if( transforms.getUpdatedCount() > 0 || bvh.getBodyCount() != transforms.getCount() ){
+			bvh.update(transforms);
+		}
+	}
+	
+	/**
+	 * Bounding volume hierarchy over all bodies as displayed in the current frame.
+	 */
+	public BoundingVolumeHierarchy getBoundingVolumes() {
+		updateTransforms();
+		return bvh;
+	}
+	
+	/**
+	 * Finds the celestial object under a point of the window.
+	 * @return The object or null when there is none.
+	 */
+	public CelestialObject pick( int mX, int mY ){
+		if( !(parent.g instanceof PGraphicsOpenGL) ){
+			return null;
+		}
+		PGraphicsOpenGL pg = (PGraphicsOpenGL)parent.g;
+		// Window to world: inverse of projection and camera, as used by screenX/screenY
+		PMatrix3D inverse = new PMatrix3D(pg.projection);
+		inverse.apply(pg.camera);
+		if( !inverse.invert() ){
+			return null;
+		}
+		float nx = 2.f * mX / parent.width - 1.f;
+		float ny = 1.f - 2.f * mY / parent.height;
+		float[] near = unproject(inverse, nx, ny, -1.f);
+		float[] far = unproject(inverse, nx, ny, 1.f);
+		
+		updateTransforms();
+		int body = bvh.raycast(near[0], near[1], near[2], far[0] - near[0], far[1] - near[1], far[2] - near[2]);
+		return body < 0 ? null : getObject(body);
+	}
+	
+	private static float[] unproject( PMatrix3D inverse, float x, float y, float z ){
+		float[] out = new float[4];
+		inverse.mult(new float[]{ x, y, z, 1.f }, out);
+		out[0] /= out[3];
+		out[1] /= out[3];
+		out[2] /= out[3];
+		return out;
+	}
+	
+	/**
+	 * @return Celestial object occupying a kernel slot, null for none.
+	 */
+	public CelestialObject getObject( int slot ){
+		if( objects == null || objects.length != kernel.getBodyCount() ){
+			objects = new CelestialObject[kernel.getBodyCount()];
+			collectObjects(this);
+		}
+		return slot < objects.length ? objects[slot] : null;
+	}
+	
+	private void collectObjects( CelestialHierarchy hierarchy ){
+		for( CelestialHierarchy child : hierarchy.system ){
+			if( child instanceof CelestialObject ){
+				CelestialObject object = (CelestialObject)child;
+				if( object.getKernel() == kernel && object.getSlot() < objects.length ){
+					objects[object.getSlot()] = object;
+				}
+			}
+			collectObjects(child);
+		}
+	}
+	
+	/**
+	 * @return Object last clicked on, marked in the scene, null when the click hit nothing.
+	 */
+	public CelestialObject getSelected() {
+		return selected;
+	}
+	
+	/**
+	 * World placement of all bodies as displayed in the current frame, indexed by kernel slot.
+	 */
+	public WorldTransforms getTransforms() {
+		updateTransforms();
+		return transforms;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public SimulationKernel getKernel() {
+		return kernel;
+	}
+	
+	public CollisionDetector getCollisions() {
+		return collisions;
+	}
+	
+	public Propagator getPropagator() {
+		return propagator;
+	}
+	
+	/**
+	 * Switches how the system is advanced.
+	 * @param propagator Propagator taking over the bodies or null for kinematic orbits.
+	 */
+	public void setPropagator(Propagator propagator) {
+		if( this.propagator instanceof EphemerisPropagator ){
+			// The cache replays the kinematic orbits, which continue from the replayed time
+			EphemerisPropagator ephemeris = (EphemerisPropagator)this.propagator;
+			double end = Math.min(ephemeris.getTime(), ephemeris.getEphemeris().getEndTime());
+			kernel.advanceOrbits((float)(end - ephemeris.getEphemeris().getStartTime()));
+		}
+		if( this.propagator != null ){
+			this.propagator.detach(kernel);
+		}
+		this.propagator = propagator;
+		if( propagator != null ){
+			propagator.attach(kernel);
+		}
+		accretion.setNBody( propagator instanceof NBodyPropagator ? (NBodyPropagator)propagator : null );
+		// Snapshots of the previous propagator cannot be restored into this one
+		history.clear();
+	}
+	
+	/**
+	 * Everything a snapshot of the history holds, in a fixed order.
+	 */
+	private Restorable[] historyParts(){
+		Restorable[] parts = { kernel, asteroidBelt.getParticles(), kuiperBelt.getParticles() };
+		if( propagator instanceof Restorable ){
+			parts = Arrays.copyOf(parts, parts.length + 1);
+			parts[parts.length - 1] = (Restorable)propagator;
+		}
+		return parts;
+	}
+	
+	/**
+	 * Jumps to another step of the timeline. Earlier steps restore the
+	 * nearest snapshot before them, then the remaining steps are simulated.
+	 * A running recording ends, the steps skipped or repeated are not in it.
+	 * @return False if the history does not reach back that far.
+	 */
+	public boolean seek( long target ){
+		target = Math.max(0, target);
+		long snapshot = history.findStep(target);
+		if( (target < step || snapshot > step) && snapshot < 0 ){
+			return false;
+		}
+		if( target != step ){
+			endRecording();
+		}
+		if( target < step || snapshot > step ){
+			step = history.restore(target, historyParts());
+		}
+		float dT = parent.getClock().getFixedStep();
+		while( step < target ){
+			simulate(dT);
+		}
+		return true;
+	}
+	
+	/**
+	 * One step of the whole system.
+	 */
+	private void simulate( float dT ){
+		if( propagator != null ){
+			propagator.advance(kernel, dT);
+		}else{
+			kernel.step(dT);
+		}
+		collisions.detect(kernel);
+		super.update(dT);
+		step++;
+		if( propagator instanceof EphemerisPropagator && ((EphemerisPropagator)propagator).isFinished() ){
+			// Back to the kinematic orbits at the end of the cache, instead of starting over
+			setPropagator(null);
+		}
+	}
+	
+	public long getStep() {
+		return step;
+	}
+	
+	public SimulationHistory getHistory() {
+		return history;
+	}
+	
+	/**
+	 * Replays the ephemeris cache from its start, recording it first from the
+	 * current state if it is missing, unreadable or was recorded from another
+	 * state or system. The replay does not loop, the kinematic orbits take
+	 * over at its end.
+	 */
+	private Propagator ephemerisPropagator() throws IOException {
+		return ephemerisPropagator(kernel);
+	}
+	
+	/**
+	 * @param from Kernel whose state the ephemeris must start from, the kernel of the system or one restored from a checkpoint.
+	 */
+	private Propagator ephemerisPropagator( SimulationKernel from ) throws IOException {
+		if( Files.exists(ephemerisFile) ){
+			try{
+				Ephemeris ephemeris = Ephemeris.open(ephemerisFile);
+				if( ephemeris.getBodyCount() == from.getBodyCount()
+						&& ephemeris.getFingerprint() == EphemerisWriter.fingerprint(from) ){
+					return cachePropagator(ephemeris);
+				}
+			}catch( IOException e ){
+				// Written by an older version or damaged, recorded again below
+			}
+		}
+		// Segments short enough for the fastest moons
+		EphemerisWriter.record(from, null, ephemerisFile, ephemerisDuration, 0.25, 13, 10);
+		return cachePropagator(Ephemeris.open(ephemerisFile));
+	}
+	
+	private static EphemerisPropagator cachePropagator( Ephemeris ephemeris ){
+		EphemerisPropagator propagator = new EphemerisPropagator(ephemeris);
+		propagator.setLooping(false);
+		return propagator;
+	}
+	
+	/**
+	 * Starts recording every step of the running system, or stops and closes the recording.
+	 */
+	public void toggleRecording() throws IOException {
+		if( recorder == null ){
+			recorder = new TrajectoryRecorder(trajectoryFile, kernel, null, parent.getClock().getFixedStep(),
+					trajectoryQuantum, trajectoryChunkFrames);
+			return;
+		}
+		TrajectoryRecorder finished = recorder;
+		recorder = null;
+		finished.close();
+		System.out.println("Recorded " + finished.getRecordedFrames() + " frames, waited " + finished.getWaitCount()
+				+ " times for the writer, dropped " + finished.getDroppedFrames());
+	}
+	
+	public boolean isRecording() {
+		return recorder != null;
+	}
+	
+	/**
+	 * Ends a running recording before the timeline jumps, frames of a
+	 * recording must follow each other step by step.
+	 */
+	private void endRecording(){
+		if( recorder == null ){
+			return;
+		}
+		try{
+			toggleRecording();
+		}catch( IOException e ){
+			recorder = null;
+			System.err.println("Trajectory " + trajectoryFile + " not recorded: " + e.getMessage());
+		}
+	}
+	
+	static final int SCENE_SECTION = CheckpointWriter.tag("SCEN");
+	static final int CAMERA_SECTION = CheckpointWriter.tag("CAMR");
+	static final int CLOCK_SECTION = CheckpointWriter.tag("CLCK");
+	static final int KERNEL_SECTION = CheckpointWriter.tag("KERN");
+	static final int PROPAGATOR_SECTION = CheckpointWriter.tag("PROP");
+	static final int BELT_SECTION = CheckpointWriter.tag("BELT");
+	
+	/**
+	 * Saves the whole running scene: all bodies and how they are propagated,
+	 * the belts, the camera, the clock and the pause flag.
+	 */
+	public void saveCheckpoint( Path file ) throws IOException {
+		try( CheckpointWriter out = new CheckpointWriter(file) ){
+			out.beginSection(SCENE_SECTION);
+			out.putInt(paused ? 1 : 0);
+			out.putInt(merging ? 1 : 0);
+			out.putInt(SolarSystemScene.viewType);
+			out.putLong(step);
+			out.putLong(seed);
+			out.endSection();
+			
+			if( parent instanceof SolarSystemScene ){
+				out.beginSection(CAMERA_SECTION);
+				for( float value : ((SolarSystemScene)parent).getCamera().getState() ){
+					out.putFloat(value);
+				}
+				out.endSection();
+			}
+			
+			out.beginSection(CLOCK_SECTION);
+			out.putDouble(parent.getClock().getTime());
+			out.putLong(parent.getClock().getSteps());
+			out.putDouble(parent.getClock().getAccumulator());
+			out.endSection();
+			
+			out.beginSection(KERNEL_SECTION);
+			out.putKernel(kernel);
+			out.endSection();
+			
+			out.beginSection(PROPAGATOR_SECTION);
+			if( propagator instanceof NBodyPropagator ){
+				out.putString("nbody");
+				out.putString(((NBodyPropagator)propagator).getIntegrator().getName());
+			}else if( propagator instanceof KeplerPropagator ){
+				out.putString("kepler");
+				out.putDouble(((KeplerPropagator)propagator).getTimeWarp());
+			}else if( propagator instanceof EphemerisPropagator ){
+				out.putString("ephemeris");
+				out.putDouble(((EphemerisPropagator)propagator).getTimeWarp());
+			}else if( propagator instanceof TrajectoryPropagator ){
+				out.putString("trajectory");
+				out.putDouble(((TrajectoryPropagator)propagator).getTimeWarp());
+			}else{
+				out.putString("kinematic");
+			}
+			if( propagator instanceof Restorable ){
+				out.putState((Restorable)propagator);
+			}
+			out.endSection();
+			
+			out.beginSection(BELT_SECTION);
+			out.putState(asteroidBelt.getParticles());
+			out.putState(kuiperBelt.getParticles());
+			out.endSection();
+			out.finish();
+		}
+	}
+	
+	/**
+	 * Restores a scene saved by {@link #saveCheckpoint(Path)}. The checkpoint
+	 * must hold the same bodies, which are bound to the celestial objects.
+	 * A running recording ends, the restored timeline does not continue it.
+	 *
+	 * Every section is read before anything is applied, a missing or damaged
+	 * section leaves the running scene as it was.
+	 */
+	public void restoreCheckpoint( Path file ) throws IOException {
+		CheckpointReader in = new CheckpointReader(file);
+		ByteBuffer bodies = in.section(KERNEL_SECTION);
+		if( CheckpointReader.getKernelBodyCount(bodies) != kernel.getBodyCount() ){
+			throw new IOException(file + " holds " + CheckpointReader.getKernelBodyCount(bodies)
+					+ " bodies, the system has " + kernel.getBodyCount());
+		}
+		ByteBuffer propagation = in.section(PROPAGATOR_SECTION);
+		ByteBuffer belts = in.section(BELT_SECTION);
+		ByteBuffer scene = in.section(SCENE_SECTION);
+		ByteBuffer clock = in.section(CLOCK_SECTION);
+		boolean hasView = parent instanceof SolarSystemScene && in.hasSection(CAMERA_SECTION);
+		ByteBuffer view = hasView ? in.section(CAMERA_SECTION) : null;
+		
+		SimulationKernel saved = new SimulationKernel(kernel);
+		Propagator restored;
+		long[] propagatorState = null;
+		long[] asteroidState, kuiperState;
+		boolean restoredPaused, merge;
+		int restoredViewType;
+		long restoredStep;
+		float[] camera = null;
+		double clockTime, clockAccumulator;
+		long clockSteps;
+		try{
+			CheckpointReader.getKernel(bodies.duplicate(), saved);
+			String type = CheckpointReader.getString(propagation);
+			if( type.equals("nbody") ){
+				NBodyPropagator nBody = new NBodyPropagator();
+				nBody.setIntegrator(integratorNamed(CheckpointReader.getString(propagation)));
+				restored = nBody;
+			}else if( type.equals("kepler") ){
+				KeplerPropagator kepler = new KeplerPropagator();
+				kepler.setTimeWarp(propagation.getDouble());
+				restored = kepler;
+			}else if( type.equals("ephemeris") ){
+				// The saved time belongs to an ephemeris starting from the saved kernel
+				EphemerisPropagator ephemeris = (EphemerisPropagator)ephemerisPropagator(saved);
+				ephemeris.setTimeWarp(propagation.getDouble());
+				restored = ephemeris;
+			}else if( type.equals("trajectory") ){
+				TrajectoryPropagator playback = new TrajectoryPropagator(Trajectory.open(trajectoryFile));
+				playback.setTimeWarp(propagation.getDouble());
+				restored = playback;
+			}else{
+				restored = null;
+			}
+			if( restored instanceof Restorable ){
+				propagatorState = CheckpointReader.getStateWords(propagation);
+			}
+			
+			asteroidState = CheckpointReader.getStateWords(belts);
+			kuiperState = CheckpointReader.getStateWords(belts);
+			
+			restoredPaused = scene.getInt() != 0;
+			merge = scene.getInt() != 0;
+			restoredViewType = scene.getInt();
+			restoredStep = scene.getLong();
+			
+			if( hasView ){
+				camera = new float[15];
+				view.asFloatBuffer().get(camera);
+			}
+			
+			clockTime = clock.getDouble();
+			clockSteps = clock.getLong();
+			clockAccumulator = clock.getDouble();
+		}catch( BufferUnderflowException e ){
+			throw new IOException(file + " has a section shorter than its contents", e);
+		}
+		
+		endRecording();
+		try{
+			// The propagator is attached first, attaching rewrites parts of the kernel
+			setPropagator(restored);
+			CheckpointReader.getKernel(bodies, kernel);
+			if( restored instanceof Restorable ){
+				CheckpointReader.restoreState(propagatorState, (Restorable)restored);
+			}
+			CheckpointReader.restoreState(asteroidState, asteroidBelt.getParticles());
+			CheckpointReader.restoreState(kuiperState, kuiperBelt.getParticles());
+			
+			paused = restoredPaused;
+			if( merge != merging ){
+				merging = merge;
+				if( merging ){
+					collisions.addListener(accretion);
+				}else{
+					collisions.removeListener(accretion);
+				}
+			}
+			SolarSystemScene.viewType = restoredViewType;
+			step = restoredStep;
+			if( camera != null ){
+				((SolarSystemScene)parent).getCamera().setState(camera);
+			}
+			parent.getClock().restore(clockTime, clockSteps, clockAccumulator);
+		}finally{
+			// Snapshots of the timeline before cannot be restored into this one
+			history.clear();
+		}
+	}
+	
+	private static Integrator integratorNamed( String name ){
+		Integrator[] integrators = { new LeapfrogIntegrator(), new YoshidaIntegrator(), new RK45Integrator(), new EulerIntegrator() };
+		for( Integrator integrator : integrators ){
+			if( integrator.getName().equals(name) ){
+				return integrator;
+			}
+		}
+		return integrators[0];
+	}
+	
+	/**
+	 * Cycles Euler, leapfrog, Yoshida and RK45 integrators.
+	 */
+	private void nextIntegrator( NBodyPropagator nBody ){
+		Integrator current = nBody.getIntegrator();
+		System.out.println(current.getName() + ": " + nBody.getDiagnostics());
+		
+		Integrator next;
+		if( current instanceof EulerIntegrator ){
+			next = new LeapfrogIntegrator();
+		}else if( current instanceof LeapfrogIntegrator ){
+			next = new YoshidaIntegrator();
+		}else if( current instanceof YoshidaIntegrator ){
+			next = new RK45Integrator();
+		}else{
+			next = new EulerIntegrator();
+		}
+		nBody.setIntegrator(next);
+		System.out.println("Integrator: " + next.getName());
 	}
 	
 	public CelestialObject getSun() {
@@ -239,12 +793,29 @@ public class SolarSystem extends CelestialHierarchy implements Input {
 
 	public CelestialObject getPluto() {
 		return pluto;
+	}
+
+	public Belt getAsteroidBelt() {
+		return asteroidBelt;
+	}
+
+	public Belt getKuiperBelt() {
+		return kuiperBelt;
 	}	
 
 	@Override
 	public void update(float dT) {
 		if( !paused ){
-			super.update(dT);
+			simulate(dT);
+			history.record(step, historyParts());
+			if( recorder != null ){
+				recorder.record(kernel);
+			}
+		}else{
+			// Nothing moves, so there is nothing to interpolate either
+			kernel.beginStep();
+			asteroidBelt.getParticles().hold();
+			kuiperBelt.getParticles().hold();
 		}
 	}
 	
@@ -253,14 +824,54 @@ public class SolarSystem extends CelestialHierarchy implements Input {
 	 */
 	@Override
 	public void display() {	
+		updateTransforms();
+		culling.update(transforms, parent.getFrustum());
 		float ambient = 38.f;
 		parent.ambientLight(ambient,ambient,ambient);
 		super.display();				
 	}
 	
+	/**
+	 * Bounds of all bodies with their orbits and of the belts, the belts are
+	 * only known around the root they orbit.
+	 */
+	@Override
+	public boolean getBounds(float[] sphere) {
+		updateTransforms();
+		culling.updateBounds(transforms);
+		if( transforms.getCount() == 0 || !culling.isEnabled() ){
+			return false;
+		}
+		int root = transforms.getOrder(0);
+		if( transforms.getSubtreeSize(root) != transforms.getCount() ){
+			return false;
+		}
+		culling.getBounds(root, sphere);
+		if( sun.getSlot() != root ){
+			return false;
+		}
+		float dx = transforms.getX(root) - sphere[0], dy = transforms.getY(root) - sphere[1], dz = transforms.getZ(root) - sphere[2];
+		float d = (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+		for( CelestialHierarchy child : sun.system ){
+			if( child instanceof Belt ){
+				sphere[3] = Math.max(sphere[3], d + ((Belt)child).getParticles().getBoundingRadius());
+			}
+		}
+		return true;
+	}
+	
 	/**
 	 * Toggle pause with p/P.
 	 * Toggle orbit display with o/O.
+	 * Toggle between kinematic orbits and N-body gravity with g/G.
+	 * Switch the N-body integrator with i/I, conservation of the previous one is printed.
+	 * Toggle analytic Keplerian orbits with k/K, change their time warp ten times with , and .
+	 * Toggle replay from the ephemeris cache with e/E.
+	 * Toggle merging of colliding bodies with m/M.
+	 * Rewind with [ and scrub forward with ], a second at a time.
+	 * Save a checkpoint of the scene with c/C, restore it with l/L.
+	 * Start and stop recording trajectories with r/R, toggle their playback with t/T.
+	 * Toggle view culling with v/V, bodies out of view are then drawn anyway.
 	 */
 	@Override
 	public void handleKey(char key, int state, int mX, int mY) {
@@ -270,6 +881,80 @@ public class SolarSystem extends CelestialHierarchy implements Input {
 		if( (key == 'o' || key == 'O') && state == 0){
 			sun.setDrawOrbit( !sun.getDrawOrbit(), true );
 		}
+		if( (key == 'v' || key == 'V') && state == 0){
+			culling.setEnabled( !culling.isEnabled() );
+		}
+		if( (key == 'g' || key == 'G') && state == 0){
+			setPropagator( propagator instanceof NBodyPropagator ? null : new NBodyPropagator() );
+		}
+		if( (key == 'i' || key == 'I') && state == 0 && propagator instanceof NBodyPropagator ){
+			nextIntegrator((NBodyPropagator)propagator);
+		}
+		if( (key == 'k' || key == 'K') && state == 0){
+			setPropagator( propagator instanceof KeplerPropagator ? null : new KeplerPropagator() );
+		}
+		if( (key == 'e' || key == 'E') && state == 0){
+			try{
+				setPropagator( propagator instanceof EphemerisPropagator ? null : ephemerisPropagator() );
+			}catch( IOException e ){
+				System.err.println("Ephemeris " + ephemerisFile + " unavailable: " + e.getMessage());
+			}
+		}
+		if( (key == 'm' || key == 'M') && state == 0){
+			merging = !merging;
+			if( merging ){
+				collisions.addListener(accretion);
+			}else{
+				collisions.removeListener(accretion);
+			}
+		}
+		if( (key == 'c' || key == 'C') && state == 0){
+			try{
+				saveCheckpoint(checkpointFile);
+				System.out.println("Checkpoint saved to " + checkpointFile);
+			}catch( IOException e ){
+				System.err.println("Checkpoint " + checkpointFile + " not saved: " + e.getMessage());
+			}
+		}
+		if( (key == 'l' || key == 'L') && state == 0){
+			try{
+				restoreCheckpoint(checkpointFile);
+				System.out.println("Checkpoint restored from " + checkpointFile);
+			}catch( IOException e ){
+				System.err.println("Checkpoint " + checkpointFile + " not restored: " + e.getMessage());
+			}
+		}
+		if( (key == 'r' || key == 'R') && state == 0){
+			try{
+				toggleRecording();
+			}catch( IOException e ){
+				recorder = null;
+				System.err.println("Trajectory " + trajectoryFile + " not recorded: " + e.getMessage());
+			}
+		}
+		if( (key == 't' || key == 'T') && state == 0){
+			try{
+				if( recorder != null ){
+					toggleRecording();
+				}
+				setPropagator( propagator instanceof TrajectoryPropagator ? null
+						: new TrajectoryPropagator(Trajectory.open(trajectoryFile)) );
+			}catch( IOException | IllegalArgumentException e ){
+				System.err.println("Trajectory " + trajectoryFile + " unavailable: " + e.getMessage());
+			}
+		}
+		if( (key == '[' || key == ']') && state == 0 ){
+			float dT = parent.getClock().getFixedStep();
+			long seconds = Math.round(seekSeconds / dT);
+			if( !seek(step + (key == ']' ? seconds : -seconds)) ){
+				System.out.println("History only reaches back to step " + history.getOldestStep());
+			}
+		}
+		if( (key == ',' || key == '.') && state == 0 && propagator instanceof KeplerPropagator ){
+			KeplerPropagator kepler = (KeplerPropagator)propagator;
+			kepler.setTimeWarp( kepler.getTimeWarp() * (key == '.' ? 10.0 : 0.1) );
+			System.out.println("Time warp: " + kepler.getTimeWarp());
+		}
 	}
 
 	@Override
@@ -277,9 +962,27 @@ public class SolarSystem extends CelestialHierarchy implements Input {
 		
 	}
 
+	/**
+	 * Selects the object under the mouse on a left click and marks it with a ring,
+	 * dragging turns the camera instead.
+	 */
 	@Override
 	public void handleMouse(int button, int state, int mX, int mY) {
-		
+		if( button != Scene.LEFT ){
+			return;
+		}
+		if( state == 1 ){
+			pressX = mX;
+			pressY = mY;
+		}else if( Math.abs(mX - pressX) + Math.abs(mY - pressY) <= 4 ){
+			if( selected != null ){
+				selected.setSelected(false);
+			}
+			selected = pick(mX, mY);
+			if( selected != null ){
+				selected.setSelected(true);
+			}
+		}
 	}
 
 	@Override
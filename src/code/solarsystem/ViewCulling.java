@@ -0,0 +1,293 @@
+package code.solarsystem;
+
+import code.simulation.SimulationKernel;
+import code.simulation.WorldTransforms;
+import framework.utility.Frustum;
+
+/**
+ * Decides once per frame which bodies of a kernel are drawn, from their
+ * world transforms and the view frustum of the scene.
+ *
+ * Every body has a bounding sphere of its subtree: its own drawing and those
+ * of all its descendants, including the orbit circles of its children. The
+ * subtrees are visited in pre-order and one test rejects a whole subtree,
+ * e.g. a planet with all its moons, whose bodies are then skipped without
+ * being looked at. Bodies whose projection is below a pixel are drawn as a
+ * point, below a fraction of a pixel not at all.
+ *
+ * Bounds are recomputed only when the transforms changed.
+ */
+public class ViewCulling {
+
+	// Something of the subtree may be visible
+	static final int SUBTREE = 1;
+	// The body is drawn as a mesh
+	static final int BODY = 2;
+	// The body is smaller than a pixel and drawn as a point
+	static final int POINT = 4;
+	// The orbit circle of the body may be visible
+	static final int ORBIT = 8;
+	// Everything is drawn
+	static final int ALL = SUBTREE | BODY | ORBIT;
+
+	// Drawing of a body with rings, relative to its radius: half diagonal of the ring quad
+	static final float RING_EXTENT = 2.f * (float)Math.sqrt(2.0);
+
+	// Bodies projected below this radius in pixels are drawn as points
+	float pointRadius = 1.f;
+	// Anything projected below this radius in pixels is not drawn
+	float skipRadius = 0.25f;
+	boolean enabled = true;
+
+	private int count = 0;
+	private byte[] flags = new byte[0];
+	// Radius of visible bodies on the screen in pixels, without their extent
+	private float[] pixels = new float[0];
+	// Flags are only valid for bodies visited by the update of this pass
+	private int[] visited = new int[0];
+	private int pass = 0;
+	// Size of the drawing of a body relative to its radius
+	private float[] extent = new float[0];
+	// Bounding sphere of everything drawn for a subtree
+	private float[] boundX = new float[0], boundY = new float[0], boundZ = new float[0], boundR = new float[0];
+
+	// What the bounds were computed from
+	private WorldTransforms source = null;
+	private long version = -1;
+	private boolean extentChanged = false;
+
+	private int tested = 0;
+	private int rejected = 0;
+
+	/**
+	 * Brings the subtree bounds up to date with the transforms, only does
+	 * work when they changed since.
+	 */
+	public void updateBounds(WorldTransforms transforms){
+		count = transforms.getCount();
+		if( flags.length < count ){
+			flags = new byte[count];
+			pixels = new float[count];
+			visited = new int[count];
+			boundX = new float[count];
+			boundY = new float[count];
+			boundZ = new float[count];
+			boundR = new float[count];
+			version = -1;
+		}
+		if( extent.length < count ){
+			growExtent(count);
+		}
+		if( transforms != source || transforms.getVersion() != version || extentChanged ){
+			computeBounds(transforms);
+			source = transforms;
+			version = transforms.getVersion();
+			extentChanged = false;
+		}
+	}
+
+	/**
+	 * Culls all bodies of the transforms against the frustum, the result is
+	 * read through {@link #getFlags(int)}.
+	 */
+	public void update(WorldTransforms transforms, Frustum frustum){
+		updateBounds(transforms);
+
+		pass++;
+		tested = 0;
+		rejected = 0;
+		boolean orbits = !transforms.isWorldDriven();
+		for( int k = 0; k < count; ){
+			int i = transforms.getOrder(k);
+			tested++;
+			visited[i] = pass;
+			pixels[i] = 0.f;
+			if( !enabled ){
+				// Everything is drawn, only the level of detail still follows the size
+				flags[i] = ALL;
+				pixels[i] = frustum.getScreenRadius(transforms.getX(i), transforms.getY(i), transforms.getZ(i),
+						transforms.getRadius(i));
+				k++;
+				continue;
+			}
+			int visible = 0;
+			// The orbit is drawn by the body but lies around its parent, outside the subtree
+			float orbit = transforms.getOrbitRadius(i);
+			if( orbits && orbit > 0.f ){
+				float ox = transforms.getOrbitX(i), oy = transforms.getOrbitY(i), oz = transforms.getOrbitZ(i);
+				if( frustum.isVisible(ox, oy, oz, orbit) && frustum.getScreenRadius(ox, oy, oz, orbit) >= skipRadius ){
+					visible |= ORBIT;
+				}
+			}
+			if( !frustum.isVisible(boundX[i], boundY[i], boundZ[i], boundR[i])
+					|| frustum.getScreenRadius(boundX[i], boundY[i], boundZ[i], boundR[i]) < skipRadius ){
+				// Nothing of the subtree is drawn, not even the orbits of the children
+				flags[i] = (byte)visible;
+				int size = transforms.getSubtreeSize(i);
+				rejected += size;
+				k += size;
+				continue;
+			}
+			visible |= SUBTREE;
+			float x = transforms.getX(i), y = transforms.getY(i), z = transforms.getZ(i);
+			float r = transforms.getRadius(i) * extent[i];
+			if( r > 0.f && frustum.isVisible(x, y, z, r) ){
+				float screen = frustum.getScreenRadius(x, y, z, r);
+				if( screen >= pointRadius ){
+					visible |= BODY;
+				}else if( screen >= skipRadius ){
+					visible |= POINT;
+				}
+				pixels[i] = screen / extent[i];
+			}
+			flags[i] = (byte)visible;
+			k++;
+		}
+	}
+
+	/**
+	 * Bottom-up over the reversed pre-order, every subtree is complete when it
+	 * is merged into its parent.
+	 */
+	private void computeBounds(WorldTransforms transforms){
+		boolean orbits = !transforms.isWorldDriven();
+		for( int i = 0; i < count; i++ ){
+			boundX[i] = transforms.getX(i);
+			boundY[i] = transforms.getY(i);
+			boundZ[i] = transforms.getZ(i);
+			boundR[i] = transforms.getRadius(i) * extent[i];
+		}
+		for( int k = count - 1; k >= 0; k-- ){
+			int i = transforms.getOrder(k);
+			int p = transforms.getParent(i);
+			if( p == SimulationKernel.NO_PARENT ){
+				continue;
+			}
+			merge(p, boundX[i], boundY[i], boundZ[i], boundR[i]);
+			float orbit = transforms.getOrbitRadius(i);
+			if( orbits && orbit > 0.f ){
+				merge(p, transforms.getOrbitX(i), transforms.getOrbitY(i), transforms.getOrbitZ(i), orbit);
+			}
+		}
+	}
+
+	/**
+	 * Grows the bounds of a body to contain a sphere.
+	 */
+	private void merge(int i, float x, float y, float z, float r){
+		float dx = x - boundX[i], dy = y - boundY[i], dz = z - boundZ[i];
+		float d = (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if( d + r <= boundR[i] ){
+			return;
+		}
+		if( d + boundR[i] <= r ){
+			boundX[i] = x;
+			boundY[i] = y;
+			boundZ[i] = z;
+			boundR[i] = r;
+			return;
+		}
+		float merged = (d + boundR[i] + r) * 0.5f;
+		float t = (merged - boundR[i]) / d;
+		boundX[i] += dx * t;
+		boundY[i] += dy * t;
+		boundZ[i] += dz * t;
+		// Rounding must not leave either sphere sticking out
+		boundR[i] = merged * 1.0001f;
+	}
+
+	/**
+	 * @return What is drawn of a body this frame, everything for bodies the last update did not know.
+	 */
+	public int getFlags(int body) {
+		if( body >= count ){
+			return ALL;
+		}
+		return visited[body] == pass ? flags[body] : 0;
+	}
+
+	/**
+	 * @return Radius of a body on the screen in pixels this frame, 0 when it is
+	 * out of view and infinite for bodies the last update did not know.
+	 */
+	public float getScreenRadius(int body) {
+		if( body >= count ){
+			return Float.POSITIVE_INFINITY;
+		}
+		return visited[body] == pass ? pixels[body] : 0.f;
+	}
+
+	/**
+	 * Sets how far the drawing of a body reaches relative to its radius, e.g. rings.
+	 */
+	public void setExtent(int body, float factor) {
+		if( factor < 1.f ){
+			throw new IllegalArgumentException("Extent " + factor + " is smaller than the body");
+		}
+		if( body >= extent.length ){
+			growExtent(Math.max(body + 1, 2 * extent.length));
+		}
+		if( extent[body] != factor ){
+			extent[body] = factor;
+			extentChanged = true;
+		}
+	}
+
+	private void growExtent(int length){
+		float[] extents = new float[length];
+		System.arraycopy(extent, 0, extents, 0, extent.length);
+		for( int i = extent.length; i < length; i++ ){
+			extents[i] = 1.f;
+		}
+		extent = extents;
+	}
+
+	/**
+	 * Bounding sphere of a subtree as of the last update.
+	 * @param out Receives the centre x, y, z and the radius.
+	 */
+	public void getBounds(int body, float[] out) {
+		out[0] = boundX[body];
+		out[1] = boundY[body];
+		out[2] = boundZ[body];
+		out[3] = boundR[body];
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled When false every body is drawn, for comparison.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param pointRadius Bodies projected below this radius in pixels are drawn as points.
+	 * @param skipRadius Anything projected below this radius in pixels is not drawn.
+	 */
+	public void setThresholds(float pointRadius, float skipRadius) {
+		if( skipRadius < 0.f || pointRadius < skipRadius ){
+			throw new IllegalArgumentException("Thresholds " + pointRadius + " and " + skipRadius + " are not ordered");
+		}
+		this.pointRadius = pointRadius;
+		this.skipRadius = skipRadius;
+	}
+
+	/**
+	 * @return Number of bodies looked at by the last update, rejected subtrees are not looked into.
+	 */
+	public int getTestedCount() {
+		return tested;
+	}
+
+	/**
+	 * @return Number of bodies in subtrees rejected by the last update.
+	 */
+	public int getRejectedCount() {
+		return rejected;
+	}
+
+}
@@ -0,0 +1,341 @@
+package framework.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PImage;
+import processing.core.PShape;
+
+/**
+ * Models and textures shared by all objects of a {@link Scene}.
+ * <p>
+ * Geometry of OBJ files is keyed by its content, so files that only differ by
+ * their material, e.g. the same sphere with another texture, are drawn from
+ * one retained mesh. OBJ files are read through their {@link MeshFile}, they
+ * are only parsed when it is missing or stale. Textures are keyed by file and
+ * counted, they are loaded by their first user and freed with their last.
+ * <p>
+ * Models use one material, the first one they name, and are built as one
+ * triangle mesh instead of a shape per face.
+ * <p>
+ * Spheres come in several levels of detail, chosen by their size on the
+ * screen with {@link #sphereLevel(float, int)}. A model lends them its
+ * texture or its fill colour.
+ * @see Scene#getAssets()
+ */
+public class AssetCache {
+
+	// Icosphere levels, 20 triangles at level 0 and four times as many at every next level
+	public static final int SPHERE_LEVELS = 6;
+	// Projected radius in pixels from which a level is used
+	static final float[] LEVEL_PIXELS = { 0.f, 4.f, 10.f, 30.f, 90.f, 270.f };
+	// Fraction by which a radius must pass a threshold before the level changes
+	static final float HYSTERESIS = 0.15f;
+
+	private final PApplet applet;
+
+	// Meshes by geometry digest and material colour
+	private final Map<String, PShape> meshes = new HashMap<String, PShape>();
+	// Models by OBJ file
+	private final Map<String, Model> models = new HashMap<String, Model>();
+	// Textures by image file
+	private final Map<String, Texture> textures = new HashMap<String, Texture>();
+	// Spheres by level, textured or by fill colour
+	private final Map<String, PShape> spheres = new HashMap<String, PShape>();
+	private final IcoSphere[] sphereGeometry = new IcoSphere[SPHERE_LEVELS];
+	// Textured square, shared by everything drawn as a flat image
+	private PShape quad = null;
+	// Texture each shared textured mesh was drawn with last, it stays bound
+	private final Map<PShape, PImage> bound = new IdentityHashMap<PShape, PImage>();
+
+	static class Texture {
+		final PImage image;
+		int references;
+
+		Texture(PImage image){
+			this.image = image;
+		}
+	}
+
+	/**
+	 * An OBJ file: a shared mesh and the texture of its material.
+	 */
+	public static class Model {
+		final String file;
+		final PShape mesh;
+		final String textureFile;
+		final PImage texture;
+		final int fill;
+		int references;
+
+		Model(String file, PShape mesh, String textureFile, PImage texture, int fill){
+			this.file = file;
+			this.mesh = mesh;
+			this.textureFile = textureFile;
+			this.texture = texture;
+			this.fill = fill;
+		}
+
+		public String getFile() {
+			return file;
+		}
+
+		/**
+		 * @return Texture of the material, null when the model is only filled.
+		 */
+		public PImage getTexture() {
+			return texture;
+		}
+	}
+
+	public AssetCache(PApplet applet){
+		this.applet = applet;
+	}
+
+	/**
+	 * Loads a model or adds a reference to it if it is loaded already.
+	 * @param file Path of an OBJ file, its material and compiled mesh files are next to it.
+	 * @throws IOException If the model cannot be read.
+	 */
+	public Model acquireModel(String file) throws IOException {
+		Model model = models.get(file);
+		if( model == null ){
+			model = loadModel(file);
+			models.put(file, model);
+		}
+		model.references++;
+		return model;
+	}
+
+	/**
+	 * Drops a reference to a model and to its texture. Meshes are kept as long
+	 * as the cache, they are shared by models that may be loaded again.
+	 */
+	public void release(Model model){
+		if( model.references <= 0 ){
+			throw new IllegalArgumentException("Model " + model.file + " is not referenced");
+		}
+		if( --model.references == 0 ){
+			models.remove(model.file);
+			if( model.textureFile != null ){
+				releaseTexture(model.textureFile);
+			}
+		}
+	}
+
+	/**
+	 * Loads a texture or adds a reference to it if it is loaded already.
+	 * @return The texture, null if the file cannot be loaded.
+	 */
+	public PImage acquireTexture(String file){
+		Texture texture = textures.get(file);
+		if( texture == null ){
+			PImage image = applet.loadImage(file);
+			if( image == null ){
+				return null;
+			}
+			texture = new Texture(image);
+			textures.put(file, texture);
+		}
+		texture.references++;
+		return texture.image;
+	}
+
+	/**
+	 * Drops a reference to a texture, the last one frees it on the GPU.
+	 */
+	public void releaseTexture(String file){
+		Texture texture = textures.get(file);
+		if( texture == null ){
+			throw new IllegalArgumentException("Texture " + file + " is not referenced");
+		}
+		if( --texture.references == 0 ){
+			textures.remove(file);
+			applet.g.removeCache(texture.image);
+		}
+	}
+
+	/**
+	 * Sphere of radius 1 with the material of a model, its texture is bound
+	 * when another body was drawn with the same level since. Draws that are
+	 * deferred, e.g. through a {@link RenderQueue}, bind it again when executed.
+	 * @param level Level of detail [0-{@link #SPHERE_LEVELS}).
+	 */
+	public PShape sphere(int level, Model model){
+		if( model.texture == null ){
+			return sphere(level, model.fill);
+		}
+		PShape mesh = spheres.get(level + "/textured");
+		if( mesh == null ){
+			mesh = createSphere(level, "/textured", applet.color(255), model.texture);
+		}
+		return bind(mesh, model.texture);
+	}
+
+	/**
+	 * Untextured sphere of radius 1, one is kept per level and colour.
+	 * @param level Level of detail [0-{@link #SPHERE_LEVELS}).
+	 * @param fill ARGB colour.
+	 */
+	public PShape sphere(int level, int fill){
+		PShape mesh = spheres.get(level + "/" + Integer.toHexString(fill));
+		if( mesh == null ){
+			mesh = createSphere(level, "/" + Integer.toHexString(fill), fill, null);
+		}
+		return mesh;
+	}
+
+	/**
+	 * Square from -1 to 1 in the XZ plane, y up, with a texture stretched over it.
+	 * It is drawn unlit, its normal is 0.
+	 */
+	public PShape quad(PImage texture){
+		if( quad == null ){
+			quad = applet.createShape();
+			quad.beginShape(PConstants.QUADS);
+			quad.textureMode(PConstants.NORMAL);
+			quad.noStroke();
+			quad.fill(255);
+			quad.texture(texture);
+			quad.normal(0.f, 0.f, 0.f);
+			quad.vertex(1.f, 0.f, 1.f, 1.f, 1.f);
+			quad.vertex(1.f, 0.f, -1.f, 1.f, 0.f);
+			quad.vertex(-1.f, 0.f, -1.f, 0.f, 0.f);
+			quad.vertex(-1.f, 0.f, 1.f, 0.f, 1.f);
+			quad.endShape(PConstants.CLOSE);
+			bound.put(quad, texture);
+		}
+		return bind(quad, texture);
+	}
+
+	/**
+	 * Binds a texture to a textured mesh unless it was the last one bound, e.g.
+	 * when queued draws of a shared sphere are executed.
+	 * @return The mesh.
+	 */
+	PShape bind(PShape mesh, PImage texture){
+		if( bound.get(mesh) != texture ){
+			mesh.setTexture(texture);
+			bound.put(mesh, texture);
+		}
+		return mesh;
+	}
+
+	private PShape createSphere(int level, String key, int fill, PImage texture){
+		if( level < 0 || level >= SPHERE_LEVELS ){
+			throw new IllegalArgumentException("Sphere level " + level + " out of range [0-" + (SPHERE_LEVELS - 1) + "]");
+		}
+		if( sphereGeometry[level] == null ){
+			sphereGeometry[level] = IcoSphere.generate(level);
+		}
+		IcoSphere geometry = sphereGeometry[level];
+		PShape mesh = createMesh(FloatBuffer.wrap(geometry.vertices), IntBuffer.wrap(geometry.indices), true, fill, texture);
+		if( texture != null ){
+			bound.put(mesh, texture);
+		}
+		spheres.put(level + key, mesh);
+		return mesh;
+	}
+
+	/**
+	 * Level of detail for a sphere of a projected radius. Levels only change
+	 * once the radius passed a threshold by {@link #HYSTERESIS}, so spheres
+	 * near a threshold do not switch back and forth.
+	 * @param pixels Radius on the screen in pixels.
+	 * @param current Level used so far, -1 for none.
+	 */
+	public static int sphereLevel(float pixels, int current){
+		int level = current;
+		if( level < 0 ){
+			level = 0;
+			while( level + 1 < SPHERE_LEVELS && pixels >= LEVEL_PIXELS[level + 1] ){
+				level++;
+			}
+			return level;
+		}
+		while( level + 1 < SPHERE_LEVELS && pixels >= LEVEL_PIXELS[level + 1] * (1.f + HYSTERESIS) ){
+			level++;
+		}
+		while( level > 0 && pixels < LEVEL_PIXELS[level] * (1.f - HYSTERESIS) ){
+			level--;
+		}
+		return level;
+	}
+
+	/**
+	 * @return Number of distinct meshes, models sharing geometry and material colour count once.
+	 */
+	public int getMeshCount() {
+		return meshes.size();
+	}
+
+	public int getModelCount() {
+		return models.size();
+	}
+
+	public int getTextureCount() {
+		return textures.size();
+	}
+
+	/**
+	 * @return References to a texture, 0 if it is not loaded.
+	 */
+	public int getTextureReferences(String file) {
+		Texture texture = textures.get(file);
+		return texture == null ? 0 : texture.references;
+	}
+
+	private Model loadModel(String file) throws IOException {
+		File obj = new File(file);
+		MeshFile compiled = MeshFile.load(obj);
+		String textureFile = compiled.getTexture() == null ? null : new File(obj.getParentFile(), compiled.getTexture()).getPath();
+		PImage texture = textureFile == null ? null : acquireTexture(textureFile);
+		if( texture == null ){
+			textureFile = null;
+		}
+
+		// Textured vertices take no colour from the fill, untextured ones do
+		String key = compiled.getDigest() + (texture == null ? "/" + Integer.toHexString(compiled.getFill()) : "/textured");
+		PShape mesh = meshes.get(key);
+		if( mesh == null ){
+			mesh = createMesh(compiled.getVertices(), compiled.getIndices(), compiled.hasNormals(), compiled.getFill(), texture);
+			if( texture != null ){
+				bound.put(mesh, texture);
+			}
+			meshes.put(key, mesh);
+		}
+		return new Model(file, mesh, textureFile, texture, compiled.getFill());
+	}
+
+	/**
+	 * Builds a retained triangle mesh straight from vertices in the layout of
+	 * {@link MeshFile}, e.g. the mapped vertices of a compiled mesh.
+	 */
+	private PShape createMesh(FloatBuffer vertices, IntBuffer indices, boolean normals, int fill, PImage texture){
+		PShape shape = applet.createShape();
+		shape.beginShape(PConstants.TRIANGLES);
+		shape.textureMode(PConstants.NORMAL);
+		shape.noStroke();
+		shape.fill(fill);
+		if( texture != null ){
+			shape.texture(texture);
+		}
+		for( int i = 0; i < indices.limit(); i++ ){
+			int o = MeshFile.STRIDE * indices.get(i);
+			if( normals ){
+				shape.normal(vertices.get(o + 3), vertices.get(o + 4), vertices.get(o + 5));
+			}
+			shape.vertex(vertices.get(o), vertices.get(o + 1), vertices.get(o + 2), vertices.get(o + 6), vertices.get(o + 7));
+		}
+		shape.endShape();
+		return shape;
+	}
+
+}
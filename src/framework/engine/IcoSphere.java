@@ -0,0 +1,182 @@
+package framework.engine;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit sphere made by subdividing an icosahedron, 20 triangles at level 0
+ * and four times as many at every next level. Triangles are wound counter
+ * clockwise seen from outside.
+ * <p>
+ * Texture coordinates are the equirectangular mapping of the sphere models
+ * in {@code data/}, rows top to bottom. Vertices are split along the seam so
+ * no triangle wraps around the texture, and at the poles so every triangle
+ * takes the longitude of its other corners.
+ * <p>
+ * Vertices use the layout of {@link MeshFile}: x, y, z, normal, u, v.
+ */
+class IcoSphere {
+
+	final float[] vertices;
+	final int[] indices;
+
+	private IcoSphere(float[] vertices, int[] indices){
+		this.vertices = vertices;
+		this.indices = indices;
+	}
+
+	static IcoSphere generate(int level){
+		if( level < 0 || level > 10 ){
+			throw new IllegalArgumentException("Icosphere level " + level + " out of range [0-10]");
+		}
+		float t = (float)((1.0 + Math.sqrt(5.0)) / 2.0);
+		float[] positions = {
+			-1, t, 0,   1, t, 0,   -1, -t, 0,   1, -t, 0,
+			0, -1, t,   0, 1, t,   0, -1, -t,   0, 1, -t,
+			t, 0, -1,   t, 0, 1,   -t, 0, -1,   -t, 0, 1 };
+		int[] triangles = {
+			0, 11, 5,   0, 5, 1,   0, 1, 7,   0, 7, 10,   0, 10, 11,
+			1, 5, 9,   5, 11, 4,   11, 10, 2,   10, 7, 6,   7, 1, 8,
+			3, 9, 4,   3, 4, 2,   3, 2, 6,   3, 6, 8,   3, 8, 9,
+			4, 9, 5,   2, 4, 11,   6, 2, 10,   8, 6, 7,   9, 8, 1 };
+		int count = 12;
+		int vertexCount = 10 * (1 << (2 * level)) + 2;
+		positions = Arrays.copyOf(positions, 3 * vertexCount);
+		for( int i = 0; i < count; i++ ){
+			normalise(positions, i);
+		}
+
+		// Every edge is split once, the midpoint is shared by both its triangles
+		for( int l = 0; l < level; l++ ){
+			Map<Long, Integer> midpoints = new HashMap<Long, Integer>();
+			int[] next = new int[triangles.length * 4];
+			for( int f = 0; f < triangles.length; f += 3 ){
+				int a = triangles[f], b = triangles[f + 1], c = triangles[f + 2];
+				int ab = midpoint(positions, midpoints, a, b, count);
+				count += ab == count ? 1 : 0;
+				int bc = midpoint(positions, midpoints, b, c, count);
+				count += bc == count ? 1 : 0;
+				int ca = midpoint(positions, midpoints, c, a, count);
+				count += ca == count ? 1 : 0;
+				int o = 4 * f;
+				next[o] = a;       next[o + 1] = ab;  next[o + 2] = ca;
+				next[o + 3] = b;   next[o + 4] = bc;  next[o + 5] = ab;
+				next[o + 6] = c;   next[o + 7] = ca;  next[o + 8] = bc;
+				next[o + 9] = ab;  next[o + 10] = bc; next[o + 11] = ca;
+			}
+			triangles = next;
+		}
+
+		// Texture coordinates, with vertices split where the mapping is discontinuous
+		float[] vertices = new float[MeshFile.STRIDE * count * 2];
+		int[] indices = new int[triangles.length];
+		int[] seam = new int[count];
+		Arrays.fill(seam, -1);
+		for( int i = 0; i < count; i++ ){
+			setVertex(vertices, i, positions, i, u(positions, i));
+		}
+		int added = count;
+		float[] corner = new float[3];
+		for( int f = 0; f < triangles.length; f += 3 ){
+			float max = 0.f;
+			for( int k = 0; k < 3; k++ ){
+				corner[k] = isPole(positions, triangles[f + k]) ? -1.f : u(positions, triangles[f + k]);
+				max = Math.max(max, corner[k]);
+			}
+			// Corners far left of the others belong on the right of the texture
+			boolean wraps = false;
+			for( int k = 0; k < 3; k++ ){
+				wraps |= corner[k] >= 0.f && max - corner[k] > 0.5f;
+			}
+			for( int k = 0; k < 3; k++ ){
+				int i = triangles[f + k];
+				if( wraps && corner[k] >= 0.f && max - corner[k] > 0.5f ){
+					if( seam[i] < 0 ){
+						vertices = grow(vertices, added);
+						setVertex(vertices, added, positions, i, corner[k] + 1.f);
+						seam[i] = added++;
+					}
+					i = seam[i];
+				}else if( corner[k] < 0.f ){
+					// Poles take the mean longitude of the other corners
+					float u = 0.f;
+					for( int j = 1; j < 3; j++ ){
+						float other = corner[(k + j) % 3];
+						u += wraps && max - other > 0.5f ? other + 1.f : other;
+					}
+					vertices = grow(vertices, added);
+					setVertex(vertices, added, positions, i, u / 2.f);
+					i = added++;
+				}
+				indices[f + k] = i;
+			}
+		}
+		return new IcoSphere(Arrays.copyOf(vertices, MeshFile.STRIDE * added), indices);
+	}
+
+	private static int midpoint(float[] positions, Map<Long, Integer> midpoints, int a, int b, int next){
+		long key = a < b ? ((long)a << 32) | b : ((long)b << 32) | a;
+		Integer known = midpoints.get(key);
+		if( known != null ){
+			return known;
+		}
+		for( int k = 0; k < 3; k++ ){
+			positions[3 * next + k] = (positions[3 * a + k] + positions[3 * b + k]) * 0.5f;
+		}
+		normalise(positions, next);
+		midpoints.put(key, next);
+		return next;
+	}
+
+	private static void normalise(float[] positions, int i){
+		float x = positions[3 * i], y = positions[3 * i + 1], z = positions[3 * i + 2];
+		float length = (float)Math.sqrt(x * x + y * y + z * z);
+		positions[3 * i] = x / length;
+		positions[3 * i + 1] = y / length;
+		positions[3 * i + 2] = z / length;
+	}
+
+	private static boolean isPole(float[] positions, int i){
+		float x = positions[3 * i], z = positions[3 * i + 2];
+		return x * x + z * z < 1e-10f;
+	}
+
+	/**
+	 * @return Longitude as texture coordinate [0-1].
+	 */
+	private static float u(float[] positions, int i){
+		float u = 0.5f - (float)(Math.atan2(positions[3 * i + 2], positions[3 * i]) / (2.0 * Math.PI));
+		return u >= 1.f ? u - 1.f : u;
+	}
+
+	private static void setVertex(float[] vertices, int v, float[] positions, int i, float u){
+		int o = MeshFile.STRIDE * v;
+		float x = positions[3 * i], y = positions[3 * i + 1], z = positions[3 * i + 2];
+		vertices[o] = x;
+		vertices[o + 1] = y;
+		vertices[o + 2] = z;
+		// Normals of a unit sphere are its positions
+		vertices[o + 3] = x;
+		vertices[o + 4] = y;
+		vertices[o + 5] = z;
+		vertices[o + 6] = u;
+		vertices[o + 7] = 0.5f - (float)(Math.asin(Math.max(-1.f, Math.min(1.f, y))) / Math.PI);
+	}
+
+	private static float[] grow(float[] vertices, int count){
+		if( MeshFile.STRIDE * (count + 1) > vertices.length ){
+			return Arrays.copyOf(vertices, vertices.length * 2);
+		}
+		return vertices;
+	}
+
+	int getVertexCount() {
+		return vertices.length / MeshFile.STRIDE;
+	}
+
+	int getTriangleCount() {
+		return indices.length / 3;
+	}
+
+}
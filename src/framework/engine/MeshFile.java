@@ -0,0 +1,455 @@
+package framework.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Triangle mesh of an OBJ file compiled to a binary file next to it, so it
+ * is memory-mapped instead of parsed on every start.
+ * <p>
+ * The compiled file keeps a checksum of the OBJ file and of its material
+ * library. {@link #load(File)} compiles again when they changed, when the
+ * compiled file is missing or when it is corrupt, and writes the result for
+ * the next start. {@link #main(String[])} compiles meshes ahead of time.
+ * <p>
+ * Vertices are unique position, normal and texture coordinate triples, texture
+ * rows run top to bottom. Only the first material the OBJ file names is kept.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ * int    magic, version, vertices, indices, flags, fill colour (ARGB)
+ * long   checksum of the OBJ file and its material library
+ * byte   digest of the geometry [32]
+ * int    length, UTF-8 bytes of the material library and of the texture, empty if none
+ * float  vertices [vertex][x, y, z, nx, ny, nz, u, v]
+ * int    indices [triangle][corner]
+ * </pre>
+ */
+public class MeshFile {
+
+	static final int MAGIC = 0x4D534831;	// "MSH1"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 64;
+	static final String EXTENSION = ".mesh";
+	// Floats per vertex: position, normal, texture coordinates
+	static final int STRIDE = 8;
+
+	// Flags
+	static final int HAS_NORMALS = 1;
+	static final int HAS_UVS = 2;
+
+	private final long checksum;
+	private final byte[] digest;
+	private final int flags;
+	private final int fill;
+	private final String library;
+	private final String texture;
+	private final FloatBuffer vertices;
+	private final IntBuffer indices;
+
+	private MeshFile(long checksum, byte[] digest, int flags, int fill, String library, String texture,
+			FloatBuffer vertices, IntBuffer indices){
+		this.checksum = checksum;
+		this.digest = digest;
+		this.flags = flags;
+		this.fill = fill;
+		this.library = library;
+		this.texture = texture;
+		this.vertices = vertices;
+		this.indices = indices;
+	}
+
+	/**
+	 * Maps the compiled mesh of an OBJ file, compiling it first if it is
+	 * missing or stale. A compiled file that cannot be written is only kept
+	 * in memory.
+	 * @throws IOException If the OBJ file cannot be read or parsed.
+	 */
+	public static MeshFile load(File obj) throws IOException {
+		byte[] source = Files.readAllBytes(obj.toPath());
+		File compiled = compiledFile(obj);
+		if( compiled.isFile() ){
+			try{
+				MeshFile mesh = open(compiled);
+				if( mesh.checksum == checksum(obj, source, mesh.library) ){
+					return mesh;
+				}
+			}catch( IOException e ){
+				// Corrupt, compile again
+			}
+		}
+		MeshFile mesh = compile(obj, source);
+		try{
+			mesh.write(compiled);
+		}catch( IOException e ){
+			System.err.println("Cannot write " + compiled + ": " + e.getMessage());
+		}
+		return mesh;
+	}
+
+	/**
+	 * @return The compiled file of an OBJ file, next to it with the extension replaced.
+	 */
+	public static File compiledFile(File obj){
+		String name = obj.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(obj.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + EXTENSION);
+	}
+
+	/**
+	 * Maps a compiled mesh. The mapping stays valid after the channel is closed.
+	 */
+	public static MeshFile open(File file) throws IOException {
+		try( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) ){
+			long size = channel.size();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if( size < HEADER_BYTES || buffer.getInt(0) != MAGIC ){
+				throw new IOException("Not a mesh file");
+			}
+			if( buffer.getInt(4) != VERSION ){
+				throw new IOException("Unsupported mesh version " + buffer.getInt(4));
+			}
+			int vertexCount = buffer.getInt(8);
+			int indexCount = buffer.getInt(12);
+			int flags = buffer.getInt(16);
+			int fill = buffer.getInt(20);
+			long checksum = buffer.getLong(24);
+			byte[] digest = new byte[32];
+			buffer.position(32);
+			buffer.get(digest);
+			String library = getString(buffer);
+			String texture = getString(buffer);
+			long payload = 4L * STRIDE * vertexCount + 4L * indexCount;
+			if( vertexCount < 0 || indexCount < 0 || indexCount % 3 != 0 || size != buffer.position() + payload ){
+				throw new IOException("Truncated or corrupt mesh file");
+			}
+			buffer.limit(buffer.position() + 4 * STRIDE * vertexCount);
+			FloatBuffer vertices = buffer.slice().asFloatBuffer();
+			buffer.position(buffer.limit()).limit((int)size);
+			IntBuffer indices = buffer.slice().asIntBuffer();
+			for( int i = 0; i < indexCount; i++ ){
+				if( indices.get(i) < 0 || indices.get(i) >= vertexCount ){
+					throw new IOException("Corrupt mesh file, index " + indices.get(i) + " out of range");
+				}
+			}
+			return new MeshFile(checksum, digest, flags, fill, library.isEmpty() ? null : library,
+					texture.isEmpty() ? null : texture, vertices, indices);
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) throws IOException {
+		if( buffer.remaining() < 4 ){
+			throw new IOException("Truncated mesh file");
+		}
+		int length = buffer.getInt();
+		if( length < 0 || length > buffer.remaining() ){
+			throw new IOException("Corrupt mesh file");
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the mesh to a temporary file that then replaces the compiled file,
+	 * readers never see a partial file.
+	 */
+	public void write(File file) throws IOException {
+		byte[] libraryBytes = (library == null ? "" : library).getBytes(StandardCharsets.UTF_8);
+		byte[] textureBytes = (texture == null ? "" : texture).getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 8 + libraryBytes.length + textureBytes.length
+				+ 4 * vertices.limit() + 4 * indices.limit());
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(getVertexCount()).putInt(getIndexCount()).putInt(flags).putInt(fill);
+		buffer.putLong(checksum).put(digest);
+		buffer.putInt(libraryBytes.length).put(libraryBytes).putInt(textureBytes.length).put(textureBytes);
+		for( int i = 0; i < vertices.limit(); i++ ){
+			buffer.putFloat(vertices.get(i));
+		}
+		for( int i = 0; i < indices.limit(); i++ ){
+			buffer.putInt(indices.get(i));
+		}
+		buffer.flip();
+
+		File temporary = new File(file.getPath() + ".tmp");
+		try( FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE) ){
+			while( buffer.hasRemaining() ){
+				channel.write(buffer);
+			}
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return CRC of the OBJ file and of its material library, if it exists.
+	 */
+	static long checksum(File obj, byte[] source, String library) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(source, 0, source.length);
+		if( library != null ){
+			File mtl = new File(obj.getParentFile(), library);
+			if( mtl.isFile() ){
+				byte[] bytes = Files.readAllBytes(mtl.toPath());
+				crc.update(bytes, 0, bytes.length);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Parses an OBJ file and its first material, polygons are split into fans.
+	 */
+	static MeshFile compile(File obj, byte[] source) throws IOException {
+		String[] lines = new String(source, StandardCharsets.UTF_8).split("\r?\n");
+		MessageDigest digest;
+		try{
+			digest = MessageDigest.getInstance("SHA-256");
+		}catch( NoSuchAlgorithmException e ){
+			throw new IllegalStateException(e);
+		}
+
+		float[] positions = new float[3 * 256], uvs = new float[2 * 256], normals = new float[3 * 256];
+		int positionCount = 0, uvCount = 0, normalCount = 0;
+		float[] vertices = new float[STRIDE * 256];
+		int[] indices = new int[3 * 256];
+		int vertexCount = 0, indexCount = 0, flags = HAS_NORMALS | HAS_UVS;
+		Map<String, Integer> unique = new HashMap<String, Integer>();
+		String library = null, material = null;
+		int[] corner = new int[3];
+
+		for( int l = 0; l < lines.length; l++ ){
+			String line = lines[l].trim();
+			if( line.isEmpty() || line.charAt(0) == '#' ){
+				continue;
+			}
+			String[] tokens = line.split("\\s+");
+			try{
+				// Material statements do not change the geometry
+				if( tokens[0].equals("mtllib") ){
+					if( library == null ){
+						library = line.substring(6).trim();
+					}
+					continue;
+				}else if( tokens[0].equals("usemtl") ){
+					if( material == null ){
+						material = line.substring(6).trim();
+					}
+					continue;
+				}
+				digest.update(line.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte)'\n');
+
+				if( tokens[0].equals("v") ){
+					if( 3 * positionCount == positions.length ){
+						positions = Arrays.copyOf(positions, positions.length * 2);
+					}
+					for( int k = 0; k < 3; k++ ){
+						positions[3 * positionCount + k] = Float.parseFloat(tokens[1 + k]);
+					}
+					positionCount++;
+				}else if( tokens[0].equals("vt") ){
+					if( 2 * uvCount == uvs.length ){
+						uvs = Arrays.copyOf(uvs, uvs.length * 2);
+					}
+					uvs[2 * uvCount] = Float.parseFloat(tokens[1]);
+					uvs[2 * uvCount + 1] = 1.f - Float.parseFloat(tokens[2]);
+					uvCount++;
+				}else if( tokens[0].equals("vn") ){
+					if( 3 * normalCount == normals.length ){
+						normals = Arrays.copyOf(normals, normals.length * 2);
+					}
+					for( int k = 0; k < 3; k++ ){
+						normals[3 * normalCount + k] = Float.parseFloat(tokens[1 + k]);
+					}
+					normalCount++;
+				}else if( tokens[0].equals("f") ){
+					for( int v = 1; v < tokens.length; v++ ){
+						String[] index = tokens[v].split("/", -1);
+						int p = index(index[0], positionCount);
+						int t = index.length > 1 && !index[1].isEmpty() ? index(index[1], uvCount) : -1;
+						int n = index.length > 2 && !index[2].isEmpty() ? index(index[2], normalCount) : -1;
+						if( t < 0 ){
+							flags &= ~HAS_UVS;
+						}
+						if( n < 0 ){
+							flags &= ~HAS_NORMALS;
+						}
+						String key = p + "/" + t + "/" + n;
+						Integer vertex = unique.get(key);
+						if( vertex == null ){
+							if( STRIDE * vertexCount == vertices.length ){
+								vertices = Arrays.copyOf(vertices, vertices.length * 2);
+							}
+							int o = STRIDE * vertexCount;
+							System.arraycopy(positions, 3 * p, vertices, o, 3);
+							if( n >= 0 ){
+								System.arraycopy(normals, 3 * n, vertices, o + 3, 3);
+							}
+							if( t >= 0 ){
+								System.arraycopy(uvs, 2 * t, vertices, o + 6, 2);
+							}
+							vertex = vertexCount++;
+							unique.put(key, vertex);
+						}
+						// First corner, previous corner, this corner
+						if( v <= 3 ){
+							corner[v - 1] = vertex;
+						}else{
+							corner[1] = corner[2];
+							corner[2] = vertex;
+						}
+						if( v >= 3 ){
+							if( indexCount + 3 > indices.length ){
+								indices = Arrays.copyOf(indices, indices.length * 2);
+							}
+							indices[indexCount++] = corner[0];
+							indices[indexCount++] = corner[1];
+							indices[indexCount++] = corner[2];
+						}
+					}
+				}
+			}catch( RuntimeException e ){
+				throw new IOException(obj + ":" + (l + 1) + ": " + e.getMessage(), e);
+			}
+		}
+
+		// Fill colour and texture of the material
+		int fill = 0xFFFFFFFF;
+		String texture = null;
+		if( library != null ){
+			File mtl = new File(obj.getParentFile(), library);
+			if( mtl.isFile() ){
+				boolean found = false;
+				for( String line : Files.readAllLines(mtl.toPath(), StandardCharsets.UTF_8) ){
+					String[] tokens = line.trim().split("\\s+");
+					if( tokens[0].equals("newmtl") ){
+						if( found ){
+							break;
+						}
+						found = material == null || tokens.length > 1 && tokens[1].equals(material);
+					}else if( found && tokens[0].equals("Kd") && tokens.length >= 4 ){
+						fill = 0xFF000000 | channel(tokens[1]) << 16 | channel(tokens[2]) << 8 | channel(tokens[3]);
+					}else if( found && tokens[0].equals("map_Kd") && tokens.length >= 2 ){
+						texture = tokens[tokens.length - 1];
+					}
+				}
+			}
+		}
+
+		return new MeshFile(checksum(obj, source, library), digest.digest(), flags, fill, library, texture,
+				FloatBuffer.wrap(Arrays.copyOf(vertices, STRIDE * vertexCount)),
+				IntBuffer.wrap(Arrays.copyOf(indices, indexCount)));
+	}
+
+	/**
+	 * @return Zero based index of a one based or negative (relative) OBJ index.
+	 */
+	private static int index(String token, int count){
+		int i = Integer.parseInt(token);
+		i = i < 0 ? count + i : i - 1;
+		if( i < 0 || i >= count ){
+			throw new IndexOutOfBoundsException("Index " + token + " out of range");
+		}
+		return i;
+	}
+
+	/**
+	 * @return Colour channel [0-255] of a material colour [0-1].
+	 */
+	private static int channel(String token){
+		return Math.max(0, Math.min(255, (int)(255 * Float.parseFloat(token))));
+	}
+
+	/**
+	 * @return Hexadecimal digest of the geometry, equal for files that differ only by their materials.
+	 */
+	public String getDigest() {
+		StringBuilder hex = new StringBuilder();
+		for( byte b : digest ){
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	public int getVertexCount() {
+		return vertices.limit() / STRIDE;
+	}
+
+	/**
+	 * @return Number of indices, three per triangle.
+	 */
+	public int getIndexCount() {
+		return indices.limit();
+	}
+
+	/**
+	 * @return Vertices [vertex][x, y, z, nx, ny, nz, u, v], a view of the mapped file.
+	 */
+	public FloatBuffer getVertices() {
+		return vertices.duplicate();
+	}
+
+	/**
+	 * @return Indices [triangle][corner], a view of the mapped file.
+	 */
+	public IntBuffer getIndices() {
+		return indices.duplicate();
+	}
+
+	public boolean hasNormals() {
+		return (flags & HAS_NORMALS) != 0;
+	}
+
+	public boolean hasTextureCoordinates() {
+		return (flags & HAS_UVS) != 0;
+	}
+
+	/**
+	 * @return Diffuse colour of the material, ARGB.
+	 */
+	public int getFill() {
+		return fill;
+	}
+
+	/**
+	 * @return Texture file of the material relative to the OBJ file, null if there is none.
+	 */
+	public String getTexture() {
+		return texture;
+	}
+
+	/**
+	 * Compiles OBJ files ahead of time.
+	 * @param args OBJ files.
+	 */
+	public static void main(String[] args) throws IOException {
+		if( args.length == 0 ){
+			System.err.println("Usage: MeshFile <file.obj>...");
+			System.exit(1);
+		}
+		for( String name : args ){
+			File obj = new File(name);
+			long start = System.nanoTime();
+			MeshFile mesh = compile(obj, Files.readAllBytes(obj.toPath()));
+			File compiled = compiledFile(obj);
+			mesh.write(compiled);
+			System.out.printf("%s: %d vertices, %d triangles, %d bytes in %.1f ms%n", compiled, mesh.getVertexCount(),
+					mesh.getIndexCount() / 3, compiled.length(), (System.nanoTime() - start) / 1e6);
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+package framework.engine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import processing.core.PConstants;
+import processing.core.PImage;
+import processing.core.PMatrix3D;
+import processing.core.PShape;
+
+/**
+ * Draws of retained shapes collected while the objects of a {@link Scene}
+ * are displayed, executed together once all of them were.
+ * <p>
+ * A draw keeps the model view matrix it was queued with and the state it
+ * needs: lighting, texture and blend mode. Draws are sorted so that draws
+ * with the same state follow each other and the state only changes between
+ * groups, in particular {@link Scene#lights()} is called once for all lit
+ * draws after unlit ones instead of once per unlit object.
+ * <p>
+ * Opaque draws go first, lit ones before unlit ones since lights are on when
+ * the queue is executed, then by blend mode, texture and shape. Draws that
+ * blend with what is behind them, textures with alpha or blend modes other
+ * than {@link PConstants#BLEND BLEND}, go last and back to front.
+ * @see Scene#getRenderQueue()
+ */
+public class RenderQueue {
+
+	private final Scene scene;
+
+	private Command[] commands = new Command[0];
+	private int size = 0;
+	// Small ids of the textures and shapes queued this frame, for sorting
+	private final Map<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+
+	private int groups = 0;
+	private int lightChanges = 0;
+
+	static class Command {
+		PShape shape;
+		PImage texture;
+		boolean lit;
+		int blend;
+		boolean blended;
+		// Distance in front of the camera, for blended draws
+		float depth;
+		int textureId;
+		int shapeId;
+		int sequence;
+		final PMatrix3D matrix = new PMatrix3D();
+	}
+
+	private static final Comparator<Command> ORDER = new Comparator<Command>(){
+		@Override
+		public int compare(Command a, Command b){
+			if( a.blended != b.blended ){
+				return a.blended ? 1 : -1;
+			}
+			if( a.blended && a.depth != b.depth ){
+				return Float.compare(b.depth, a.depth);
+			}
+			if( a.lit != b.lit ){
+				return a.lit ? -1 : 1;
+			}
+			if( a.blend != b.blend ){
+				return a.blend - b.blend;
+			}
+			if( a.textureId != b.textureId ){
+				return a.textureId - b.textureId;
+			}
+			if( a.shapeId != b.shapeId ){
+				return a.shapeId - b.shapeId;
+			}
+			return a.sequence - b.sequence;
+		}
+	};
+
+	public RenderQueue(Scene scene){
+		this.scene = scene;
+	}
+
+	/**
+	 * Queues a lit or unlit draw with the default blend mode.
+	 * @see #add(PShape, PImage, boolean, int)
+	 */
+	public void add(PShape shape, PImage texture, boolean lit){
+		add(shape, texture, lit, PConstants.BLEND);
+	}
+
+	/**
+	 * Queues a draw of a shape with the current model view matrix of the scene.
+	 * @param texture Texture bound to the shape when it is drawn, null to keep its own.
+	 * @param lit False to draw the shape without lights.
+	 * @param blend Blend mode, e.g. {@link PConstants#BLEND BLEND} or {@link PConstants#ADD ADD}.
+	 */
+	public void add(PShape shape, PImage texture, boolean lit, int blend){
+		if( shape == null ){
+			throw new IllegalArgumentException("Cannot queue a draw without a shape");
+		}
+		if( size == commands.length ){
+			commands = Arrays.copyOf(commands, Math.max(16, 2 * size));
+			for( int i = size; i < commands.length; i++ ){
+				commands[i] = new Command();
+			}
+		}
+		Command command = commands[size];
+		command.shape = shape;
+		command.texture = texture;
+		command.lit = lit;
+		command.blend = blend;
+		command.blended = blend != PConstants.BLEND || (texture != null && texture.format == PConstants.ARGB);
+		scene.getMatrix(command.matrix);
+		command.depth = -command.matrix.m23;
+		command.textureId = texture == null ? 0 : id(texture);
+		command.shapeId = id(shape);
+		command.sequence = size++;
+	}
+
+	private int id(Object key){
+		Integer id = ids.get(key);
+		if( id == null ){
+			id = ids.size() + 1;
+			ids.put(key, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Executes and empties the queue. Lights are expected on, as set up by
+	 * {@link Scene#lights()}, and are on again afterwards. The matrix and
+	 * blend mode of the scene are left as they were.
+	 */
+	public void flush(){
+		groups = 0;
+		lightChanges = 0;
+		if( size == 0 ){
+			return;
+		}
+		Arrays.sort(commands, 0, size, ORDER);
+
+		scene.pushMatrix();
+		boolean lit = true;
+		int blend = PConstants.BLEND;
+		Command previous = null;
+		for( int i = 0; i < size; i++ ){
+			Command command = commands[i];
+			if( previous == null || command.lit != previous.lit || command.blend != previous.blend
+					|| command.texture != previous.texture ){
+				groups++;
+			}
+			if( command.lit != lit ){
+				if( command.lit ){
+					scene.lights();
+				}else{
+					scene.noLights();
+				}
+				lit = command.lit;
+				lightChanges++;
+			}
+			if( command.blend != blend ){
+				scene.getState().blendMode(command.blend);
+				blend = command.blend;
+			}
+			if( command.texture != null ){
+				scene.getAssets().bind(command.shape, command.texture);
+			}
+			scene.setMatrix(command.matrix);
+			scene.shape(command.shape);
+			previous = command;
+		}
+		if( !lit ){
+			scene.lights();
+			lightChanges++;
+		}
+		if( blend != PConstants.BLEND ){
+			scene.getState().blendMode(PConstants.BLEND);
+		}
+		scene.popMatrix();
+
+		// Nothing of this frame is kept alive by the queue
+		for( int i = 0; i < size; i++ ){
+			commands[i].shape = null;
+			commands[i].texture = null;
+		}
+		ids.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return Number of draws queued since the last flush.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Number of runs of draws sharing lighting, blend mode and texture in the last flush.
+	 */
+	public int getGroupCount() {
+		return groups;
+	}
+
+	/**
+	 * @return Number of times the last flush switched lights on or off.
+	 */
+	public int getLightChanges() {
+		return lightChanges;
+	}
+
+}
@@ -7,6 +7,7 @@ import com.jogamp.opengl.GL2;		// Advanced OpenGL properties
 
 import framework.interfaces.*;
 import framework.utility.Camera;
+import framework.utility.Frustum;
 /**
  * Default setup for G53GRA Coursework. You should subclass {@code Scene} and add your functionality.
  * Override {@link #initialise()} to add {@link DisplayableObject}s to your {@code Scene}. Running your subclass
@@ -37,13 +38,43 @@ public class Scene extends PApplet {
 	 */
 	protected int numObj, numAni;
 	/**
-	 * Runtime variable, marks last time {@code dT} was calculated.
+	 * Runtime variable, marks last time {@code dT} was calculated (in nanoseconds).
 	 */
-	protected float prevTime;
+	protected long prevTime;
+	/**
+	 * Fixed step clock driving {@link Animation}s.
+	 * @see #update()
+	 */
+	protected SimulationClock clock = new SimulationClock();
+	/**
+	 * Models and textures shared by the objects of this scene.
+	 * @see #getAssets()
+	 */
+	private AssetCache assets = new AssetCache(this);
+	/**
+	 * Draws queued by objects while they are displayed, executed once all objects were displayed.
+	 * @see #getRenderQueue()
+	 */
+	private RenderQueue renderQueue = new RenderQueue(this);
+	/**
+	 * Last known OpenGL and renderer state, so that state already set is not set again every frame.
+	 * @see #getState()
+	 */
+	private StateCache state = new StateCache(this);
+	/**
+	 * View volume of the current camera and projection, taken every frame once the camera is set up.
+	 * @see #getFrustum()
+	 */
+	private Frustum frustum = new Frustum();
+	/**
+	 * Bounding sphere of a {@link Bounded} object, reused every frame.
+	 */
+	private float[] bounds = new float[4];
 	/**
 	 * <b>ADVANCED</b>
 	 * <p>
-	 * Progressing-OpenGL abstraction layer. Access only from within {@link setupGL} or in sub-classes
+	 * Progressing-OpenGL abstraction layer, taken once in {@link #setup()}. Access only from within {@link setupGL}
+	 * or in sub-classes, state changes are better made through {@link #getState()}
 	 * @see #setupGL()
 	 */
 	public PGL gl;
@@ -97,7 +128,7 @@ public class Scene extends PApplet {
 		setupGL();						// Setup initial Processing/OpenGL properties
 		
 		initialise();					// Call initialise() (should overload in sub-class)
-		prevTime = millis();
+		prevTime = System.nanoTime();
 		
 		System.out.println("Setup complete. Window created ["+width+"x"+height+"]");
 		System.out.println("OpenGL version " + gl.getString(PGL.VERSION));
@@ -130,23 +161,25 @@ public class Scene extends PApplet {
 		initHeight = 400;				// Default height: 400px
 	}
 	/**
-	 * Sets rendering properties of your scene by accessing OpenGL commands directly.
+	 * Sets rendering properties of your scene through the {@link StateCache}, which only passes
+	 * on to OpenGL what is not set already. Called every frame, as Processing resets some of them.
 	 * <p>
 	 * You should only overload this method if you are confident in your understanding of the PGL binding.
+	 * Set state through {@link #getState()} rather than {@link #gl}, or the cache cannot know about it.
 	 * @see #setup()
 	 * @see #draw()
 	 */
 	protected void setupGL(){
-		gl.enable(PGL.DEPTH_TEST);		// Make sure depth testing is enabled
-		gl.depthFunc(PGL.LEQUAL);		// Set depth function
-		gl.enable(PGL.CULL_FACE);		// Enable face culling
-		gl.frontFace(PGL.CCW);			// Set counter-clockwise winding
-		gl.cullFace(PGL.BACK);			// Set back-face culling
-		gl.enable(GL2.GL_NORMALIZE);
+		state.enable(PGL.DEPTH_TEST);		// Make sure depth testing is enabled
+		state.depthFunc(PGL.LEQUAL);		// Set depth function
+		state.enable(PGL.CULL_FACE);		// Enable face culling
+		state.frontFace(PGL.CCW);			// Set counter-clockwise winding
+		state.cullFace(PGL.BACK);			// Set back-face culling
+		state.enable(GL2.GL_NORMALIZE);
 		
-		colorMode(RGB);		 			// Sets the default colour mode to RGB(A)
-		textureMode(NORMAL); 			// Normalises texture coordinates so that (0,0) is ...
-							 			//  ... the top-left and (1,1) is bottom-right
+		state.colorMode(RGB);		 		// Sets the default colour mode to RGB(A)
+		state.textureMode(NORMAL); 			// Normalises texture coordinates so that (0,0) is ...
+							 				//  ... the top-left and (1,1) is bottom-right
 	}
 	
 /////// DRAW FUNCTIONS //////////////////////////////////////////////
@@ -170,17 +203,22 @@ public class Scene extends PApplet {
 	 */
 	@Override
 	public final void draw(){
-		gl = beginPGL();
+		state.beginFrame();							// forget what Processing reset for this frame
 		setupGL();									// setup OpenGL properties
 		background(bgcolour);						// set background colour
 		resetMatrix();								// load identity
 		reshape();									// handle any window resizing
 		update();									// update Camera and AnimatedObjects
 		camera.setup();								// setup camera
+		frustum.update(g);							// view volume of this frame
 		lights();									// setup lighting
-		for(DisplayableObject obj : objects.values())
+		for(DisplayableObject obj : objects.values()){
+			if(obj instanceof Bounded && ((Bounded) obj).getBounds(bounds)
+					&& !frustum.isVisible(bounds[0], bounds[1], bounds[2], bounds[3]))
+				continue;							// skip objects out of view
 			obj.display();							// display all objects in the scene
-		
+		}
+		renderQueue.flush();						// draw what the objects queued
 	}
 	/**
 	 * Sets the clear (background) colour of the rendering window. By default, the colour is
@@ -313,20 +351,26 @@ public class Scene extends PApplet {
 ////// ANIMATION FUNCTIONS //////////////////////////////////////////
 	/**
 	 * The update function for {@link Camera} and {@link Animation}. Calculates the time-delay since
-	 * the last update and passes as a parameter to the respective class's {@code update()} functions.
+	 * the last update and passes it to the {@link Camera}. {@link Animation}s are updated in fixed steps
+	 * of the {@link SimulationClock}, as many as fit in the elapsed time (possibly none).
 	 * <p>
 	 * You should only override this class if you want to change how the animation update function works.
 	 * This is not advised.
 	 * @see Camera
 	 * @see Animation
+	 * @see SimulationClock
 	 * @see #draw()
 	 * @see #runtime()
 	 */
 	protected void update(){
 		float dT = runtime();						// Calculate runtime since last call
 		camera.update(dT);							// Update camera
-		for(DisplayableObject obj : objects.values()){	// Look for AnimatedObjects
-			if(obj instanceof Animation) ((Animation) obj).update(dT); // update Animation
+		int steps = clock.advance(dT);				// Number of fixed steps in this frame
+		float step = clock.getFixedStep();
+		for(int i = 0; i < steps; i++){
+			for(DisplayableObject obj : objects.values()){	// Look for AnimatedObjects
+				if(obj instanceof Animation) ((Animation) obj).update(step); // update Animation
+			}
 		}
 	}
 	/**
@@ -336,11 +380,56 @@ public class Scene extends PApplet {
 	 * @return dT (ΔT) the difference in time since the last call to {@code runtime}
 	 */
 	protected final float runtime(){
-		int currTime = millis();						// Get total runtime in milliseconds
-		float dT = (float)(currTime-prevTime)/1000.f;	// Calculate time difference and convert to seconds 
+		long currTime = System.nanoTime();				// Get time in nanoseconds
+		float dT = (float)((currTime-prevTime)/1e9);	// Calculate time difference and convert to seconds 
 		prevTime = currTime;							// Update internal time variable
 		return dT;
 	}
+	/**
+	 * Access the clock driving {@link Animation}s, e.g. to change the fixed step length.
+	 * @return The {@link SimulationClock} of this {@link Scene}
+	 */
+	public final SimulationClock getClock(){
+		return clock;
+	}
+	/**
+	 * Position between the previous and the current animation state that should be displayed,
+	 * since frames rarely fall exactly on a fixed step.
+	 * @see SimulationClock#getAlpha()
+	 * @return interpolation factor [0-1)
+	 */
+	public final float getInterpolationAlpha(){
+		return clock.getAlpha();
+	}
+	/**
+	 * Access the models and textures shared by the objects of this {@link Scene}.
+	 * @return The {@link AssetCache} of this {@link Scene}
+	 */
+	public final AssetCache getAssets(){
+		return assets;
+	}
+	/**
+	 * Access the queue objects can add draws of retained shapes to instead of drawing them
+	 * straight away, so draws needing the same lighting and texture are made together.
+	 * @return The {@link RenderQueue} executed at the end of every {@link #draw()}
+	 */
+	public final RenderQueue getRenderQueue(){
+		return renderQueue;
+	}
+	/**
+	 * Access the OpenGL and renderer state of this {@link Scene}, to change state only when it differs.
+	 * @return The {@link StateCache} of this {@link Scene}, with the number of calls it left out last frame
+	 */
+	public final StateCache getState(){
+		return state;
+	}
+	/**
+	 * Access the view volume of the current frame, for culling objects and parts of objects.
+	 * @return The {@link Frustum} of the camera and projection this frame is drawn with
+	 */
+	public final Frustum getFrustum(){
+		return frustum;
+	}
 ////// LIGHTING FUNCTIONS ///////////////////////////////////////////
 	/**
 	 * Sets default lighting properties and applies all lighting to the scene.
@@ -352,7 +441,8 @@ public class Scene extends PApplet {
 	 * @see #resetLightProperties()
 	 */
 	public final void lights(){
-		camera.setup();									// Check camera is correct 
+		if(!state.isCameraSet()) camera.setup();		// Check camera is correct
+		else state.avoided();							// ... it is right after draw() set it up
 		resetLightProperties();							// Reset specular colour and light attenuation (stacks) 
 		globalLighting();								// Set global Scene lighting
 		for(DisplayableObject obj : objects.values()){	// Look for lit objects
@@ -0,0 +1,124 @@
+package framework.engine;
+
+/**
+ * Fixed time step clock used by {@link Scene} to drive {@link framework.interfaces.Animation}s.
+ * <p>
+ * Frame time is accumulated and consumed in steps of a fixed length, so the simulation advances
+ * the same way regardless of the frame rate. At most {@link #getMaxSubsteps()} steps are taken per
+ * frame, time beyond that is dropped so one long frame cannot cause ever longer ones.
+ * <p>
+ * What is left in the accumulator after stepping is exposed as {@link #getAlpha()}, the position
+ * between the previous and the current simulation state that should be displayed.
+ * @see Scene#update()
+ */
+public class SimulationClock {
+	/**
+	 * Length of one simulation step in seconds.
+	 */
+	private float fixedStep = 1.f / 240.f;
+	/**
+	 * Maximum number of steps taken in one frame.
+	 */
+	private int maxSubsteps = 8;
+	/**
+	 * Frame time not yet consumed by steps, in seconds.
+	 */
+	private double accumulator = 0.0;
+	/**
+	 * Number of steps taken since the start (or last {@link #reset()}).
+	 */
+	private long steps = 0;
+	/**
+	 * Simulated time in seconds.
+	 */
+	private double time = 0.0;
+	/**
+	 * Number of steps dropped because of the {@link #maxSubsteps} limit.
+	 */
+	private long droppedSteps = 0;
+
+	/**
+	 * Adds the time of a frame and returns how many fixed steps should be taken.
+	 * @param frameTime time since the previous frame in seconds
+	 * @return number of steps of {@link #getFixedStep()} seconds to take
+	 */
+	public int advance(double frameTime){
+		if (frameTime > 0.0) accumulator += frameTime;
+		long n = (long)(accumulator / fixedStep);
+		if (n > maxSubsteps) {						// Too far behind, drop whole steps
+			droppedSteps += n - maxSubsteps;
+			accumulator -= (n - maxSubsteps) * (double)fixedStep;
+			n = maxSubsteps;
+		}
+		accumulator -= n * (double)fixedStep;
+		steps += n;
+		time += n * (double)fixedStep;
+		return (int)n;
+	}
+	/**
+	 * Clears accumulated time and step counters.
+	 */
+	public void reset(){
+		accumulator = 0.0;
+		steps = 0;
+		time = 0.0;
+		droppedSteps = 0;
+	}
+	/**
+	 * @return interpolation factor [0-1) between the previous and the current simulation state
+	 */
+	public float getAlpha(){
+		return (float)(accumulator / fixedStep);
+	}
+	/**
+	 * @return simulated time in seconds, i.e. the sum of all steps taken
+	 */
+	public double getTime(){
+		return time;
+	}
+
+	public long getSteps(){
+		return steps;
+	}
+
+	public long getDroppedSteps(){
+		return droppedSteps;
+	}
+	/**
+	 * @return frame time not yet consumed by steps, in seconds
+	 */
+	public double getAccumulator(){
+		return accumulator;
+	}
+	/**
+	 * Puts the clock back to a saved point, e.g. when a checkpoint is restored.
+	 * @param time simulated time in seconds
+	 * @param steps number of steps taken
+	 * @param accumulator frame time not yet consumed by steps
+	 */
+	public void restore(double time, long steps, double accumulator){
+		this.time = time;
+		this.steps = steps;
+		this.accumulator = accumulator;
+	}
+
+	public float getFixedStep(){
+		return fixedStep;
+	}
+	/**
+	 * @param fixedStep length of one simulation step in seconds, e.g. {@code 1.f/240.f} for 240 Hz
+	 */
+	public void setFixedStep(float fixedStep){
+		if (fixedStep <= 0.f) throw new IllegalArgumentException("Step must be positive: " + fixedStep);
+		this.fixedStep = fixedStep;
+	}
+
+	public int getMaxSubsteps(){
+		return maxSubsteps;
+	}
+
+	public void setMaxSubsteps(int maxSubsteps){
+		if (maxSubsteps < 1) throw new IllegalArgumentException("At least one sub-step is needed: " + maxSubsteps);
+		this.maxSubsteps = maxSubsteps;
+	}
+}
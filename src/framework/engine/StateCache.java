@@ -0,0 +1,234 @@
+package framework.engine;
+
+import java.util.Arrays;
+
+import processing.core.PMatrix3D;
+import processing.opengl.PGL;
+import processing.opengl.PGraphicsOpenGL;
+
+/**
+ * Last known OpenGL and renderer state of a {@link Scene}. Setting state
+ * through the cache only reaches OpenGL or the renderer when it changes
+ * something, calls that would not are counted instead.
+ * <p>
+ * Processing sets some OpenGL state itself whenever a frame begins: depth
+ * test and function, face culling, front face, multisampling and polygon
+ * smoothing. The cache forgets these in {@link #beginFrame()}, state that
+ * Processing leaves alone, e.g. the culled face or {@code GL_NORMALIZE},
+ * is only set again once it changed.
+ * <p>
+ * Renderer state, colour and texture mode, is compared with the renderer
+ * itself, so it is never stale. OpenGL state set without the cache is not
+ * seen by it, set state either through the cache or not at all.
+ * @see Scene#getState()
+ */
+public class StateCache {
+
+	// Capability or parameter whose value is not known
+	static final int UNKNOWN = -1;
+
+	private final Scene scene;
+
+	// Capabilities seen so far and whether they are enabled (1), disabled (0) or unknown
+	private int[] capabilities = new int[8];
+	private int[] enabled = new int[8];
+	private int capabilityCount = 0;
+	private int depthFunc = UNKNOWN;
+	private int frontFace = UNKNOWN;
+	private int cullFace = UNKNOWN;
+	private int blendMode = UNKNOWN;
+
+	private int issued = 0, avoided = 0;
+	private int frameIssued = 0, frameAvoided = 0;
+
+	public StateCache(Scene scene){
+		this.scene = scene;
+	}
+
+	/**
+	 * Forgets the state Processing sets when a frame begins and starts
+	 * counting the calls of the next frame.
+	 */
+	public void beginFrame(){
+		forget(PGL.DEPTH_TEST);
+		forget(PGL.CULL_FACE);
+		forget(PGL.MULTISAMPLE);
+		forget(PGL.POLYGON_SMOOTH);
+		depthFunc = UNKNOWN;
+		frontFace = UNKNOWN;
+		frameIssued = issued;
+		frameAvoided = avoided;
+		issued = 0;
+		avoided = 0;
+	}
+
+	/**
+	 * Forgets all state, e.g. after OpenGL was used without the cache.
+	 */
+	public void invalidate(){
+		Arrays.fill(enabled, 0, capabilityCount, UNKNOWN);
+		depthFunc = UNKNOWN;
+		frontFace = UNKNOWN;
+		cullFace = UNKNOWN;
+		blendMode = UNKNOWN;
+	}
+
+	public void enable(int capability){
+		setCapability(capability, 1);
+	}
+
+	public void disable(int capability){
+		setCapability(capability, 0);
+	}
+
+	private void setCapability(int capability, int value){
+		int i = indexOf(capability);
+		if( i < 0 ){
+			if( capabilityCount == capabilities.length ){
+				capabilities = Arrays.copyOf(capabilities, 2 * capabilityCount);
+				enabled = Arrays.copyOf(enabled, 2 * capabilityCount);
+			}
+			i = capabilityCount++;
+			capabilities[i] = capability;
+			enabled[i] = UNKNOWN;
+		}
+		if( enabled[i] == value ){
+			avoided++;
+			return;
+		}
+		PGL gl = beginGL();
+		if( value == 1 ){
+			gl.enable(capability);
+		}else{
+			gl.disable(capability);
+		}
+		enabled[i] = value;
+	}
+
+	private void forget(int capability){
+		int i = indexOf(capability);
+		if( i >= 0 ){
+			enabled[i] = UNKNOWN;
+		}
+	}
+
+	private int indexOf(int capability){
+		for( int i = 0; i < capabilityCount; i++ ){
+			if( capabilities[i] == capability ){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public void depthFunc(int function){
+		if( depthFunc == function ){
+			avoided++;
+			return;
+		}
+		beginGL().depthFunc(function);
+		depthFunc = function;
+	}
+
+	public void frontFace(int winding){
+		if( frontFace == winding ){
+			avoided++;
+			return;
+		}
+		beginGL().frontFace(winding);
+		frontFace = winding;
+	}
+
+	public void cullFace(int face){
+		if( cullFace == face ){
+			avoided++;
+			return;
+		}
+		beginGL().cullFace(face);
+		cullFace = face;
+	}
+
+	/**
+	 * Geometry Processing batched so far must be drawn with the state it was
+	 * made with, before OpenGL state changes under it.
+	 */
+	private PGL beginGL(){
+		issued++;
+		scene.flush();
+		return ((PGraphicsOpenGL)scene.g).pgl;
+	}
+
+	/**
+	 * @see processing.core.PApplet#colorMode(int)
+	 */
+	public void colorMode(int mode){
+		if( scene.g.colorMode == mode ){
+			avoided++;
+			return;
+		}
+		issued++;
+		scene.colorMode(mode);
+	}
+
+	/**
+	 * @see processing.core.PApplet#textureMode(int)
+	 */
+	public void textureMode(int mode){
+		if( scene.g.textureMode == mode ){
+			avoided++;
+			return;
+		}
+		issued++;
+		scene.textureMode(mode);
+	}
+
+	/**
+	 * @see processing.core.PApplet#blendMode(int)
+	 */
+	public void blendMode(int mode){
+		if( blendMode == mode ){
+			avoided++;
+			return;
+		}
+		issued++;
+		scene.blendMode(mode);
+		blendMode = mode;
+	}
+
+	/**
+	 * @return True if the model view matrix is the camera of the renderer, as
+	 * right after {@link framework.utility.Camera#setup()}.
+	 */
+	public boolean isCameraSet(){
+		if( !(scene.g instanceof PGraphicsOpenGL) ){
+			return false;
+		}
+		PMatrix3D m = ((PGraphicsOpenGL)scene.g).modelview, c = ((PGraphicsOpenGL)scene.g).camera;
+		return m.m00 == c.m00 && m.m01 == c.m01 && m.m02 == c.m02 && m.m03 == c.m03
+				&& m.m10 == c.m10 && m.m11 == c.m11 && m.m12 == c.m12 && m.m13 == c.m13
+				&& m.m20 == c.m20 && m.m21 == c.m21 && m.m22 == c.m22 && m.m23 == c.m23
+				&& m.m30 == c.m30 && m.m31 == c.m31 && m.m32 == c.m32 && m.m33 == c.m33;
+	}
+
+	/**
+	 * Counts a call that was left out because the state was known to be set.
+	 */
+	void avoided(){
+		avoided++;
+	}
+
+	/**
+	 * @return Number of state calls of the last frame that changed something.
+	 */
+	public int getIssuedCount() {
+		return frameIssued;
+	}
+
+	/**
+	 * @return Number of state calls of the last frame left out because they would not have changed anything.
+	 */
+	public int getAvoidedCount() {
+		return frameAvoided;
+	}
+
+}
@@ -0,0 +1,16 @@
+package framework.interfaces;
+
+/**
+ * Interface for objects that know a bounding sphere of everything they draw. In
+ * {@link framework.engine.Scene Scene}, {@link framework.engine.DisplayableObject DisplayableObject}s
+ * that {@code implements Bounded} are not displayed while their sphere is outside the view.
+ * @see framework.utility.Frustum
+ */
+public interface Bounded {
+	/**
+	 * Called once per frame before the object is displayed, after it was updated.
+	 * @param sphere Receives the centre x, y, z and the radius in World Space.
+	 * @return False if the object has no bounds this frame and must always be displayed.
+	 */
+	boolean getBounds(float[] sphere);
+}
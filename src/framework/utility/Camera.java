@@ -76,6 +76,29 @@ public class Camera implements Input{
 		return 0;
 	}
 	
+	/**
+	 * Viewing properties as one array, e.g. to save them with the rest of a scene.
+	 * @return {@link #eye}, {@link #view}, {@link #forward}, {@link #right} and {@link #up}, three floats each
+	 * @see #setState(float[])
+	 */
+	public float[] getState(){
+		return new float[]{ eye.x, eye.y, eye.z, view.x, view.y, view.z, forward.x, forward.y, forward.z,
+				right.x, right.y, right.z, up.x, up.y, up.z };
+	}
+	
+	/**
+	 * Restores viewing properties returned by {@link #getState()}.
+	 * @param state 15 floats
+	 */
+	public void setState(float[] state){
+		if (state.length != 15) throw new IllegalArgumentException("Camera state has 15 values, not " + state.length);
+		eye.set(state[0], state[1], state[2]);
+		view.set(state[3], state[4], state[5]);
+		forward.set(state[6], state[7], state[8]);
+		right.set(state[9], state[10], state[11]);
+		up.set(state[12], state[13], state[14]);
+	}
+	
 	/**
 	 * Called by {@link Scene} {@code parent} to position camera.
 	 * <p>
@@ -0,0 +1,108 @@
+package framework.utility;
+
+import processing.core.PGraphics;
+import processing.core.PMatrix3D;
+import processing.opengl.PGraphicsOpenGL;
+
+/**
+ * View volume of the current projection and camera, for rejecting objects
+ * that cannot be seen before they are drawn.
+ * <p>
+ * The six planes are taken from the rows of the projection times camera
+ * matrix, so they follow whatever {@link Camera} and projection the
+ * {@link framework.engine.Scene Scene} set up, perspective or orthographic.
+ * Call {@link #update(PGraphics)} once the camera is set up for the frame.
+ */
+public class Frustum {
+
+	// Planes a x + b y + c z + d >= 0 inside: left, right, bottom, top, near, far
+	private final float[] planes = new float[24];
+	// Clip w of a world position, the view depth for perspective projections
+	private float wx, wy, wz, ww;
+	// Pixels per world unit at a clip w of 1
+	private float pixelScale = 1.f;
+	private boolean valid = false;
+
+	private final PMatrix3D matrix = new PMatrix3D();
+
+	/**
+	 * Takes the planes from the current projection and camera of a renderer.
+	 * Renderers without them (not OpenGL) make every sphere visible.
+	 */
+	public void update(PGraphics g){
+		if( !(g instanceof PGraphicsOpenGL) ){
+			valid = false;
+			return;
+		}
+		PGraphicsOpenGL pg = (PGraphicsOpenGL)g;
+		matrix.set(pg.projection);
+		matrix.apply(pg.camera);
+		PMatrix3D m = matrix;
+		setPlane(0, m.m30 + m.m00, m.m31 + m.m01, m.m32 + m.m02, m.m33 + m.m03);
+		setPlane(1, m.m30 - m.m00, m.m31 - m.m01, m.m32 - m.m02, m.m33 - m.m03);
+		setPlane(2, m.m30 + m.m10, m.m31 + m.m11, m.m32 + m.m12, m.m33 + m.m13);
+		setPlane(3, m.m30 - m.m10, m.m31 - m.m11, m.m32 - m.m12, m.m33 - m.m13);
+		setPlane(4, m.m30 + m.m20, m.m31 + m.m21, m.m32 + m.m22, m.m33 + m.m23);
+		setPlane(5, m.m30 - m.m20, m.m31 - m.m21, m.m32 - m.m22, m.m33 - m.m23);
+		wx = m.m30;
+		wy = m.m31;
+		wz = m.m32;
+		ww = m.m33;
+		pixelScale = Math.abs(pg.projection.m11) * g.height / 2.f;
+		valid = true;
+	}
+
+	private void setPlane(int p, float a, float b, float c, float d){
+		float length = (float)Math.sqrt(a * a + b * b + c * c);
+		if( length > 0.f ){
+			a /= length;
+			b /= length;
+			c /= length;
+			d /= length;
+		}
+		planes[4 * p] = a;
+		planes[4 * p + 1] = b;
+		planes[4 * p + 2] = c;
+		planes[4 * p + 3] = d;
+	}
+
+	/**
+	 * @return False if the sphere is completely outside the view volume.
+	 */
+	public boolean isVisible(float x, float y, float z, float radius){
+		if( !valid ){
+			return true;
+		}
+		for( int p = 0; p < 24; p += 4 ){
+			if( planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius ){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Approximate radius of a sphere on the screen in pixels, infinite
+	 * when the camera is inside it or it reaches behind the camera.
+	 */
+	public float getScreenRadius(float x, float y, float z, float radius){
+		if( !valid ){
+			return Float.POSITIVE_INFINITY;
+		}
+		float w = wx * x + wy * y + wz * z + ww;
+		// Orthographic projections have a clip w of 1 everywhere
+		float depth = wx == 0.f && wy == 0.f && wz == 0.f ? w : w - radius;
+		if( depth <= 0.f ){
+			return Float.POSITIVE_INFINITY;
+		}
+		return radius * pixelScale / depth;
+	}
+
+	/**
+	 * @return False until the frustum was taken from an OpenGL renderer.
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+}